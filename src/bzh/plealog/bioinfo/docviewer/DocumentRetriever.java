@@ -0,0 +1,245 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer;
+
+import java.io.File;
+import java.util.Properties;
+
+import com.plealog.genericapp.api.EZApplicationBranding;
+import com.plealog.genericapp.api.log.EZLogger;
+import com.plealog.genericapp.api.log.EZLoggerManager;
+
+import bzh.plealog.bioinfo.docviewer.api.BankProvider;
+import bzh.plealog.bioinfo.docviewer.api.BankType;
+import bzh.plealog.bioinfo.docviewer.api.QueryEngine;
+import bzh.plealog.bioinfo.docviewer.conf.DirManager;
+import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
+import bzh.plealog.bioinfo.docviewer.fetcher.DBAutoFetcher;
+import bzh.plealog.bioinfo.docviewer.fetcher.StreamFetchMonitor;
+import bzh.plealog.bioinfo.docviewer.service.ncbi.model.query.SimpleStringExpressionBuilder;
+import bzh.plealog.bioinfo.ui.blast.config.ConfigManager;
+
+/**
+ * Starter class of the batch sequence retrieval tool. This is the command-line
+ * counterpart of the DocumentViewer: it runs the same retrieval engine without
+ * any display, so that it can be used on compute servers.<br>
+ * <br>
+ * Sample use:<br>
+ * java -cp biodocviewer.jar bzh.plealog.bioinfo.docviewer.DocumentRetriever
+ * -provider NCBI -bank protein -query "insulin[TITL] AND human[ORGN]" -out
+ * insulin.fas -email john.doe@foo.org<br>
+ * <br>
+ * Progress is written on the standard output, as described in
+ * StreamFetchMonitor; logs are written on the standard error. An interrupted
+ * job is resumed when running the same command again. Exit code is 0 on
+ * success, 1 on invalid arguments and 2 if the job did not complete.
+ *
+ * @author Patrick G. Durand
+ */
+public class DocumentRetriever {
+  private static final String PROVIDER_ARG = "-provider";
+  private static final String BANK_ARG = "-bank";
+  private static final String QUERY_ARG = "-query";
+  private static final String OUT_ARG = "-out";
+  private static final String FULL_ARG = "-full";
+  private static final String EMAIL_ARG = "-email";
+  private static final String INTERVAL_ARG = "-interval";
+  private static final String RESTART_ARG = "-restart";
+  private static final String LIST_ARG = "-list";
+
+  private static final String USAGE = "Usage: DocumentRetriever -bank <code> -query <text> -out <file> "
+      + "[-provider <name>] [-email <address>] [-full] [-interval <seconds>] [-restart]\n"
+      + "       DocumentRetriever -list [-provider <name>]\n\n"
+      + "  -provider  bank provider: NCBI (default), EBI or ENSEMBL\n"
+      + "  -bank      code of the bank to query, see -list\n"
+      + "  -query     query, using the syntax of the provider\n"
+      + "  -out       file where to save the sequences\n"
+      + "  -email     email address sent to the provider. Can also be set using -D"
+      + DocViewerConfig.JVM_ARG_EMAIL + "\n"
+      + "  -full      retrieve full entries instead of Fasta sequences\n"
+      + "  -interval  min time between two progress lines, default is 5 seconds\n"
+      + "  -restart   go on when the server cannot be reached instead of stopping the job\n"
+      + "  -list      list the banks of the provider\n";
+
+  private static final int OK = 0;
+  private static final int BAD_ARGS = 1;
+  private static final int JOB_FAILED = 2;
+
+  private static void initialize() {
+    System.setProperty("java.awt.headless", "true");
+
+    // application branding is sent to the remote servers
+    Properties props = DocViewerConfig.getVersionProperties();
+    EZApplicationBranding.setAppName(props.getProperty("prg.app.name"));
+    EZApplicationBranding.setAppVersion(props.getProperty("prg.version"));
+    EZApplicationBranding.setCopyRight(props.getProperty("prg.copyright"));
+    EZApplicationBranding.setProviderName(props.getProperty("prg.provider"));
+
+    // logs go to the console only: standard output is kept for progress
+    EZLoggerManager.enableConsoleLogger(true);
+    EZLoggerManager.enableUILogger(false, 0);
+    DocViewerConfig.initLogLevel();
+    EZLoggerManager.initialize();
+
+    ConfigManager.addConfig(new DirManager());
+    DocViewerConfig.initHttpCache();
+  }
+
+  private static String getArg(String[] args, String name) {
+    for (int i = 0; i < args.length - 1; i++) {
+      if (args[i].equals(name))
+        return args[i + 1];
+    }
+    return null;
+  }
+
+  private static boolean hasArg(String[] args, String name) {
+    for (String arg : args) {
+      if (arg.equals(name))
+        return true;
+    }
+    return false;
+  }
+
+  private static int exit(String msg, int code) {
+    System.err.println(msg);
+    return code;
+  }
+
+  private static BankType getBank(BankProvider bp, String code) {
+    for (BankType bt : bp.getBanks()) {
+      if (bt.getCode().equalsIgnoreCase(code))
+        return bt;
+    }
+    return null;
+  }
+
+  private static int listBanks(BankProvider bp) {
+    for (BankType bt : bp.getBanks()) {
+      if (bt.enableSequenceRetrieval()) {
+        System.out.println(bt.getCode() + "\t" + bt.getUserName());
+      }
+    }
+    return OK;
+  }
+
+  /**
+   * Run the tool. Return the exit code.
+   */
+  public static int run(String[] args) {
+    final StreamFetchMonitor monitor;
+    final DBAutoFetcher fetcher;
+    BankProvider bp;
+    BankType bank;
+    SimpleStringExpressionBuilder query;
+    QueryEngine engine;
+    String provider, bankCode, text, out, email, interval;
+    long reportInterval;
+
+    provider = getArg(args, PROVIDER_ARG);
+    bankCode = getArg(args, BANK_ARG);
+    text = getArg(args, QUERY_ARG);
+    out = getArg(args, OUT_ARG);
+    email = getArg(args, EMAIL_ARG);
+    interval = getArg(args, INTERVAL_ARG);
+
+    if (!hasArg(args, LIST_ARG) && (bankCode == null || text == null || out == null)) {
+      return exit(USAGE, BAD_ARGS);
+    }
+    try {
+      reportInterval = interval != null ? Long.parseLong(interval) * 1000l : 5000l;
+    } catch (NumberFormatException e) {
+      return exit("Invalid interval: " + interval, BAD_ARGS);
+    }
+    if (provider == null) {
+      provider = "NCBI";
+    }
+    System.setProperty(DocViewerConfig.JVM_ARG_BK_PROVIDER, provider);
+    bp = DocViewerConfig.getBankProvider();
+    // unknown providers are replaced by the default one
+    if (!bp.getProviderName().equalsIgnoreCase(provider)) {
+      return exit("Unknown provider: " + provider, BAD_ARGS);
+    }
+    if (hasArg(args, LIST_ARG)) {
+      return listBanks(bp);
+    }
+    bank = getBank(bp, bankCode);
+    if (bank == null || !bank.enableSequenceRetrieval()) {
+      return exit("Unknown bank: " + bankCode + " (use " + LIST_ARG + ")", BAD_ARGS);
+    }
+    // the UI would ask for a missing or invalid email: not possible here
+    if (email == null) {
+      email = System.getProperty(DocViewerConfig.JVM_ARG_EMAIL);
+    }
+    if (email == null) {
+      return exit("Email address is missing: use " + EMAIL_ARG, BAD_ARGS);
+    }
+    try {
+      DocViewerConfig.setUserMail(email);
+    } catch (RuntimeException e) {
+      return exit("Invalid email: " + email, BAD_ARGS);
+    }
+
+    query = new SimpleStringExpressionBuilder();
+    query.setQuery(text);
+    engine = bank.prepareQueryEngine(query);
+
+    monitor = new StreamFetchMonitor(System.out, reportInterval);
+    monitor.setAutoRestart(hasArg(args, RESTART_ARG));
+    fetcher = new DBAutoFetcher(new File(out), engine, bank.getCode(), monitor, hasArg(args, FULL_ARG));
+    // on Ctrl-C, let the job save what it has already retrieved: it can be
+    // resumed later
+    Thread hook = new Thread() {
+      public void run() {
+        monitor.cancelJob();
+        try {
+          fetcher.join();
+        } catch (InterruptedException e) {
+        }
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(hook);
+    fetcher.start();
+    try {
+      fetcher.join();
+    } catch (InterruptedException e) {
+      monitor.cancelJob();
+    }
+    try {
+      Runtime.getRuntime().removeShutdownHook(hook);
+    } catch (IllegalStateException e) {
+      // already shutting down
+    }
+    if (monitor.getErrMsg() != null || monitor.interruptProcessing()) {
+      EZLogger.warn("Job did not complete: run the same command again to resume it");
+      return JOB_FAILED;
+    }
+    return OK;
+  }
+
+  /**
+   * Start the batch sequence retrieval tool.
+   */
+  public static void main(String[] args) {
+    int code;
+
+    initialize();
+    code = run(args);
+    // query engines rely on pools of threads
+    System.exit(code);
+  }
+}
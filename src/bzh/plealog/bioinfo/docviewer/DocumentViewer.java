@@ -53,9 +53,11 @@ import bzh.plealog.bioinfo.docviewer.api.BankProvider;
 import bzh.plealog.bioinfo.docviewer.api.BankType;
 import bzh.plealog.bioinfo.docviewer.conf.DirManager;
 import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
+import bzh.plealog.bioinfo.docviewer.fetcher.FetchJobScheduler;
 import bzh.plealog.bioinfo.docviewer.ui.actions.OpenFileAction;
 import bzh.plealog.bioinfo.docviewer.ui.actions.OpenSampleFileAction;
 import bzh.plealog.bioinfo.docviewer.ui.panels.DatabaseOpener;
+import bzh.plealog.bioinfo.docviewer.ui.panels.FetchJobsPanel;
 import bzh.plealog.bioinfo.docviewer.ui.panels.StatusBarHelperPanel;
 import bzh.plealog.bioinfo.docviewer.ui.resources.Messages;
 import bzh.plealog.bioinfo.ui.blast.config.ConfigManager;
@@ -116,6 +118,9 @@ public class DocumentViewer {
 
     // we setup the Directory Manager
     ConfigManager.addConfig(new DirManager());
+
+    // answers of remote servers are cached within the application directory
+    DocViewerConfig.initHttpCache();
     
     /*
      * notice: FilterSystemConfigurator provides BFilter factories. However,
@@ -194,8 +199,8 @@ public class DocumentViewer {
       return tBar;
     }
     private Component prepareDesktop() {
-      JPanel dpanel, mnuPnl;
-      JButton logBtn;
+      JPanel dpanel, mnuPnl, btnPnl;
+      JButton logBtn, jobsBtn;
 
       dpanel = new JPanel(new BorderLayout());
       mnuPnl = new JPanel(new BorderLayout());
@@ -213,8 +218,15 @@ public class DocumentViewer {
       //logBtn.setBorder(BorderFactory.createEmptyBorder(0, 15, 0, 0));
       logBtn.addActionListener(new ShowLoggerFrame());
 
+      jobsBtn = new JButton(Messages.getString("FetchJobsPanel.show.btn"));
+      jobsBtn.setToolTipText(Messages.getString("FetchJobsPanel.show.tip"));
+      jobsBtn.addActionListener(new ShowJobsFrame());
+
+      btnPnl = new JPanel(new BorderLayout());
+      btnPnl.add(jobsBtn, BorderLayout.WEST);
+      btnPnl.add(logBtn, BorderLayout.EAST);
       mnuPnl.add(menuBar, BorderLayout.WEST);
-      mnuPnl.add(logBtn, BorderLayout.EAST);
+      mnuPnl.add(btnPnl, BorderLayout.EAST);
       _btnPanel.add(mnuPnl, BorderLayout.EAST);
       _btnPanel.add(getToolbar(), BorderLayout.WEST);
       dpanel.add(_btnPanel, BorderLayout.NORTH);
@@ -334,4 +346,32 @@ public class DocumentViewer {
       frame.setBounds(rect);
     }
   }
+
+  /**
+   * Utility class to show the list of sequence retrieval jobs.
+   */
+  private static class ShowJobsFrame implements ActionListener {
+    private JFrame frame;
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+      if (frame == null) {
+        makeFrame();
+      }
+      frame.setVisible(!frame.isVisible());
+    }
+
+    private void makeFrame() {
+      int delta = 100;
+      frame = new JFrame(Messages.getString("FetchJobsPanel.title"));
+      frame.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+      Rectangle rect = EZEnvironment.getParentFrame().getBounds();
+      rect.x += delta;
+      rect.y += delta;
+      rect.width -= 2 * delta;
+      rect.height -= 2 * delta;
+      frame.getContentPane().add(new FetchJobsPanel(FetchJobScheduler.getDefault()));
+      frame.setBounds(rect);
+    }
+  }
 }
@@ -17,6 +17,7 @@
 package bzh.plealog.bioinfo.docviewer.api;
 
 import java.io.File;
+import java.io.InputStream;
 
 import bzh.plealog.bioinfo.api.filter.BFilter;
 
@@ -82,6 +83,20 @@ public interface BankType {
    */
   public Search getSearch(File f);
   
+  /**
+   * Same as getSummary(File) but data model is read directly from the answer
+   * coming from the remote server. This avoids storing that answer in a
+   * temporary file. Caller is responsible for closing the stream.
+   */
+  public Summary getSummary(InputStream is);
+  
+  /**
+   * Same as getSearch(File) but list of IDs is read directly from the answer
+   * coming from the remote server. This avoids storing that answer in a
+   * temporary file. Caller is responsible for closing the stream.
+   */
+  public Search getSearch(InputStream is);
+  
   /**
    * Prepare a query engine given a query.
    */
@@ -16,12 +16,21 @@
  */
 package bzh.plealog.bioinfo.docviewer.api;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 
 import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.docviewer.http.TempResource;
 
 /**
- * Defines the behavior of a component capable of querying a data provider.
+ * Defines the behavior of a component capable of querying a data provider.<br>
+ * <br>
+ * Methods getIds(), getSummary() and load() are blocking. Their asynchronous
+ * variants (e.g. getSummaryAsync()) are run by the shared QueryExecutor, so
+ * that several requests can be in flight at the same time; implementations
+ * of this interface have to be thread-safe.
  * 
  * @author Patrick G. Durand
  */
@@ -81,13 +90,124 @@ public interface QueryEngine {
    */
   public Summary getSummary(int from, int nb) ;
   
+  /**
+   * Enumerate the documents matching the query, with the smallest possible
+   * answer: only IDs and lengths of documents are returned, the latter being
+   * available through Search.getLength(). This is intended to be used by bulk
+   * retrieval processes, which do not need the summaries. Parameters from and
+   * nb have the same meaning as for getIds(int, int). Default implementation
+   * relies on getSummary(int, int).
+   *
+   * @return a Search object. Lengths are set to 0 when the server does not
+   * provide them.
+   */
+  public default Search enumerateIds(int from, int nb) {
+    Summary sum;
+    Search res;
+    String key;
+
+    sum = getSummary(from, nb);
+    key = getBankType().getPresentationModel().getLengthFieldKey();
+    res = new Search();
+    res.setFrom(sum.getFrom());
+    res.setTotal(sum.getTotal());
+    for (SummaryDoc doc : sum.getDocs()) {
+      res.addId(doc.getId(), doc.getInt(key, 0));
+    }
+    return res;
+  }
+
   /**
    * Returns the server configuration.
    */
   public ServerConfiguration getServerConfiguration();
   
   /**
-   * Load sequences from the remote server.
+   * Load sequences from the remote server. Caller has to close the returned
+   * resource as soon as it is not needed anymore.
+   */
+  public TempResource load(String ids, String dbCode, boolean fullEntryFormat);
+
+  /**
+   * Load sequences from the remote server and write them into a stream while
+   * they are received. Default implementation relies on load(String, String,
+   * boolean).
+   *
+   * @throws IOException if data cannot be written, or if the connection
+   * breaks while data is received
+   */
+  public default void load(String ids, String dbCode, boolean fullEntryFormat, OutputStream out)
+      throws IOException {
+    byte[] buffer = new byte[8192];
+    int n;
+
+    try (TempResource res = load(ids, dbCode, fullEntryFormat); InputStream is = res.getInputStream()) {
+      while ((n = is.read(buffer)) != -1) {
+        out.write(buffer, 0, n);
+      }
+    }
+  }
+
+  /**
+   * Figures out whether or not sequences of the query result can be loaded by
+   * range, i.e. without providing their IDs. Default implementation returns
+   * false.
+   *
+   * @param dbCode the database code used to load sequences
+   */
+  public default boolean canLoadRange(String dbCode) {
+    return false;
+  }
+
+  /**
+   * Load a range of sequences of the query result and write them into a
+   * stream while they are received. Default implementation gets the IDs of
+   * the range with getIds(), then loads them using load(String, ...). Query
+   * engines returning true from canLoadRange() override this method to load
+   * the range with a single request.
+   *
+   * @param from index of the first document within the query result.
+   * Zero-based value.
+   * @param nb number of documents
+   *
+   * @throws IOException if data cannot be written, or if the connection
+   * breaks while data is received
+   */
+  public default void load(int from, int nb, String dbCode, boolean fullEntryFormat, OutputStream out)
+      throws IOException {
+    Search res;
+
+    res = getIds(from, nb);
+    if (res.nbIds() == 0) {
+      return;
+    }
+    load(String.join(",", res.getIds()), dbCode, fullEntryFormat, out);
+  }
+
+  /**
+   * Asynchronous variant of getIds(int, int). Returned future completes with
+   * the exception raised by getIds(), if any.
+   */
+  public default CompletableFuture<Search> getIdsAsync(final int from, final int nb) {
+    return QueryExecutor.submit(() -> getIds(from, nb));
+  }
+
+  /**
+   * Asynchronous variant of getSummary(int, int). Returned future completes
+   * with the exception raised by getSummary(), if any.
+   */
+  public default CompletableFuture<Summary> getSummaryAsync(final int from, final int nb) {
+    return QueryExecutor.submit(() -> getSummary(from, nb));
+  }
+
+  /**
+   * Asynchronous variant of load(). Returned future completes with the
+   * exception raised by load(), if any. If that future is cancelled while
+   * sequences are being loaded, the resulting resource is closed
+   * automatically.
    */
-  public File load(String ids, String dbCode, boolean fullEntryFormat);
+  public default CompletableFuture<TempResource> loadAsync(final String ids, final String dbCode,
+      final boolean fullEntryFormat) {
+    return QueryExecutor.submit(() -> load(ids, dbCode, fullEntryFormat), TempResource::close);
+  }
 }
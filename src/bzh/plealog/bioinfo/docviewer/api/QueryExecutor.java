@@ -0,0 +1,144 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import bzh.plealog.bioinfo.docviewer.http.HTTPConnectionPool;
+
+/**
+ * The executor running asynchronous calls of QueryEngine objects.<br>
+ * <br>
+ * It is shared by all query engines. Its number of threads is bounded by the
+ * number of connections a single host accepts (see HTTPConnectionPool): more
+ * threads would only wait for a connection. Pending calls are queued; when the
+ * queue is full, a call fails with a RejectedExecutionException.<br>
+ * <br>
+ * Contrary to a standard CompletableFuture, cancelling a future returned by
+ * this class interrupts the thread running the call: waiting for a connection
+ * or for a rate limit slot is aborted. Cancelling a future derived from it
+ * (e.g. using thenApply()) does not.
+ *
+ * @author Patrick G. Durand
+ */
+public class QueryExecutor {
+  /** Max number of pending calls.*/
+  public static final int MAX_PENDING_CALLS = 256;
+
+  private static ThreadPoolExecutor _executor;
+
+  private QueryExecutor() {
+  }
+
+  private static synchronized ThreadPoolExecutor getExecutor() {
+    int nThreads;
+
+    if (_executor == null) {
+      nThreads = HTTPConnectionPool.getMaxConnectionsPerHost();
+      _executor = new ThreadPoolExecutor(nThreads, nThreads, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(MAX_PENDING_CALLS), new QueryThreadFactory());
+      _executor.allowCoreThreadTimeOut(true);
+    }
+    return _executor;
+  }
+
+  /**
+   * Run a call asynchronously.
+   */
+  public static <T> CompletableFuture<T> submit(Callable<T> call) {
+    return submit(call, null);
+  }
+
+  /**
+   * Run a call asynchronously.
+   *
+   * @param call the call
+   * @param discard used to release the result of the call when nobody can get
+   * it anymore, i.e. when the returned future has been cancelled while the
+   * call was running. Can be null.
+   */
+  public static <T> CompletableFuture<T> submit(final Callable<T> call, final Consumer<T> discard) {
+    final QueryFuture<T> result = new QueryFuture<>();
+
+    try {
+      result.task = getExecutor().submit(new Runnable() {
+        public void run() {
+          T value;
+          if (result.isDone())
+            return;
+          try {
+            value = call.call();
+          } catch (Throwable t) {
+            result.completeExceptionally(t);
+            return;
+          }
+          if (!result.complete(value) && discard != null && value != null) {
+            discard.accept(value);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /**
+   * Return the number of calls running or waiting to be run.
+   */
+  public static int getPendingCalls() {
+    ThreadPoolExecutor executor = getExecutor();
+    return executor.getActiveCount() + executor.getQueue().size();
+  }
+
+  /**
+   * A future able to interrupt the thread running its call.
+   */
+  private static class QueryFuture<T> extends CompletableFuture<T> {
+    private volatile Future<?> task;
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+      Future<?> t = task;
+      if (cancelled && t != null) {
+        t.cancel(true);
+      }
+      return cancelled;
+    }
+  }
+
+  private static class QueryThreadFactory implements ThreadFactory {
+    private AtomicInteger counter = new AtomicInteger();
+
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "QueryEngine-" + counter.incrementAndGet());
+      // do not prevent application from exiting
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.api;
+
+/**
+ * Reports that the result of a query has changed on the server side since it
+ * was first run, e.g. because documents have been added or removed meanwhile.
+ * Documents cannot be located by their index within that result anymore: they
+ * have to be loaded using their IDs.
+ * 
+ * @author Patrick G. Durand
+ */
+public class QueryResultChangedException extends QueryEngineException {
+  private static final long serialVersionUID = -2530846254467207716L;
+
+  public QueryResultChangedException(String msg) {
+    super(msg);
+  }
+}
@@ -33,8 +33,15 @@ public class Search {
   private int total;
   // error: not null when an error occurred while querying the remote server.
   private String error;
+  // history server session storing the result of the query on the remote
+  // server side (NCBI WebEnv and query_key). Null if not available.
+  private String webEnv;
+  private String queryKey;
 
   private List<String> ids;
+  // lengths of the documents, in the order of ids. Null when the remote
+  // server does not provide them.
+  private List<Integer> lengths;
 
   public Search() {
     ids = new ArrayList<String>();
@@ -42,6 +49,23 @@ public class Search {
 
   public void addId(String id) {
     ids.add(id);
+    if (lengths != null) {
+      lengths.add(0);
+    }
+  }
+
+  /**
+   * Add an ID with the length of its document.
+   */
+  public void addId(String id, int length) {
+    if (lengths == null) {
+      lengths = new ArrayList<Integer>();
+      for (int i = 0; i < ids.size(); i++) {
+        lengths.add(0);
+      }
+    }
+    ids.add(id);
+    lengths.add(length);
   }
 
   public int nbIds() {
@@ -52,6 +76,15 @@ public class Search {
     return ids.get(idx);
   }
 
+  /**
+   * Return the length of a document. Returns 0 if unknown.
+   */
+  public int getLength(int idx) {
+    if (lengths == null || idx >= lengths.size())
+      return 0;
+    return lengths.get(idx);
+  }
+
   public int getFrom() {
     return from;
   }
@@ -74,6 +107,7 @@ public class Search {
 
   public void setIds(List<String> ids) {
     this.ids = ids;
+    this.lengths = null;
   }
 
   public String getError() {
@@ -84,4 +118,20 @@ public class Search {
     this.error = error;
   }
 
+  public String getWebEnv() {
+    return webEnv;
+  }
+
+  public void setWebEnv(String webEnv) {
+    this.webEnv = webEnv;
+  }
+
+  public String getQueryKey() {
+    return queryKey;
+  }
+
+  public void setQueryKey(String queryKey) {
+    this.queryKey = queryKey;
+  }
+
 }
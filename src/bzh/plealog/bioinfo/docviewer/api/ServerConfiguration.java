@@ -28,11 +28,44 @@ public interface ServerConfiguration {
    */
   public int getSleepTimeBetweenRun();
 
+  /**
+   * Returns the max number of requests per second that can be sent to the
+   * remote server. This rate is enforced by the HTTP layer for all requests.
+   */
+  public double getRequestsPerSecond();
+
   /**
    * Returns the number of letters to retrieve in each batch connection.
    */
   public int getLettersPerRun();
 
+  /**
+   * Returns the number of batch connections that can run at the same time to
+   * retrieve sequences. These connections share the request rate returned by
+   * getRequestsPerSecond().
+   */
+  public int getDownloadWorkers();
+
+  /**
+   * Returns the bounds of the number of sequences to retrieve in each batch
+   * connection. Batch size is adapted within these bounds to the response time
+   * of the remote server. When both bounds equal getSequencesPerRun(), batch
+   * size is not adapted.
+   */
+  public int getMinSequencesPerRun();
+
+  public int getMaxSequencesPerRun();
+
+  /**
+   * Returns the bounds of the number of letters to retrieve in each batch
+   * connection. Batch size is adapted within these bounds to the response time
+   * of the remote server. When both bounds equal getLettersPerRun(), batch
+   * size is not adapted.
+   */
+  public int getMinLettersPerRun();
+
+  public int getMaxLettersPerRun();
+
   /**
    * Figures out whether or not remote server is available.
    */
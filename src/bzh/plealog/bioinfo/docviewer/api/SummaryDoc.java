@@ -16,55 +16,238 @@
  */
 package bzh.plealog.bioinfo.docviewer.api;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema.Column;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema.ColumnType;
 
 /**
- * This class contains a summary document. Be very careful when updating this
- * class since it is used to serialize objects of this class using an XML
- * framework.
+ * This class contains a summary document.<br>
+ * <br>
+ * DocSum XML documents produced by NCBI-EUtils "esummary" have variable
+ * content. So, we use a key/value storage system to adapt easily that DocSum
+ * content to this software. Values are stored in compact arrays indexed by the
+ * columns of a SummaryDocSchema: numeric and date values are stored as
+ * numbers, and can be read without any allocation using getInt() and
+ * getLong(). getValue() always returns the text form of a value. Values of
+ * keys the schema has no room for are kept in a table of the document.
  * 
  * @author Patrick G. Durand
  */
 public class SummaryDoc {
+  // marks numeric values that are not set
+  private static final long NO_VALUE = Long.MIN_VALUE;
+
+  private static final String[] NO_TEXTS = new String[0];
+  private static final long[] NO_NUMBERS = new long[0];
+
   /** Document ID */
   private String id;
-  
-  /** DocSum XML documents produced by NCBI-EUtils "esummary" have variable content. So,
-   * we use a key/value storage system to adapt easily that DocSum content to this 
-   * software. 
-   */
-  private Hashtable<String, String> values;
 
+  private SummaryDocSchema schema;
+  // indexed by Column.getIndex(). Also contains values of numeric columns
+  // that cannot be stored as numbers.
+  private String[] texts = NO_TEXTS;
+  // indexed by Column.getNumIndex()
+  private long[] numbers = NO_NUMBERS;
+  // values of keys without column, null if none
+  private Hashtable<String, String> extras;
+
+  /**
+   * Constructor. Document uses the default schema.
+   */
   public SummaryDoc() {
-    values = new Hashtable<String, String>();
+    this(SummaryDocSchema.DEFAULT);
   }
 
+  /**
+   * Constructor.
+   */
+  public SummaryDoc(SummaryDocSchema schema) {
+    this.schema = schema;
+  }
+
+  public SummaryDocSchema getSchema() {
+    return schema;
+  }
+
+  /**
+   * Return the number of values of this document.
+   */
   public int size() {
-    return values.size();
+    int n = 0;
+
+    for (String text : texts) {
+      if (text != null)
+        n++;
+    }
+    for (long number : numbers) {
+      if (number != NO_VALUE)
+        n++;
+    }
+    if (extras != null)
+      n += extras.size();
+    return n;
   }
 
+  /**
+   * Return a value in its text form. Returns null if not set.
+   */
   public String getValue(String key) {
-    return values.get(key);
+    Column column = schema.getColumn(key);
+    long number;
+
+    if (column == null)
+      return extras != null ? extras.get(key) : null;
+    if (column.isNumeric() && column.getNumIndex() < numbers.length) {
+      number = numbers[column.getNumIndex()];
+      if (number != NO_VALUE)
+        return format(number, column.getType());
+    }
+    return column.getIndex() < texts.length ? texts[column.getIndex()] : null;
+  }
+
+  /**
+   * Return a numeric value. For date columns, returns yyyyMMdd.
+   * 
+   * @param key the value key
+   * @param defaultValue value returned if not set or not a number
+   */
+  public long getLong(String key, long defaultValue) {
+    Column column = schema.getColumn(key);
+    String text;
+
+    if (column == null) {
+      text = extras != null ? extras.get(key) : null;
+    } else if (column.isNumeric() && column.getNumIndex() < numbers.length
+        && numbers[column.getNumIndex()] != NO_VALUE) {
+      return numbers[column.getNumIndex()];
+    } else {
+      text = column.getIndex() < texts.length ? texts[column.getIndex()] : null;
+    }
+    if (text == null)
+      return defaultValue;
+    try {
+      return Long.parseLong(text.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Return a numeric value. For date columns, returns yyyyMMdd.
+   * 
+   * @param key the value key
+   * @param defaultValue value returned if not set or not a number
+   */
+  public int getInt(String key, int defaultValue) {
+    long value = getLong(key, NO_VALUE);
+
+    if (value == NO_VALUE || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+      return defaultValue;
+    return (int) value;
   }
 
+  /**
+   * Return the keys of the values of this document.
+   */
   public Enumeration<String> getKeys() {
-    return values.keys();
+    List<String> keys = new ArrayList<>();
+    Column column;
+
+    for (int i = 0; i < schema.size(); i++) {
+      column = schema.getColumn(i);
+      if (getValue(column.getKey()) != null)
+        keys.add(column.getKey());
+    }
+    if (extras != null)
+      keys.addAll(extras.keySet());
+    return Collections.enumeration(keys);
   }
 
   public void clear() {
-    values.clear();
+    Arrays.fill(texts, null);
+    Arrays.fill(numbers, NO_VALUE);
+    extras = null;
   }
 
+  /**
+   * Set a value. Null values are ignored.
+   */
   public void add(String key, String value) {
-    values.put(key, value);
+    Column column;
+    long number;
+
+    if (value == null)
+      return;
+    column = schema.getOrAddColumn(key);
+    if (column == null) {
+      if (extras == null)
+        extras = new Hashtable<>();
+      extras.put(key, value);
+      return;
+    }
+    if (column.isNumeric()) {
+      number = parse(value, column.getType());
+      if (number != NO_VALUE) {
+        setNumber(column, number);
+        setText(column, null);
+        return;
+      }
+      // e.g. a date with a time: keep it as text
+      setNumber(column, NO_VALUE);
+    } else if (column.getType() == ColumnType.SHARED_TEXT) {
+      value = schema.share(value);
+    }
+    setText(column, value);
+  }
+
+  private void setText(Column column, String value) {
+    if (column.getIndex() >= texts.length) {
+      if (value == null)
+        return;
+      // schema may have grown since this document has been created
+      texts = Arrays.copyOf(texts, schema.size());
+    }
+    texts[column.getIndex()] = value;
+  }
+
+  private void setNumber(Column column, long value) {
+    int oldSize;
+
+    if (column.getNumIndex() >= numbers.length) {
+      if (value == NO_VALUE)
+        return;
+      oldSize = numbers.length;
+      numbers = Arrays.copyOf(numbers, schema.getNbNumericColumns());
+      Arrays.fill(numbers, oldSize, numbers.length, NO_VALUE);
+    }
+    numbers[column.getNumIndex()] = value;
   }
 
   public String getId() {
     return id;
   }
 
+  /**
+   * Return a copy of the values of this document. Modifying the returned
+   * table does not modify this document.
+   */
   public Hashtable<String, String> getValues() {
+    Hashtable<String, String> values = new Hashtable<>();
+    Enumeration<String> keys = getKeys();
+    String key;
+
+    while (keys.hasMoreElements()) {
+      key = keys.nextElement();
+      values.put(key, getValue(key));
+    }
     return values;
   }
 
@@ -72,8 +255,70 @@ public class SummaryDoc {
     this.id = id;
   }
 
+  /**
+   * Replace the values of this document.
+   */
   public void setValues(Hashtable<String, String> values) {
-    this.values = values;
+    clear();
+    for (Map.Entry<String, String> entry : values.entrySet()) {
+      add(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Convert a value into a number. Only values that can be formatted back to
+   * the very same text are converted. Returns NO_VALUE otherwise.
+   */
+  private static long parse(String value, ColumnType type) {
+    long number;
+
+    if (type == ColumnType.DATE) {
+      if (value.length() != 10 || value.charAt(4) != '/' || value.charAt(7) != '/')
+        return NO_VALUE;
+      number = parseDigits(value, 0, 4);
+      number = number < 0 ? NO_VALUE : number * 100 + parseDigits(value, 5, 7);
+      number = number < 0 ? NO_VALUE : number * 100 + parseDigits(value, 8, 10);
+      return number < 0 ? NO_VALUE : number;
+    }
+    // canonical integers only: no sign, no leading zero, not too large
+    if (value.isEmpty() || value.length() > (type == ColumnType.INT ? 9 : 18)
+        || (value.charAt(0) == '0' && value.length() > 1)) {
+      return NO_VALUE;
+    }
+    number = parseDigits(value, 0, value.length());
+    return number < 0 ? NO_VALUE : number;
   }
 
+  /**
+   * Parse digits. Returns -1 if some characters are not digits.
+   */
+  private static long parseDigits(String value, int from, int to) {
+    long number = 0;
+    char ch;
+
+    for (int i = from; i < to; i++) {
+      ch = value.charAt(i);
+      if (ch < '0' || ch > '9')
+        return -1;
+      number = number * 10 + (ch - '0');
+    }
+    return number;
+  }
+
+  private static String format(long number, ColumnType type) {
+    char[] date;
+
+    if (type != ColumnType.DATE)
+      return Long.toString(number);
+    date = new char[10];
+    for (int i = 9; i >= 0; i--) {
+      if (i == 4 || i == 7) {
+        date[i] = '/';
+      } else {
+        date[i] = (char) ('0' + number % 10);
+        number /= 10;
+      }
+    }
+    return new String(date);
+  }
 }
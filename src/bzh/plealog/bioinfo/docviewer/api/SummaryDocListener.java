@@ -0,0 +1,32 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.api;
+
+/**
+ * Interface used to receive summary documents as soon as they are read,
+ * instead of waiting for a whole Summary to be loaded.
+ * 
+ * @author Patrick G. Durand
+ */
+public interface SummaryDocListener {
+  /**
+   * Method called each time a document has been read.
+   * 
+   * @param doc the document
+   */
+  public void docRead(SummaryDoc doc);
+}
@@ -43,6 +43,13 @@ public interface SummaryDocPresentationModel {
    * in a DbSummaryDoc.
    */
   public String getAccessionFieldKey();
+
+  /**
+   * Returns the schema of the SummaryDoc objects presented using this model.
+   */
+  public default SummaryDocSchema getSchema() {
+    return SummaryDocSchema.DEFAULT;
+  }
   
   /**
    * This method is called when it is required to save default column model.
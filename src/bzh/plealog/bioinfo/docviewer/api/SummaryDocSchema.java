@@ -0,0 +1,205 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.api;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Describes the columns of SummaryDoc objects: their keys and how their values
+ * are stored.<br>
+ * <br>
+ * Each SummaryDoc stores its values in arrays indexed by the columns of its
+ * schema, so that keys are not repeated in each document. Numeric and date
+ * columns are stored as numbers, and values of SHARED_TEXT columns, such as
+ * organisms, are stored once for all documents of the schema that are still in
+ * use. Keys not declared in a schema are added as TEXT columns the first time
+ * they are used, up to MAX_ADDED_COLUMNS; documents store the values of other
+ * keys on their own.
+ * 
+ * @author Patrick G. Durand
+ */
+public class SummaryDocSchema {
+  /**
+   * How values of a column are stored.
+   */
+  public enum ColumnType {
+    /** Any text. */
+    TEXT,
+    /** Text taking few different values over documents, e.g. organism. */
+    SHARED_TEXT,
+    /** Integer value. */
+    INT,
+    /** Long integer value. */
+    LONG,
+    /** Date formatted as yyyy/MM/dd. Stored as yyyyMMdd. */
+    DATE
+  }
+
+  /**
+   * Schema used by documents created without a schema. All its columns are
+   * TEXT columns.
+   */
+  public static final SummaryDocSchema DEFAULT = new SummaryDocSchema();
+
+  /**
+   * Maximum number of columns added to a schema by getOrAddColumn().
+   */
+  public static final int MAX_ADDED_COLUMNS = 128;
+
+  private ConcurrentHashMap<String, Column> _columns = new ConcurrentHashMap<>();
+  private List<Column> _columnList = new CopyOnWriteArrayList<>();
+  // values are released once no document uses them
+  private Map<String, WeakReference<String>> _sharedValues = new WeakHashMap<>();
+  private int _nbNumbers;
+  private int _nbAdded;
+
+  /**
+   * A column of a schema.
+   */
+  public static class Column {
+    private String _key;
+    private ColumnType _type;
+    private int _index;
+    private int _numIndex;
+
+    private Column(String key, ColumnType type, int index, int numIndex) {
+      _key = key;
+      _type = type;
+      _index = index;
+      _numIndex = numIndex;
+    }
+
+    public String getKey() {
+      return _key;
+    }
+
+    public ColumnType getType() {
+      return _type;
+    }
+
+    /**
+     * Return the index of the column within the schema.
+     */
+    public int getIndex() {
+      return _index;
+    }
+
+    /**
+     * Return the index of the column among numeric and date columns. Returns
+     * -1 for text columns.
+     */
+    public int getNumIndex() {
+      return _numIndex;
+    }
+
+    public boolean isNumeric() {
+      return _numIndex >= 0;
+    }
+  }
+
+  /**
+   * Add a column. Does nothing if that column already exists.
+   * 
+   * @return this schema
+   */
+  public synchronized SummaryDocSchema addColumn(String key, ColumnType type) {
+    Column column;
+    boolean numeric;
+
+    if (_columns.containsKey(key)) {
+      return this;
+    }
+    numeric = type == ColumnType.INT || type == ColumnType.LONG || type == ColumnType.DATE;
+    column = new Column(key, type, _columnList.size(), numeric ? _nbNumbers++ : -1);
+    _columnList.add(column);
+    _columns.put(key, column);
+    return this;
+  }
+
+  /**
+   * Return a column. Returns null if that column does not exist.
+   */
+  public Column getColumn(String key) {
+    return _columns.get(key);
+  }
+
+  /**
+   * Return a column. It is added as a TEXT column if it does not exist.
+   * Returns null if MAX_ADDED_COLUMNS columns have already been added this
+   * way: schemas are shared by all documents, they cannot grow forever.
+   */
+  public Column getOrAddColumn(String key) {
+    Column column = _columns.get(key);
+
+    if (column != null) {
+      return column;
+    }
+    synchronized (this) {
+      if (!_columns.containsKey(key)) {
+        if (_nbAdded >= MAX_ADDED_COLUMNS)
+          return null;
+        _nbAdded++;
+        addColumn(key, ColumnType.TEXT);
+      }
+      return _columns.get(key);
+    }
+  }
+
+  /**
+   * Return a column given its index.
+   */
+  public Column getColumn(int index) {
+    return _columnList.get(index);
+  }
+
+  /**
+   * Return the number of columns.
+   */
+  public int size() {
+    return _columnList.size();
+  }
+
+  /**
+   * Return the number of numeric and date columns.
+   */
+  public synchronized int getNbNumericColumns() {
+    return _nbNumbers;
+  }
+
+  /**
+   * Return the instance of a value shared by all documents of this schema.
+   */
+  public String share(String value) {
+    WeakReference<String> ref;
+    String shared;
+
+    synchronized (_sharedValues) {
+      ref = _sharedValues.get(value);
+      shared = ref != null ? ref.get() : null;
+      if (shared == null) {
+        _sharedValues.put(value, new WeakReference<>(value));
+        shared = value;
+      }
+    }
+    return shared;
+  }
+}
@@ -35,9 +35,11 @@ public class DirManager extends AbstractPropertiesConfig {
   public static final String  NAME       = "DirManager";
 
   private static final String DOC_DIR    = "documents";
+  private static final String HTTP_DIR   = "http-cache";
 
   private String              _appPath;
   private String              _docDataPath;
+  private String              _httpCachePath;
 
   /**
    * Default constructor.
@@ -112,6 +114,31 @@ public class DirManager extends AbstractPropertiesConfig {
 
     return _docDataPath;
   }
-  
+
+  /**
+   * Get the full path to the directory where the application caches answers
+   * of remote servers.
+   * 
+   * It is worth noting that the method will try to create that path if it does
+   * not exist.
+   * 
+   * @return a path. Note that path is terminated with OS-dependent path
+   *         separator character.
+   * 
+   * @throws IOException
+   *           if the method failed to create the path.
+   */
+  public String getHttpCachePath() throws IOException {
+    if (_httpCachePath != null)
+      return _httpCachePath;
+
+    _httpCachePath = getApplicationDataPath()
+        + EZFileUtils.terminatePath(HTTP_DIR);
+
+    createPath(_httpCachePath);
+
+    return _httpCachePath;
+  }
+
   
 }
@@ -17,6 +17,7 @@
 package bzh.plealog.bioinfo.docviewer.conf;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -30,10 +31,12 @@ import javax.swing.ImageIcon;
 
 import bzh.plealog.bioinfo.docviewer.api.BankProvider;
 import bzh.plealog.bioinfo.docviewer.api.BankType;
+import bzh.plealog.bioinfo.docviewer.http.HTTPResponseCache;
 import bzh.plealog.bioinfo.docviewer.service.ebi.EbiProvider;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.EnsemblProvider;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.EntrezProvider;
 import bzh.plealog.bioinfo.docviewer.ui.resources.Messages;
+import bzh.plealog.bioinfo.ui.blast.config.ConfigManager;
 
 import com.plealog.genericapp.api.EZEnvironment;
 import com.plealog.genericapp.api.file.EZFileTypes;
@@ -79,6 +82,28 @@ public class DocViewerConfig {
    * uses NCBI as default. Sample use: -DV_PROVIDER=EBI
    */
   public static final String                         JVM_ARG_BK_PROVIDER  = "V_PROVIDER";
+  /**
+   * JVM optional argument. Provide an NCBI API key. Using such a key enables
+   * to send up to 10 requests per second to NCBI instead of 3. Overrides value
+   * provided in NCBI configuration file. Sample use: -DV_NCBI_API_KEY=xxx<br>
+   * <br>
+   * See:<br>
+   * https://ncbiinsights.ncbi.nlm.nih.gov/2017/11/02/new-api-keys-for-the-e-utilities/
+   */
+  public static final String                         JVM_ARG_NCBI_API_KEY = "V_NCBI_API_KEY";
+  /**
+   * JVM optional argument. Provide the max size of the local cache of server
+   * answers, in megabytes. Use 0 to disable that cache. If not provided, size
+   * is 100 Mb. Sample use: -DV_HTTP_CACHE=500
+   */
+  public static final String                         JVM_ARG_HTTP_CACHE   = "V_HTTP_CACHE";
+  /**
+   * JVM optional argument. DTDs referred to by XML documents are never fetched
+   * from the network: known DTDs are read from a local catalog, others are
+   * ignored. Use strict to stop reading a document referring to a DTD missing
+   * from that catalog. Sample use: -DV_DTD=strict
+   */
+  public static final String                         JVM_ARG_DTD          = "V_DTD";
 
   /**
    * The following enables to add BankProvider as plugins. Simply design a new
@@ -180,6 +205,44 @@ public class DocViewerConfig {
     return USER_EMAIL;
   }
 
+  /**
+   * Get the NCBI API key provided on the command-line. Returns null if not
+   * provided.
+   */
+  public static String getNcbiApiKey() {
+    String key = System.getProperty(JVM_ARG_NCBI_API_KEY);
+    return key != null && !key.trim().isEmpty() ? key.trim() : null;
+  }
+
+  /**
+   * Get the max size of the local cache of server answers. Unit is byte.
+   */
+  public static long getHttpCacheSize() {
+    String size = System.getProperty(JVM_ARG_HTTP_CACHE);
+    if (size != null) {
+      try {
+        return Long.parseLong(size.trim()) * 1024l * 1024l;
+      } catch (NumberFormatException e) {
+        EZLogger.warn(String.format("%s: invalid value: %s", JVM_ARG_HTTP_CACHE, size));
+      }
+    }
+    return HTTPResponseCache.DEFAULT_MAX_SIZE;
+  }
+
+  /**
+   * Enable the local cache of server answers. Has to be called after
+   * DirManager has been registered within ConfigManager.
+   */
+  public static void initHttpCache() {
+    DirManager dmgr = (DirManager) ConfigManager.getConfig(DirManager.NAME);
+    try {
+      HTTPResponseCache.initialize(new File(dmgr.getHttpCachePath()), getHttpCacheSize());
+    } catch (IOException e) {
+      // not a fatal error: answers are not cached, that's all
+      EZLogger.warn(e.toString());
+    }
+  }
+
   public static void setUserMail(String email) {
     if (!isValidEmail(email)) {
       throw new RuntimeException("invalid email");
@@ -0,0 +1,204 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.fetcher;
+
+import com.plealog.genericapp.api.log.EZLogger;
+
+import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
+import bzh.plealog.bioinfo.docviewer.http.HTTPBasicEngine;
+
+/**
+ * Adapt the size of the sequence batches to the behavior of the remote
+ * server. Two limits are controlled: the number of IDs and the number of
+ * letters per request. They are bounded by the values returned by
+ * ServerConfiguration.<br>
+ * <br>
+ * An AIMD (additive increase, multiplicative decrease) scheme is used:
+ * <ul>
+ * <li>when a full batch is answered quickly, the limit it reached grows by a
+ * tenth of its range, as long as the response time of the larger batch,
+ * estimated from the one just measured, remains below the target time;</li>
+ * <li>when a batch is answered slowly, or has to be retried, both limits are
+ * halved.</li>
+ * </ul>
+ * The target time is a quarter of HTTPBasicEngine.SOCKET_TIMEOUT, so that a
+ * batch stays far from a timeout. Several batches are downloaded at the same
+ * time: only the batches sized using the current limits can decrease them,
+ * so that a single slow period halves them once.<br>
+ * <br>
+ * The size of the answers, in bytes, is only used for statistics: batches are
+ * sized before being sent, using IDs and letters, and the response time
+ * already reflects the amount of data the server had to send.
+ *
+ * @author Patrick G. Durand
+ */
+public class AdaptiveBatchController {
+  private static final int INCREASE_STEPS = 10;
+  private static final double DECREASE_FACTOR = 0.5;
+
+  private static final String GROW_MSG = "Batch size: %d IDs, %d letters (%s)";
+  private static final String SHRINK_MSG = "Batch size reduced: %d IDs, %d letters (%s)";
+  private static final String STAT_MSG = "Batch requests: %d, retries: %d, %d bytes in %d ms";
+
+  private int _minIds, _maxIds, _ids, _idsStep;
+  private int _minLetters, _maxLetters, _letters, _lettersStep;
+  // incremented each time limits decrease
+  private int _generation;
+  private long _requests, _retries, _bytes, _time;
+
+  /**
+   * Constructor. Limits start from ServerConfiguration.getSequencesPerRun() and
+   * getLettersPerRun().
+   */
+  public AdaptiveBatchController(ServerConfiguration conf) {
+    _minIds = Math.max(1, conf.getMinSequencesPerRun());
+    _maxIds = Math.max(_minIds, conf.getMaxSequencesPerRun());
+    _ids = clamp(conf.getSequencesPerRun(), _minIds, _maxIds);
+    _idsStep = Math.max(1, (_maxIds - _minIds) / INCREASE_STEPS);
+    _minLetters = Math.max(1, conf.getMinLettersPerRun());
+    _maxLetters = Math.max(_minLetters, conf.getMaxLettersPerRun());
+    _letters = clamp(conf.getLettersPerRun(), _minLetters, _maxLetters);
+    _lettersStep = Math.max(1, (_maxLetters - _minLetters) / INCREASE_STEPS);
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  /**
+   * Figures out whether or not limits can change.
+   */
+  public boolean isAdaptive() {
+    return _minIds < _maxIds || _minLetters < _maxLetters;
+  }
+
+  /**
+   * Return the current max number of IDs per request.
+   */
+  public synchronized int getSequencesPerRun() {
+    return _ids;
+  }
+
+  /**
+   * Return the current max number of letters per request.
+   */
+  public synchronized int getLettersPerRun() {
+    return _letters;
+  }
+
+  /**
+   * Return a value identifying the current limits. To be stored with a batch
+   * and provided when reporting its result.
+   */
+  public synchronized int getGeneration() {
+    return _generation;
+  }
+
+  /**
+   * Return the response time under which batches can grow, in milliseconds.
+   */
+  public long getTargetTime() {
+    return HTTPBasicEngine.SOCKET_TIMEOUT / 4;
+  }
+
+  /**
+   * Report a batch answered by the server.
+   *
+   * @param generation value returned by getGeneration() when the batch was
+   * sized
+   * @param ndocs number of IDs of the batch
+   * @param letters number of letters of the batch, 0 if unknown
+   * @param bytes size of the answer
+   * @param time response time, in milliseconds, retries included
+   * @param retries number of failed attempts before the answer
+   */
+  public synchronized void success(int generation, int ndocs, long letters, long bytes, long time, int retries) {
+    long target = getTargetTime();
+    String reason;
+    int ids, lets;
+
+    _requests++;
+    _retries += retries;
+    _bytes += bytes;
+    _time += time;
+    if (retries != 0) {
+      decrease(generation, String.format("%d retries", retries));
+      return;
+    }
+    if (time > target) {
+      decrease(generation, String.format("%d IDs, %d bytes in %d ms", ndocs, bytes, time));
+      return;
+    }
+    // only grow a limit the batch has reached: growing the other one would
+    // have no effect
+    ids = _ids;
+    if (ndocs >= _ids && _ids < _maxIds) {
+      ids = Math.min(_maxIds, _ids + _idsStep);
+      if (time * ids / ndocs > target)
+        ids = _ids;
+    }
+    lets = _letters;
+    if (letters >= _letters && _letters < _maxLetters) {
+      lets = Math.min(_maxLetters, _letters + _lettersStep);
+      if (time * lets / letters > target)
+        lets = _letters;
+    }
+    if (ids != _ids || lets != _letters) {
+      _ids = ids;
+      _letters = lets;
+      reason = String.format("%d IDs, %d bytes in %d ms", ndocs, bytes, time);
+      EZLogger.debug(String.format(GROW_MSG, _ids, _letters, reason));
+    }
+  }
+
+  /**
+   * Report a batch that could not be retrieved.
+   *
+   * @param generation value returned by getGeneration() when the batch was
+   * sized
+   * @param retries number of failed attempts
+   */
+  public synchronized void failure(int generation, int retries) {
+    _requests++;
+    _retries += retries;
+    decrease(generation, "request failed");
+  }
+
+  private void decrease(int generation, String reason) {
+    int ids, lets;
+
+    // limits already decreased since this batch was sized
+    if (generation != _generation)
+      return;
+    ids = Math.max(_minIds, (int) (_ids * DECREASE_FACTOR));
+    lets = Math.max(_minLetters, (int) (_letters * DECREASE_FACTOR));
+    if (ids != _ids || lets != _letters) {
+      _ids = ids;
+      _letters = lets;
+      _generation++;
+      EZLogger.info(String.format(SHRINK_MSG, _ids, _letters, reason));
+    }
+  }
+
+  /**
+   * Dump statistics using the logger. Debug level is used.
+   */
+  public synchronized void dumpStatistics() {
+    EZLogger.debug(String.format(STAT_MSG, _requests, _retries, _bytes, _time));
+    EZLogger.debug(String.format(GROW_MSG, _ids, _letters, "final"));
+  }
+}
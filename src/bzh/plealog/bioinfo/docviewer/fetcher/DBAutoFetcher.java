@@ -17,27 +17,36 @@
 package bzh.plealog.bioinfo.docviewer.fetcher;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import com.plealog.genericapp.api.log.EZLogger;
 
 import bzh.plealog.bioinfo.docviewer.api.QueryEngine;
-import bzh.plealog.bioinfo.docviewer.api.Summary;
-import bzh.plealog.bioinfo.docviewer.api.SummaryDoc;
+import bzh.plealog.bioinfo.docviewer.api.Search;
 import bzh.plealog.bioinfo.docviewer.ui.resources.Messages;
 
 /**
  * This class is designed to automatically retrieve a set of sequences in batch
- * mode.
+ * mode.<br>
+ * <br>
+ * Progress is recorded in a FetchJournal stored next to the target file: if a
+ * job is interrupted (network outage, application closed, crash), running it
+ * again with the same query and target file resumes it from the last
+ * sequences saved on disk. If the query result has changed in the meantime,
+ * the job restarts from scratch.
  * 
  * @author Patrick G. Durand
  */
 public class DBAutoFetcher extends Thread {
+  private static final String RESTART_MSG = "Retrieval job restarts from the first document";
+  private static final String CHANGED_MSG = "Query result has changed during retrieval: %d documents instead of %d";
+
   private QueryEngine _engine;
   private File _targetFile;
   private String _dbCode;
-  private SeqRetrieverMonitor _monitor;
+  private FetchMonitor _monitor;
   private boolean _fullEntryFormat;
 
   /**
@@ -55,7 +64,7 @@ public class DBAutoFetcher extends Thread {
    *          the object used to monitor the fetching process
    */
   public DBAutoFetcher(File targetFile, QueryEngine engine, String dbCode,
-      SeqRetrieverMonitor monitor, boolean fullEntryFormat) {
+      FetchMonitor monitor, boolean fullEntryFormat) {
     _engine = engine;
     _targetFile = targetFile;
     _dbCode = dbCode;
@@ -63,32 +72,76 @@ public class DBAutoFetcher extends Thread {
     _fullEntryFormat = fullEntryFormat;
   }
 
-  private List<DocFetcherUtils.DocSum> getDocs(Summary curDocs) {
+  private List<DocFetcherUtils.DocSum> getDocs(Search curDocs) {
     ArrayList<DocFetcherUtils.DocSum> docs = new ArrayList<DocFetcherUtils.DocSum>();
-    String data;
 
-    for (SummaryDoc doc : curDocs.getDocs()) {
-      data = doc.getValue(_engine.getBankType().getPresentationModel().getLengthFieldKey());
-      docs.add(new DocFetcherUtils.DocSum(doc.getId(), (data != null ? Integer.valueOf(data) : 0)));
+    for (int i = 0; i < curDocs.nbIds(); i++) {
+      docs.add(new DocFetcherUtils.DocSum(curDocs.getId(i), curDocs.getLength(i)));
     }
     return docs;
   }
 
+  /**
+   * Check the number of documents of the query result against the journal.
+   * If it has changed, job restarts from scratch.
+   *
+   * @return false if the journal cannot be used anymore.
+   */
+  private boolean checkTotal(FetchJournal journal, int totDocs) {
+    try {
+      if (!journal.setTotal(totDocs)) {
+        EZLogger.warn(RESTART_MSG);
+        journal.restart();
+        journal.setTotal(totDocs);
+      }
+      return true;
+    } catch (IOException e) {
+      // job can still run, but it won't be resumable
+      EZLogger.warn(e.toString());
+      journal.close();
+      return false;
+    }
+  }
+
+  private FetchPipeline startPipeline(FetchJournal journal) {
+    // pages are fetched while sequences of previous pages are downloaded
+    FetchPipeline pipeline = new FetchPipeline(_targetFile, _engine, _dbCode, _monitor, _fullEntryFormat, false);
+    if (journal != null) {
+      pipeline.setJournal(journal);
+    }
+    // pages are submitted in query order: sequences can be loaded from the
+    // query result stored on the server side, if any
+    pipeline.setQueryResultOrder(true);
+    pipeline.start();
+    return pipeline;
+  }
+
   public void run() {
-    Summary res;
-    String errMsg;
-    int pageSize, nbDocs, totDocs, counter;
-    boolean bFirst = true;
+    FetchPipeline pipeline = null;
+    FetchJournal journal;
+    Search res;
+    String errMsg, pagingError = null;
+    RetryPolicy.RetryState retry;
+    int pageSize, nbDocs, totDocs;
+    long tick, pagingTime = 0;
 
     _monitor.startJob();
     pageSize = _engine.getServerConfiguration().getSequencesPerRun();
     EZLogger.debug(String.format("Sequences per run: %d", pageSize));
 
-    nbDocs = 0;
-    totDocs = 1;
-    if (_targetFile.exists()) {
-      _targetFile.delete();
+    try {
+      journal = FetchJournal.open(_targetFile, _engine, _dbCode, _fullEntryFormat, pageSize);
+    } catch (IOException e) {
+      // job can still run, but it won't be resumable
+      EZLogger.warn(e.toString());
+      journal = null;
+      if (_targetFile.exists()) {
+        _targetFile.delete();
+      }
     }
+    nbDocs = journal != null ? journal.getNextDocument() : 0;
+    // at least one page is requested to get the total number of documents
+    totDocs = nbDocs + 1;
     while (nbDocs < totDocs) {
       if (_monitor.interruptProcessing())
         break;
@@ -98,29 +151,28 @@ public class DBAutoFetcher extends Thread {
         } catch (InterruptedException e) {
         }
       } else {
-        counter = 0;
         res = null;
-        while (counter < DocFetcherUtils.RETRY) {
+        tick = System.currentTimeMillis();
+        retry = RetryPolicy.getDefault().newRetryState();
+        while (true) {
           try {
-            res = _engine.getSummary(nbDocs, pageSize);
+            // only IDs and lengths are needed here: summaries would waste
+            // the request rate shared with sequence downloads
+            res = _engine.enumerateIds(nbDocs, pageSize);
+            break;
           } catch (Exception e1) {
             EZLogger.warn(e1.toString());
+            if (!retry.canRetry(e1))
+              break;
           }
           if (_monitor.interruptProcessing())
             break;
-          // ok ?
-          if (res != null)
+          // transient error: retry after a while to get some data
+          EZLogger.info(String.format(DocFetcherUtils.ERR_4, "B", retry));
+          if (!retry.waitBeforeRetry(_monitor))
             break;
-          // if error, retry at most three times to get some data
-          counter++;
-          EZLogger.info(String.format(DocFetcherUtils.ERR_4, "B", counter, DocFetcherUtils.RETRY));
-          try {
-            //when we are retrying to connect server, do wait a little more than server configuration
-            EZLogger.debug(String.format("syswait: %d ms", DocFetcherUtils.SLEEP_TIME_RETRY));
-            Thread.sleep(DocFetcherUtils.SLEEP_TIME_RETRY);
-          } catch (InterruptedException e) {
-          }
         }
+        pagingTime += System.currentTimeMillis() - tick;
         if (_monitor.interruptProcessing())
           break;
         if (res == null) {
@@ -128,34 +180,74 @@ public class DBAutoFetcher extends Thread {
           EZLogger.warn(Messages.getString("DatabaseOpener.lbl8"));
           _monitor.pauseJob();
         } else {
-          if (bFirst) {
-            bFirst = false;
+          if (pipeline == null) {
             totDocs = res.getTotal();
+            // document indexes of the journal are only valid if the query
+            // result has not changed since the job was interrupted
+            if (journal != null && !checkTotal(journal, totDocs)) {
+              journal = null;
+              _targetFile.delete();
+            }
+            if (nbDocs != (journal != null ? journal.getNextDocument() : 0)) {
+              // job restarts from scratch: get first page again
+              nbDocs = 0;
+              totDocs = 1;
+              continue;
+            }
             _monitor.setTotSteps(totDocs);
+            if (nbDocs != 0) {
+              _monitor.setCurSteps(nbDocs);
+            }
+            pipeline = startPipeline(journal);
+          } else if (res.getTotal() != totDocs) {
+            // e.g. the query has been run again because its result expired
+            // on the server side: next pages would skip or repeat documents.
+            // Journal is kept: resuming the job restarts it
+            pagingError = String.format(CHANGED_MSG, res.getTotal(), totDocs);
+            break;
           }
-          errMsg = DocFetcherUtils.doFetchJob(_targetFile, _engine, getDocs(res), _dbCode, _monitor, _fullEntryFormat);
-
-          nbDocs += res.nbDocs();
-          _monitor.setCurSteps(nbDocs);
-
-          if (errMsg != null) {
-            EZLogger.warn("Error while retrieving sequence : " + errMsg);
-            _monitor.pauseJob();
-          }
+          // progress is reported by the pipeline once sequences are written
+          if (!pipeline.submit(getDocs(res)))
+            break;
+          nbDocs += res.nbIds();
         }
       }
     }
-    _monitor.setCurSteps(nbDocs);
+    if (pipeline == null) {
+      // job stopped before getting any document
+      pipeline = startPipeline(journal);
+    }
+    pipeline.addPagingTime(pagingTime);
+    errMsg = pipeline.finish();
+    if (errMsg == null) {
+      errMsg = pagingError;
+    }
+    if (errMsg != null) {
+      EZLogger.warn("Error while retrieving sequence : " + errMsg);
+      _monitor.setErrMsg(errMsg);
+    }
+    if (journal != null) {
+      // keep the journal of an incomplete job: it can be resumed
+      if (errMsg == null && !_monitor.interruptProcessing() && nbDocs >= totDocs) {
+        journal.delete();
+      } else {
+        journal.close();
+      }
+    }
     // we provide user with some information and let messages displayed
-    // for a few seconds
-    try {
-      Thread.sleep(1000);
-    } catch (InterruptedException e) {
+    // for a few seconds; nobody reads them without a UI
+    if (_monitor.isInteractive()) {
+      try {
+        Thread.sleep(1000);
+      } catch (InterruptedException e) {
+      }
     }
     _monitor.setMessage(Messages.getString("DDXplorDocNavigator.lbl2"));
-    try {
-      Thread.sleep(3000);
-    } catch (InterruptedException e) {
+    if (_monitor.isInteractive()) {
+      try {
+        Thread.sleep(3000);
+      } catch (InterruptedException e) {
+      }
     }
 
     _monitor.jobDone();
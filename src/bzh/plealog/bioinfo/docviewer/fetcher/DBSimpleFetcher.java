@@ -34,7 +34,7 @@ public class DBSimpleFetcher extends Thread {
   private String dbCode;
   private File fasta;
   private QueryEngine sLoader;
-  private SeqRetrieverMonitor monitor;
+  private FetchMonitor monitor;
   private boolean fullEntryFormat;
 
   /**
@@ -58,7 +58,7 @@ public class DBSimpleFetcher extends Thread {
    *          the object used to monitor the fetching process
    */
   public DBSimpleFetcher(File fasta, QueryEngine sLoader, List<DocFetcherUtils.DocSum> docs, String dbCode,
-      SeqRetrieverMonitor monitor, boolean fullEntryFormat) {
+      FetchMonitor monitor, boolean fullEntryFormat) {
     this.docs = docs;
     this.dbCode = dbCode;
     this.fasta = fasta;
@@ -16,21 +16,21 @@
  */
 package bzh.plealog.bioinfo.docviewer.fetcher;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.util.Iterator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.List;
-
-import org.apache.commons.lang.StringUtils;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import bzh.plealog.bioinfo.docviewer.api.QueryEngine;
+import bzh.plealog.bioinfo.docviewer.api.QueryResultChangedException;
+import bzh.plealog.bioinfo.docviewer.http.TempResourceManager;
 
 import com.plealog.genericapp.api.log.EZLogger;
-import com.plealog.genericapp.api.log.EZLoggerManager;
-import com.plealog.genericapp.api.log.EZLoggerManager.LogLevel;
-import com.plealog.genericapp.ui.common.Utils;
 
 /**
  * This class contains some utility methods used by the sequence retrieval
@@ -41,130 +41,212 @@ import com.plealog.genericapp.ui.common.Utils;
 public class DocFetcherUtils {
 
   private static final String ERR_1 = "unable to retrieve sequences";
-  private static final String ERR_2 = "Server does not return expected number of sequences:\n%d instead of %d.";
-  private static final String ERR_3 = "Unable to append files.";
+  static final String ERR_2 = "Server does not return expected number of sequences:\n%d instead of %d.";
+  static final String ERR_3 = "Unable to append files.";
   
-  protected static final String ERR_4 = "retry (%s): %d/%d";
-  protected static final int RETRY = 3;
-  protected static final int SLEEP_TIME_RETRY = 5000;
+  protected static final String ERR_4 = "retry (%s): %s";
+  private static final String ERR_5 = "%d records instead of %d, split batch: %s";
+  private static final String ERR_6 = "%s: batch loaded using its IDs";
+
+  private static final String TMP_FILE_PREFIX = "seq";
 
   /**
-   * Sometimes the NCBI server returns an error message within an HTML page.
-   * Detect this and return false in that case. We also check that we have the
-   * valid number of sequences.
+   * Return the beginning of the first line of a sequence record. Returns null
+   * if records cannot be counted.
    */
-  private static int getNbSequenceInFile(File f, QueryEngine sLoader, boolean fullEntryFormat) {
-
-    String line, seed;
-    int counter = 0;
-
-    if (f.length() < 5l) {// empty file (5: takes into account some space/return
-                          // chars)
-      return 0;
+  private static String getRecordSeed(QueryEngine sLoader, boolean fullEntryFormat) {
+    if (!fullEntryFormat) {
+      return ">";
     }
-    if (fullEntryFormat) {
-      switch (sLoader.getBankType().getReaderType()) {
-      case EMBL:
-      case UNIPROT:
-        seed = "ID";
-        break;
-      case GENPEPT:
-      case GENBANK:
-        seed = "LOCUS";
-        break;
-      case FASTADNA:
-      case FASTAPROT:
-        seed = ">";
-        break;
-      default:
-        return 0;
-      }
-    } else {
-      seed = ">";
-    }
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f)))) {
-      while ((line = reader.readLine()) != null) {
-        if (line.length() == 0)
-          continue;
-        if (line.startsWith(seed)) {
-          counter++;
-        }
-      }
-    } catch (Exception e) {
-      EZLogger.warn(e.toString());
-      return 0;
+    switch (sLoader.getBankType().getReaderType()) {
+    case EMBL:
+    case UNIPROT:
+      return "ID";
+    case GENPEPT:
+    case GENBANK:
+      return "LOCUS";
+    case FASTADNA:
+    case FASTAPROT:
+      return ">";
+    default:
+      return null;
     }
-
-    return counter;
   }
 
-  private static void deleteTempFile(File tmpSeqFile){
-    if(EZLoggerManager.getLevel()!=LogLevel.debug){
-      // no debug mode: do not keep temp file, even if the underlying code that generated
-      // that file (HTTPBasicEngine actually) has set deleteOnExit flag.
-      tmpSeqFile.delete();
-    }
-  }
   /**
-   * Utility method. Check content of tmpSeqFile to ensure that we have indeed ndocs sequences. 
-   * If ok then merge tmpSeqFile with seqFile and return null. Return a not null string if error.
+   * Utility method. Append a downloaded batch to the channel of the sequence
+   * file. If something goes wrong, partially written data is removed from
+   * that file. Return a not null string if error.
    */
-  private static String processFile(File tmpSeqFile, File seqFile, QueryEngine sLoader, int ndocs,
-      boolean fullEntryFormat) {
-    String errMsg = null;
-    
-    int counter = getNbSequenceInFile(tmpSeqFile, sLoader, fullEntryFormat);
-    if (counter != ndocs) {
-      deleteTempFile(tmpSeqFile);
-      return String.format(ERR_2, counter, ndocs);
-    }
-    if (!Utils.appendFiles(tmpSeqFile.getAbsolutePath(), seqFile.getAbsolutePath(), true)){
-      errMsg = ERR_3;
+  static String appendBatch(FetchPipeline.FetchBatch batch, FileChannel seqFile) {
+    long pos = -1;
+
+    try {
+      pos = seqFile.size();
+      batch.data.transferTo(seqFile);
+    } catch (IOException e) {
+      EZLogger.warn(e.toString());
+      try {
+        if (pos >= 0) {
+          seqFile.truncate(pos);
+          seqFile.position(pos);
+        }
+      } catch (IOException e2) {
+        EZLogger.warn(e2.toString());
+      }
+      return ERR_3;
     }
-    deleteTempFile(tmpSeqFile);
-    return errMsg;
+    return null;
   }
 
   /**
-   * Utility method. Download a set of sequences.
+   * Utility method. Download a set of sequences. Records are counted while
+   * data is received: sometimes the NCBI server returns an error message
+   * within an HTML page, so we check that we have the valid number of
+   * sequences. The checksum of the data is computed too, for the job journal.
+   * Failed downloads are retried according to the default RetryPolicy. A
+   * batch is loaded using its IDs instead of its range if the query result
+   * has changed on the server side. On return, batch contains either the data
+   * or an error message, unless processing has been interrupted.
    */
-  private static void processLoading(LoadingShuttle shuttle, String ids, String dbCode, QueryEngine sLoader,
-      SeqRetrieverMonitor monitor, boolean fullEntryFormat) {
-    boolean bError = false;
-    int counter = 0;
-    File tmpSeqFile = null;
+  static void loadBatch(FetchPipeline.FetchBatch batch, QueryEngine sLoader, String dbCode,
+      FetchMonitor monitor, boolean fullEntryFormat) {
+    RetryPolicy.RetryState retry;
+    RecordCountingOutputStream counter;
+    CRC32 crc;
+    String seed;
 
-    shuttle.tmpSeqFile = null;
-    shuttle.status = LoadingShuttle.STATUS.PROGRESS;
+    retry = RetryPolicy.getDefault().newRetryState();
+    seed = getRecordSeed(sLoader, fullEntryFormat);
 
-    while (counter < RETRY) {
-      bError = false;
+    while (true) {
+      batch.data = TempResourceManager.create(TMP_FILE_PREFIX);
+      batch.attempts++;
       try {
-        tmpSeqFile = sLoader.load(ids, dbCode, fullEntryFormat);
-        shuttle.tmpSeqFile = tmpSeqFile;
-        shuttle.status = LoadingShuttle.STATUS.OK;
-        break;
+        crc = new CRC32();
+        try (OutputStream os = batch.data.getOutputStream()) {
+          counter = new RecordCountingOutputStream(new CheckedOutputStream(os, crc), seed);
+          if (batch.byRange) {
+            sLoader.load(batch.first, batch.ndocs, dbCode, fullEntryFormat, counter);
+          } else {
+            sLoader.load(batch.ids, dbCode, fullEntryFormat, counter);
+          }
+        }
+        batch.crc = crc.getValue();
+        batch.records = counter.getRecords();
+        batch.bytes = counter.getSize();
+        if (counter.getRecords() != batch.ndocs) {
+          batch.errMsg = String.format(ERR_2, counter.getRecords(), batch.ndocs);
+          batch.release();
+        }
+        return;
+      } catch (QueryResultChangedException e1) {
+        batch.release();
+        if (!batch.byRange) {
+          batch.errMsg = ERR_1;
+          return;
+        }
+        // the range does not match the batch anymore: use its IDs. This is
+        // not a failed attempt
+        EZLogger.info(String.format(ERR_6, e1.getMessage()));
+        batch.byRange = false;
+        batch.attempts--;
+        continue;
       } catch (Exception e1) {
-        bError = true;
+        batch.release();
         EZLogger.warn(e1.toString());
+        if (!retry.canRetry(e1)) {
+          batch.errMsg = ERR_1;
+          return;
+        }
       }
       if (monitor.interruptProcessing()) {
-        shuttle.status = LoadingShuttle.STATUS.INTERRUPTED;
-        break;
+        batch.interrupted = true;
+        return;
       }
-      // if error, retry at most three times to get some data
-      counter++;
-      EZLogger.info(String.format(ERR_4, "F", counter, RETRY));
-      try {
-        Thread.sleep(SLEEP_TIME_RETRY);
-      } catch (InterruptedException e) {
+      EZLogger.info(String.format(ERR_4, "F", retry));
+      if (!retry.waitBeforeRetry(monitor)) {
+        batch.interrupted = true;
+        return;
       }
     }
-    if (bError) {
-      shuttle.status = LoadingShuttle.STATUS.ERROR;
+  }
+
+  /**
+   * Utility method. Recover a batch for which the server returned fewer
+   * records than requested, e.g. because some IDs have been withdrawn. The
+   * batch is split recursively to isolate the missing IDs: the records of the
+   * other IDs are downloaded again and become the batch data, the missing IDs
+   * are stored in the batch unresolved list. If none of the IDs is returned
+   * any more, the batch is an error. On return, batch contains either the
+   * data or an error message, unless processing has been interrupted.
+   */
+  static void recoverBatch(FetchPipeline.FetchBatch batch, QueryEngine sLoader, String dbCode,
+      FetchMonitor monitor, boolean fullEntryFormat) {
+    String[] ids = batch.ids.split(",");
+    CRC32 crc = new CRC32();
+    boolean ok;
+
+    EZLogger.info(String.format(ERR_5, batch.records, batch.ndocs, batch.ids));
+    batch.release();
+    batch.errMsg = null;
+    batch.data = TempResourceManager.create(TMP_FILE_PREFIX);
+    try (OutputStream os = new CheckedOutputStream(batch.data.getOutputStream(), crc)) {
+      ok = bisect(batch, ids, 0, ids.length, os, sLoader, dbCode, monitor, fullEntryFormat);
+    } catch (IOException e) {
+      EZLogger.warn(e.toString());
+      batch.errMsg = ERR_3;
+      ok = false;
+    }
+    if (ok && batch.unresolved.size() == batch.ndocs) {
+      batch.errMsg = String.format(ERR_2, 0, batch.ndocs);
+      batch.records = 0;
+      ok = false;
+    }
+    if (!ok) {
+      batch.release();
+      return;
     }
+    batch.crc = crc.getValue();
+    batch.records = batch.ndocs - batch.unresolved.size();
   }
 
+  /**
+   * Load the IDs from..to-1 two halves at a time, splitting again the halves
+   * that do not return all their records. Data is written to os. Return false
+   * if recovery has failed.
+   */
+  private static boolean bisect(FetchPipeline.FetchBatch batch, String[] ids, int from, int to,
+      OutputStream os, QueryEngine sLoader, String dbCode, FetchMonitor monitor,
+      boolean fullEntryFormat) throws IOException {
+    FetchPipeline.FetchBatch half;
+    int[] bounds = { from, from + (to - from) / 2, to };
+
+    for (int i = 0; i < 2; i++) {
+      if (bounds[i] == bounds[i + 1])
+        continue;
+      half = new FetchPipeline.FetchBatch(-1, -1, String.join(",",
+          Arrays.copyOfRange(ids, bounds[i], bounds[i + 1])), bounds[i + 1] - bounds[i]);
+      loadBatch(half, sLoader, dbCode, monitor, fullEntryFormat);
+      if (half.isInterrupted()) {
+        batch.interrupted = true;
+        return false;
+      }
+      if (half.errMsg == null) {
+        half.data.transferTo(Channels.newChannel(os));
+        half.release();
+      } else if (!half.hasMissingRecords()) {
+        batch.errMsg = half.errMsg;
+        return false;
+      } else if (half.ndocs == 1) {
+        batch.unresolved.add(half.ids);
+      } else if (!bisect(batch, ids, bounds[i], bounds[i + 1], os, sLoader, dbCode, monitor,
+          fullEntryFormat)) {
+        return false;
+      }
+    }
+    return true;
+  }
 
   /**
    * Save a set of sequences in a file. All parameters are mandatory.
@@ -183,109 +265,14 @@ public class DocFetcherUtils {
    * @return null if success, otherwise an error message.
    */
   public static String doFetchJob(File seqFile, QueryEngine sLoader, List<DocSum> docs, String dbCode,
-      SeqRetrieverMonitor monitor, boolean fullEntryFormat) {
-    LoadingShuttle shuttle;
-    StringBuffer buf;
-    String str;
-    Iterator<DocSum> iter;
-    DocSum ds;
-    int totSize, steps, idProcessed, ndocs;
-
-    shuttle = new LoadingShuttle();
-    totSize = steps = idProcessed= 0;
-    buf = new StringBuffer();
-    iter = docs.iterator();
-
-    EZLogger.debug(String.format("Letters per run: %d", sLoader.getServerConfiguration().getLettersPerRun()));
-    // given a set of IDs, try to load set of sequences by set of
-    // sLoader.getServerConfiguration().getLettersPerRun() letters max.
-    // This was added to handle genomes: even a few IDs may correspond
-    // to a huge amount of sequence data.
-    while (iter.hasNext()) {
-      if (monitor.interruptProcessing())
-        return null;
-      // append seqID to retrieve...
-      ds = iter.next();
-      buf.append(ds.id);
-      totSize += ds.length;
-      steps++;
-      // ... and check whether or not these set of IDs refer to an amount of
-      // sequence letters exceeding server configuration
-      if (totSize >= sLoader.getServerConfiguration().getLettersPerRun()) {
-        // if yes: load sequences
-        str=buf.toString();
-        ndocs=StringUtils.countMatches(str, ",")+1;
-        EZLogger.debug("page: "+str);
-        processLoading(shuttle, str, dbCode, sLoader, monitor, fullEntryFormat);
-        // check what happened
-        if (shuttle.status.equals(LoadingShuttle.STATUS.ERROR)) {
-          return ERR_1;
-        } else if (shuttle.status.equals(LoadingShuttle.STATUS.INTERRUPTED)) {
-          return null;
-        }
-        // check tmpSeqFile content
-        str = processFile(shuttle.tmpSeqFile, seqFile, sLoader, ndocs, fullEntryFormat);
-        if (str != null) {
-          // something wrong?
-          return str;
-        }
-        idProcessed+=ndocs;
-        // proceed with remaining seqIDs...
-        monitor.addSteps(steps);
-        buf = new StringBuffer();
-        totSize = steps = 0;
-        // since we have made a successful call to remote server: wait for next batch
-        // to conform to recommendations of remote public service (NCBI, EBI, etc.)
-        try {
-          EZLogger.debug(String.format("wait: %d ms", sLoader.getServerConfiguration().getSleepTimeBetweenRun()));
-          Thread.sleep(sLoader.getServerConfiguration().getSleepTimeBetweenRun());
-        } catch (InterruptedException e) {
-        }
-      } else {
-        if (iter.hasNext() && totSize != 0) {
-          buf.append(",");
-        }
-      }
-    }
-    if (monitor.interruptProcessing())
-      return null;
-    // purge buffer if needed
-    if (buf.length() != 0) {
-      // if yes: load sequences
-      str=buf.toString();
-      ndocs=StringUtils.countMatches(str, ",")+1;
-      EZLogger.debug("purge: "+str);
-      processLoading(shuttle, str, dbCode, sLoader, monitor, fullEntryFormat);
-      // check what happened
-      if (shuttle.status.equals(LoadingShuttle.STATUS.ERROR)) {
-        return ERR_1;
-      } else if (shuttle.status.equals(LoadingShuttle.STATUS.INTERRUPTED)) {
-        return null;
-      }
-      // check tmpSeqFile content
-      str = processFile(shuttle.tmpSeqFile, seqFile, sLoader, ndocs, fullEntryFormat);
-      if (str != null) {
-        // something wrong?
-        return str;
-      }
-      idProcessed+=ndocs;
-    }
-    //final check: do we have downloaded all requested sequences
-    ndocs=docs.size();
-    if(idProcessed!=ndocs){
-      return String.format(ERR_2, idProcessed, ndocs);
-    }
-    else{
-      return null;
-    }
-  }
+      FetchMonitor monitor, boolean fullEntryFormat) {
+    FetchPipeline pipeline;
 
-  private static class LoadingShuttle {
-    enum STATUS {
-      OK, INTERRUPTED, ERROR, PROGRESS
-    }
-    File tmpSeqFile;
-    STATUS status;
+    // downloading a batch and appending the previous one to seqFile overlap
+    pipeline = new FetchPipeline(seqFile, sLoader, dbCode, monitor, fullEntryFormat, true);
+    pipeline.start();
+    pipeline.submit(docs);
+    return pipeline.finish();
   }
 
   public static class DocSum {
@@ -0,0 +1,188 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.fetcher;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import bzh.plealog.bioinfo.docviewer.api.QueryEngine;
+
+/**
+ * A sequence retrieval job handled by the FetchJobScheduler. A job wraps a
+ * fetcher (DBAutoFetcher or DBSimpleFetcher) and the monitor it reports to.
+ * Jobs are queued in the lane of their bank provider.
+ *
+ * @author Patrick G. Durand
+ */
+public class FetchJob {
+  /**
+   * Status of a job.
+   */
+  public enum State {
+    QUEUED, RUNNING, PAUSED, DONE, FAILED, CANCELLED
+  }
+
+  /**
+   * Priority of a job. Within a lane, jobs with a higher priority start
+   * first.
+   */
+  public enum Priority {
+    HIGH, NORMAL, LOW
+  }
+
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  private int _id;
+  private String _name;
+  private String _lane;
+  private Runnable _task;
+  private FetchMonitor _monitor;
+  private volatile Priority _priority = Priority.NORMAL;
+  private volatile State _state = State.QUEUED;
+  // queued job that cannot start until resumed
+  private volatile boolean _held;
+  // progress of a finished job: its monitor may be reused by another job
+  private int _curSteps = -1, _totSteps = -1;
+
+  /**
+   * Constructor.
+   *
+   * @param name name of the job, displayed to the user
+   * @param lane lane of the job, usually the bank provider name
+   * @param task the fetcher. Its run() method is called by the scheduler.
+   * @param monitor the monitor the fetcher reports to
+   */
+  public FetchJob(String name, String lane, Runnable task, FetchMonitor monitor) {
+    _id = COUNTER.incrementAndGet();
+    _name = name;
+    _lane = lane;
+    _task = task;
+    _monitor = monitor;
+  }
+
+  /**
+   * Create a job retrieving all the sequences matching the query of an
+   * engine.
+   */
+  public static FetchJob create(File targetFile, QueryEngine engine, String dbCode, FetchMonitor monitor,
+      boolean fullEntryFormat) {
+    return new FetchJob(targetFile.getName(), engine.getBankType().getProviderName(),
+        new DBAutoFetcher(targetFile, engine, dbCode, monitor, fullEntryFormat), monitor);
+  }
+
+  /**
+   * Create a job retrieving a set of sequences.
+   */
+  public static FetchJob create(File targetFile, QueryEngine engine, List<DocFetcherUtils.DocSum> docs,
+      String dbCode, FetchMonitor monitor, boolean fullEntryFormat) {
+    return new FetchJob(targetFile.getName(), engine.getBankType().getProviderName(),
+        new DBSimpleFetcher(targetFile, engine, docs, dbCode, monitor, fullEntryFormat), monitor);
+  }
+
+  public int getId() {
+    return _id;
+  }
+
+  public String getName() {
+    return _name;
+  }
+
+  public String getLane() {
+    return _lane;
+  }
+
+  public FetchMonitor getMonitor() {
+    return _monitor;
+  }
+
+  public Priority getPriority() {
+    return _priority;
+  }
+
+  void setPriority(Priority priority) {
+    _priority = priority;
+  }
+
+  /**
+   * Return the status of the job. A running job is reported as paused when
+   * its monitor is.
+   */
+  public State getState() {
+    State state = _state;
+
+    if ((state == State.RUNNING && _monitor.isPaused()) || (state == State.QUEUED && _held))
+      return State.PAUSED;
+    return state;
+  }
+
+  void setState(State state) {
+    _state = state;
+  }
+
+  /**
+   * Figures out whether or not the job is queued or running.
+   */
+  public boolean isActive() {
+    return _state == State.QUEUED || _state == State.RUNNING;
+  }
+
+  /**
+   * Return the number of documents retrieved so far.
+   */
+  public int getCurSteps() {
+    return _curSteps >= 0 ? _curSteps : _monitor.getCurSteps();
+  }
+
+  /**
+   * Return the number of documents to retrieve. Zero if not known yet.
+   */
+  public int getTotSteps() {
+    return _totSteps >= 0 ? _totSteps : _monitor.getTotSteps();
+  }
+
+  /**
+   * Record the progress of a job that has just finished.
+   */
+  void saveProgress() {
+    _curSteps = _monitor.getCurSteps();
+    _totSteps = _monitor.getTotSteps();
+  }
+
+  /**
+   * Figures out whether or not the job is running, paused or not.
+   */
+  boolean isRunning() {
+    return _state == State.RUNNING;
+  }
+
+  boolean isHeld() {
+    return _held;
+  }
+
+  void setHeld(boolean held) {
+    _held = held;
+  }
+
+  Runnable getTask() {
+    return _task;
+  }
+
+  public String toString() {
+    return String.format("#%d %s (%s)", _id, _name, _lane);
+  }
+}
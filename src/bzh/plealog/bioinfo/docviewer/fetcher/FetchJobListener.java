@@ -0,0 +1,31 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.fetcher;
+
+/**
+ * Interface used to listen to the jobs of the FetchJobScheduler.
+ *
+ * @author Patrick G. Durand
+ */
+public interface FetchJobListener {
+  /**
+   * Method called when a job is added to the scheduler, when its status or
+   * its priority changes, and when it is removed from the scheduler. This
+   * method is not called from the Swing event thread.
+   */
+  public void jobChanged(FetchJob job);
+}
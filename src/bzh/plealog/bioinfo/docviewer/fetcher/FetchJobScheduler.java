@@ -0,0 +1,313 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.fetcher;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.plealog.genericapp.api.log.EZLogger;
+
+/**
+ * The scheduler of the sequence retrieval jobs.<br>
+ * <br>
+ * Jobs are queued in lanes, one per bank provider. Each lane runs a limited
+ * number of jobs at the same time (one by default), so jobs targeting
+ * different providers run concurrently while jobs targeting the same provider
+ * wait for their turn. Within a lane, queued jobs start by priority, then in
+ * submission order. Running jobs of a provider share its request rate anyway:
+ * the rate limiter of HTTPBasicEngine is set per host.<br>
+ * <br>
+ * A job can be paused (a queued job does not start until resumed), resumed
+ * and cancelled.
+ *
+ * @author Patrick G. Durand
+ */
+public class FetchJobScheduler {
+  private static final int DEFAULT_LANE_SIZE = 1;
+
+  private static final String QUEUED_MSG = "Job queued: %s";
+  private static final String START_MSG = "Job started: %s";
+  private static final String END_MSG = "Job %s: %s";
+
+  private static FetchJobScheduler _default;
+
+  // all jobs, in submission order, until finished jobs are cleared
+  private List<FetchJob> _jobs = new ArrayList<>();
+  private Hashtable<String, Integer> _laneSizes = new Hashtable<>();
+  private Hashtable<String, Integer> _running = new Hashtable<>();
+  private List<FetchJobListener> _listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Return the scheduler shared by the application.
+   */
+  public static synchronized FetchJobScheduler getDefault() {
+    if (_default == null) {
+      _default = new FetchJobScheduler();
+    }
+    return _default;
+  }
+
+  public void addFetchJobListener(FetchJobListener listener) {
+    _listeners.add(listener);
+  }
+
+  public void removeFetchJobListener(FetchJobListener listener) {
+    _listeners.remove(listener);
+  }
+
+  private void fireJobChanged(FetchJob job) {
+    for (FetchJobListener listener : _listeners) {
+      listener.jobChanged(job);
+    }
+  }
+
+  /**
+   * Set the max number of jobs of a lane running at the same time.
+   */
+  public synchronized void setLaneSize(String lane, int size) {
+    _laneSizes.put(lane, Math.max(1, size));
+    schedule();
+  }
+
+  /**
+   * Return the max number of jobs of a lane running at the same time.
+   */
+  public synchronized int getLaneSize(String lane) {
+    Integer size = _laneSizes.get(lane);
+    return size != null ? size : DEFAULT_LANE_SIZE;
+  }
+
+  private int getRunning(String lane) {
+    Integer running = _running.get(lane);
+    return running != null ? running : 0;
+  }
+
+  /**
+   * Add a job. It starts as soon as its lane can run it.
+   */
+  public void submit(FetchJob job) {
+    synchronized (this) {
+      job.setState(FetchJob.State.QUEUED);
+      _jobs.add(job);
+      EZLogger.info(String.format(QUEUED_MSG, job));
+    }
+    fireJobChanged(job);
+    synchronized (this) {
+      schedule();
+    }
+  }
+
+  /**
+   * Start the queued jobs that can run.
+   */
+  private void schedule() {
+    FetchJob next;
+
+    for (String lane : getLanes()) {
+      while (getRunning(lane) < getLaneSize(lane) && (next = getNextJob(lane)) != null) {
+        start(next);
+      }
+    }
+  }
+
+  private List<String> getLanes() {
+    List<String> lanes = new ArrayList<>();
+
+    for (FetchJob job : _jobs) {
+      if (job.getState() == FetchJob.State.QUEUED && !lanes.contains(job.getLane()))
+        lanes.add(job.getLane());
+    }
+    return lanes;
+  }
+
+  /**
+   * Return the queued job of a lane to start first. Returns null if none.
+   */
+  private FetchJob getNextJob(String lane) {
+    FetchJob next = null;
+
+    for (FetchJob job : _jobs) {
+      if (!job.getLane().equals(lane) || job.getState() != FetchJob.State.QUEUED)
+        continue;
+      // ties: first submitted job wins
+      if (next == null || job.getPriority().compareTo(next.getPriority()) < 0)
+        next = job;
+    }
+    return next;
+  }
+
+  private void start(final FetchJob job) {
+    Thread thread;
+
+    job.setState(FetchJob.State.RUNNING);
+    _running.put(job.getLane(), getRunning(job.getLane()) + 1);
+    EZLogger.info(String.format(START_MSG, job));
+    thread = new Thread("FetchJob-" + job.getId()) {
+      public void run() {
+        fireJobChanged(job);
+        try {
+          // job may have been cancelled using its monitor while it was queued
+          if (!job.getMonitor().interruptProcessing()) {
+            job.getTask().run();
+          }
+        } catch (RuntimeException e) {
+          EZLogger.warn(e.toString());
+          job.getMonitor().setErrMsg(e.toString());
+        } finally {
+          finished(job);
+        }
+      }
+    };
+    thread.start();
+  }
+
+  private void finished(FetchJob job) {
+    FetchMonitor monitor = job.getMonitor();
+
+    synchronized (this) {
+      _running.put(job.getLane(), getRunning(job.getLane()) - 1);
+      job.saveProgress();
+      if (monitor.getErrMsg() != null) {
+        job.setState(FetchJob.State.FAILED);
+      } else if (monitor.interruptProcessing()) {
+        job.setState(FetchJob.State.CANCELLED);
+      } else {
+        job.setState(FetchJob.State.DONE);
+      }
+      EZLogger.info(String.format(END_MSG, job, job.getState()));
+    }
+    fireJobChanged(job);
+    synchronized (this) {
+      schedule();
+    }
+  }
+
+  /**
+   * Pause a job. A queued job does not start until it is resumed.
+   */
+  public void pause(FetchJob job) {
+    synchronized (this) {
+      switch (job.getState()) {
+      case QUEUED:
+        job.setHeld(true);
+        break;
+      case RUNNING:
+        job.getMonitor().pauseJob();
+        break;
+      default:
+        return;
+      }
+    }
+    fireJobChanged(job);
+  }
+
+  /**
+   * Resume a paused job.
+   */
+  public void resume(FetchJob job) {
+    synchronized (this) {
+      if (job.getState() != FetchJob.State.PAUSED)
+        return;
+      if (job.isActive() && job.isHeld()) {
+        job.setHeld(false);
+      } else {
+        job.getMonitor().restartJob();
+      }
+    }
+    fireJobChanged(job);
+    synchronized (this) {
+      schedule();
+    }
+  }
+
+  /**
+   * Cancel a job. A running job stops as soon as possible, keeping what it has
+   * already retrieved.
+   */
+  public void cancel(FetchJob job) {
+    synchronized (this) {
+      if (!job.isActive())
+        return;
+      job.getMonitor().cancelJob();
+      // running jobs are updated when they stop
+      if (job.isRunning())
+        return;
+      job.saveProgress();
+      job.setState(FetchJob.State.CANCELLED);
+    }
+    fireJobChanged(job);
+  }
+
+  /**
+   * Change the priority of a job. Only matters for queued jobs.
+   */
+  public void setPriority(FetchJob job, FetchJob.Priority priority) {
+    synchronized (this) {
+      job.setPriority(priority);
+    }
+    fireJobChanged(job);
+  }
+
+  /**
+   * Return all the jobs, in submission order.
+   */
+  public synchronized List<FetchJob> getJobs() {
+    return new ArrayList<>(_jobs);
+  }
+
+  /**
+   * Remove the jobs that are not queued nor running anymore.
+   */
+  public void clearFinishedJobs() {
+    List<FetchJob> removed = new ArrayList<>();
+
+    synchronized (this) {
+      for (FetchJob job : _jobs) {
+        if (!job.isActive())
+          removed.add(job);
+      }
+      _jobs.removeAll(removed);
+    }
+    for (FetchJob job : removed) {
+      fireJobChanged(job);
+    }
+  }
+
+  /**
+   * Figures out whether or not a monitor is used by a queued or running job.
+   */
+  public synchronized boolean isBusy(FetchMonitor monitor) {
+    for (FetchJob job : _jobs) {
+      if (job.getMonitor() == monitor && job.isActive())
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Figures out whether or not some jobs are queued or running.
+   */
+  public synchronized boolean hasActiveJobs() {
+    for (FetchJob job : _jobs) {
+      if (job.isActive())
+        return true;
+    }
+    return false;
+  }
+}
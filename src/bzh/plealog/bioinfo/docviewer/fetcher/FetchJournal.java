@@ -0,0 +1,464 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.fetcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.plealog.genericapp.api.log.EZLogger;
+
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.docviewer.api.QueryEngine;
+
+/**
+ * The journal of a sequence retrieval job. It is stored next to the output
+ * file (same name plus '.journal') and enables to resume a job after a
+ * network outage or an application restart.<br>
+ * <br>
+ * The journal starts with a description of the job (query, bank, database
+ * code, format, page size) and the number of documents of the query result,
+ * then it contains a line for each batch of
+ * sequences appended to the output file: index of its first document in the
+ * query result, number of documents, position and size in the output file,
+ * CRC32 of its data. A line is written once data has been forced to disk, and
+ * the journal is only appended to: a crash leaves, at worst, a partial last
+ * line that is ignored.<br>
+ * <br>
+ * When a job is resumed, the output file is truncated after the last batch
+ * that is recorded in the journal and whose checksum is correct; retrieval
+ * goes on from the next document. Document indexes are only valid if the
+ * query result has not changed in the meantime (see setTotal()): otherwise,
+ * the job has to restart from scratch.
+ *
+ * @author Patrick G. Durand
+ */
+public class FetchJournal {
+  /** Extension added to the output file name to get the journal file.*/
+  public static final String JOURNAL_EXT = ".journal";
+
+  private static final String HEADER = "# Sequence retrieval journal";
+  private static final String QUERY_KEY = "query";
+  private static final String BANK_KEY = "bank";
+  private static final String DB_KEY = "db";
+  private static final String FORMAT_KEY = "format";
+  private static final String PAGE_SIZE_KEY = "pageSize";
+  private static final String RANGE_KEY = "range";
+  private static final String TOTAL_KEY = "total";
+  private static final String FULL_FORMAT = "full";
+  private static final String FASTA_FORMAT = "fasta";
+  private static final String TMP_EXT = ".tmp";
+
+  private static final String RESUME_MSG = "Resume retrieval job: %d documents, %d bytes already retrieved";
+  private static final String MISMATCH_MSG = "Journal does not match retrieval job: %s";
+  private static final String CRC_MSG = "Invalid checksum in output file, position %d";
+  private static final String TOTAL_MSG = "Query result has changed since retrieval job was interrupted (%d documents, was %d)";
+
+  private File _journalFile;
+  private File _outputFile;
+  private Map<String, String> _header;
+  // number of documents of the query result, -1 if not known yet
+  private int _total = -1;
+  private List<Range> _ranges = new ArrayList<>();
+  private FileOutputStream _fos;
+  private Writer _writer;
+  private boolean _resumed;
+
+  private FetchJournal(File journalFile, File outputFile, Map<String, String> header) {
+    _journalFile = journalFile;
+    _outputFile = outputFile;
+    _header = header;
+  }
+
+  /**
+   * Return the journal file of an output file.
+   */
+  public static File getJournalFile(File outputFile) {
+    return new File(outputFile.getAbsolutePath() + JOURNAL_EXT);
+  }
+
+  /**
+   * Open the journal of a retrieval job. If output file has a journal
+   * describing the same job, it is resumed: the output file is truncated to
+   * the data validated by the journal. Otherwise, a new job starts: output
+   * file is deleted.
+   *
+   * @param outputFile where the sequences are saved
+   * @param engine the query engine
+   * @param dbCode the database code to query on the server side
+   * @param fullEntryFormat format of the sequences
+   * @param pageSize number of documents requested at once
+   */
+  public static FetchJournal open(File outputFile, QueryEngine engine, String dbCode, boolean fullEntryFormat,
+      int pageSize) throws IOException {
+    return open(outputFile, getQueryText(engine), engine.getBankType().getCode(), dbCode, fullEntryFormat,
+        pageSize);
+  }
+
+  /**
+   * Open the journal of a retrieval job.
+   *
+   * @param outputFile where the sequences are saved
+   * @param query text representation of the query
+   * @param bankCode code of the queried bank
+   * @param dbCode the database code to query on the server side
+   * @param fullEntryFormat format of the sequences
+   * @param pageSize number of documents requested at once
+   */
+  public static FetchJournal open(File outputFile, String query, String bankCode, String dbCode,
+      boolean fullEntryFormat, int pageSize) throws IOException {
+    Map<String, String> header;
+    FetchJournal journal;
+    File journalFile;
+
+    header = new LinkedHashMap<>();
+    header.put(QUERY_KEY, query);
+    header.put(BANK_KEY, bankCode);
+    header.put(DB_KEY, dbCode);
+    header.put(FORMAT_KEY, fullEntryFormat ? FULL_FORMAT : FASTA_FORMAT);
+    header.put(PAGE_SIZE_KEY, String.valueOf(pageSize));
+    journalFile = getJournalFile(outputFile);
+    journal = new FetchJournal(journalFile, outputFile, header);
+    if (journalFile.exists() && outputFile.exists() && journal.load(outputFile)) {
+      journal._resumed = true;
+      EZLogger.info(String.format(RESUME_MSG, journal.getNextDocument(), journal.getOutputSize()));
+    } else {
+      journal.clear();
+    }
+    // rewrite journal: it only contains validated data
+    journal.rewrite();
+    return journal;
+  }
+
+  private void clear() {
+    _ranges.clear();
+    _total = -1;
+    _resumed = false;
+    if (_outputFile.exists()) {
+      _outputFile.delete();
+    }
+  }
+
+  /**
+   * Forget the progress of the job: it restarts from the first document.
+   * Output file is deleted.
+   */
+  public synchronized void restart() throws IOException {
+    close();
+    clear();
+    rewrite();
+  }
+
+  /**
+   * Set the number of documents of the query result. It is recorded when the
+   * job starts. When a job is resumed, it is compared to the recorded one: if
+   * they differ, the query result has changed on the server side, so document
+   * indexes of the journal cannot be used anymore.
+   *
+   * @return false if the query result has changed. Then, restart() has to be
+   * called.
+   */
+  public synchronized boolean setTotal(int total) throws IOException {
+    if (_total == total)
+      return true;
+    if (_total != -1) {
+      EZLogger.warn(String.format(TOTAL_MSG, total, _total));
+      return false;
+    }
+    _total = total;
+    _writer.write(TOTAL_KEY + "=" + total + "\n");
+    _writer.flush();
+    _fos.getFD().sync();
+    return true;
+  }
+
+  private static String getQueryText(QueryEngine engine) {
+    BFilter query = engine.getQuery();
+    if (query == null)
+      return "";
+    synchronized (query) {
+      return query.getTxtString();
+    }
+  }
+
+  /**
+   * Figures out whether or not this journal resumes an existing job.
+   */
+  public boolean isResumed() {
+    return _resumed;
+  }
+
+  /**
+   * Return the index of the document following the last one saved in the
+   * output file. Retrieval has to go on from there.
+   */
+  public synchronized int getNextDocument() {
+    return _ranges.isEmpty() ? 0 : _ranges.get(_ranges.size() - 1).getEnd();
+  }
+
+  /**
+   * Return the number of documents saved in the output file.
+   */
+  public synchronized int getSavedDocuments() {
+    int n = 0;
+    for (Range r : _ranges) {
+      n += r.ndocs;
+    }
+    return n;
+  }
+
+  /**
+   * Return the size of the data saved in the output file.
+   */
+  public synchronized long getOutputSize() {
+    return _ranges.isEmpty() ? 0 : _ranges.get(_ranges.size() - 1).getOffsetEnd();
+  }
+
+  /**
+   * Record a batch of sequences. Caller must ensure that these sequences
+   * have been written to disk.
+   *
+   * @param first index of the first document of the batch in the query
+   * result
+   * @param ndocs number of documents
+   * @param offset position of the batch in the output file
+   * @param length size of the batch
+   * @param crc CRC32 of the batch data
+   */
+  public synchronized void commit(int first, int ndocs, long offset, long length, long crc) throws IOException {
+    Range r = new Range(first, ndocs, offset, length, crc);
+
+    _ranges.add(r);
+    _writer.write(r.toString());
+    _writer.write('\n');
+    _writer.flush();
+    _fos.getFD().sync();
+  }
+
+  /**
+   * Close this journal. It can be used later to resume the job.
+   */
+  public synchronized void close() {
+    if (_writer == null)
+      return;
+    try {
+      _writer.close();
+    } catch (IOException e) {
+      EZLogger.warn(e.toString());
+    }
+    _writer = null;
+  }
+
+  /**
+   * Close and delete this journal. To be called once the job has completed.
+   */
+  public synchronized void delete() {
+    close();
+    _journalFile.delete();
+  }
+
+  /**
+   * Read the journal file and check it against the output file. Returns
+   * false if the job cannot be resumed.
+   */
+  private boolean load(File outputFile) {
+    String line, key, value;
+    long end = 0, fileSize;
+    Range r;
+    int idx;
+
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(_journalFile), StandardCharsets.UTF_8))) {
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty() || line.startsWith("#"))
+          continue;
+        idx = line.indexOf('=');
+        if (idx == -1)
+          continue;
+        key = line.substring(0, idx);
+        value = line.substring(idx + 1);
+        if (RANGE_KEY.equals(key)) {
+          r = Range.parse(value);
+          // stop on a partial line or an inconsistent range
+          if (r == null || r.offset != end)
+            break;
+          _ranges.add(r);
+          end = r.getOffsetEnd();
+        } else if (TOTAL_KEY.equals(key)) {
+          try {
+            _total = Integer.parseInt(value);
+          } catch (NumberFormatException e) {
+            return false;
+          }
+        } else if (_header.containsKey(key) && !PAGE_SIZE_KEY.equals(key)
+            && !_header.get(key).equals(decode(value))) {
+          // page size can change: document indexes do not depend on it
+          EZLogger.info(String.format(MISMATCH_MSG, key));
+          return false;
+        }
+      }
+    } catch (IOException e) {
+      EZLogger.warn(e.toString());
+      return false;
+    }
+    // drop the batches that are not (entirely) in the output file
+    fileSize = outputFile.length();
+    while (!_ranges.isEmpty() && _ranges.get(_ranges.size() - 1).getOffsetEnd() > fileSize) {
+      _ranges.remove(_ranges.size() - 1);
+    }
+    // check the last batch: a job killed while writing it may leave garbage
+    try {
+      while (!_ranges.isEmpty() && !checkRange(outputFile, _ranges.get(_ranges.size() - 1))) {
+        EZLogger.info(String.format(CRC_MSG, _ranges.get(_ranges.size() - 1).offset));
+        _ranges.remove(_ranges.size() - 1);
+      }
+      // remove a partial batch, if any
+      try (RandomAccessFile raf = new RandomAccessFile(outputFile, "rw")) {
+        raf.setLength(getOutputSize());
+      }
+    } catch (IOException e) {
+      EZLogger.warn(e.toString());
+      return false;
+    }
+    return true;
+  }
+
+  private static boolean checkRange(File outputFile, Range r) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(8192);
+    CRC32 crc = new CRC32();
+    long pos = r.offset, end = r.getOffsetEnd();
+    int n;
+
+    try (FileChannel channel = new FileInputStream(outputFile).getChannel()) {
+      while (pos < end) {
+        buf.clear();
+        buf.limit((int) Math.min(buf.capacity(), end - pos));
+        n = channel.read(buf, pos);
+        if (n < 0)
+          return false;
+        crc.update(buf.array(), 0, n);
+        pos += n;
+      }
+    }
+    return crc.getValue() == r.crc;
+  }
+
+  /**
+   * Write the journal from scratch, then open it for further commits.
+   */
+  private void rewrite() throws IOException {
+    File tmpFile = new File(_journalFile.getAbsolutePath() + TMP_EXT);
+
+    try (Writer w = new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8)) {
+      w.write(HEADER);
+      w.write('\n');
+      for (Map.Entry<String, String> e : _header.entrySet()) {
+        w.write(e.getKey() + "=" + encode(e.getValue()) + "\n");
+      }
+      if (_total != -1) {
+        w.write(TOTAL_KEY + "=" + _total + "\n");
+      }
+      for (Range r : _ranges) {
+        w.write(r.toString());
+        w.write('\n');
+      }
+    }
+    Files.move(tmpFile.toPath(), _journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    _fos = new FileOutputStream(_journalFile, true);
+    _writer = new OutputStreamWriter(_fos, StandardCharsets.UTF_8);
+  }
+
+  private static String encode(String str) {
+    try {
+      return URLEncoder.encode(str, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      // UTF-8 is always supported
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String decode(String str) {
+    try {
+      return URLDecoder.decode(str, "UTF-8");
+    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+      return "";
+    }
+  }
+
+  /**
+   * A batch of sequences saved in the output file.
+   */
+  private static class Range {
+    private int first;
+    private int ndocs;
+    private long offset;
+    private long length;
+    private long crc;
+
+    private Range(int first, int ndocs, long offset, long length, long crc) {
+      this.first = first;
+      this.ndocs = ndocs;
+      this.offset = offset;
+      this.length = length;
+      this.crc = crc;
+    }
+
+    private static Range parse(String str) {
+      String[] values = str.split(",");
+      if (values.length != 5)
+        return null;
+      try {
+        return new Range(Integer.parseInt(values[0]), Integer.parseInt(values[1]), Long.parseLong(values[2]),
+            Long.parseLong(values[3]), Long.parseLong(values[4]));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    private int getEnd() {
+      return first + ndocs;
+    }
+
+    private long getOffsetEnd() {
+      return offset + length;
+    }
+
+    @Override
+    public String toString() {
+      return RANGE_KEY + "=" + first + "," + ndocs + "," + offset + "," + length + "," + crc;
+    }
+  }
+}
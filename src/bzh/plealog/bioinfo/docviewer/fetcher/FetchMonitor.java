@@ -0,0 +1,117 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.fetcher;
+
+import bzh.plealog.bioinfo.docviewer.api.DataListener;
+
+/**
+ * Defines the behavior of a component monitoring the sequence retrieval
+ * process. This interface does not rely on any UI: SeqRetrieverMonitor is the
+ * graphical implementation, StreamFetchMonitor reports progress as text.
+ *
+ * @author Patrick G. Durand
+ */
+public interface FetchMonitor extends DataListener {
+  /**
+   * This method must be called by process tasks monitored by this class to
+   * inform that they are starting a job.
+   */
+  public void startJob();
+
+  /**
+   * This method must be called by process tasks monitored by this class to
+   * inform that have ended a job.
+   */
+  public void jobDone();
+
+  /**
+   * Figures out if the process task monitored by this class is still running.
+   */
+  public boolean isJobRunning();
+
+  /**
+   * This method can be called to cancel the process task monitored by this
+   * class.
+   */
+  public void cancelJob();
+
+  /**
+   * This method is called when the retrieve process can not access to the
+   * server.
+   */
+  public void pauseJob();
+
+  /**
+   * Figures out if the job has been paused.
+   */
+  public boolean isPaused();
+
+  /**
+   * This method is called to restart a paused job.
+   */
+  public void restartJob();
+
+  /**
+   * Sets the total number of steps of the job.
+   */
+  public void setTotSteps(int tot);
+
+  /**
+   * Return the total number of steps of the job.
+   */
+  public int getTotSteps();
+
+  /**
+   * Sets the number of steps done.
+   */
+  public void setCurSteps(int curSteps);
+
+  /**
+   * Return the number of steps done.
+   */
+  public int getCurSteps();
+
+  /**
+   * Adds some steps to the number of steps done.
+   */
+  public void addSteps(int steps);
+
+  /**
+   * Sets a message describing the job status.
+   */
+  public void setMessage(String msg);
+
+  /**
+   * Set an error message. This method is intended to be used by process tasks
+   * to report an error.
+   */
+  public void setErrMsg(String errMsg);
+
+  /**
+   * When no error occurred during a process this method returns null.
+   * Otherwise it is an error message.
+   */
+  public String getErrMsg();
+
+  /**
+   * Figures out whether messages are displayed to a user who needs some time
+   * to read them. Default implementation returns true.
+   */
+  public default boolean isInteractive() {
+    return true;
+  }
+}
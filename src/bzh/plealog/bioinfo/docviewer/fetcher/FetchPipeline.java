@@ -0,0 +1,719 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.fetcher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.plealog.genericapp.api.log.EZLogger;
+
+import bzh.plealog.bioinfo.docviewer.api.QueryEngine;
+import bzh.plealog.bioinfo.docviewer.http.HTTPConnectionPool;
+import bzh.plealog.bioinfo.docviewer.http.TempResource;
+
+/**
+ * A staged sequence retrieval process. Documents provided by a producer (e.g.
+ * the pages of a query result) are split into batches that are downloaded
+ * then appended to the target file by dedicated threads:
+ * <pre>
+ * producer -> batch queue -> downloaders -> write queue -> writer
+ * </pre>
+ * So, paging, downloading and writing overlap. Queues are bounded: a stage
+ * running faster than the next one is blocked (back-pressure).<br>
+ * <br>
+ * Several batches are downloaded at the same time (see
+ * ServerConfiguration.getDownloadWorkers()); the writer puts them back in
+ * their original order. The number of batches downloaded but not yet written
+ * is bounded too. All downloaders share the rate policy of the remote
+ * service, which is enforced by the HTTP layer (see HTTPRateLimiter).<br>
+ * <br>
+ * Batch size is driven by an AdaptiveBatchController: it grows while the
+ * server answers quickly and shrinks on slow answers or errors. A batch may
+ * contain documents submitted by several calls to submit().<br>
+ * <br>
+ * When a FetchJournal is provided, each batch is recorded in it once written
+ * to disk, so that an interrupted job can be resumed. The journal stops to
+ * be updated after a failed batch: a resumed job retries it.<br>
+ * <br>
+ * When the server returns fewer records than requested for a batch (e.g.
+ * withdrawn or suppressed IDs), the batch is split recursively to isolate the
+ * missing IDs: the other records are saved and the missing IDs are listed in
+ * a side file (target file name plus '.unresolved'), so that the job goes on
+ * at full speed.<br>
+ * <br>
+ * Sample use:
+ * <pre>
+ * FetchPipeline pipeline = new FetchPipeline(file, engine, dbCode, monitor, false, true);
+ * pipeline.start();
+ * while (...) {
+ *   if (!pipeline.submit(docs))
+ *     break;
+ * }
+ * String errMsg = pipeline.finish();
+ * </pre>
+ *
+ * @author Patrick G. Durand
+ */
+public class FetchPipeline {
+  /** Max number of batches waiting in a queue.*/
+  public static final int QUEUE_SIZE = 4;
+  /** Extension added to the target file name to get the unresolved IDs file.*/
+  public static final String UNRESOLVED_EXT = ".unresolved";
+
+  /** Stages of the pipeline.*/
+  public static enum Stage {
+    PAGING, DOWNLOAD, WRITE
+  }
+
+  private static final long POLL_DELAY = 500;
+  private static final String STAGE_MSG = "%s: %d batches, busy: %d ms, blocked: %d ms";
+  private static final String UNRESOLVED_MSG = "%d IDs not returned by the server, see: %s";
+
+  private File _seqFile;
+  private QueryEngine _engine;
+  private String _dbCode;
+  private FetchMonitor _monitor;
+  private boolean _fullEntryFormat;
+  private boolean _stopOnError;
+  private boolean _recoverMissing = true;
+
+  private BlockingQueue<FetchBatch> _batchQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+  private BlockingQueue<FetchBatch> _writeQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+  private StageStats[] _stats;
+  private Thread[] _downloaders;
+  private Thread _writer;
+  // batches being downloaded or waiting to be written
+  private Semaphore _window;
+  private volatile boolean _aborted;
+  private String _errMsg;
+  private FetchJournal _journal;
+  private AdaptiveBatchController _controller;
+  private boolean _loadByRange;
+  // documents submitted but not yet part of a batch
+  private StringBuilder _pendingIds = new StringBuilder();
+  private int _pendingDocs;
+  private long _pendingLetters;
+  private int _nbBatches;
+  private int _nextDocument;
+  private int _submittedDocs;
+  private int _writtenDocs;
+  private int _unresolvedDocs;
+
+  /**
+   * Constructor.
+   *
+   * @param seqFile where to save the sequences
+   * @param engine the query engine used to load the sequences
+   * @param dbCode the database code to query on the server side
+   * @param monitor the object used to monitor the fetching process
+   * @param stopOnError if true, the process stops on the first error.
+   * Otherwise, the failed batch is skipped and the monitor is paused.
+   */
+  public FetchPipeline(File seqFile, QueryEngine engine, String dbCode, FetchMonitor monitor,
+      boolean fullEntryFormat, boolean stopOnError) {
+    _seqFile = seqFile;
+    _engine = engine;
+    _dbCode = dbCode;
+    _monitor = monitor;
+    _fullEntryFormat = fullEntryFormat;
+    _stopOnError = stopOnError;
+    _downloaders = new Thread[Math.min(engine.getServerConfiguration().getDownloadWorkers(),
+        HTTPConnectionPool.getMaxConnectionsPerHost())];
+    _window = new Semaphore(_downloaders.length + QUEUE_SIZE);
+    _controller = new AdaptiveBatchController(engine.getServerConfiguration());
+    _stats = new StageStats[Stage.values().length];
+    for (Stage stage : Stage.values()) {
+      _stats[stage.ordinal()] = new StageStats(stage);
+    }
+  }
+
+  /**
+   * Set the journal recording the progress of the job. Must be called before
+   * start(). Submitted documents are supposed to follow the last ones
+   * recorded in the journal.
+   */
+  public void setJournal(FetchJournal journal) {
+    _journal = journal;
+    _nextDocument = journal.getNextDocument();
+  }
+
+  /**
+   * Enable or disable the recovery of the batches missing some records.
+   * Default is enabled. When disabled, such a batch is an error.
+   */
+  public void setRecoverMissing(boolean recover) {
+    _recoverMissing = recover;
+  }
+
+  /**
+   * Tell the pipeline that documents are submitted in the order of the query
+   * result, starting from the first one (or from the one following the last
+   * document recorded in the journal). Then, if the query engine supports it,
+   * sequences are loaded by range of the query result instead of lists of
+   * IDs. Must be called before start().
+   */
+  public void setQueryResultOrder(boolean queryOrder) {
+    _loadByRange = queryOrder && _engine.canLoadRange(_dbCode);
+  }
+
+  /**
+   * Return the object sizing the batches.
+   */
+  public AdaptiveBatchController getBatchController() {
+    return _controller;
+  }
+
+  /**
+   * Return the file listing the IDs the server did not return.
+   */
+  public File getUnresolvedFile() {
+    return new File(_seqFile.getAbsolutePath() + UNRESOLVED_EXT);
+  }
+
+  /**
+   * Return the number of IDs the server did not return. Only valid once
+   * finish() has returned.
+   */
+  public int getUnresolvedDocuments() {
+    return _unresolvedDocs;
+  }
+
+  /**
+   * Start the downloading and writing threads.
+   */
+  public void start() {
+    EZLogger.debug(String.format("Load by range: %s", _loadByRange));
+    // a resumed job goes on with the IDs already listed
+    if (_journal == null || !_journal.isResumed()) {
+      getUnresolvedFile().delete();
+    }
+    EZLogger.debug(String.format("Download workers: %d", _downloaders.length));
+    for (int i = 0; i < _downloaders.length; i++) {
+      _downloaders[i] = new Downloader(i + 1);
+      _downloaders[i].start();
+    }
+    _writer = new Writer();
+    _writer.start();
+  }
+
+  /**
+   * Add some documents to retrieve. This method blocks while the pipeline is
+   * full.
+   *
+   * @return false if the process has been stopped: caller should not submit
+   * more documents.
+   */
+  public boolean submit(List<DocFetcherUtils.DocSum> docs) {
+    // given a set of IDs, try to load set of sequences by set of
+    // lettersPerRun letters max. This was added to handle genomes: even a
+    // few IDs may correspond to a huge amount of sequence data. Both limits
+    // are set by the controller.
+    for (DocFetcherUtils.DocSum ds : docs) {
+      if (_pendingIds.length() != 0)
+        _pendingIds.append(",");
+      _pendingIds.append(ds.id);
+      _pendingLetters += ds.length;
+      _pendingDocs++;
+      if (_pendingLetters >= _controller.getLettersPerRun() || _pendingDocs >= _controller.getSequencesPerRun()) {
+        if (!putPending())
+          return false;
+      }
+    }
+    return !isStopped();
+  }
+
+  /**
+   * Record time spent by the producer to get some documents.
+   *
+   * @param time time in milliseconds
+   */
+  public void addPagingTime(long time) {
+    _stats[Stage.PAGING.ordinal()].addBusy(time);
+  }
+
+  /**
+   * Wait for all the submitted documents to be retrieved.
+   *
+   * @return null if success, otherwise an error message.
+   */
+  public String finish() {
+    // last documents
+    if (_pendingDocs != 0 && !isStopped()) {
+      putPending();
+    }
+    try {
+      offer(_batchQueue, FetchBatch.END);
+      for (Thread downloader : _downloaders) {
+        downloader.join();
+      }
+      // all batches have been downloaded
+      offer(_writeQueue, FetchBatch.END);
+      _writer.join();
+    } catch (InterruptedException e) {
+      _aborted = true;
+    }
+    dumpStatistics();
+    if (_unresolvedDocs != 0) {
+      EZLogger.warn(String.format(UNRESOLVED_MSG, _unresolvedDocs, getUnresolvedFile()));
+    }
+    if (_errMsg != null)
+      return _errMsg;
+    if (!isStopped() && _writtenDocs + _unresolvedDocs != _submittedDocs) {
+      return String.format(DocFetcherUtils.ERR_2, _writtenDocs, _submittedDocs);
+    }
+    return null;
+  }
+
+  /**
+   * Return the statistics of a stage.
+   */
+  public StageStats getStats(Stage stage) {
+    return _stats[stage.ordinal()];
+  }
+
+  /**
+   * Dump statistics using the logger. Debug level is used.
+   */
+  public void dumpStatistics() {
+    for (StageStats stats : _stats) {
+      EZLogger.debug(stats.toString());
+    }
+    _controller.dumpStatistics();
+  }
+
+  private boolean isStopped() {
+    return _aborted || _monitor.interruptProcessing();
+  }
+
+  private boolean putPending() {
+    FetchBatch batch = new FetchBatch(_nbBatches++, _nextDocument, _pendingIds.toString(), _pendingDocs);
+
+    batch.letters = _pendingLetters;
+    batch.byRange = _loadByRange;
+    batch.generation = _controller.getGeneration();
+    _nextDocument += _pendingDocs;
+    _pendingIds.setLength(0);
+    _pendingDocs = 0;
+    _pendingLetters = 0;
+    return put(batch);
+  }
+
+  private boolean put(FetchBatch batch) {
+    StageStats stats = _stats[Stage.PAGING.ordinal()];
+    long tick = System.currentTimeMillis();
+
+    try {
+      while (!isStopped()) {
+        if (_batchQueue.offer(batch, POLL_DELAY, TimeUnit.MILLISECONDS)) {
+          _submittedDocs += batch.ndocs;
+          stats.addItem();
+          return true;
+        }
+      }
+    } catch (InterruptedException e) {
+      _aborted = true;
+    } finally {
+      stats.addBlocked(System.currentTimeMillis() - tick);
+    }
+    return false;
+  }
+
+  /**
+   * Take the next batch from a queue. Returns null if process has been
+   * stopped.
+   */
+  private FetchBatch take(BlockingQueue<FetchBatch> queue, StageStats stats) {
+    FetchBatch batch;
+    long tick = System.currentTimeMillis();
+
+    try {
+      while (!isStopped()) {
+        batch = queue.poll(POLL_DELAY, TimeUnit.MILLISECONDS);
+        if (batch != null)
+          return batch;
+      }
+    } catch (InterruptedException e) {
+      _aborted = true;
+    } finally {
+      stats.addBlocked(System.currentTimeMillis() - tick);
+    }
+    return null;
+  }
+
+  /**
+   * Add a batch to a queue. Returns false if process has been stopped.
+   */
+  private boolean offer(BlockingQueue<FetchBatch> queue, FetchBatch batch) {
+    try {
+      while (!isStopped()) {
+        if (queue.offer(batch, POLL_DELAY, TimeUnit.MILLISECONDS))
+          return true;
+      }
+    } catch (InterruptedException e) {
+      _aborted = true;
+    }
+    return false;
+  }
+
+  /**
+   * Reserve room for a batch in the pipeline. Returns false if process has
+   * been stopped.
+   */
+  private boolean acquireWindow() {
+    try {
+      while (!isStopped()) {
+        if (_window.tryAcquire(POLL_DELAY, TimeUnit.MILLISECONDS))
+          return true;
+      }
+    } catch (InterruptedException e) {
+      _aborted = true;
+    }
+    return false;
+  }
+
+  private void waitWhilePaused() {
+    while (_monitor.isPaused() && !isStopped()) {
+      try {
+        Thread.sleep(_engine.getServerConfiguration().getSleepTimeBetweenRun());
+      } catch (InterruptedException e) {
+        _aborted = true;
+      }
+    }
+  }
+
+  private synchronized void handleError(String errMsg) {
+    EZLogger.warn("Error while retrieving sequence : " + errMsg);
+    if (_errMsg == null)
+      _errMsg = errMsg;
+    if (_stopOnError) {
+      _aborted = true;
+    } else {
+      _monitor.pauseJob();
+    }
+  }
+
+  private void report(FetchBatch batch, long time) {
+    if (batch.isInterrupted())
+      return;
+    // a missing record is not the server's fault: response time is valid
+    if (batch.errMsg == null || batch.isIncomplete()) {
+      _controller.success(batch.generation, batch.ndocs, batch.letters, batch.bytes, time, batch.attempts - 1);
+    } else {
+      _controller.failure(batch.generation, batch.attempts);
+    }
+  }
+
+  /**
+   * Download the batches and check their content.
+   */
+  private class Downloader extends Thread {
+    private Downloader(int index) {
+      super("FetchDownloader-" + index);
+      setDaemon(true);
+    }
+
+    public void run() {
+      StageStats stats = _stats[Stage.DOWNLOAD.ordinal()];
+      FetchBatch batch;
+      long tick;
+
+      while (true) {
+        tick = System.currentTimeMillis();
+        if (!acquireWindow())
+          break;
+        stats.addBlocked(System.currentTimeMillis() - tick);
+        batch = take(_batchQueue, stats);
+        if (batch == null)
+          break;
+        if (batch == FetchBatch.END) {
+          _window.release();
+          // let the other downloaders see it
+          offer(_batchQueue, batch);
+          return;
+        }
+        waitWhilePaused();
+        if (isStopped()) {
+          batch.release();
+          break;
+        }
+        tick = System.currentTimeMillis();
+        EZLogger.debug("page: " + batch.ids);
+        DocFetcherUtils.loadBatch(batch, _engine, _dbCode, _monitor, _fullEntryFormat);
+        report(batch, System.currentTimeMillis() - tick);
+        if (_recoverMissing && batch.isIncomplete()) {
+          DocFetcherUtils.recoverBatch(batch, _engine, _dbCode, _monitor, _fullEntryFormat);
+        }
+        stats.addBusy(System.currentTimeMillis() - tick);
+        stats.addItem();
+        if (batch.isInterrupted()) {
+          batch.release();
+          break;
+        }
+        tick = System.currentTimeMillis();
+        if (!offer(_writeQueue, batch)) {
+          batch.release();
+          break;
+        }
+        stats.addBlocked(System.currentTimeMillis() - tick);
+      }
+      // stopped: discard pending batches
+      while ((batch = _batchQueue.poll()) != null) {
+        batch.release();
+      }
+    }
+  }
+
+  /**
+   * Append the downloaded batches to the target file, in their original
+   * order.
+   */
+  private class Writer extends Thread {
+    private TreeMap<Integer, FetchBatch> pending = new TreeMap<>();
+    private FetchJournal journal = _journal;
+    private int nextIndex;
+
+    private Writer() {
+      super("FetchWriter");
+      setDaemon(true);
+    }
+
+    private void write(FetchBatch batch, FileChannel channel, StageStats stats) {
+      long tick = System.currentTimeMillis();
+      long offset = -1;
+
+      if (batch.errMsg == null) {
+        try {
+          offset = channel.position();
+        } catch (IOException e) {
+          EZLogger.warn(e.toString());
+        }
+        batch.errMsg = DocFetcherUtils.appendBatch(batch, channel);
+      }
+      batch.release();
+      if (batch.errMsg == null && !batch.unresolved.isEmpty()) {
+        saveUnresolved(batch);
+      }
+      if (batch.errMsg == null && offset >= 0) {
+        journal(batch, channel, offset);
+      } else {
+        // documents of this batch are missing: journal cannot go further
+        journal = null;
+      }
+      stats.addBusy(System.currentTimeMillis() - tick);
+      stats.addItem();
+      if (batch.errMsg != null) {
+        handleError(batch.errMsg);
+      } else {
+        _writtenDocs += batch.ndocs - batch.unresolved.size();
+        _unresolvedDocs += batch.unresolved.size();
+        _monitor.addSteps(batch.ndocs);
+      }
+    }
+
+    private void saveUnresolved(FetchBatch batch) {
+      try (OutputStreamWriter w = new OutputStreamWriter(new FileOutputStream(getUnresolvedFile(), true),
+          StandardCharsets.UTF_8)) {
+        for (String id : batch.unresolved) {
+          w.write(id);
+          w.write('\n');
+        }
+      } catch (IOException e) {
+        // IDs are logged anyway
+        EZLogger.warn(e.toString());
+      }
+      EZLogger.info("Unresolved IDs: " + batch.unresolved);
+    }
+
+    private void journal(FetchBatch batch, FileChannel channel, long offset) {
+      if (journal == null)
+        return;
+      try {
+        // data must reach the disk before the journal says so
+        channel.force(false);
+        journal.commit(batch.first, batch.ndocs, offset, channel.position() - offset, batch.crc);
+      } catch (IOException e) {
+        EZLogger.warn(e.toString());
+        journal = null;
+      }
+    }
+
+    public void run() {
+      StageStats stats = _stats[Stage.WRITE.ordinal()];
+      FetchBatch batch;
+
+      // a single channel for the whole process: batches are appended to it
+      try (FileChannel channel = FileChannel.open(_seqFile.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE)) {
+        channel.position(channel.size());
+        while ((batch = take(_writeQueue, stats)) != null) {
+          if (batch == FetchBatch.END)
+            break;
+          pending.put(batch.index, batch);
+          while ((batch = pending.remove(nextIndex)) != null && !isStopped()) {
+            write(batch, channel, stats);
+            nextIndex++;
+            _window.release();
+          }
+          if (batch != null) {
+            batch.release();
+          }
+        }
+      } catch (IOException e) {
+        EZLogger.warn(e.toString());
+        handleError(DocFetcherUtils.ERR_3);
+        // nothing can be written anymore
+        _aborted = true;
+      }
+      // stopped: discard pending batches
+      for (FetchBatch b : pending.values()) {
+        b.release();
+      }
+      while ((batch = _writeQueue.poll()) != null) {
+        batch.release();
+      }
+    }
+  }
+
+  /**
+   * A set of sequences to retrieve using a single request.
+   */
+  static class FetchBatch {
+    /** Marks the end of the documents.*/
+    static final FetchBatch END = new FetchBatch(-1, -1, null, 0);
+
+    int index;
+    // index of the first document in the query result
+    int first;
+    // load sequences using first and ndocs instead of ids
+    boolean byRange;
+    String ids;
+    int ndocs;
+    long letters;
+    // AdaptiveBatchController generation used to size this batch
+    int generation;
+    TempResource data;
+    long bytes;
+    int attempts;
+    long crc;
+    // number of records received, -1 if unknown
+    int records = -1;
+    // IDs the server did not return
+    List<String> unresolved = new ArrayList<>();
+    String errMsg;
+    boolean interrupted;
+
+    FetchBatch(int index, int first, String ids, int ndocs) {
+      this.index = index;
+      this.first = first;
+      this.ids = ids;
+      this.ndocs = ndocs;
+    }
+
+    boolean isInterrupted() {
+      return interrupted;
+    }
+
+    /**
+     * Figures out whether the server returned fewer records than requested.
+     */
+    boolean hasMissingRecords() {
+      return errMsg != null && records >= 0 && records < ndocs;
+    }
+
+    /**
+     * Figures out whether the server returned some of the requested records,
+     * but not all. A batch returning no record at all is an error: such an
+     * answer usually comes from the server, not from withdrawn IDs.
+     */
+    boolean isIncomplete() {
+      return hasMissingRecords() && records > 0;
+    }
+
+    void release() {
+      if (data != null) {
+        data.close();
+        data = null;
+      }
+    }
+  }
+
+  /**
+   * Timing of a stage of the pipeline.
+   */
+  public static class StageStats {
+    private Stage stage;
+    private long items;
+    private long busy;
+    private long blocked;
+
+    private StageStats(Stage stage) {
+      this.stage = stage;
+    }
+
+    private synchronized void addItem() {
+      items++;
+    }
+
+    private synchronized void addBusy(long time) {
+      busy += time;
+    }
+
+    private synchronized void addBlocked(long time) {
+      blocked += time;
+    }
+
+    /**
+     * Return the number of batches processed by this stage.
+     */
+    public synchronized long getItems() {
+      return items;
+    }
+
+    /**
+     * Return the time spent working, in milliseconds. When a stage runs
+     * several threads, their times are added.
+     */
+    public synchronized long getBusyTime() {
+      return busy;
+    }
+
+    /**
+     * Return the time spent waiting for the previous or the next stage, in
+     * milliseconds.
+     */
+    public synchronized long getBlockedTime() {
+      return blocked;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format(STAGE_MSG, stage, items, busy, blocked);
+    }
+  }
+}
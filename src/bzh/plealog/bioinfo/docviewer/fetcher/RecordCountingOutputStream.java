@@ -0,0 +1,101 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.fetcher;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A stream counting the sequence records written through it, i.e. the lines
+ * starting with a given seed (e.g. '>' for Fasta, 'LOCUS' for Genbank). Data
+ * is counted while it is written, so there is no need to read it again.
+ *
+ * @author Patrick G. Durand
+ */
+public class RecordCountingOutputStream extends FilterOutputStream {
+  // below that size, data cannot contain a record: takes into account some
+  // space/return chars
+  private static final int MIN_SIZE = 5;
+
+  private byte[] seed;
+  private int matched;
+  private int records;
+  private long size;
+
+  /**
+   * Constructor.
+   *
+   * @param out where to write data
+   * @param seed beginning of the first line of a record. If null, no record
+   * is counted.
+   */
+  public RecordCountingOutputStream(OutputStream out, String seed) {
+    super(out);
+    this.seed = seed != null ? seed.getBytes(StandardCharsets.US_ASCII) : null;
+    this.matched = seed != null ? 0 : -1;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    count((byte) b);
+    size++;
+    out.write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    for (int i = off; i < off + len; i++) {
+      count(b[i]);
+    }
+    size += len;
+    out.write(b, off, len);
+  }
+
+  private void count(byte b) {
+    if (b == '\n' || b == '\r') {
+      // new line: compare its beginning with seed
+      if (seed != null)
+        matched = 0;
+    } else if (matched >= 0) {
+      if (b == seed[matched]) {
+        matched++;
+        if (matched == seed.length) {
+          records++;
+          matched = -1;
+        }
+      } else {
+        matched = -1;
+      }
+    }
+  }
+
+  /**
+   * Return the number of records written so far.
+   */
+  public int getRecords() {
+    return size < MIN_SIZE ? 0 : records;
+  }
+
+  /**
+   * Return the number of bytes written so far.
+   */
+  public long getSize() {
+    return size;
+  }
+}
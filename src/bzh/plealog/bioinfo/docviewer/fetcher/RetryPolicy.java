@@ -0,0 +1,287 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.fetcher;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+import bzh.plealog.bioinfo.docviewer.api.DataListener;
+import bzh.plealog.bioinfo.docviewer.api.QueryEngineException;
+import bzh.plealog.bioinfo.docviewer.http.HTTPEngineException;
+
+/**
+ * This class defines how remote calls are retried by the sequence retrieval
+ * processor.<br>
+ * <br>
+ * Errors are classified (see ErrorType): client errors (HTTP 4xx) and local
+ * errors (response file, interrupted thread) are never retried, parse errors
+ * are retried once, other errors are retried using an exponential backoff
+ * with full jitter. A delay requested by the server
+ * (Retry-After header field) is always honoured. Retries stop as soon as the
+ * max number of attempts or the max elapsed time is reached.<br>
+ * <br>
+ * Sample use:
+ * <pre>
+ * RetryPolicy.RetryState retry = RetryPolicy.getDefault().newRetryState();
+ * while (true) {
+ *   try {
+ *     // do a remote call
+ *     break;
+ *   } catch (Exception e) {
+ *     if (!retry.canRetry(e) || !retry.waitBeforeRetry(monitor))
+ *       break;
+ *   }
+ * }
+ * </pre>
+ *
+ * @author Patrick G. Durand
+ */
+public class RetryPolicy {
+  /** Default max number of attempts, including the first one.*/
+  public static final int DEFAULT_MAX_ATTEMPTS = 10;
+  /** Default base delay: 1 second.*/
+  public static final long DEFAULT_BASE_DELAY = 1000;
+  /** Default max delay between two attempts: 1 minute.*/
+  public static final long DEFAULT_MAX_DELAY = 60000;
+  /** Default max elapsed time since first attempt: 10 minutes.*/
+  public static final long DEFAULT_MAX_ELAPSED_TIME = 600000;
+
+  // parse errors usually means that server returns an error message: do not
+  // insist too much
+  private static final int MAX_PARSE_ATTEMPTS = 2;
+  // slices used to check whether or not user cancels the job
+  private static final long SLEEP_SLICE = 250;
+
+  private static final String RETRY_MSG = "%s error, attempt %d/%d, retry in %d ms: %s";
+
+  private static final RetryPolicy DEFAULT_POLICY = new RetryPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY,
+      DEFAULT_MAX_DELAY, DEFAULT_MAX_ELAPSED_TIME);
+
+  /**
+   * Classification of errors.
+   */
+  public static enum ErrorType {
+    /** Server does not answer in time.*/
+    TIMEOUT,
+    /** Server asks to slow down (HTTP 429 or 503).*/
+    THROTTLED,
+    /** Server error (HTTP 5xx).*/
+    SERVER,
+    /** Client error (HTTP 4xx): never retried.*/
+    CLIENT,
+    /** Server answer cannot be read, or contains an error message.*/
+    PARSE,
+    /** Network error.*/
+    IO,
+    /** Response file cannot be written or thread has been interrupted: never
+     * retried.*/
+    LOCAL
+  }
+
+  private int maxAttempts;
+  private long baseDelay;
+  private long maxDelay;
+  private long maxElapsedTime;
+  private Random random = new Random();
+
+  /**
+   * Constructor.
+   *
+   * @param maxAttempts max number of attempts, including the first one
+   * @param baseDelay delay used to compute the exponential backoff. Unit is
+   * milliseconds.
+   * @param maxDelay max delay between two attempts. Unit is milliseconds.
+   * @param maxElapsedTime max time since first attempt after which no more
+   * attempt is made. Unit is milliseconds.
+   */
+  public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, long maxElapsedTime) {
+    this.maxAttempts = maxAttempts;
+    this.baseDelay = baseDelay;
+    this.maxDelay = maxDelay;
+    this.maxElapsedTime = maxElapsedTime;
+  }
+
+  /**
+   * Return the default retry policy.
+   */
+  public static RetryPolicy getDefault() {
+    return DEFAULT_POLICY;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public long getMaxElapsedTime() {
+    return maxElapsedTime;
+  }
+
+  /**
+   * Start a new sequence of attempts.
+   */
+  public RetryState newRetryState() {
+    return new RetryState();
+  }
+
+  /**
+   * Classify an error.
+   */
+  public static ErrorType classify(Throwable t) {
+    HTTPEngineException hee;
+    int code;
+
+    if (t instanceof HTTPEngineException) {
+      hee = (HTTPEngineException) t;
+      code = hee.getHttpCode();
+      if (hee.isTimeout())
+        return ErrorType.TIMEOUT;
+      if (hee.isThrottled())
+        return ErrorType.THROTTLED;
+      if (hee.isLocalError())
+        return ErrorType.LOCAL;
+      // other HTTPEX_xxx codes: server answer cannot be read
+      if (code >= HTTPEngineException.HTTPEX_TMP_FILE_ERROR)
+        return ErrorType.IO;
+      if (code >= 500)
+        return ErrorType.SERVER;
+      if (code >= 400)
+        return ErrorType.CLIENT;
+      return ErrorType.IO;
+    }
+    if (t instanceof InterruptedException
+        || (t instanceof InterruptedIOException && !(t instanceof SocketTimeoutException)))
+      return ErrorType.LOCAL;
+    if (t instanceof SocketTimeoutException)
+      return ErrorType.TIMEOUT;
+    if (t instanceof IOException)
+      return ErrorType.IO;
+    // QueryEngine reports unreadable answers and server error messages
+    // that way
+    if (t instanceof QueryEngineException)
+      return ErrorType.PARSE;
+    return ErrorType.IO;
+  }
+
+  /**
+   * Compute the backoff delay after a given number of failed attempts.
+   */
+  private long getBackoffDelay(int failures) {
+    long cap;
+    // full jitter: random value in [0, min(maxDelay, base*2^failures)]
+    cap = baseDelay << Math.min(failures - 1, 30);
+    cap = Math.min(maxDelay, cap <= 0 ? maxDelay : cap);
+    synchronized (random) {
+      return (long) (random.nextDouble() * cap);
+    }
+  }
+
+  /**
+   * The state of a sequence of attempts.
+   */
+  public class RetryState {
+    private long startTime = System.currentTimeMillis();
+    private int failures;
+    private long delay;
+    private Throwable lastError;
+    private ErrorType lastErrorType;
+
+    private RetryState() {
+    }
+
+    /**
+     * Record a failed attempt and figure out whether or not a new attempt can
+     * be made. If so, use waitBeforeRetry() before making that attempt.
+     */
+    public boolean canRetry(Throwable error) {
+      long retryAfter, elapsed;
+
+      failures++;
+      lastError = error;
+      lastErrorType = classify(error);
+      if (lastErrorType == ErrorType.CLIENT || lastErrorType == ErrorType.LOCAL)
+        return false;
+      if (Thread.currentThread().isInterrupted())
+        return false;
+      if (lastErrorType == ErrorType.PARSE && failures >= MAX_PARSE_ATTEMPTS)
+        return false;
+      if (failures >= maxAttempts)
+        return false;
+      delay = getBackoffDelay(failures);
+      if (error instanceof HTTPEngineException) {
+        retryAfter = ((HTTPEngineException) error).getRetryAfter();
+        delay = Math.max(delay, retryAfter);
+      }
+      elapsed = System.currentTimeMillis() - startTime;
+      return elapsed + delay <= maxElapsedTime;
+    }
+
+    /**
+     * Wait before making a new attempt.
+     *
+     * @param listener used to figure out whether or not the job has been
+     * cancelled. Can be null.
+     *
+     * @return false if waiting has been interrupted, true otherwise. The
+     * interrupted status of the calling thread is kept.
+     */
+    public boolean waitBeforeRetry(DataListener listener) {
+      long end = System.currentTimeMillis() + delay;
+      long remaining;
+
+      while ((remaining = end - System.currentTimeMillis()) > 0) {
+        if (listener != null && listener.interruptProcessing())
+          return false;
+        try {
+          Thread.sleep(Math.min(remaining, SLEEP_SLICE));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      return listener == null || !listener.interruptProcessing();
+    }
+
+    /**
+     * Return the number of failed attempts.
+     */
+    public int getFailures() {
+      return failures;
+    }
+
+    /**
+     * Return the delay before next attempt. Unit is milliseconds.
+     */
+    public long getDelay() {
+      return delay;
+    }
+
+    public Throwable getLastError() {
+      return lastError;
+    }
+
+    public ErrorType getLastErrorType() {
+      return lastErrorType;
+    }
+
+    public String toString() {
+      return String.format(RETRY_MSG, lastErrorType, failures, maxAttempts, delay,
+          lastError != null ? lastError.getMessage() : "-");
+    }
+  }
+}
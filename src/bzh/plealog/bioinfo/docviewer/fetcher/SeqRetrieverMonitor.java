@@ -28,7 +28,6 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 
-import bzh.plealog.bioinfo.docviewer.api.DataListener;
 import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
 import bzh.plealog.bioinfo.docviewer.ui.resources.Messages;
 
@@ -41,7 +40,7 @@ import com.plealog.genericapp.ui.common.Utils;
  *
  * @author Patrick G. Durand
  */
-public abstract class SeqRetrieverMonitor extends JPanel implements DataListener {
+public abstract class SeqRetrieverMonitor extends JPanel implements FetchMonitor {
   private static final long serialVersionUID = -8729975150506984769L;
   private JProgressBar _progressBar;
   private JLabel _msg;
@@ -0,0 +1,219 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.fetcher;
+
+import java.io.PrintStream;
+
+/**
+ * This class monitors the sequence retrieval process without any UI. Progress
+ * is reported on a stream, one event per line. Each line is made of
+ * tab-separated fields, the first one being the event name:
+ * <ul>
+ * <li>start</li>
+ * <li>total &lt;documents&gt;</li>
+ * <li>progress &lt;done&gt; &lt;total&gt; &lt;percent&gt; &lt;elapsed ms&gt;
+ * &lt;remaining ms&gt;</li>
+ * <li>message &lt;text&gt;</li>
+ * <li>pause, restart, cancel</li>
+ * <li>error &lt;text&gt;</li>
+ * <li>done &lt;ok|error|cancelled&gt; &lt;done&gt; &lt;total&gt; &lt;elapsed
+ * ms&gt;</li>
+ * </ul>
+ * Progress lines are written at most once per report interval, so that a huge
+ * job does not flood the output. Nobody can restart a paused job: unless
+ * auto-restart is enabled, pausing the job cancels it.
+ *
+ * @author Patrick G. Durand
+ */
+public class StreamFetchMonitor implements FetchMonitor {
+  private PrintStream _out;
+  private long _reportInterval;
+  private boolean _autoRestart;
+
+  private String _errMsg;
+  private boolean _jobRunning;
+  private volatile boolean _cancelJob;
+  private volatile boolean _pauseJob;
+  private int _totSteps;
+  private int _curSteps;
+  private long _startTime;
+  private long _lastReport;
+
+  /**
+   * Constructor.
+   *
+   * @param out where to write progress
+   * @param reportInterval min time between two progress lines, in milliseconds
+   */
+  public StreamFetchMonitor(PrintStream out, long reportInterval) {
+    _out = out;
+    _reportInterval = reportInterval;
+  }
+
+  /**
+   * Restart a paused job right away instead of cancelling it. Default is
+   * false.
+   */
+  public void setAutoRestart(boolean autoRestart) {
+    _autoRestart = autoRestart;
+  }
+
+  private void write(String event, Object... fields) {
+    StringBuilder buf = new StringBuilder(event);
+
+    for (Object field : fields) {
+      buf.append('\t');
+      // keep one event per line
+      buf.append(String.valueOf(field).replace('\t', ' ').replace('\r', ' ').replace('\n', ' '));
+    }
+    synchronized (_out) {
+      _out.println(buf.toString());
+      _out.flush();
+    }
+  }
+
+  private void reportProgress(boolean force) {
+    long now = System.currentTimeMillis(), elapsed, remaining;
+
+    if (!force && now - _lastReport < _reportInterval)
+      return;
+    _lastReport = now;
+    elapsed = now - _startTime;
+    remaining = _curSteps != 0 ? elapsed * Math.max(0, _totSteps - _curSteps) / _curSteps : -1;
+    write("progress", _curSteps, _totSteps, _totSteps != 0 ? (_curSteps * 100L) / _totSteps : 0, elapsed,
+        remaining);
+  }
+
+  @Override
+  public synchronized void startJob() {
+    _jobRunning = true;
+    _startTime = System.currentTimeMillis();
+    write("start");
+  }
+
+  @Override
+  public synchronized void jobDone() {
+    String status;
+
+    _jobRunning = false;
+    if (_errMsg != null)
+      status = "error";
+    else if (_cancelJob)
+      status = "cancelled";
+    else
+      status = "ok";
+    write("done", status, _curSteps, _totSteps, System.currentTimeMillis() - _startTime);
+  }
+
+  @Override
+  public synchronized boolean isJobRunning() {
+    return _jobRunning;
+  }
+
+  @Override
+  public void cancelJob() {
+    _cancelJob = true;
+    write("cancel");
+  }
+
+  @Override
+  public void pauseJob() {
+    write("pause");
+    if (_autoRestart) {
+      restartJob();
+    } else {
+      cancelJob();
+    }
+  }
+
+  @Override
+  public boolean isPaused() {
+    return _pauseJob;
+  }
+
+  @Override
+  public void restartJob() {
+    _pauseJob = false;
+    write("restart");
+  }
+
+  @Override
+  public boolean interruptProcessing() {
+    return _cancelJob;
+  }
+
+  @Override
+  public boolean isInteractive() {
+    return false;
+  }
+
+  @Override
+  public synchronized void setTotSteps(int tot) {
+    _totSteps = tot;
+    write("total", tot);
+  }
+
+  @Override
+  public synchronized int getTotSteps() {
+    return _totSteps;
+  }
+
+  @Override
+  public synchronized void setCurSteps(int curSteps) {
+    _curSteps = curSteps;
+    reportProgress(_curSteps >= _totSteps);
+  }
+
+  @Override
+  public synchronized int getCurSteps() {
+    return _curSteps;
+  }
+
+  @Override
+  public synchronized void addSteps(int steps) {
+    _curSteps += steps;
+    reportProgress(_curSteps >= _totSteps);
+  }
+
+  @Override
+  public void setMessage(String msg) {
+    write("message", msg);
+  }
+
+  @Override
+  public synchronized void setErrMsg(String errMsg) {
+    _errMsg = errMsg;
+    write("error", errMsg);
+  }
+
+  @Override
+  public synchronized String getErrMsg() {
+    return _errMsg;
+  }
+
+  @Override
+  public void bytesRead(long bytes, long totalBytes) {
+  }
+
+  @Override
+  public void startReading() {
+  }
+
+  @Override
+  public void stopReading() {
+  }
+}
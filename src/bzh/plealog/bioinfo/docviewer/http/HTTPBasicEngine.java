@@ -17,15 +17,21 @@
 package bzh.plealog.bioinfo.docviewer.http;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import com.plealog.genericapp.api.log.EZLogger;
 
@@ -41,18 +47,27 @@ public class HTTPBasicEngine {
   public static int CONNECT_TIMEOUT = 5000; // 5 seconds
   public static int SOCKET_TIMEOUT = 60000; // 1 minute
   
-  private static void closeConnection(InputStream ins) {
-    if (ins != null) {
-      try {
-        ins.close();
-      } catch (IOException e) {
-      }
-    }
-  }
+  /** Ask servers to compress their answers. Data is decoded on the fly.*/
+  public static boolean ACCEPT_COMPRESSED_ANSWER = true;
+  
+  private static final String ACCEPT_ENCODING_KEY = "Accept-Encoding";
+  private static final String ACCEPT_ENCODING = "gzip, deflate";
+  private static final String GZIP = "gzip";
+  private static final String X_GZIP = "x-gzip";
+  private static final String DEFLATE = "deflate";
+  private static final String CONTENT_TYPE_KEY = "Content-Type";
+  private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+  private static ThreadLocal<HTTPTransferStats> _lastStats = new ThreadLocal<>();
 
   public static File doGet(String url) {
     return doGet(url, null);
   }
+
+  public static File doGet(String url, Map<String, String> header_attrs) {
+    return doGet(url, header_attrs, false);
+  }
+
   /**
    * Do a HTTP GET using the provided url.
    * 
@@ -61,19 +76,84 @@ public class HTTPBasicEngine {
    * 
    * @param header_attrs
    *          attributes to set in header connection
-   * @return a file containing the result. Returned file is set to deleteOnExit,
-   *         so you do not have to worry about deleting it.
+   * @param keepCompressed
+   *          if true and server sent a gzip-compressed answer, returned file
+   *          contains the compressed data. Use openResponseFile() to read such
+   *          a file.
+   * @return a file containing the result. Returned file is located in the
+   *         session directory of TempResourceManager, so it is deleted on
+   *         exit. However, caller should delete it as soon as possible. Prefer
+   *         doGetResource() when possible.
+   * 
+   * @throws HTTPEngineException
+   *           if something wrong occurs.
+   */
+  public static File doGet(String url, Map<String, String> header_attrs, boolean keepCompressed) {
+    return doRequest(url, header_attrs, keepCompressed, false);
+  }
+
+  public static File doPost(String url) {
+    return doPost(url, null);
+  }
+
+  /**
+   * Do a HTTP POST using the provided url. The query part of the URL (i.e.
+   * everything after '?') is sent as a form-urlencoded body instead of being
+   * part of the request line. Use this method when a URL contains a long list
+   * of IDs: there is no limit on the size of a POST body.
+   * 
+   * @param url
+   *          the URL. HTTP and HTTPS are supported.
+   * 
+   * @param header_attrs
+   *          attributes to set in header connection
+   * @return a file containing the result. See doGet() for more details.
+   * 
+   * @throws HTTPEngineException
+   *           if something wrong occurs.
+   */
+  public static File doPost(String url, Map<String, String> header_attrs) {
+    return doRequest(url, header_attrs, false, true);
+  }
+
+  public static TempResource doGetResource(String url) {
+    return doGetResource(url, null);
+  }
+
+  /**
+   * Do a HTTP GET using the provided url. Small answers are kept in memory,
+   * large ones are stored in a file (see TempResourceManager).
+   * 
+   * @param url
+   *          the URL. HTTP and HTTPS are supported.
+   * 
+   * @param header_attrs
+   *          attributes to set in header connection
+   * @return the result. Caller MUST close it as soon as it is not needed
+   *         anymore. Use of try-with-resources is recommended.
    * 
    * @throws HTTPEngineException
    *           if something wrong occurs.
    */
+  public static TempResource doGetResource(String url, Map<String, String> header_attrs) {
+    return doResource(url, header_attrs, false);
+  }
+
+  public static TempResource doPostResource(String url) {
+    return doPostResource(url, null);
+  }
+
+  /**
+   * Do a HTTP POST using the provided url. See doPost() and doGetResource()
+   * for more details.
+   */
+  public static TempResource doPostResource(String url, Map<String, String> header_attrs) {
+    return doResource(url, header_attrs, true);
+  }
+
   // Tutorial:
   // http://stackoverflow.com/questions/2793150/using-java-net-urlconnection-to-fire-and-handle-http-requests
-  public static File doGet(String url, Map<String, String> header_attrs) {
-    InputStream ins = null;
-    byte[] buffer = new byte[4096];
-    int n = -1;
-
+  private static File doRequest(String url, Map<String, String> header_attrs, boolean keepCompressed, boolean post) {
     // this is a very, very basic implementation to handle HTTP Get transactions
     // using URL APIs (e.g. NCBI eUtils, Ensembl, etc.). May need optimization
     // for more powerful needs...
@@ -84,19 +164,433 @@ public class HTTPBasicEngine {
 
     EZLogger.debug(url);
     try {
-      answerFile = File.createTempFile(TMP_FILE_PREFIX, TMP_FILE_SUFIX);
-      answerFile.deleteOnExit();
+      answerFile = TempResourceManager.createTempFile(TMP_FILE_PREFIX, TMP_FILE_SUFIX);
       EZLogger.debug(answerFile.getAbsolutePath());
     } catch (IOException e) {
       EZLogger.warn(e.toString());
       throw new HTTPEngineException("Failed to create response file", url, HTTPEngineException.HTTPEX_TMP_FILE_ERROR);
     }
 
-    // 2. run the HTTP GET method
+    // 2. run the HTTP GET/POST method
     try (OutputStream output = new FileOutputStream(answerFile)) {
-      // open connection to the remote server
-      URL myurl = new URL(url);
-      HttpURLConnection con = (HttpURLConnection) myurl.openConnection();
+      copyResponse(url, header_attrs, !keepCompressed, post, output);
+    } catch (HTTPEngineException hee) {
+      answerFile.delete();
+      throw hee;
+    } catch (IOException e) {
+      answerFile.delete();
+      EZLogger.warn(e.toString());
+      throw new HTTPEngineException("Unable to write in response file", url, HTTPEngineException.HTTPEX_WRITE_FILE_ERROR);
+    }
+    // 3. return answer
+    return answerFile;
+  }
+
+  private static TempResource doResource(String url, Map<String, String> header_attrs, boolean post) {
+    // identical requests running at the same time share a single download
+    return HTTPRequestCoalescer.getResource(HTTPResponseCache.getKey(url, header_attrs), url,
+        () -> downloadResource(url, header_attrs, post));
+  }
+
+  private static TempResource downloadResource(String url, Map<String, String> header_attrs, boolean post) {
+    TempResource answer;
+
+    EZLogger.debug(url);
+    answer = TempResourceManager.create(TMP_FILE_PREFIX);
+    try (OutputStream output = answer.getOutputStream()) {
+      copyResponse(url, header_attrs, true, post, output);
+    } catch (HTTPEngineException hee) {
+      answer.close();
+      throw hee;
+    } catch (IOException e) {
+      answer.close();
+      EZLogger.warn(e.toString());
+      throw new HTTPEngineException("Unable to write in response file", url, HTTPEngineException.HTTPEX_WRITE_FILE_ERROR);
+    }
+    return answer;
+  }
+
+  /**
+   * Run a HTTP GET/POST method and write the answer into the provided stream.
+   */
+  private static void copyResponse(String url, Map<String, String> header_attrs, boolean decode, boolean post,
+      OutputStream output) {
+    HTTPResponseStream ins = null;
+    byte[] buffer = new byte[4096];
+    int n = -1;
+
+    try {
+      ins = openResponse(url, header_attrs, decode, post);
+      // 200 OK: read server answer
+      while ((n = ins.read(buffer)) != -1) {
+        try {
+          output.write(buffer, 0, n);
+        } catch (IOException e) {
+          throw getWriteError(url, e);
+        }
+      }
+      try {
+        output.flush();
+      } catch (IOException e) {
+        throw getWriteError(url, e);
+      }
+      ins.close();
+    } catch (HTTPEngineException hee) {
+      throw hee;
+    } catch (SocketTimeoutException ste) {
+      throw new HTTPEngineException("Server does not answer (time out)", url, HTTPEngineException.HTTPEX_TIMEOUT);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new HTTPEngineException("Request interrupted", url, HTTPEngineException.HTTPEX_INTERRUPTED);
+    } catch (Exception e) {
+      // we Log the HTTP or IO error since message is usually out of concern
+      // for the end user. However, a log trace is always useful.
+      EZLogger.warn(e.toString());
+      // then raises a "generic" exception
+      throw new HTTPEngineException("Unable to read server answer", url, HTTPEngineException.HTTPEX_READ_ERROR);
+    }
+    finally {
+      // close HTTP connection. Does nothing if connection has already been
+      // released to the pool
+      if (ins != null) {
+        ins.abort();
+      }
+    }
+  }
+  
+  /**
+   * Errors occurring while writing server answer are local ones: they are not
+   * related to the server.
+   */
+  private static HTTPEngineException getWriteError(String url, IOException e) {
+    EZLogger.warn(e.toString());
+    return new HTTPEngineException("Unable to write in response file", url, HTTPEngineException.HTTPEX_WRITE_FILE_ERROR);
+  }
+
+  public static HTTPResponseStream doGetStream(String url) {
+    return doGetStream(url, null);
+  }
+
+  /**
+   * Do a HTTP GET using the provided url. Contrary to doGet(), server answer
+   * is not stored in a file: it can be directly read from the returned stream,
+   * e.g. to be parsed while data is arriving.
+   * 
+   * @param url
+   *          the URL. HTTP and HTTPS are supported.
+   * 
+   * @param header_attrs
+   *          attributes to set in header connection
+   * @return the response body. Caller MUST close that stream: this is required
+   *         to release the connection. Use of try-with-resources is
+   *         recommended.
+   * 
+   * @throws HTTPEngineException
+   *           if something wrong occurs.
+   */
+  public static HTTPResponseStream doGetStream(String url, Map<String, String> header_attrs) {
+    return doStream(url, header_attrs, false);
+  }
+
+  public static HTTPResponseStream doPostStream(String url) {
+    return doPostStream(url, null);
+  }
+
+  /**
+   * Do a HTTP POST using the provided url. See doPost() and doGetStream() for
+   * more details.
+   */
+  public static HTTPResponseStream doPostStream(String url, Map<String, String> header_attrs) {
+    return doStream(url, header_attrs, true);
+  }
+
+  private static HTTPResponseStream doStream(String url, Map<String, String> header_attrs, boolean post) {
+    EZLogger.debug(url);
+    try {
+      return openResponse(url, header_attrs, true, post);
+    } catch (HTTPEngineException hee) {
+      throw hee;
+    } catch (SocketTimeoutException ste) {
+      throw new HTTPEngineException("Server does not answer (time out)", url, HTTPEngineException.HTTPEX_TIMEOUT);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new HTTPEngineException("Request interrupted", url, HTTPEngineException.HTTPEX_INTERRUPTED);
+    } catch (Exception e) {
+      EZLogger.warn(e.toString());
+      throw new HTTPEngineException("Unable to read server answer", url, HTTPEngineException.HTTPEX_READ_ERROR);
+    }
+  }
+
+  /**
+   * Return the statistics of the last transfer started by the calling thread.
+   * Returns null if that thread has not run any transfer yet.
+   */
+  public static HTTPTransferStats getLastTransferStats() {
+    return _lastStats.get();
+  }
+
+  /**
+   * Open a file created by doGet(). Data is decoded on the fly if that file
+   * contains gzip-compressed data.
+   */
+  public static InputStream openResponseFile(File f) throws IOException {
+    PushbackInputStream pis;
+    byte[] magic = new byte[2];
+    int n;
+
+    pis = new PushbackInputStream(new FileInputStream(f), magic.length);
+    try {
+      n = readFully(pis, magic);
+      if (n > 0) {
+        pis.unread(magic, 0, n);
+      }
+      if (n == magic.length && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+        return new GZIPInputStream(pis);
+      }
+    } catch (IOException e) {
+      pis.close();
+      throw e;
+    }
+    return pis;
+  }
+
+  /**
+   * Send a request and prepare the stream to read the server answer. Answer
+   * is read from HTTPResponseCache when possible. A cacheable request waits
+   * for an identical one already running (see HTTPRequestCoalescer).
+   * 
+   * @param decode if false, gzip-compressed data is not decoded. Deflated data
+   * is always decoded.
+   * @param post use POST method instead of GET
+   */
+  private static HTTPResponseStream openResponse(String url, Map<String, String> header_attrs, boolean decode,
+      boolean post) throws IOException, InterruptedException {
+    HTTPResponseCache.Entry cacheEntry;
+    HTTPRequestCoalescer.StreamFlight flight;
+    HTTPResponseStream cached, response;
+
+    while (true) {
+      cacheEntry = HTTPResponseCache.lookup(url, header_attrs);
+      if (cacheEntry != null && cacheEntry.isFresh()) {
+        cached = openCachedResponse(url, cacheEntry, decode);
+        if (cached != null) {
+          return cached;
+        }
+      }
+      if (cacheEntry == null) {
+        // answer not cacheable: it cannot be shared with another request
+        return openNetworkResponse(url, header_attrs, decode, post, null);
+      }
+      // wait for an identical request that may put answer in the cache
+      flight = HTTPRequestCoalescer.startStream(cacheEntry.getCacheKey(), url);
+      if (flight != null) {
+        break;
+      }
+    }
+    try {
+      response = openNetworkResponse(url, header_attrs, decode, post, cacheEntry);
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      flight.terminate();
+      throw e;
+    }
+    if (response.getTransferStats().isFromCache()) {
+      flight.terminate();
+    } else {
+      response.setCloseListener(flight::terminate);
+    }
+    return response;
+  }
+
+  /**
+   * Prepare the stream to read an answer from the network. See openResponse().
+   *
+   * @param cacheEntry where to store the answer. Null if answer is not
+   * cacheable.
+   */
+  private static HTTPResponseStream openNetworkResponse(String url, Map<String, String> header_attrs,
+      boolean decode, boolean post, HTTPResponseCache.Entry cacheEntry) throws IOException, InterruptedException {
+    HTTPConnectionPool.PooledConnection pCon;
+    HTTPResponseStream cached, response;
+    HttpURLConnection con;
+    HTTPCountingInputStream wire;
+    InputStream body, decoded;
+    HTTPTransferStats stats;
+    String encoding;
+
+    if (cacheEntry != null && cacheEntry.isCached()) {
+      // expired entry: ask server whether or not it has changed
+      pCon = openConnection(url, cacheEntry.addValidators(header_attrs), post, true);
+    } else {
+      pCon = openConnection(url, header_attrs, post, false);
+    }
+    con = pCon.getConnection();
+    if (con.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+      pCon.release(con.getInputStream());
+      cacheEntry.revalidate(con);
+      cached = openCachedResponse(url, cacheEntry, decode);
+      if (cached != null) {
+        return cached;
+      }
+      // entry evicted in the meantime
+      pCon = openConnection(url, header_attrs, post, false);
+      con = pCon.getConnection();
+    }
+    stats = new HTTPTransferStats(url);
+    _lastStats.set(stats);
+    wire = null;
+    try {
+      encoding = con.getContentEncoding();
+      body = con.getInputStream();
+      if (cacheEntry != null) {
+        body = cacheEntry.store(url, con, body);
+      }
+      wire = new HTTPCountingInputStream(body, stats, true);
+      stats.setContentEncoding(encoding);
+      decoded = getDecodedStream(wire, encoding, decode);
+    } catch (IOException | RuntimeException e) {
+      pCon.abort();
+      throw e;
+    }
+    response = new HTTPResponseStream(pCon, wire, new HTTPCountingInputStream(decoded, stats, false), stats);
+    response.setCacheEntry(cacheEntry);
+    return response;
+  }
+
+  /**
+   * Prepare the stream to read an answer from the cache. Returns null if that
+   * answer is not available anymore.
+   */
+  private static HTTPResponseStream openCachedResponse(String url, HTTPResponseCache.Entry cacheEntry,
+      boolean decode) throws IOException {
+    HTTPCountingInputStream wire;
+    HTTPResponseStream response;
+    InputStream decoded, is;
+    HTTPTransferStats stats;
+    String encoding;
+
+    is = cacheEntry.open();
+    if (is == null) {
+      return null;
+    }
+    stats = new HTTPTransferStats(url);
+    stats.setFromCache();
+    _lastStats.set(stats);
+    encoding = cacheEntry.getContentEncoding();
+    stats.setContentEncoding(encoding);
+    wire = new HTTPCountingInputStream(is, stats, true);
+    try {
+      decoded = getDecodedStream(wire, encoding, decode);
+    } catch (IOException | RuntimeException e) {
+      wire.close();
+      throw e;
+    }
+    response = new HTTPResponseStream(null, wire, new HTTPCountingInputStream(decoded, stats, false), stats);
+    response.setCacheEntry(cacheEntry);
+    return response;
+  }
+
+  private static InputStream getDecodedStream(InputStream wire, String encoding, boolean decode) throws IOException {
+    PushbackInputStream pis;
+    byte[] header = new byte[2];
+    int n;
+
+    if (encoding == null) {
+      return wire;
+    }
+    encoding = encoding.trim().toLowerCase();
+    boolean gzip = encoding.equals(GZIP) || encoding.equals(X_GZIP);
+    if ((gzip && !decode) || (!gzip && !encoding.equals(DEFLATE))) {
+      return wire;
+    }
+    // decoders read stream header right away: handle the case of empty body
+    pis = new PushbackInputStream(wire, header.length);
+    n = readFully(pis, header);
+    if (n <= 0) {
+      return pis;
+    }
+    pis.unread(header, 0, n);
+    if (gzip) {
+      return new GZIPInputStream(pis);
+    }
+    // deflate is supposed to be zlib-wrapped (RFC 1950), but some servers
+    // send raw deflate data
+    boolean zlib = n == 2 && (header[0] & 0x0f) == 8 && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+    final Inflater inflater = new Inflater(!zlib);
+    return new InflaterInputStream(pis, inflater) {
+      @Override
+      public void close() throws IOException {
+        super.close();
+        // not done by super class when inflater is provided by caller
+        inflater.end();
+      }
+    };
+  }
+
+  /**
+   * Return the value of the Retry-After header field in milliseconds. This
+   * value can be provided either in seconds or as an HTTP date. Return -1 if
+   * not provided.
+   */
+  private static long getRetryAfter(HttpURLConnection con) {
+    String value = con.getHeaderField("Retry-After");
+    long date;
+
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return (long) (Double.parseDouble(value.trim()) * 1000d);
+    } catch (NumberFormatException e) {
+    }
+    date = con.getHeaderFieldDate("Retry-After", -1);
+    return date != -1 ? Math.max(0, date - System.currentTimeMillis()) : -1;
+  }
+
+  private static int readFully(InputStream is, byte[] buf) throws IOException {
+    int n, total = 0;
+    while (total < buf.length && (n = is.read(buf, total, buf.length - total)) != -1) {
+      total += n;
+    }
+    return total;
+  }
+
+  /**
+   * Open a connection to the remote server, send request and check response
+   * code. Connections are obtained from a pool so that sockets can be reused
+   * (HTTP keep-alive).
+   * 
+   * @param post if true, the query part of the URL is sent as the body of
+   * a POST request.
+   * @param conditional if true, a 304 answer (not modified) is accepted: this
+   * is used to revalidate cached answers.
+   * 
+   * @return a connection ready to read a server answer. 
+   * 
+   * @throws HTTPEngineException
+   *           if server does not answer with HTTP code 200.
+   */
+  private static HTTPConnectionPool.PooledConnection openConnection(String url, Map<String, String> header_attrs,
+      boolean post, boolean conditional) throws IOException, InterruptedException {
+    HTTPConnectionPool.PooledConnection pCon;
+    HttpURLConnection con;
+    byte[] body = null;
+    int idx;
+
+    // open connection to the remote server
+    URL myurl;
+    if (post) {
+      idx = url.indexOf('?');
+      myurl = new URL(idx != -1 ? url.substring(0, idx) : url);
+      body = (idx != -1 ? url.substring(idx + 1) : "").getBytes(StandardCharsets.UTF_8);
+    } else {
+      myurl = new URL(url);
+    }
+    // conform to the rate policy of the remote server before taking a
+    // connection: waiting does not prevent other hosts from using the pool
+    HTTPRateLimiter.acquire(myurl);
+    pCon = HTTPConnectionPool.openConnection(myurl);
+    try {
+      con = pCon.getConnection();
       if (header_attrs!=null){
         Iterator<String> attrIter = header_attrs.keySet().iterator();
         String key;
@@ -106,62 +600,70 @@ public class HTTPBasicEngine {
           con.setRequestProperty(key, header_attrs.get(key));
         }
       }
+      if (ACCEPT_COMPRESSED_ANSWER && con.getRequestProperty(ACCEPT_ENCODING_KEY) == null) {
+        con.setRequestProperty(ACCEPT_ENCODING_KEY, ACCEPT_ENCODING);
+      }
       con.setConnectTimeout(CONNECT_TIMEOUT);
       con.setReadTimeout(SOCKET_TIMEOUT);
+      if (post) {
+        con.setRequestMethod("POST");
+        con.setRequestProperty(CONTENT_TYPE_KEY, FORM_CONTENT_TYPE);
+        con.setDoOutput(true);
+        con.setFixedLengthStreamingMode(body.length);
+        try (OutputStream os = con.getOutputStream()) {
+          os.write(body);
+        }
+      }
       
       // ensembl and ebi provides additional header fields.
       // see
       // http://www.ebi.ac.uk/Tools/webservices/services/eb-eye_rest#additional_information_in_http_response_header
       // https://github.com/Ensembl/ensembl-rest/wiki/HTTP-Response-Codes
-      // some of these header values can be used to adapt connection to remote
-      // server. For now, we just monitor them... TODO: use them!
+      // rate limit values are used to adapt the rate of requests sent to
+      // remote server.
       EZLogger.debug(con.getHeaderFields().toString());
+      HTTPRateLimiter.update(myurl, con);
 
       // response code is checked before opening input stream
-      if (con.getResponseCode() != HttpURLConnection.HTTP_OK) {
-        throw new HTTPEngineException("Failed to connect to server", url, con.getResponseCode());
+      if (con.getResponseCode() != HttpURLConnection.HTTP_OK
+          && !(conditional && con.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+        // error body has to be consumed, otherwise the socket cannot be reused
+        pCon.release(con.getErrorStream());
+        throw new HTTPEngineException("Failed to connect to server", url, con.getResponseCode(), 
+            getRetryAfter(con));
       }
-
-      // 200 OK: read server answer
-      ins = con.getInputStream();
-      while ((n = ins.read(buffer)) != -1) {
-        output.write(buffer, 0, n);
-      }
-      output.flush();
-    } catch (HTTPEngineException hee) {
-      throw hee;
-    } catch (SocketTimeoutException ste) {
-      throw new HTTPEngineException("Server does not answer (time out)", url, HTTPEngineException.HTTPEX_TIMEOUT);
-    } catch (Exception e) {
-      // we Log the HTTP or IO error since message is usually out of concern
-      // for the end user. However, a log trace is always useful.
-      EZLogger.warn(e.toString());
-      // then raises a "generic" exception
-      throw new HTTPEngineException("Unable to write in response file", url, HTTPEngineException.HTTPEX_WRITE_FILE_ERROR);
-    }
-    finally {
-      // 3. close HTTP connection
-      closeConnection(ins);
+    } catch (IOException | RuntimeException e) {
+      pCon.abort();
+      throw e;
     }
-    // 4. return answer
-    return answerFile;
+    return pCon;
   }
-  
+
   /**
    * Figures out whether or not a particular web server is available.
    */
   public static boolean isServerAvailable(String url) {
+    HTTPConnectionPool.PooledConnection pCon = null;
     try {
       URL myurl = new URL(url);
-      HttpURLConnection httpConn = (HttpURLConnection)myurl.openConnection();
+      HTTPRateLimiter.acquire(myurl);
+      pCon = HTTPConnectionPool.openConnection(myurl);
+      HttpURLConnection httpConn = pCon.getConnection();
       httpConn.setInstanceFollowRedirects(false);
       httpConn.setRequestMethod("HEAD");
       httpConn.setConnectTimeout(CONNECT_TIMEOUT);
       httpConn.connect();
       EZLogger.debug(httpConn.getHeaderFields().toString());
+      // HEAD: there is no body to read, release connection for further reuse
+      pCon.release(httpConn.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST ? 
+          httpConn.getInputStream() : httpConn.getErrorStream());
     } catch (Exception e) {
       EZLogger.warn(e.toString());
       return false;
+    } finally {
+      if (pCon != null) {
+        pCon.abort();
+      }
     }
     //if we hit this line, server is available
     return true;
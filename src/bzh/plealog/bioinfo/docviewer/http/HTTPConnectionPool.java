@@ -0,0 +1,367 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Hashtable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.plealog.genericapp.api.log.EZLogger;
+
+/**
+ * Per-host HTTP connection pool used by HTTPBasicEngine.<br>
+ * <br>
+ * Sockets are actually kept alive by the JRE (see sun.net.www.http.KeepAliveCache):
+ * a connection goes back to that cache only when its response body has been fully
+ * read and its stream closed. This class enforces that discipline for all
+ * connections opened by HTTPBasicEngine, bounds the number of simultaneous
+ * connections per host and mirrors the JRE cache (same capacity, same idle
+ * timeout) so that we can estimate how many connections were created and how
+ * many were reused. The JRE does not report socket reuse: these numbers are
+ * estimates, not measures.<br>
+ * <br>
+ * JRE properties http.keepAlive and http.maxConnections are set by this class
+ * only when they are not provided on the command line (-D).
+ *
+ * @author Patrick G. Durand
+ */
+public class HTTPConnectionPool {
+  /** Default max number of connections opened at the same time on a single host.*/
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+  /** Default idle time after which a kept-alive connection is evicted. This is
+   * the JRE default value, used when server does not provide a Keep-Alive header.*/
+  public static final long DEFAULT_IDLE_TIMEOUT = 5000; // 5 seconds
+
+  // do not try to drain (so reuse) a connection when remaining data is larger
+  // than this value: closing the socket is cheaper
+  private static final int MAX_DRAIN_SIZE = 64 * 1024;
+
+  private static final String KEEP_ALIVE_PROP = "http.keepAlive";
+  private static final String MAX_CONNECTIONS_PROP = "http.maxConnections";
+
+  private static final String STAT_MSG = "HTTP connections on %s (estimated): created: %d, reused: %d, idle: %d";
+
+  private static int _maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+  private static long _idleTimeout = DEFAULT_IDLE_TIMEOUT;
+  private static Hashtable<String, HostPool> _hosts = new Hashtable<>();
+  private static AtomicLong _created = new AtomicLong();
+  private static AtomicLong _reused = new AtomicLong();
+
+  static {
+    String value;
+
+    if (System.getProperty(KEEP_ALIVE_PROP) == null) {
+      System.setProperty(KEEP_ALIVE_PROP, "true");
+    }
+    // keep the user value and mirror it
+    value = System.getProperty(MAX_CONNECTIONS_PROP);
+    if (value == null) {
+      System.setProperty(MAX_CONNECTIONS_PROP, String.valueOf(_maxConnectionsPerHost));
+    } else {
+      try {
+        _maxConnectionsPerHost = Math.max(1, Integer.parseInt(value.trim()));
+      } catch (NumberFormatException e) {
+        EZLogger.warn("Invalid " + MAX_CONNECTIONS_PROP + ": " + value);
+      }
+    }
+  }
+
+  private HTTPConnectionPool() {
+  }
+
+  /**
+   * Set the max number of connections that can be opened at the same time on a
+   * single host. This value is also used as the size of the keep-alive cache of
+   * each host. Has to be called before any connection is opened.
+   */
+  public static synchronized void setMaxConnectionsPerHost(int max) {
+    if (max < 1)
+      throw new IllegalArgumentException("max connections per host must be >= 1");
+    _maxConnectionsPerHost = max;
+    System.setProperty(MAX_CONNECTIONS_PROP, String.valueOf(max));
+    _hosts.clear();
+  }
+
+  /**
+   * Return the max number of connections that can be opened at the same time on a
+   * single host.
+   */
+  public static int getMaxConnectionsPerHost() {
+    return _maxConnectionsPerHost;
+  }
+
+  /**
+   * Set the idle time after which a kept-alive connection is considered as
+   * evicted when server does not specify it. Unit is milliseconds.
+   */
+  public static void setIdleTimeout(long timeout) {
+    _idleTimeout = timeout;
+  }
+
+  public static long getIdleTimeout() {
+    return _idleTimeout;
+  }
+
+  /**
+   * Return the estimated total number of connections created since application
+   * startup.
+   */
+  public static long getEstimatedConnectionsCreated() {
+    return _created.get();
+  }
+
+  /**
+   * Return the estimated total number of kept-alive connections reused since
+   * application startup.
+   */
+  public static long getEstimatedConnectionsReused() {
+    return _reused.get();
+  }
+
+  /**
+   * Return the estimated number of connections created on a particular host.
+   * Host is given as an URL, only protocol, host and port are used.
+   */
+  public static long getEstimatedConnectionsCreated(String url) {
+    HostPool pool = _hosts.get(getHostKey(url));
+    return pool != null ? pool.created.get() : 0l;
+  }
+
+  /**
+   * Return the estimated number of connections reused on a particular host.
+   * Host is given as an URL, only protocol, host and port are used.
+   */
+  public static long getEstimatedConnectionsReused(String url) {
+    HostPool pool = _hosts.get(getHostKey(url));
+    return pool != null ? pool.reused.get() : 0l;
+  }
+
+  /**
+   * Dump pool statistics using the logger. Debug level is used.
+   */
+  public static void dumpStatistics() {
+    synchronized (_hosts) {
+      for (HostPool pool : _hosts.values()) {
+        EZLogger.debug(pool.toString());
+      }
+    }
+  }
+
+  /**
+   * Open a connection to the provided URL. This method blocks when the max
+   * number of connections opened on the URL host is reached. Caller has to call
+   * either PooledConnection.release() or PooledConnection.abort() when it is
+   * done with the connection.
+   *
+   * @throws IOException if connection cannot be opened
+   * @throws InterruptedException if calling thread is interrupted while
+   * waiting for a connection slot
+   */
+  public static PooledConnection openConnection(URL url) throws IOException, InterruptedException {
+    HostPool pool;
+    HttpURLConnection con;
+
+    pool = getHostPool(url);
+    pool.slots.acquire();
+    try {
+      con = (HttpURLConnection) url.openConnection();
+    } catch (IOException | RuntimeException e) {
+      pool.slots.release();
+      throw e;
+    }
+    if (pool.takeIdleConnection()) {
+      pool.reused.incrementAndGet();
+      _reused.incrementAndGet();
+    } else {
+      pool.created.incrementAndGet();
+      _created.incrementAndGet();
+    }
+    return new PooledConnection(pool, con);
+  }
+
+  private static String getHostKey(URL url) {
+    int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    return url.getProtocol() + "://" + url.getHost() + ":" + port;
+  }
+
+  private static String getHostKey(String url) {
+    try {
+      return getHostKey(new URL(url));
+    } catch (IOException e) {
+      return url;
+    }
+  }
+
+  private static HostPool getHostPool(URL url) {
+    String key = getHostKey(url);
+    HostPool pool;
+    synchronized (_hosts) {
+      pool = _hosts.get(key);
+      if (pool == null) {
+        pool = new HostPool(key, _maxConnectionsPerHost);
+        _hosts.put(key, pool);
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * Bookkeeping of a single host.
+   */
+  private static class HostPool {
+    private String key;
+    private int capacity;
+    private Semaphore slots;
+    // expiration time of each idle connection, the most recent being last
+    private ArrayDeque<Long> idle = new ArrayDeque<>();
+    private AtomicLong created = new AtomicLong();
+    private AtomicLong reused = new AtomicLong();
+
+    private HostPool(String key, int capacity) {
+      this.key = key;
+      this.capacity = capacity;
+      this.slots = new Semaphore(capacity, true);
+    }
+
+    private synchronized void evictIdleConnections() {
+      long now = System.currentTimeMillis();
+      while (!idle.isEmpty() && idle.peekFirst() < now) {
+        idle.pollFirst();
+      }
+    }
+
+    private synchronized boolean takeIdleConnection() {
+      evictIdleConnections();
+      // JRE always reuses the most recently cached connection
+      return idle.pollLast() != null;
+    }
+
+    private synchronized void putIdleConnection(long timeout) {
+      evictIdleConnections();
+      if (idle.size() >= capacity) {
+        idle.pollFirst();
+      }
+      idle.addLast(System.currentTimeMillis() + timeout);
+    }
+
+    public synchronized String toString() {
+      evictIdleConnections();
+      return String.format(STAT_MSG, key, created.get(), reused.get(), idle.size());
+    }
+  }
+
+  /**
+   * A connection obtained from the pool.
+   */
+  public static class PooledConnection {
+    private HostPool pool;
+    private HttpURLConnection con;
+    private boolean released;
+
+    private PooledConnection(HostPool pool, HttpURLConnection con) {
+      this.pool = pool;
+      this.con = con;
+    }
+
+    /**
+     * Return the underlying connection.
+     */
+    public HttpURLConnection getConnection() {
+      return con;
+    }
+
+    /**
+     * Release this connection. Remaining data of the body stream is read so that
+     * the socket can be reused by a further request on the same host.
+     *
+     * @param body the body stream obtained from the connection. Can be null.
+     */
+    public synchronized void release(InputStream body) {
+      boolean reusable;
+
+      if (released)
+        return;
+      released = true;
+      reusable = body != null && drain(body) && !"close".equalsIgnoreCase(con.getHeaderField("Connection"));
+      if (reusable) {
+        pool.putIdleConnection(getKeepAliveTimeout());
+      } else {
+        con.disconnect();
+      }
+      pool.slots.release();
+    }
+
+    /**
+     * Release this connection without trying to reuse it.
+     */
+    public synchronized void abort() {
+      if (released)
+        return;
+      released = true;
+      con.disconnect();
+      pool.slots.release();
+    }
+
+    private boolean drain(InputStream body) {
+      byte[] buffer = new byte[4096];
+      int n, total = 0;
+      try {
+        while ((n = body.read(buffer)) != -1) {
+          total += n;
+          if (total > MAX_DRAIN_SIZE) {
+            return false;
+          }
+        }
+        return true;
+      } catch (IOException e) {
+        return false;
+      } finally {
+        try {
+          body.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+
+    // server may provide: "Keep-Alive: timeout=5, max=100"
+    private long getKeepAliveTimeout() {
+      String value = con.getHeaderField("Keep-Alive");
+      int idx;
+
+      if (value != null) {
+        idx = value.indexOf("timeout=");
+        if (idx != -1) {
+          value = value.substring(idx + 8);
+          idx = value.indexOf(',');
+          if (idx != -1) {
+            value = value.substring(0, idx);
+          }
+          try {
+            return Long.parseLong(value.trim()) * 1000l;
+          } catch (NumberFormatException e) {
+          }
+        }
+      }
+      return _idleTimeout;
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stream reporting the number of bytes read to an HTTPTransferStats.
+ * 
+ * @author Patrick G. Durand
+ */
+class HTTPCountingInputStream extends FilterInputStream {
+  private HTTPTransferStats stats;
+  private boolean wire;
+  private boolean failed;
+
+  /**
+   * Constructor.
+   * 
+   * @param in the stream to count
+   * @param stats where to report bytes count
+   * @param wire true if stream reads data from the network, false if it reads
+   * decoded data
+   */
+  HTTPCountingInputStream(InputStream in, HTTPTransferStats stats, boolean wire) {
+    super(in);
+    this.stats = stats;
+    this.wire = wire;
+  }
+
+  private void count(long n) {
+    if (n <= 0)
+      return;
+    if (wire)
+      stats.addWireBytes(n);
+    else
+      stats.addDecodedBytes(n);
+  }
+
+  /**
+   * Figures out whether or not a read error occurred on this stream.
+   */
+  boolean hasFailed() {
+    return failed;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b;
+    try {
+      b = in.read();
+    } catch (IOException e) {
+      failed = true;
+      throw e;
+    }
+    if (b != -1)
+      count(1);
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n;
+    try {
+      n = in.read(b, off, len);
+    } catch (IOException e) {
+      failed = true;
+      throw e;
+    }
+    count(n);
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long s;
+    try {
+      s = in.skip(n);
+    } catch (IOException e) {
+      failed = true;
+      throw e;
+    }
+    count(s);
+    return s;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+}
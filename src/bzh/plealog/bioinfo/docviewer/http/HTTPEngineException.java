@@ -22,6 +22,7 @@ public class HTTPEngineException extends RuntimeException {
 
   private int httpCode;
   private String url;
+  private long retryAfter = -1;
   
   /** 1001: unable to create response file, i.e. the file in which HTTPBasicEngine 
    * writes server answer.
@@ -35,6 +36,14 @@ public class HTTPEngineException extends RuntimeException {
    */
   public static final int HTTPEX_TIMEOUT = 1003;
 
+  /** 1004: unable to read server answer.
+   */
+  public static final int HTTPEX_READ_ERROR = 1004;
+
+  /** 1005: calling thread has been interrupted.
+   */
+  public static final int HTTPEX_INTERRUPTED = 1005;
+
   @SuppressWarnings("unused")
   private HTTPEngineException() {  }
 
@@ -44,6 +53,17 @@ public class HTTPEngineException extends RuntimeException {
     this.httpCode = httpcode;
   }
 
+  /**
+   * Constructor.
+   * 
+   * @param retryAfter delay requested by the server before sending a new
+   * request (Retry-After header field). Unit is milliseconds.
+   */
+  public HTTPEngineException(String message, String url, int httpcode, long retryAfter) {
+    this(message, url, httpcode);
+    this.retryAfter = retryAfter;
+  }
+
   /**
    * Return the URL responsible for the exception.
    */
@@ -59,6 +79,14 @@ public class HTTPEngineException extends RuntimeException {
     return httpCode;
   }
 
+  /**
+   * Return the delay requested by the server before sending a new request. Unit
+   * is milliseconds. Returns -1 if server did not provide such a delay.
+   */
+  public long getRetryAfter(){
+    return retryAfter;
+  }
+
   /**
    * Figures out whether or not we have a problem with response file.
    */
@@ -66,6 +94,16 @@ public class HTTPEngineException extends RuntimeException {
     return httpCode>=1000;
   }
 
+  /**
+   * Figures out whether or not we have a local problem: response file cannot
+   * be created or written, or calling thread has been interrupted. Contrary
+   * to other errors, it is not related to the remote server.
+   */
+  public boolean isLocalError(){
+    return httpCode==HTTPEX_TMP_FILE_ERROR || httpCode==HTTPEX_WRITE_FILE_ERROR 
+        || httpCode==HTTPEX_INTERRUPTED;
+  }
+
   /**
    * Figures out whether or not we have an HTTP error code of class 5xx.
    */
@@ -82,6 +120,19 @@ public class HTTPEngineException extends RuntimeException {
    * Figures out whether or not we have an HTTP error code 404.
    */
   public boolean isWrongUrl(){
-    return httpCode==400;
+    return httpCode==404;
+  }
+  /**
+   * Figures out whether or not server asks to slow down: HTTP error code 429
+   * (too many requests) or 503 (service unavailable).
+   */
+  public boolean isThrottled(){
+    return httpCode==429 || httpCode==503;
+  }
+  /**
+   * Figures out whether or not we have a time out.
+   */
+  public boolean isTimeout(){
+    return httpCode==HTTPEX_TIMEOUT || httpCode==408;
   }
 }
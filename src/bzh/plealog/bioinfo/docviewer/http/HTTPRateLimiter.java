@@ -0,0 +1,304 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.http;
+
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Hashtable;
+
+import com.plealog.genericapp.api.log.EZLogger;
+
+/**
+ * Per-host rate limiter used by HTTPBasicEngine before sending any request.<br>
+ * <br>
+ * Each host has its own token bucket. Its rate is set by the service
+ * provider (e.g. NCBI allows 3 requests per second, 10 with an API key) and it
+ * is lowered at runtime when a server reports its own quota using the
+ * X-RateLimit-* headers (Ensembl, EBI) or asks to wait using a Retry-After
+ * header. Since a token is only consumed when a request is sent, the time
+ * spent by a request is deducted from the wait time of the next one.<br>
+ * <br>
+ * A policy can also be restricted to a single service of a host (see
+ * setServiceRequestsPerSecond()): its requests use their own bucket while other
+ * requests sent to that host use the host one, if any. Hosts without any
+ * policy are not limited.
+ *
+ * @author Patrick G. Durand
+ */
+public class HTTPRateLimiter {
+  private static final String RATE_LIMIT = "X-RateLimit-Limit";
+  private static final String RATE_REMAINING = "X-RateLimit-Remaining";
+  private static final String RATE_RESET = "X-RateLimit-Reset";
+  private static final String RETRY_AFTER = "Retry-After";
+  private static final String HTTP_TOO_MANY_REQUESTS = "429";
+
+  private static final String RATE_MSG = "Rate limit for %s: %.2f req/s";
+  private static final String WAIT_MSG = "Rate limit for %s: wait %d ms";
+  private static final String BLOCK_MSG = "Rate limit for %s: blocked for %d ms";
+
+  private static Hashtable<String, HTTPRateLimiter> _limiters = new Hashtable<>();
+  // limiters restricted to a service, keyed by URL prefix
+  private static Hashtable<String, HTTPRateLimiter> _serviceLimiters = new Hashtable<>();
+
+  private String host;
+  // rate set by the service provider
+  private double maxRate;
+  // rate currently applied: lower than maxRate if server says so
+  private double rate;
+  // time (nano) at which next request can be sent
+  private long nextSlot;
+  // time (nano) until which no request can be sent (server asked so)
+  private long blockedUntil;
+
+  private HTTPRateLimiter(String host, double maxRate) {
+    this.host = host;
+    this.maxRate = maxRate;
+    this.rate = maxRate;
+    this.nextSlot = System.nanoTime();
+  }
+
+  /**
+   * Set the max number of requests per second that can be sent to a host.
+   *
+   * @param url an URL targeting the host. Only host name is used.
+   * @param requestsPerSecond max number of requests per second. Use zero or
+   * a negative value to disable rate limiting for that host.
+   */
+  public static void setRequestsPerSecond(String url, double requestsPerSecond) {
+    String key = getHostKey(url);
+    HTTPRateLimiter limiter;
+
+    if (key == null)
+      return;
+    if (requestsPerSecond <= 0) {
+      _limiters.remove(key);
+      return;
+    }
+    synchronized (_limiters) {
+      limiter = _limiters.get(key);
+      if (limiter == null) {
+        _limiters.put(key, new HTTPRateLimiter(key, requestsPerSecond));
+      } else {
+        limiter.setMaxRate(requestsPerSecond);
+      }
+    }
+    EZLogger.debug(String.format(RATE_MSG, key, requestsPerSecond));
+  }
+
+  /**
+   * Set the max number of requests per second that can be sent to a single
+   * service. Other services of the same host are not affected.
+   *
+   * @param url URL of the service. Query part and runtime keys (@DB@, @ID@,
+   * etc.) are discarded: the remaining part is the prefix of the URLs of that
+   * service.
+   * @param requestsPerSecond max number of requests per second. Use zero or
+   * a negative value to disable rate limiting for that service.
+   */
+  public static void setServiceRequestsPerSecond(String url, double requestsPerSecond) {
+    String prefix = getServicePrefix(url);
+    HTTPRateLimiter limiter;
+
+    if (requestsPerSecond <= 0) {
+      _serviceLimiters.remove(prefix);
+      return;
+    }
+    synchronized (_serviceLimiters) {
+      limiter = _serviceLimiters.get(prefix);
+      if (limiter == null) {
+        _serviceLimiters.put(prefix, new HTTPRateLimiter(prefix, requestsPerSecond));
+      } else {
+        limiter.setMaxRate(requestsPerSecond);
+      }
+    }
+    EZLogger.debug(String.format(RATE_MSG, prefix, requestsPerSecond));
+  }
+
+  /**
+   * Return the number of requests per second currently allowed on an URL.
+   * Returns zero if that URL is not rate limited.
+   */
+  public static double getRequestsPerSecond(String url) {
+    HTTPRateLimiter limiter;
+
+    try {
+      limiter = getLimiter(new URL(url));
+    } catch (MalformedURLException e) {
+      return 0d;
+    }
+    return limiter != null ? limiter.getRate() : 0d;
+  }
+
+  /**
+   * Return the limiter applying to an URL: the one of the most specific
+   * service, if any, otherwise the one of its host.
+   */
+  private static HTTPRateLimiter getLimiter(URL url) {
+    String str, prefix = null;
+
+    if (!_serviceLimiters.isEmpty()) {
+      str = url.toString();
+      synchronized (_serviceLimiters) {
+        for (String p : _serviceLimiters.keySet()) {
+          if (str.startsWith(p) && (prefix == null || p.length() > prefix.length())) {
+            prefix = p;
+          }
+        }
+        if (prefix != null)
+          return _serviceLimiters.get(prefix);
+      }
+    }
+    return _limiters.get(getHostKey(url));
+  }
+
+  /**
+   * Wait until a request can be sent to the provided URL.
+   */
+  static void acquire(URL url) throws InterruptedException {
+    HTTPRateLimiter limiter = getLimiter(url);
+    long wait;
+
+    if (limiter == null)
+      return;
+    wait = limiter.reserve();
+    if (wait > 0) {
+      EZLogger.debug(String.format(WAIT_MSG, limiter.host, wait / 1000000l));
+      Thread.sleep(wait / 1000000l, (int) (wait % 1000000l));
+    }
+  }
+
+  /**
+   * Adapt the rate of the host of the provided URL given the header fields
+   * returned by that host.
+   */
+  static void update(URL url, HttpURLConnection con) {
+    String limit, remaining, reset, retryAfter;
+    HTTPRateLimiter limiter;
+    String key;
+    double rRemaining, rReset;
+
+    limit = con.getHeaderField(RATE_LIMIT);
+    remaining = con.getHeaderField(RATE_REMAINING);
+    reset = con.getHeaderField(RATE_RESET);
+    retryAfter = con.getHeaderField(RETRY_AFTER);
+    if (limit == null && remaining == null && retryAfter == null)
+      return;
+
+    key = getHostKey(url);
+    synchronized (_limiters) {
+      limiter = getLimiter(url);
+      if (limiter == null) {
+        // a server may provide a policy we do not know yet
+        limiter = new HTTPRateLimiter(key, Double.MAX_VALUE);
+        _limiters.put(key, limiter);
+      }
+    }
+    rRemaining = parseSeconds(remaining);
+    rReset = parseSeconds(reset);
+    if (retryAfter != null && isThrottled(con)) {
+      limiter.block((long) (parseSeconds(retryAfter) * 1000d));
+    } else if (rRemaining == 0d && rReset > 0d) {
+      limiter.block((long) (rReset * 1000d));
+    } else if (rRemaining > 0d && rReset > 0d) {
+      // spread remaining requests until quota is reset
+      limiter.setRate(rRemaining / rReset);
+    }
+  }
+
+  private static boolean isThrottled(HttpURLConnection con) {
+    String status = con.getHeaderField(0);
+    // do not call getResponseCode() here: it may throw an IOException
+    return status == null || status.contains(HTTP_TOO_MANY_REQUESTS)
+        || status.contains(String.valueOf(HttpURLConnection.HTTP_UNAVAILABLE));
+  }
+
+  private static double parseSeconds(String value) {
+    if (value == null)
+      return -1d;
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      // Retry-After may also be an HTTP date: use a safe default
+      return 1d;
+    }
+  }
+
+  private static String getServicePrefix(String url) {
+    int idx = url.indexOf('?');
+    if (idx != -1) {
+      url = url.substring(0, idx);
+    }
+    idx = url.indexOf('@');
+    if (idx != -1) {
+      url = url.substring(0, idx);
+    }
+    return url;
+  }
+
+  private static String getHostKey(URL url) {
+    return url.getHost().toLowerCase();
+  }
+
+  private static String getHostKey(String url) {
+    try {
+      return getHostKey(new URL(url));
+    } catch (MalformedURLException e) {
+      EZLogger.warn(e.toString());
+      return null;
+    }
+  }
+
+  private synchronized void setMaxRate(double maxRate) {
+    this.maxRate = maxRate;
+    this.rate = maxRate;
+  }
+
+  private synchronized void setRate(double newRate) {
+    newRate = Math.min(newRate, maxRate);
+    if (newRate != rate) {
+      rate = newRate;
+      EZLogger.debug(String.format(RATE_MSG, host, rate));
+    }
+  }
+
+  private synchronized double getRate() {
+    return rate == Double.MAX_VALUE ? 0d : rate;
+  }
+
+  private synchronized void block(long millis) {
+    long until = System.nanoTime() + millis * 1000000l;
+    if (until > blockedUntil) {
+      blockedUntil = until;
+      EZLogger.debug(String.format(BLOCK_MSG, host, millis));
+    }
+  }
+
+  /**
+   * Reserve next slot. Return the time to wait (nano) before using it.
+   */
+  private synchronized long reserve() {
+    long now, slot;
+
+    now = System.nanoTime();
+    slot = Math.max(Math.max(now, nextSlot), blockedUntil);
+    if (rate != Double.MAX_VALUE) {
+      nextSlot = slot + (long) (1000000000d / rate);
+    }
+    return slot - now;
+  }
+}
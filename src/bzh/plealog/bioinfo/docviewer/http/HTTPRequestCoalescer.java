@@ -0,0 +1,296 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.plealog.genericapp.api.log.EZLogger;
+
+/**
+ * Merge identical requests running at the same time, so that they share a
+ * single network call. Used by HTTPBasicEngine.<br>
+ * <br>
+ * Two kinds of requests are handled:
+ * <ul>
+ * <li>requests whose answer is stored in a TempResource: the first caller
+ * (the leader) runs the request, the other ones wait for it. Each caller gets
+ * its own resource: the leader's one is duplicated locally, which is far
+ * cheaper than downloading it again.</li>
+ * <li>streamed requests whose answer goes to the HTTPResponseCache: the other
+ * callers wait until the leader has closed its stream, then they read the
+ * answer from the cache. A caller does not wait more than
+ * HTTPBasicEngine.SOCKET_TIMEOUT: after that delay, it runs its own
+ * request.</li>
+ * </ul>
+ * Requests are identical when they have the same key in the
+ * HTTPResponseCache, i.e. the same normalized URL and header fields.
+ *
+ * @author Patrick G. Durand
+ */
+public class HTTPRequestCoalescer {
+  private static final String TMP_FILE_PREFIX = "shared";
+  private static final String JOIN_MSG = "Request joined: %s";
+  private static final String STAT_MSG = "Coalesced requests: %d/%d, %d in flight";
+
+  private static volatile boolean _enabled = true;
+  private static ConcurrentHashMap<String, ResourceFlight> _resourceFlights = new ConcurrentHashMap<>();
+  private static ConcurrentHashMap<String, StreamFlight> _streamFlights = new ConcurrentHashMap<>();
+  private static AtomicLong _requests = new AtomicLong();
+  private static AtomicLong _coalesced = new AtomicLong();
+
+  private HTTPRequestCoalescer() {
+  }
+
+  /**
+   * Enable or disable request coalescing. Default is enabled.
+   */
+  public static void setEnabled(boolean enabled) {
+    _enabled = enabled;
+  }
+
+  public static boolean isEnabled() {
+    return _enabled;
+  }
+
+  /**
+   * Return the number of requests handled by this class since application
+   * startup.
+   */
+  public static long getRequests() {
+    return _requests.get();
+  }
+
+  /**
+   * Return the number of requests that did not go to the network since they
+   * joined an identical running request.
+   */
+  public static long getCoalescedRequests() {
+    return _coalesced.get();
+  }
+
+  /**
+   * Return the number of requests currently running.
+   */
+  public static int getInFlightRequests() {
+    return _resourceFlights.size() + _streamFlights.size();
+  }
+
+  /**
+   * Dump statistics using the logger. Debug level is used.
+   */
+  public static void dumpStatistics() {
+    EZLogger.debug(String.format(STAT_MSG, _coalesced.get(), _requests.get(), getInFlightRequests()));
+  }
+
+  /**
+   * Run a request whose answer is a TempResource, unless an identical request
+   * is already running.
+   *
+   * @param key the request key
+   * @param url the request URL, only used for logging
+   * @param request runs the request
+   *
+   * @return the answer. Each caller gets its own resource and must close it.
+   */
+  static TempResource getResource(String key, String url, Supplier<TempResource> request) {
+    ResourceFlight flight, current;
+    TempResource answer;
+
+    if (!_enabled)
+      return request.get();
+    _requests.incrementAndGet();
+    while (true) {
+      flight = new ResourceFlight();
+      current = _resourceFlights.putIfAbsent(key, flight);
+      if (current == null)
+        break;
+      if (!current.join()) {
+        // flight terminated in the meantime
+        _resourceFlights.remove(key, current);
+        continue;
+      }
+      answer = current.take(url);
+      if (answer != null) {
+        _coalesced.incrementAndGet();
+        EZLogger.debug(String.format(JOIN_MSG, url));
+        return answer;
+      }
+      // leader failed: it got the error, others retry on their own
+    }
+    answer = null;
+    try {
+      answer = request.get();
+    } finally {
+      // no one can join once the flight has been removed
+      _resourceFlights.remove(key, flight);
+      flight.terminate(answer);
+    }
+    return flight.take(url);
+  }
+
+  /**
+   * Start a streamed request, unless an identical request is already running.
+   * In the latter case, wait until that request has completed.
+   *
+   * @param key the request key
+   * @param url the request URL, only used for logging
+   *
+   * @return the flight to terminate once the answer has been read. Returns
+   * null if an identical request has just completed: its answer may be
+   * available in the HTTPResponseCache.
+   */
+  static StreamFlight startStream(String key, String url) throws InterruptedException {
+    StreamFlight flight, current;
+
+    if (!_enabled)
+      return new StreamFlight(null);
+    flight = new StreamFlight(key);
+    current = _streamFlights.putIfAbsent(key, flight);
+    if (current == null) {
+      _requests.incrementAndGet();
+      return flight;
+    }
+    if (current.await(HTTPBasicEngine.SOCKET_TIMEOUT)) {
+      // if the answer did not reach the cache, caller comes back here and
+      // is counted again
+      _coalesced.incrementAndGet();
+      _requests.incrementAndGet();
+      EZLogger.debug(String.format(JOIN_MSG, url));
+      return null;
+    }
+    // running request is too long: do not wait anymore
+    _requests.incrementAndGet();
+    return new StreamFlight(null);
+  }
+
+  /**
+   * A request whose answer is shared by several callers.
+   */
+  private static class ResourceFlight {
+    private TempResource answer;
+    private boolean terminated;
+    private int callers = 1;
+    private int served;
+
+    /**
+     * Add a caller. Returns false if the flight has already terminated.
+     */
+    synchronized boolean join() {
+      if (terminated)
+        return false;
+      callers++;
+      return true;
+    }
+
+    synchronized void terminate(TempResource answer) {
+      this.answer = answer;
+      terminated = true;
+      notifyAll();
+    }
+
+    /**
+     * Return the answer of a caller. The last one gets the original resource,
+     * the other ones get a copy. Returns null if the request has failed.
+     */
+    synchronized TempResource take(String url) {
+      try {
+        while (!terminated) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        // the leader is always served after termination, so the original
+        // resource is never lost here
+        served++;
+        Thread.currentThread().interrupt();
+        throw new HTTPEngineException("Request interrupted", url, HTTPEngineException.HTTPEX_INTERRUPTED);
+      }
+      served++;
+      if (answer == null || served == callers)
+        return answer;
+      try {
+        return copy(answer);
+      } catch (IOException e) {
+        EZLogger.warn(e.toString());
+        throw new HTTPEngineException("Unable to write in response file", url,
+            HTTPEngineException.HTTPEX_WRITE_FILE_ERROR);
+      }
+    }
+
+    private TempResource copy(TempResource source) throws IOException {
+      TempResource target = TempResourceManager.create(TMP_FILE_PREFIX);
+      byte[] buffer = new byte[4096];
+      int n;
+
+      try (InputStream is = source.getInputStream(); OutputStream os = target.getOutputStream()) {
+        while ((n = is.read(buffer)) != -1) {
+          os.write(buffer, 0, n);
+        }
+      } catch (IOException e) {
+        target.close();
+        throw e;
+      }
+      return target;
+    }
+  }
+
+  /**
+   * A streamed request other callers may wait for.
+   */
+  static class StreamFlight {
+    private String key;
+    private boolean terminated;
+
+    private StreamFlight(String key) {
+      this.key = key;
+    }
+
+    /**
+     * Wait for the end of this flight. Returns false if it is still running
+     * after the given delay (in milliseconds).
+     */
+    private synchronized boolean await(long delay) throws InterruptedException {
+      long end = System.currentTimeMillis() + delay;
+      long wait;
+
+      while (!terminated) {
+        wait = end - System.currentTimeMillis();
+        if (wait <= 0)
+          return false;
+        wait(wait);
+      }
+      return true;
+    }
+
+    /**
+     * Terminate this flight: wake up waiting callers.
+     */
+    void terminate() {
+      // remove first, so that woken up callers do not find it again
+      if (key != null)
+        _streamFlights.remove(key, this);
+      synchronized (this) {
+        terminated = true;
+        notifyAll();
+      }
+    }
+  }
+}
@@ -0,0 +1,779 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.plealog.genericapp.api.log.EZLogger;
+
+/**
+ * Persistent cache of HTTP responses used by HTTPBasicEngine.<br>
+ * <br>
+ * Only services registered with a time-to-live are cached (see
+ * setTimeToLive()): service providers usually register their search and
+ * summary services, not the ones used to fetch sequences. An entry is keyed by
+ * its normalized URL: parameters are sorted and the ones that do not change the
+ * answer (tool, email, api_key) are ignored. The query part of a POST request
+ * is part of its URL, so POST and GET requests share the same entries.
+ * Requests relying on a server side session (NCBI history server: usehistory,
+ * WebEnv, query_key) are never cached.<br>
+ * <br>
+ * A response is stored as received from the network (i.e. possibly
+ * compressed) and it becomes available once its body has been entirely read.
+ * When an entry has expired, it is revalidated using the ETag or Last-Modified
+ * header fields provided by the server, if any: a 304 answer makes the entry
+ * fresh again without downloading it.<br>
+ * <br>
+ * Some servers report errors using an HTTP 200 answer (e.g. NCBI ERROR
+ * element): callers detecting such an error use
+ * HTTPResponseStream.discardCachedAnswer() so that it is not replayed.<br>
+ * <br>
+ * Size of the cache is bounded: least recently used entries are evicted
+ * first. The cache is disabled until initialize() is called.
+ *
+ * @author Patrick G. Durand
+ */
+public class HTTPResponseCache {
+  /** Default max size of the cache: 100 Mb.*/
+  public static final long DEFAULT_MAX_SIZE = 100l * 1024l * 1024l;
+
+  private static final String BODY_EXT = ".dat";
+  private static final String META_EXT = ".properties";
+  private static final String TMP_EXT = ".tmp";
+
+  private static final String URL_KEY = "url";
+  private static final String ENCODING_KEY = "encoding";
+  private static final String ETAG_KEY = "etag";
+  private static final String LAST_MODIFIED_KEY = "lastModified";
+  private static final String EXPIRES_KEY = "expires";
+  private static final String SIZE_KEY = "size";
+
+  private static final String IF_NONE_MATCH = "If-None-Match";
+  private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+  private static final String ETAG = "ETag";
+  private static final String LAST_MODIFIED = "Last-Modified";
+  private static final String CACHE_CONTROL = "Cache-Control";
+  private static final String NO_STORE = "no-store";
+  private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+  // parameters added to every URL that do not change the server answer
+  private static final List<String> IGNORED_PARAMS = Arrays.asList("tool", "email", "api_key");
+  // parameters of requests whose answer depends on a server side session
+  private static final List<String> SESSION_PARAMS = Arrays.asList("usehistory", "webenv", "query_key");
+
+  private static final String INIT_MSG = "HTTP cache: %s, %d entries, %d bytes";
+  private static final String HIT_MSG = "HTTP cache hit: %s";
+  private static final String REVALIDATED_MSG = "HTTP cache revalidated: %s";
+  private static final String STAT_MSG = "HTTP cache: %d hits, %d revalidations, %d misses, %d entries, %d bytes";
+
+  private static volatile HTTPResponseCache _cache;
+  private static Hashtable<String, Long> _ttls = new Hashtable<>();
+
+  private File dir;
+  private long maxSize;
+  private long size;
+  // entry sizes, least recently used first
+  private LinkedHashMap<String, Long> index = new LinkedHashMap<>(256, 0.75f, true);
+  private AtomicLong hits = new AtomicLong();
+  private AtomicLong revalidations = new AtomicLong();
+  private AtomicLong misses = new AtomicLong();
+
+  private HTTPResponseCache(File dir, long maxSize) {
+    this.dir = dir;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Enable the cache.
+   *
+   * @param dir where to store cached answers. Created if needed.
+   * @param maxSize max size of the cache in bytes. Use zero or a negative
+   * value to disable the cache.
+   *
+   * @throws IOException if directory cannot be created
+   */
+  public static synchronized void initialize(File dir, long maxSize) throws IOException {
+    HTTPResponseCache cache;
+
+    if (maxSize <= 0) {
+      _cache = null;
+      return;
+    }
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new IOException("unable to create: " + dir.getAbsolutePath());
+    }
+    cache = new HTTPResponseCache(dir, maxSize);
+    cache.loadIndex();
+    _cache = cache;
+    EZLogger.debug(String.format(INIT_MSG, dir.getAbsolutePath(), cache.index.size(), cache.size));
+  }
+
+  /**
+   * Figures out whether or not the cache is enabled.
+   */
+  public static boolean isEnabled() {
+    return _cache != null;
+  }
+
+  /**
+   * Set the time during which answers of a service are used without asking the
+   * server again.
+   *
+   * @param url the URL of the service. Everything after the query part or the
+   * first template tag (e.g. @DB@) is ignored, so service URLs defined in
+   * configuration files can be used as is.
+   * @param ttl time-to-live in milliseconds. Use zero or a negative value to
+   * disable caching of that service.
+   */
+  public static void setTimeToLive(String url, long ttl) {
+    String prefix = getServicePrefix(url);
+    if (ttl <= 0) {
+      _ttls.remove(prefix);
+    } else {
+      _ttls.put(prefix, ttl);
+    }
+  }
+
+  /**
+   * Return the time-to-live of answers provided by an URL. Returns zero if
+   * such answers are not cached.
+   */
+  public static long getTimeToLive(String url) {
+    String prefix = null;
+    synchronized (_ttls) {
+      // most specific service wins
+      for (String p : _ttls.keySet()) {
+        if (url.startsWith(p) && (prefix == null || p.length() > prefix.length())) {
+          prefix = p;
+        }
+      }
+      return prefix != null ? _ttls.get(prefix) : 0l;
+    }
+  }
+
+  /**
+   * Remove all entries from the cache.
+   */
+  public static void clear() {
+    HTTPResponseCache cache = _cache;
+    if (cache == null)
+      return;
+    synchronized (cache) {
+      for (String key : new ArrayList<>(cache.index.keySet())) {
+        cache.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Return the number of answers read from the cache since application
+   * startup, including revalidated ones.
+   */
+  public static long getHits() {
+    HTTPResponseCache cache = _cache;
+    return cache != null ? cache.hits.get() : 0l;
+  }
+
+  /**
+   * Return the number of answers read from the cache after a successful
+   * revalidation.
+   */
+  public static long getRevalidations() {
+    HTTPResponseCache cache = _cache;
+    return cache != null ? cache.revalidations.get() : 0l;
+  }
+
+  /**
+   * Return the number of cacheable answers obtained from the network.
+   */
+  public static long getMisses() {
+    HTTPResponseCache cache = _cache;
+    return cache != null ? cache.misses.get() : 0l;
+  }
+
+  /**
+   * Return the current size of the cache in bytes.
+   */
+  public static long getSize() {
+    HTTPResponseCache cache = _cache;
+    if (cache == null)
+      return 0l;
+    synchronized (cache) {
+      return cache.size;
+    }
+  }
+
+  /**
+   * Dump cache statistics using the logger. Debug level is used.
+   */
+  public static void dumpStatistics() {
+    HTTPResponseCache cache = _cache;
+    if (cache == null)
+      return;
+    synchronized (cache) {
+      EZLogger.debug(String.format(STAT_MSG, cache.hits.get(), cache.revalidations.get(), cache.misses.get(),
+          cache.index.size(), cache.size));
+    }
+  }
+
+  /**
+   * Prepare the cache lookup of a request.
+   *
+   * @return null if cache is disabled or if the request is not cacheable.
+   */
+  static Entry lookup(String url, Map<String, String> header_attrs) {
+    HTTPResponseCache cache = _cache;
+    long ttl;
+
+    if (cache == null)
+      return null;
+    ttl = getTimeToLive(url);
+    if (ttl <= 0 || isSessionRequest(url))
+      return null;
+    return cache.new Entry(getKey(url, header_attrs), ttl);
+  }
+
+  /**
+   * Figures out whether or not the answer of a request depends on a server
+   * side session. Such an answer cannot be reused: the session expires.
+   */
+  private static boolean isSessionRequest(String url) {
+    String name;
+    int idx;
+
+    idx = url.indexOf('?');
+    if (idx == -1)
+      return false;
+    for (String param : url.substring(idx + 1).split("&")) {
+      idx = param.indexOf('=');
+      name = idx != -1 ? param.substring(0, idx) : param;
+      if (SESSION_PARAMS.contains(name.toLowerCase()))
+        return true;
+    }
+    return false;
+  }
+
+  private static String getServicePrefix(String url) {
+    int idx = url.indexOf('?');
+    if (idx != -1) {
+      url = url.substring(0, idx);
+    }
+    idx = url.indexOf('@');
+    if (idx != -1) {
+      url = url.substring(0, idx);
+    }
+    return url;
+  }
+
+  /**
+   * Normalize a URL: parameters are sorted and the ones that do not change the
+   * answer are removed. Since these include credentials (e.g. api_key), only
+   * normalized URLs are written to the cache directory.
+   */
+  static String normalizeUrl(String url) {
+    StringBuilder buf = new StringBuilder();
+    List<String> params = new ArrayList<>();
+    String name;
+    int idx;
+
+    idx = url.indexOf('?');
+    buf.append(idx != -1 ? url.substring(0, idx) : url);
+    if (idx != -1) {
+      for (String param : url.substring(idx + 1).split("&")) {
+        if (param.isEmpty())
+          continue;
+        idx = param.indexOf('=');
+        name = idx != -1 ? param.substring(0, idx) : param;
+        if (!IGNORED_PARAMS.contains(name.toLowerCase())) {
+          params.add(param);
+        }
+      }
+      Collections.sort(params);
+      buf.append('?');
+      buf.append(String.join("&", params));
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Compute the key of a request: a digest of the normalized URL and of the
+   * request header fields that may change the answer.
+   */
+  static String getKey(String url, Map<String, String> header_attrs) {
+    StringBuilder buf = new StringBuilder(normalizeUrl(url));
+    List<String> headers = new ArrayList<>();
+
+    if (header_attrs != null) {
+      for (Map.Entry<String, String> e : header_attrs.entrySet()) {
+        if (!ACCEPT_ENCODING.equalsIgnoreCase(e.getKey())) {
+          headers.add(e.getKey().toLowerCase() + ":" + e.getValue());
+        }
+      }
+      Collections.sort(headers);
+      for (String header : headers) {
+        buf.append('\n');
+        buf.append(header);
+      }
+    }
+    return digest(buf.toString());
+  }
+
+  private static String digest(String str) {
+    StringBuilder buf = new StringBuilder();
+    MessageDigest md;
+
+    try {
+      md = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      // SHA-1 is provided by all JREs
+      throw new IllegalStateException(e);
+    }
+    for (byte b : md.digest(str.getBytes(StandardCharsets.UTF_8))) {
+      buf.append(String.format("%02x", b));
+    }
+    return buf.toString();
+  }
+
+  private File getBodyFile(String key) {
+    return new File(dir, key + BODY_EXT);
+  }
+
+  private File getMetaFile(String key) {
+    return new File(dir, key + META_EXT);
+  }
+
+  /**
+   * Build the index from the content of the cache directory. Last
+   * modification time of body files gives the access order.
+   */
+  private synchronized void loadIndex() {
+    File[] files;
+    String name;
+
+    files = dir.listFiles();
+    if (files == null)
+      return;
+    Arrays.sort(files, new Comparator<File>() {
+      public int compare(File f1, File f2) {
+        return Long.compare(f1.lastModified(), f2.lastModified());
+      }
+    });
+    for (File f : files) {
+      name = f.getName();
+      if (name.endsWith(TMP_EXT)) {
+        // left by an interrupted session
+        f.delete();
+      } else if (name.endsWith(BODY_EXT)) {
+        index.put(name.substring(0, name.length() - BODY_EXT.length()), f.length());
+        size += f.length();
+      }
+    }
+    evict();
+  }
+
+  private synchronized void touch(String key) {
+    // access order is maintained by the index
+    if (index.get(key) != null) {
+      getBodyFile(key).setLastModified(System.currentTimeMillis());
+    }
+  }
+
+  private synchronized void add(String key, long entrySize) {
+    Long old = index.put(key, entrySize);
+    if (old != null) {
+      size -= old;
+    }
+    size += entrySize;
+    evict();
+  }
+
+  private synchronized void remove(String key) {
+    Long old = index.remove(key);
+    if (old != null) {
+      size -= old;
+    }
+    getMetaFile(key).delete();
+    getBodyFile(key).delete();
+  }
+
+  private synchronized void evict() {
+    Iterator<Map.Entry<String, Long>> iter = index.entrySet().iterator();
+    Map.Entry<String, Long> eldest;
+
+    while (size > maxSize && iter.hasNext()) {
+      eldest = iter.next();
+      iter.remove();
+      size -= eldest.getValue();
+      getMetaFile(eldest.getKey()).delete();
+      getBodyFile(eldest.getKey()).delete();
+    }
+  }
+
+  private static void move(File from, File to) throws IOException {
+    Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * A request eligible for caching.
+   */
+  class Entry {
+    private String key;
+    private long ttl;
+    private Properties meta;
+    private volatile boolean discarded;
+
+    private Entry(String key, long ttl) {
+      this.key = key;
+      this.ttl = ttl;
+      this.meta = readMeta();
+    }
+
+    /**
+     * Return the key of this entry. See getKey().
+     */
+    String getCacheKey() {
+      return key;
+    }
+
+    private Properties readMeta() {
+      Properties props;
+      File f;
+
+      synchronized (HTTPResponseCache.this) {
+        if (index.get(key) == null)
+          return null;
+      }
+      f = getMetaFile(key);
+      props = new Properties();
+      try (InputStream is = new FileInputStream(f)) {
+        props.load(is);
+        // a body being replaced by another thread
+        if (Long.parseLong(props.getProperty(SIZE_KEY, "-1")) != getBodyFile(key).length())
+          return null;
+      } catch (IOException | NumberFormatException e) {
+        return null;
+      }
+      return props;
+    }
+
+    private void writeMeta() throws IOException {
+      File tmp = File.createTempFile(key, TMP_EXT, dir);
+      try (OutputStream os = new FileOutputStream(tmp)) {
+        meta.store(os, null);
+      } catch (IOException e) {
+        tmp.delete();
+        throw e;
+      }
+      move(tmp, getMetaFile(key));
+    }
+
+    /**
+     * Figures out whether or not the cache contains the answer.
+     */
+    boolean isCached() {
+      return meta != null;
+    }
+
+    /**
+     * Figures out whether or not the cached answer can be used without asking
+     * the server.
+     */
+    boolean isFresh() {
+      try {
+        return meta != null && Long.parseLong(meta.getProperty(EXPIRES_KEY)) > System.currentTimeMillis();
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+
+    /**
+     * Return the request header fields to send in order to revalidate the
+     * cached answer. Returns header_attrs if the answer cannot be revalidated.
+     */
+    Map<String, String> addValidators(Map<String, String> header_attrs) {
+      Map<String, String> attrs;
+      String etag, lastModified;
+
+      if (meta == null)
+        return header_attrs;
+      etag = meta.getProperty(ETAG_KEY);
+      lastModified = meta.getProperty(LAST_MODIFIED_KEY);
+      if (etag == null && lastModified == null)
+        return header_attrs;
+      attrs = header_attrs != null ? new HashMap<>(header_attrs) : new HashMap<String, String>();
+      if (etag != null) {
+        attrs.put(IF_NONE_MATCH, etag);
+      }
+      if (lastModified != null) {
+        attrs.put(IF_MODIFIED_SINCE, lastModified);
+      }
+      return attrs;
+    }
+
+    /**
+     * Return the content encoding of the cached answer.
+     */
+    String getContentEncoding() {
+      return meta != null ? meta.getProperty(ENCODING_KEY) : null;
+    }
+
+    /**
+     * Open the cached answer. Returns null if it is not available anymore.
+     */
+    InputStream open() {
+      InputStream is;
+      if (meta == null)
+        return null;
+      try {
+        is = new FileInputStream(getBodyFile(key));
+      } catch (IOException e) {
+        return null;
+      }
+      touch(key);
+      hits.incrementAndGet();
+      EZLogger.debug(String.format(HIT_MSG, meta.getProperty(URL_KEY)));
+      return is;
+    }
+
+    /**
+     * Remove the answer from the cache. If it is still being read, it is not
+     * added to the cache.
+     */
+    void discard() {
+      discarded = true;
+      meta = null;
+      remove(key);
+    }
+
+    /**
+     * Make the cached answer fresh again after the server answered 304.
+     */
+    void revalidate(HttpURLConnection con) {
+      String etag, lastModified;
+
+      if (meta == null)
+        return;
+      etag = con.getHeaderField(ETAG);
+      lastModified = con.getHeaderField(LAST_MODIFIED);
+      if (etag != null) {
+        meta.setProperty(ETAG_KEY, etag);
+      }
+      if (lastModified != null) {
+        meta.setProperty(LAST_MODIFIED_KEY, lastModified);
+      }
+      meta.setProperty(EXPIRES_KEY, String.valueOf(System.currentTimeMillis() + ttl));
+      try {
+        writeMeta();
+      } catch (IOException e) {
+        EZLogger.warn(e.toString());
+      }
+      revalidations.incrementAndGet();
+      EZLogger.debug(String.format(REVALIDATED_MSG, meta.getProperty(URL_KEY)));
+    }
+
+    /**
+     * Return a stream copying the server answer into the cache while it is
+     * read. The answer is added to the cache when the end of the stream is
+     * reached. Returns the body stream itself if the answer cannot be cached.
+     *
+     * @param url the request URL
+     * @param con the connection
+     * @param body the response body read from the connection
+     */
+    InputStream store(String url, HttpURLConnection con, InputStream body) {
+      Properties props;
+      String cacheControl;
+      File tmp;
+
+      misses.incrementAndGet();
+      cacheControl = con.getHeaderField(CACHE_CONTROL);
+      if (cacheControl != null && cacheControl.toLowerCase().contains(NO_STORE))
+        return body;
+      props = new Properties();
+      props.setProperty(URL_KEY, normalizeUrl(url));
+      props.setProperty(EXPIRES_KEY, String.valueOf(System.currentTimeMillis() + ttl));
+      if (con.getContentEncoding() != null) {
+        props.setProperty(ENCODING_KEY, con.getContentEncoding());
+      }
+      if (con.getHeaderField(ETAG) != null) {
+        props.setProperty(ETAG_KEY, con.getHeaderField(ETAG));
+      }
+      if (con.getHeaderField(LAST_MODIFIED) != null) {
+        props.setProperty(LAST_MODIFIED_KEY, con.getHeaderField(LAST_MODIFIED));
+      }
+      try {
+        tmp = File.createTempFile(key, TMP_EXT, dir);
+        return new TeeInputStream(body, this, props, tmp);
+      } catch (IOException e) {
+        EZLogger.warn(e.toString());
+        return body;
+      }
+    }
+
+    private void commit(Properties props, File tmp) {
+      File body = getBodyFile(key);
+      long entrySize = tmp.length();
+
+      if (discarded) {
+        tmp.delete();
+        return;
+      }
+      props.setProperty(SIZE_KEY, String.valueOf(entrySize));
+      meta = props;
+      synchronized (HTTPResponseCache.this) {
+        try {
+          move(tmp, body);
+          writeMeta();
+        } catch (IOException e) {
+          EZLogger.warn(e.toString());
+          tmp.delete();
+          remove(key);
+          return;
+        }
+        add(key, entrySize);
+      }
+    }
+  }
+
+  /**
+   * Copy a response body into a temporary file while it is read.
+   */
+  private static class TeeInputStream extends FilterInputStream {
+    private Entry entry;
+    private Properties props;
+    private File tmp;
+    private OutputStream os;
+    private boolean committed;
+
+    private TeeInputStream(InputStream in, Entry entry, Properties props, File tmp) throws IOException {
+      super(in);
+      this.entry = entry;
+      this.props = props;
+      this.tmp = tmp;
+      this.os = new FileOutputStream(tmp);
+    }
+
+    private void write(byte[] b, int off, int len) {
+      if (os == null)
+        return;
+      try {
+        os.write(b, off, len);
+      } catch (IOException e) {
+        // a cache write error does not prevent reading the answer
+        EZLogger.warn(e.toString());
+        discard();
+      }
+    }
+
+    private void endOfStream() {
+      if (os == null || committed)
+        return;
+      try {
+        os.close();
+      } catch (IOException e) {
+        EZLogger.warn(e.toString());
+        discard();
+        return;
+      }
+      os = null;
+      committed = true;
+      entry.commit(props, tmp);
+    }
+
+    private void discard() {
+      if (os != null) {
+        try {
+          os.close();
+        } catch (IOException e) {
+        }
+        os = null;
+      }
+      tmp.delete();
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b == -1) {
+        endOfStream();
+      } else {
+        write(new byte[] { (byte) b }, 0, 1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n == -1) {
+        endOfStream();
+      } else {
+        write(b, off, n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // skipped data has to be copied as well
+      byte[] buf = new byte[(int) Math.min(n, 4096)];
+      int r = read(buf, 0, buf.length);
+      return r == -1 ? 0 : r;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        // incomplete answer: not cached
+        if (!committed) {
+          discard();
+        }
+      }
+    }
+  }
+}
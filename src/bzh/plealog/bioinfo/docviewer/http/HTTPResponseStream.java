@@ -0,0 +1,162 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.plealog.genericapp.api.log.EZLogger;
+
+/**
+ * The body of an HTTP response. Closing this stream gives the underlying
+ * connection back to the HTTPConnectionPool. Contrary to other streams, method
+ * close() never raises an exception.<br>
+ * <br>
+ * When server answer is compressed, data read from this stream is decoded on
+ * the fly. When the answer is read from the HTTPResponseCache, there is no
+ * connection at all. An answer containing an error message should be
+ * discarded from that cache, see discardCachedAnswer().
+ * 
+ * @author Patrick G. Durand
+ */
+public class HTTPResponseStream extends FilterInputStream {
+  private HTTPConnectionPool.PooledConnection pCon;
+  private HTTPCountingInputStream wire;
+  private HTTPTransferStats stats;
+  private Runnable closeListener;
+  private HTTPResponseCache.Entry cacheEntry;
+
+  /**
+   * Constructor.
+   * 
+   * @param pCon the connection. Null when answer is read from the cache.
+   * @param wire the response body obtained from the connection
+   * @param decoded the decoded response body. Can be wire itself.
+   * @param stats transfer statistics
+   */
+  HTTPResponseStream(HTTPConnectionPool.PooledConnection pCon, HTTPCountingInputStream wire, InputStream decoded,
+      HTTPTransferStats stats) {
+    super(decoded);
+    this.pCon = pCon;
+    this.wire = wire;
+    this.stats = stats;
+  }
+
+  /**
+   * Return the statistics of this transfer.
+   */
+  public HTTPTransferStats getTransferStats() {
+    return stats;
+  }
+
+  /**
+   * Set an action to run once this stream has been closed or aborted.
+   */
+  void setCloseListener(Runnable listener) {
+    closeListener = listener;
+  }
+
+  /**
+   * Set the cache entry storing this answer, if any.
+   */
+  void setCacheEntry(HTTPResponseCache.Entry entry) {
+    cacheEntry = entry;
+  }
+
+  /**
+   * Remove this answer from the HTTPResponseCache, or prevent it from being
+   * added to that cache if it is still being read. To be used when the
+   * answer contains an error reported by the server: it must not be replayed
+   * to further identical requests. Does nothing if the answer is not
+   * cacheable.
+   */
+  public void discardCachedAnswer() {
+    if (cacheEntry != null) {
+      cacheEntry.discard();
+    }
+  }
+
+  /**
+   * Read the whole answer and write it into a stream.
+   *
+   * @return the number of bytes written
+   */
+  public long transferTo(OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    long total = 0;
+    int n;
+
+    while ((n = read(buffer)) != -1) {
+      out.write(buffer, 0, n);
+      total += n;
+    }
+    return total;
+  }
+
+  @Override
+  public void close() {
+    if (stats.isDone())
+      return;
+    if (pCon == null) {
+      closeWire();
+    } else if (wire.hasFailed()) {
+      // do not try to read more data from a broken connection
+      pCon.abort();
+    } else {
+      // release() drains and closes the body stream
+      pCon.release(wire);
+    }
+    terminate();
+  }
+
+  /**
+   * Close this stream without trying to reuse the underlying connection.
+   */
+  void abort() {
+    if (stats.isDone())
+      return;
+    if (pCon == null) {
+      closeWire();
+    } else {
+      pCon.abort();
+    }
+    terminate();
+  }
+
+  private void closeWire() {
+    try {
+      wire.close();
+    } catch (IOException e) {
+    }
+  }
+
+  private void terminate() {
+    // also release decoder resources (Inflater)
+    if (in != wire) {
+      try {
+        in.close();
+      } catch (IOException e) {
+      }
+    }
+    stats.done();
+    EZLogger.debug(stats.toString());
+    if (closeListener != null)
+      closeListener.run();
+  }
+}
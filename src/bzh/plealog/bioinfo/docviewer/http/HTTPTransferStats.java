@@ -0,0 +1,179 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of a single HTTP transfer: number of bytes received from the
+ * network (wire bytes) vs number of bytes delivered to the caller once the
+ * answer has been decoded (decoded bytes). Both values are the same when
+ * server does not compress its answer.<br>
+ * <br>
+ * This class also maintains grand totals over all transfers made since
+ * application startup.
+ * 
+ * @author Patrick G. Durand
+ */
+public class HTTPTransferStats {
+  private String url;
+  private String contentEncoding;
+  private boolean fromCache;
+  private long wireBytes;
+  private long decodedBytes;
+  private long startTime;
+  private long endTime;
+
+  private static AtomicLong _totalWireBytes = new AtomicLong();
+  private static AtomicLong _totalDecodedBytes = new AtomicLong();
+  private static AtomicLong _totalTransfers = new AtomicLong();
+  private static AtomicLong _totalCachedTransfers = new AtomicLong();
+
+  private static final String STAT_MSG = "%s: %d bytes received, %d bytes decoded (%s), %d ms";
+  private static final String CACHE_STAT_MSG = "%s: %d bytes read from cache, %d bytes decoded (%s), %d ms";
+
+  HTTPTransferStats(String url) {
+    this.url = url;
+    this.startTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Return the URL of the transfer.
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * Return the content encoding used by the server. Returns null if server
+   * did not compress its answer.
+   */
+  public String getContentEncoding() {
+    return contentEncoding;
+  }
+
+  /**
+   * Figures out whether or not the answer has been read from the
+   * HTTPResponseCache.
+   */
+  public boolean isFromCache() {
+    return fromCache;
+  }
+
+  /**
+   * Return the number of bytes received from the network. When the answer
+   * comes from the cache, this is the number of bytes read from the cache.
+   */
+  public synchronized long getWireBytes() {
+    return wireBytes;
+  }
+
+  /**
+   * Return the number of bytes delivered to the caller. When compressed data
+   * is kept as is (see HTTPBasicEngine.doGet), this value is the same as
+   * getWireBytes().
+   */
+  public synchronized long getDecodedBytes() {
+    return decodedBytes;
+  }
+
+  /**
+   * Return the compression ratio, i.e. decoded bytes / wire bytes.
+   */
+  public synchronized double getCompressionRatio() {
+    return wireBytes != 0 ? (double) decodedBytes / (double) wireBytes : 1d;
+  }
+
+  /**
+   * Return the duration of the transfer in milliseconds. If transfer is not
+   * terminated yet, returns the elapsed time since transfer has started.
+   */
+  public long getDuration() {
+    return (endTime != 0 ? endTime : System.currentTimeMillis()) - startTime;
+  }
+
+  /**
+   * Figures out whether or not the transfer is terminated.
+   */
+  public boolean isDone() {
+    return endTime != 0;
+  }
+
+  void setContentEncoding(String contentEncoding) {
+    this.contentEncoding = contentEncoding;
+  }
+
+  void setFromCache() {
+    this.fromCache = true;
+  }
+
+  synchronized void addWireBytes(long n) {
+    wireBytes += n;
+  }
+
+  synchronized void addDecodedBytes(long n) {
+    decodedBytes += n;
+  }
+
+  synchronized void done() {
+    if (endTime != 0)
+      return;
+    endTime = System.currentTimeMillis();
+    _totalTransfers.incrementAndGet();
+    if (fromCache) {
+      _totalCachedTransfers.incrementAndGet();
+    } else {
+      _totalWireBytes.addAndGet(wireBytes);
+    }
+    _totalDecodedBytes.addAndGet(decodedBytes);
+  }
+
+  /**
+   * Return the total number of bytes received from the network since
+   * application startup.
+   */
+  public static long getTotalWireBytes() {
+    return _totalWireBytes.get();
+  }
+
+  /**
+   * Return the total number of decoded bytes since application startup.
+   */
+  public static long getTotalDecodedBytes() {
+    return _totalDecodedBytes.get();
+  }
+
+  /**
+   * Return the total number of transfers since application startup.
+   */
+  public static long getTotalTransfers() {
+    return _totalTransfers.get();
+  }
+
+  /**
+   * Return the total number of transfers served by the HTTPResponseCache
+   * since application startup.
+   */
+  public static long getTotalCachedTransfers() {
+    return _totalCachedTransfers.get();
+  }
+
+  public synchronized String toString() {
+    return String.format(fromCache ? CACHE_STAT_MSG : STAT_MSG, url, wireBytes, decodedBytes,
+        contentEncoding != null ? contentEncoding : "identity", getDuration());
+  }
+}
@@ -0,0 +1,246 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Temporary data, e.g. the answer of a server. Content is kept in memory as
+ * long as it is smaller than the spill threshold set in TempResourceManager,
+ * otherwise it is stored in a file. Closing a resource releases its memory or
+ * deletes its file.<br>
+ * <br>
+ * Content is written once, using getOutputStream(), then it can be read as
+ * many times as needed.<br>
+ * <br>
+ * Sample use:
+ * <pre>
+ * try (TempResource res = TempResourceManager.create("seq")) {
+ *   try (OutputStream os = res.getOutputStream()) {
+ *     // write data
+ *   }
+ *   try (InputStream is = res.getInputStream()) {
+ *     // read data
+ *   }
+ * }
+ * </pre>
+ *
+ * @author Patrick G. Durand
+ */
+public class TempResource implements AutoCloseable {
+  private static final String TMP_FILE_SUFIX = ".tmp";
+
+  private TempResourceManager.Tracker tracker;
+  private int threshold;
+  private byte[] buffer = new byte[0];
+  private int count;
+  private File file;
+  private long length;
+  private boolean writing;
+  private boolean closed;
+
+  TempResource(String prefix, int threshold) {
+    this.threshold = threshold;
+    this.tracker = TempResourceManager.track(this, prefix);
+  }
+
+  /**
+   * Return the stream used to write the content of this resource. Data written
+   * through that stream is added to the existing content.
+   */
+  public synchronized OutputStream getOutputStream() throws IOException {
+    checkOpen();
+    if (writing)
+      throw new IllegalStateException("resource is already being written");
+    writing = true;
+    return new ContentOutputStream();
+  }
+
+  /**
+   * Return a stream to read the content of this resource.
+   */
+  public synchronized InputStream getInputStream() throws IOException {
+    checkOpen();
+    if (file != null)
+      return new FileInputStream(file);
+    return new ByteArrayInputStream(buffer, 0, count);
+  }
+
+  /**
+   * Return the file containing the data of this resource. Content is spilled
+   * to disk if needed. Returned file is deleted when this resource is closed.
+   */
+  public synchronized File getFile() throws IOException {
+    checkOpen();
+    if (file == null)
+      spill();
+    return file;
+  }
+
+  /**
+   * Write the content of this resource into a channel. Content spilled to
+   * disk is transferred without being copied in memory.
+   *
+   * @return the number of bytes written
+   */
+  public synchronized long transferTo(WritableByteChannel target) throws IOException {
+    ByteBuffer buf;
+    long pos = 0, size;
+
+    checkOpen();
+    if (file == null) {
+      buf = ByteBuffer.wrap(buffer, 0, count);
+      while (buf.hasRemaining()) {
+        target.write(buf);
+      }
+      return count;
+    }
+    try (FileChannel in = new FileInputStream(file).getChannel()) {
+      size = in.size();
+      // transferTo() may transfer less than requested
+      while (pos < size) {
+        pos += in.transferTo(pos, size - pos, target);
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Return the size of the content of this resource.
+   */
+  public synchronized long length() {
+    return length;
+  }
+
+  /**
+   * Figures out whether or not the content of this resource is held in
+   * memory.
+   */
+  public synchronized boolean isInMemory() {
+    return file == null;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed)
+      return;
+    closed = true;
+    buffer = null;
+    tracker.release();
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed)
+      throw new IOException("resource is closed");
+  }
+
+  private void spill() throws IOException {
+    File f = TempResourceManager.createTempFile(tracker.getPrefix(), TMP_FILE_SUFIX);
+    try (OutputStream os = new FileOutputStream(f)) {
+      os.write(buffer, 0, count);
+    } catch (IOException e) {
+      f.delete();
+      throw e;
+    }
+    file = f;
+    tracker.setFile(f);
+    // bytes are still accounted for, they are on disk now
+    buffer = null;
+    count = 0;
+  }
+
+  private synchronized void write(byte[] b, int off, int len) throws IOException {
+    checkOpen();
+    if (file == null && count + len > threshold)
+      spill();
+    if (file == null) {
+      // here, count + len never exceeds threshold
+      if (count + len > buffer.length)
+        buffer = Arrays.copyOf(buffer, Math.min(Math.max(buffer.length * 2, count + len), threshold));
+      System.arraycopy(b, off, buffer, count, len);
+      count += len;
+    } else {
+      try (OutputStream os = new FileOutputStream(file, true)) {
+        os.write(b, off, len);
+      }
+    }
+    length += len;
+    tracker.addBytes(len);
+  }
+
+  /**
+   * Stream used to write the content of this resource. Once spilled, data is
+   * written directly in the file.
+   */
+  private class ContentOutputStream extends OutputStream {
+    private OutputStream fileStream;
+    private boolean streamClosed;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (streamClosed)
+        throw new IOException("stream is closed");
+      synchronized (TempResource.this) {
+        if (fileStream == null) {
+          TempResource.this.write(b, off, len);
+          if (file != null) {
+            // keep the file open for further writes
+            fileStream = new FileOutputStream(file, true);
+          }
+        } else {
+          checkOpen();
+          fileStream.write(b, off, len);
+          length += len;
+          tracker.addBytes(len);
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (fileStream != null)
+        fileStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (streamClosed)
+        return;
+      streamClosed = true;
+      synchronized (TempResource.this) {
+        writing = false;
+        if (fileStream != null)
+          fileStream.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,263 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.plealog.genericapp.api.log.EZLogger;
+
+/**
+ * Manager of the temporary data created while talking to remote servers.<br>
+ * <br>
+ * Temporary data is handled using TempResource objects: small payloads are
+ * kept in memory, larger ones are spilled to disk in a session directory.
+ * Such a resource has to be closed as soon as it is not needed anymore
+ * (use try-with-resources). Resources that were not closed are reclaimed by a
+ * periodic sweeper once they are garbage collected. The session directory is
+ * entirely removed when the application exits: contrary to
+ * File.deleteOnExit(), this does not retain any memory per file.
+ *
+ * @author Patrick G. Durand
+ */
+public class TempResourceManager {
+  /** Default size above which a resource is spilled to disk: 256 Kb.*/
+  public static final int DEFAULT_SPILL_THRESHOLD = 256 * 1024;
+  /** Default period of the sweeper: 1 minute.*/
+  public static final long DEFAULT_SWEEP_PERIOD = 60000;
+
+  private static final String SESSION_PREFIX = "docviewer-";
+
+  private static final String STAT_MSG = "Temp resources: %d live (%d spilled), %d bytes (peak: %d), %d swept";
+  private static final String SWEEP_MSG = "Temp resource swept: %s";
+
+  private static int _spillThreshold = DEFAULT_SPILL_THRESHOLD;
+  private static File _sessionDir;
+  private static Timer _sweeper;
+  private static boolean _hookInstalled;
+
+  private static ReferenceQueue<TempResource> _queue = new ReferenceQueue<>();
+  private static Set<Tracker> _trackers = Collections.newSetFromMap(new ConcurrentHashMap<Tracker, Boolean>());
+  private static AtomicLong _liveBytes = new AtomicLong();
+  private static AtomicLong _peakBytes = new AtomicLong();
+  private static AtomicLong _spilled = new AtomicLong();
+  private static AtomicLong _swept = new AtomicLong();
+
+  private TempResourceManager() {
+  }
+
+  /**
+   * Set the size above which the content of a resource is spilled to disk.
+   * Unit is byte. Use 0 to always use files.
+   */
+  public static void setSpillThreshold(int threshold) {
+    _spillThreshold = Math.max(0, threshold);
+  }
+
+  public static int getSpillThreshold() {
+    return _spillThreshold;
+  }
+
+  /**
+   * Create a new resource.
+   *
+   * @param prefix prefix of the file name used if resource is spilled to disk
+   */
+  public static TempResource create(String prefix) {
+    startSweeper();
+    return new TempResource(prefix, _spillThreshold);
+  }
+
+  /**
+   * Create an empty file in the session directory. Such a file is deleted when
+   * the application exits; however caller should delete it as soon as it is
+   * not needed anymore. Prefer create() when possible.
+   */
+  public static File createTempFile(String prefix, String suffix) throws IOException {
+    return File.createTempFile(prefix, suffix, getSessionDirectory());
+  }
+
+  /**
+   * Return the directory containing the temporary files of this session.
+   */
+  public static synchronized File getSessionDirectory() throws IOException {
+    if (_sessionDir != null && _sessionDir.exists())
+      return _sessionDir;
+    _sessionDir = Files.createTempDirectory(SESSION_PREFIX).toFile();
+    if (!_hookInstalled) {
+      // a single hook for all files of the session
+      _hookInstalled = true;
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        public void run() {
+          deleteSessionDirectory();
+        }
+      });
+    }
+    startSweeper();
+    EZLogger.debug("Temp directory: " + _sessionDir.getAbsolutePath());
+    return _sessionDir;
+  }
+
+  /**
+   * Return the number of bytes currently held by live resources, either in
+   * memory or on disk.
+   */
+  public static long getLiveBytes() {
+    return _liveBytes.get();
+  }
+
+  /**
+   * Return the max number of bytes held at the same time by live resources
+   * since application startup.
+   */
+  public static long getPeakBytes() {
+    return _peakBytes.get();
+  }
+
+  /**
+   * Return the number of live resources.
+   */
+  public static int getLiveResources() {
+    return _trackers.size();
+  }
+
+  /**
+   * Return the number of resources spilled to disk since application startup.
+   */
+  public static long getSpilledResources() {
+    return _spilled.get();
+  }
+
+  /**
+   * Return the number of resources reclaimed by the sweeper since application
+   * startup, i.e. resources that were never closed.
+   */
+  public static long getSweptResources() {
+    return _swept.get();
+  }
+
+  /**
+   * Dump statistics using the logger. Debug level is used.
+   */
+  public static void dumpStatistics() {
+    long spilled = 0;
+    for (Tracker t : _trackers) {
+      if (t.file != null)
+        spilled++;
+    }
+    EZLogger.debug(String.format(STAT_MSG, _trackers.size(), spilled, _liveBytes.get(), _peakBytes.get(),
+        _swept.get()));
+  }
+
+  /**
+   * Reclaim resources that have been garbage collected without being closed.
+   */
+  public static void sweep() {
+    Tracker t;
+    while ((t = (Tracker) _queue.poll()) != null) {
+      if (t.isLive()) {
+        EZLogger.debug(String.format(SWEEP_MSG, t.file != null ? t.file.getName() : t.prefix));
+        _swept.incrementAndGet();
+        t.release();
+      }
+    }
+  }
+
+  private static synchronized void startSweeper() {
+    if (_sweeper != null)
+      return;
+    _sweeper = new Timer("TempResourceSweeper", true);
+    _sweeper.schedule(new TimerTask() {
+      public void run() {
+        sweep();
+      }
+    }, DEFAULT_SWEEP_PERIOD, DEFAULT_SWEEP_PERIOD);
+  }
+
+  private static synchronized void deleteSessionDirectory() {
+    File[] files;
+    if (_sessionDir == null)
+      return;
+    files = _sessionDir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    _sessionDir.delete();
+  }
+
+  static Tracker track(TempResource resource, String prefix) {
+    Tracker t = new Tracker(resource, prefix);
+    _trackers.add(t);
+    return t;
+  }
+
+  /**
+   * Bookkeeping of a single resource. It does not reference the resource
+   * itself, so that an unclosed resource can be garbage collected and then
+   * reclaimed by the sweeper.
+   */
+  static class Tracker extends PhantomReference<TempResource> {
+    private String prefix;
+    private File file;
+    private long bytes;
+
+    private Tracker(TempResource resource, String prefix) {
+      super(resource, _queue);
+      this.prefix = prefix;
+    }
+
+    String getPrefix() {
+      return prefix;
+    }
+
+    void setFile(File file) {
+      this.file = file;
+      _spilled.incrementAndGet();
+    }
+
+    synchronized void addBytes(long n) {
+      bytes += n;
+      _peakBytes.accumulateAndGet(_liveBytes.addAndGet(n), Math::max);
+    }
+
+    boolean isLive() {
+      return _trackers.contains(this);
+    }
+
+    synchronized void release() {
+      if (!_trackers.remove(this))
+        return;
+      _liveBytes.addAndGet(-bytes);
+      bytes = 0;
+      if (file != null) {
+        file.delete();
+      }
+      clear();
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package bzh.plealog.bioinfo.docviewer.service.ebi;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.List;
 
 import javax.swing.SwingConstants;
@@ -30,6 +31,7 @@ import bzh.plealog.bioinfo.docviewer.api.Search;
 import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.api.Summary;
 import bzh.plealog.bioinfo.docviewer.api.SummaryDocPresentationModel;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema;
 import bzh.plealog.bioinfo.docviewer.service.ebi.io.EbiQueryEngine;
 import bzh.plealog.bioinfo.docviewer.service.ebi.io.EbiServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.service.ebi.model.EbiSearchLoader;
@@ -143,6 +145,18 @@ public enum EbiBank implements BankType {
     return EbiSearchLoader.load(f);
   }
   
+  public Summary getSummary(InputStream is){
+    //This method is called by the EbiQueryEngine when streaming an answer
+    //from the Ebi-Eye Server: data model is prepared while data is arriving
+    return EbiSummaryLoader.load(is);
+  }
+  
+  public Search getSearch(InputStream is){
+    //This method is called by the EbiQueryEngine when streaming an answer
+    //from the Ebi-Eye Server: data model is prepared while data is arriving
+    return EbiSearchLoader.load(is);
+  }
+  
   public QueryEngine prepareQueryEngine(BFilter query){
     return new EbiQueryEngine(this, query);
   }
@@ -261,6 +275,10 @@ public enum EbiBank implements BankType {
       return RES_HEADERS[Accession_HDR];
     }
     @Override
+    public SummaryDocSchema getSchema() {
+      return EbiSummaryLoader.SCHEMA;
+    }
+    @Override
     public void saveDefaultColumnModel(String prop) {
       //EZEnvironment.setApplicationProperty(_defColPropKey, prop);
     }
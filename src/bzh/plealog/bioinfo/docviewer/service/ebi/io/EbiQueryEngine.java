@@ -16,7 +16,8 @@
  */
 package bzh.plealog.bioinfo.docviewer.service.ebi.io;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 
 import com.plealog.genericapp.api.log.EZLogger;
 
@@ -29,6 +30,8 @@ import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.api.Summary;
 import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
 import bzh.plealog.bioinfo.docviewer.http.HTTPBasicEngine;
+import bzh.plealog.bioinfo.docviewer.http.HTTPResponseStream;
+import bzh.plealog.bioinfo.docviewer.http.TempResource;
 import bzh.plealog.bioinfo.docviewer.service.ebi.model.query.EbiQueryExpressionBuilder;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.query.SimpleStringExpressionBuilder;
 
@@ -117,33 +120,72 @@ public class EbiQueryEngine implements QueryEngine {
     return url;
   }
 
+  /**
+   * Compile the query. Query engine may be used by several threads at once.
+   */
+  private String getQueryString() {
+    synchronized (_ebiQuery) {
+      _ebiQuery.compile();
+      return _ebiQuery.toString();
+    }
+  }
+
   public Search getIds(int from, int nb) {
     Search res;
     String q;
 
-    _ebiQuery.compile();
-    q = _ebiQuery.toString();
+    q = getQueryString();
     EZLogger.debug(String.format("getIds: %s ", q));
     EZLogger.debug(String.format("getIds: from %d, page: %d ", from, nb));
     
-    res = _dbName.getSearch(HTTPBasicEngine.doGet(prepareExecQuery(q, from, nb)));
-    if (res.getError() != null) {
-      throw new QueryEngineException(res.getError());
+    try (HTTPResponseStream is = HTTPBasicEngine.doGetStream(prepareExecQuery(q, from, nb))) {
+      res = _dbName.getSearch(is);
+      if (res.getError() != null) {
+        // do not replay a server error from the HTTP cache
+        is.discardCachedAnswer();
+        throw new QueryEngineException(res.getError());
+      }
     }
 
     return res;
   }
 
+  @Override
+  public Search enumerateIds(int from, int nb) {
+    Search res;
+    String q, url;
+
+    q = getQueryString();
+    EZLogger.debug(String.format("enumerateIds: from %d, page: %d ", from, nb));
+    url = _serverConfig.getIdsUrl(q, _dbName.getCode(), from, nb);
+    if (url == null)
+      throw new QueryEngineException("No URL found to query: " + _dbName.getCode());
+    try (HTTPResponseStream is = HTTPBasicEngine.doGetStream(url)) {
+      res = _dbName.getSearch(is);
+      if (res.getError() != null) {
+        // do not replay a server error from the HTTP cache
+        is.discardCachedAnswer();
+        throw new QueryEngineException(res.getError());
+      }
+    }
+    //adjust value since WsResult does not provide data as NCBI does (i.e. current page of ids)
+    res.setFrom(from);
+    return res;
+  }
+
   public Summary getSummary(int from, int nb) {
     Summary sum;
     String  q;
     
-    _ebiQuery.compile();
-    q = _ebiQuery.toString();
+    q = getQueryString();
     EZLogger.debug(String.format("getSummary: from %d, page: %d ", from, nb));
-    sum = _dbName.getSummary(HTTPBasicEngine.doGet(prepareExecQuery(q, from, nb)));
-    if (sum.getError() != null) {
-      throw new QueryEngineException(sum.getError());
+    try (HTTPResponseStream is = HTTPBasicEngine.doGetStream(prepareExecQuery(q, from, nb))) {
+      sum = _dbName.getSummary(is);
+      if (sum.getError() != null) {
+        // do not replay a server error from the HTTP cache
+        is.discardCachedAnswer();
+        throw new QueryEngineException(sum.getError());
+      }
     }
     //adjust value since WsResult does not provide data as NCBI does (i.e. current page of ids)
     sum.setFrom(from);
@@ -165,17 +207,47 @@ public class EbiQueryEngine implements QueryEngine {
   public BankType getBankType(){
     return _dbName;
   }
-  public File load(String ids, String dbCode, boolean fullEntryFormat) {
-    String url;
-    File fTmp;
+  public TempResource load(String ids, String dbCode, boolean fullEntryFormat) {
+    String url, postUrl;
 
     url = _serverConfig.getFetchUrl(dbCode, ids, !fullEntryFormat);
     if (url == null)
       throw new RuntimeException( "URL not found to query: " + dbCode);
 
-    fTmp = HTTPBasicEngine.doGet(url);
+    // long list of IDs are sent using POST, when available
+    if (_serverConfig.usePostMethod(url)) {
+      postUrl = _serverConfig.getFetchPostUrl(dbCode, ids, !fullEntryFormat);
+      if (postUrl != null) {
+        return HTTPBasicEngine.doPostResource(postUrl);
+      }
+    }
+    return HTTPBasicEngine.doGetResource(url);
+  }
+
+  @Override
+  public void load(String ids, String dbCode, boolean fullEntryFormat, OutputStream out) throws IOException {
+    String url, postUrl;
+    HTTPResponseStream is = null;
+
+    url = _serverConfig.getFetchUrl(dbCode, ids, !fullEntryFormat);
+    if (url == null)
+      throw new RuntimeException( "URL not found to query: " + dbCode);
 
-    return fTmp;
+    // long list of IDs are sent using POST, when available
+    if (_serverConfig.usePostMethod(url)) {
+      postUrl = _serverConfig.getFetchPostUrl(dbCode, ids, !fullEntryFormat);
+      if (postUrl != null) {
+        is = HTTPBasicEngine.doPostStream(postUrl);
+      }
+    }
+    if (is == null) {
+      is = HTTPBasicEngine.doGetStream(url);
+    }
+    try {
+      is.transferTo(out);
+    } finally {
+      is.close();
+    }
   }
   public ServerConfiguration getServerConfiguration(){
     return _serverConfig;
@@ -31,6 +31,8 @@ import bzh.plealog.bioinfo.docviewer.api.QueryEngineException;
 import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
 import bzh.plealog.bioinfo.docviewer.http.HTTPBasicEngine;
+import bzh.plealog.bioinfo.docviewer.http.HTTPRateLimiter;
+import bzh.plealog.bioinfo.docviewer.http.HTTPResponseCache;
 
 public class EbiServerConfiguration implements ServerConfiguration{
   //adding new fields imply updating copy constructor
@@ -38,16 +40,36 @@ public class EbiServerConfiguration implements ServerConfiguration{
   private int _seqPerRun = 100;
   private int _sleepTimePerRun = 1000; // use milliseconds internally
   private int _maxLetterPerRun = 5000000;
+  private double _reqPerSecond = -1; // if not set, use _sleepTimePerRun
+  private int _postUrlLength = 2000;
+  private int _summaryCacheTtl = 3600; // use seconds
+  private int _downloadWorkers = 2;
+  // batch size bounds: if not set, use _seqPerRun and _maxLetterPerRun
+  private int _seqPerRunLow = -1;
+  private int _seqPerRunHigh = -1;
+  private int _lettersPerRunLow = -1;
+  private int _lettersPerRunHigh = -1;
 
   //name of resource containing URL templates used to address EBI REST services
   private static final String CONF_RESOURCE = "ebiQuery.cfg";
   private static final String URL_SUFFIX_TO_LOAD = ".url";
   private static final String SUM_URL_SUFFIX = ".summary.url";
+  private static final String IDS_URL_SUFFIX = ".ids.url";
   private static final String FETCH_FAS_URL = "fetch_fasta.url";
   private static final String FETCH_FULL_URL = "fetch_full.url";
+  private static final String FETCH_FAS_POST_URL = "fetch_fasta_post.url";
+  private static final String FETCH_FULL_POST_URL = "fetch_full_post.url";
   private static final String SEQ_RUN_KEY = "sequences.per.run";
   private static final String LETTERS_SIZE_KEY = "letters.per.run";
   private static final String SEQ_SLEEP_KEY = "sleep.per.run"; // use seconds in
+  private static final String REQ_PER_SEC_KEY = "requests.per.second";
+  private static final String POST_URL_LENGTH_KEY = "post.url.length";
+  private static final String SUM_CACHE_TTL_KEY = "summary.cache.ttl"; // use seconds in
+  private static final String DOWNLOAD_WORKERS_KEY = "download.workers";
+  private static final String SEQ_RUN_MIN_KEY = "sequences.per.run.min";
+  private static final String SEQ_RUN_MAX_KEY = "sequences.per.run.max";
+  private static final String LETTERS_SIZE_MIN_KEY = "letters.per.run.min";
+  private static final String LETTERS_SIZE_MAX_KEY = "letters.per.run.max";
 
   private static final String LOAD_ERR = "Load EBI configuration from: %s";
   private static final String CONF_ERR = "EBI configuration resource not found: %s";
@@ -68,6 +90,17 @@ public class EbiServerConfiguration implements ServerConfiguration{
     for (String key : srcConfig._summaryUrls.keySet()){
       _summaryUrls.put(key, srcConfig._summaryUrls.get(key));
     }
+    _seqPerRun = srcConfig._seqPerRun;
+    _sleepTimePerRun = srcConfig._sleepTimePerRun;
+    _maxLetterPerRun = srcConfig._maxLetterPerRun;
+    _reqPerSecond = srcConfig._reqPerSecond;
+    _postUrlLength = srcConfig._postUrlLength;
+    _summaryCacheTtl = srcConfig._summaryCacheTtl;
+    _downloadWorkers = srcConfig._downloadWorkers;
+    _seqPerRunLow = srcConfig._seqPerRunLow;
+    _seqPerRunHigh = srcConfig._seqPerRunHigh;
+    _lettersPerRunLow = srcConfig._lettersPerRunLow;
+    _lettersPerRunHigh = srcConfig._lettersPerRunHigh;
   }
 
   private void prepareConfiguration(String resName) throws QueryEngineException {
@@ -124,9 +157,61 @@ public class EbiServerConfiguration implements ServerConfiguration{
           EZLogger.debug(String.format("%s = %s", key, str));
           _sleepTimePerRun = Integer.valueOf(str);
         }
+        else if (key.equals(REQ_PER_SEC_KEY)){
+          str = props.getProperty(key);
+          EZLogger.debug(String.format("%s = %s", key, str));
+          _reqPerSecond = Double.valueOf(str);
+        }
+        else if (key.equals(POST_URL_LENGTH_KEY)){
+          str = props.getProperty(key);
+          EZLogger.debug(String.format("%s = %s", key, str));
+          _postUrlLength = Integer.valueOf(str);
+        }
+        else if (key.equals(SUM_CACHE_TTL_KEY)){
+          str = props.getProperty(key);
+          EZLogger.debug(String.format("%s = %s", key, str));
+          _summaryCacheTtl = Integer.valueOf(str);
+        }
+        else if (key.equals(DOWNLOAD_WORKERS_KEY)){
+          str = props.getProperty(key);
+          EZLogger.debug(String.format("%s = %s", key, str));
+          _downloadWorkers = Integer.valueOf(str);
+        }
+        else if (key.equals(SEQ_RUN_MIN_KEY)){
+          str = props.getProperty(key);
+          EZLogger.debug(String.format("%s = %s", key, str));
+          _seqPerRunLow = Integer.valueOf(str);
+        }
+        else if (key.equals(SEQ_RUN_MAX_KEY)){
+          str = props.getProperty(key);
+          EZLogger.debug(String.format("%s = %s", key, str));
+          _seqPerRunHigh = Integer.valueOf(str);
+        }
+        else if (key.equals(LETTERS_SIZE_MIN_KEY)){
+          str = props.getProperty(key);
+          EZLogger.debug(String.format("%s = %s", key, str));
+          _lettersPerRunLow = Integer.valueOf(str);
+        }
+        else if (key.equals(LETTERS_SIZE_MAX_KEY)){
+          str = props.getProperty(key);
+          EZLogger.debug(String.format("%s = %s", key, str));
+          _lettersPerRunHigh = Integer.valueOf(str);
+        }
       }
       if (_summaryUrls.isEmpty())
         throw new Exception("summary URLs not found");
+      // sequence retrieval requests sent to the EBI have to conform to its
+      // rate policy. Search and summary requests used while browsing are not
+      // limited: they are sent one at a time by the user.
+      str = getFetchServiceUrl();
+      if (str != null){
+        HTTPRateLimiter.setServiceRequestsPerSecond(str, getRequestsPerSecond());
+      }
+      // search answers are cached, not sequences
+      for (String urlKey : _summaryUrls.keySet()){
+        if (urlKey.endsWith(SUM_URL_SUFFIX))
+          HTTPResponseCache.setTimeToLive(_summaryUrls.get(urlKey), _summaryCacheTtl * 1000l);
+      }
     } catch (Exception ex) {
       throw new QueryEngineException("unable to init EBI Query System: " + resName + ": " + ex);
     } finally {
@@ -139,6 +224,27 @@ public class EbiServerConfiguration implements ServerConfiguration{
     }
   }
 
+  //dbFetch is reached using GET and POST URLs: return their common part so
+  //that both share the same rate.
+  private String getFetchServiceUrl() {
+    String prefix = null, str;
+    int i;
+
+    for (String key : new String[]{FETCH_FAS_URL, FETCH_FULL_URL, FETCH_FAS_POST_URL, FETCH_FULL_POST_URL}){
+      str = _summaryUrls.get(key);
+      if (str == null)
+        continue;
+      str = str.replaceAll("[?@].*", "");
+      if (prefix == null){
+        prefix = str;
+      } else {
+        for (i = 0; i < prefix.length() && i < str.length() && prefix.charAt(i) == str.charAt(i); i++);
+        prefix = prefix.substring(0, i);
+      }
+    }
+    return prefix;
+  }
+
   //public services usually require these fields. 
   private String addServiceRequirements(String url) {
     StringBuffer buf = new StringBuffer(url);
@@ -162,6 +268,22 @@ public class EbiServerConfiguration implements ServerConfiguration{
     return addServiceRequirements(str);
   }
 
+  /**
+   * Return the URL to use to enumerate IDs and lengths of documents. Falls
+   * back to the summary URL if no such service is configured for dbCode.
+   */
+  public String getIdsUrl(String query, String dbCode, int from, int nb){
+    String str;
+    str = _summaryUrls.get(dbCode+IDS_URL_SUFFIX);
+    if(str==null)
+      return getSummaryUrl(query, dbCode, from, nb);
+    str = str.replaceAll("@TERM@", query);
+    str = str.replaceAll("@DB@", dbCode);
+    str = str.replaceAll("@FROM@", String.valueOf(from));
+    str = str.replaceAll("@NB@", String.valueOf(nb));
+    return addServiceRequirements(str);
+  }
+
   public String getFetchUrl(String dbCode, String ids, boolean fastaFormat){
     String str;
     if (fastaFormat)
@@ -176,6 +298,31 @@ public class EbiServerConfiguration implements ServerConfiguration{
 
   }
 
+  /**
+   * Return the URL to use to fetch sequences with HTTP POST. Returns null if
+   * such a service is not available.
+   */
+  public String getFetchPostUrl(String dbCode, String ids, boolean fastaFormat){
+    String str;
+    if (fastaFormat)
+      str = _summaryUrls.get(FETCH_FAS_POST_URL);
+    else
+      str = _summaryUrls.get(FETCH_FULL_POST_URL);
+    if (str==null)
+      return null;
+    str = str.replaceAll("@DB@", dbCode);
+    str = str.replaceAll("@ID@", ids.trim());
+    return addServiceRequirements(str);
+  }
+
+  /**
+   * Figures out whether or not a URL has to be sent using HTTP POST method.
+   * This is the case for URLs containing long lists of IDs.
+   */
+  public boolean usePostMethod(String url) {
+    return _postUrlLength >= 0 && url.length() > _postUrlLength;
+  }
+
   /**
    * Figures out whether or not remote server is available.
    */
@@ -222,4 +369,37 @@ public class EbiServerConfiguration implements ServerConfiguration{
     return _maxLetterPerRun;
   }
 
+  @Override
+  public int getDownloadWorkers() {
+    return Math.max(1, _downloadWorkers);
+  }
+
+  @Override
+  public int getMinSequencesPerRun() {
+    return _seqPerRunLow > 0 ? _seqPerRunLow : _seqPerRun;
+  }
+
+  @Override
+  public int getMaxSequencesPerRun() {
+    return _seqPerRunHigh > 0 ? _seqPerRunHigh : _seqPerRun;
+  }
+
+  @Override
+  public int getMinLettersPerRun() {
+    return _lettersPerRunLow > 0 ? _lettersPerRunLow : _maxLetterPerRun;
+  }
+
+  @Override
+  public int getMaxLettersPerRun() {
+    return _lettersPerRunHigh > 0 ? _lettersPerRunHigh : _maxLetterPerRun;
+  }
+
+  @Override
+  public double getRequestsPerSecond() {
+    if (_reqPerSecond > 0) {
+      return _reqPerSecond;
+    }
+    return 1000d / (double) Math.max(1, _sleepTimePerRun);
+  }
+
 }
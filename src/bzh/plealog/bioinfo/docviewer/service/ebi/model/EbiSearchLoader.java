@@ -17,17 +17,34 @@
 package bzh.plealog.bioinfo.docviewer.service.ebi.model;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.InputStream;
 
-import javax.xml.bind.JAXB;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
 
 import bzh.plealog.bioinfo.docviewer.api.Search;
 import bzh.plealog.bioinfo.docviewer.service.ebi.model.search.WsDiagnostics;
 import bzh.plealog.bioinfo.docviewer.service.ebi.model.search.WsEntry;
+import bzh.plealog.bioinfo.docviewer.service.ebi.model.search.WsField;
 import bzh.plealog.bioinfo.docviewer.service.ebi.model.search.WsResult;
+import bzh.plealog.bioinfo.docviewer.xml.JAXBLoader;
 
 public class EbiSearchLoader {
+  /**
+   * Read an XML document from a file.
+   */
   public static Search load(File xml) {
+    return load(new StreamSource(xml));
+  }
+
+  /**
+   * Read an XML document from a stream. Stream is not closed by this method.
+   */
+  public static Search load(InputStream xml) {
+    return load(new StreamSource(xml));
+  }
+
+  private static Search load(Source xml) {
     String value;
     Search search;
     WsResult result;
@@ -37,7 +54,7 @@ public class EbiSearchLoader {
 
     try {
       // read XML file into an appropriate data model
-      result = JAXB.unmarshal(xml, WsResult.class);
+      result = JAXBLoader.unmarshal(xml, WsResult.class);
 
       // first, we check if we have an error message
       value = getErrorMessage(result);
@@ -46,12 +63,14 @@ public class EbiSearchLoader {
         return search;
       }
 
-      ArrayList<String> ids = new ArrayList<>();
-
       for (WsEntry entry : result.getEntries().getEntry()) {
-        ids.add(entry.getId());
+        value = getLength(entry);
+        if (value != null) {
+          search.addId(entry.getId(), Integer.valueOf(value));
+        } else {
+          search.addId(entry.getId());
+        }
       }
-      search.setIds(ids);
       // Service provider should report current page of ids. This is not the
       // case for EBI, so we set from to zero, and this value will be updated
       // accordingly here: EbiQueryEngine.getIds(int from, int nb)
@@ -69,6 +88,21 @@ public class EbiSearchLoader {
 
   }
 
+  /**
+   * Return the value of the length field of an entry. Returns null if that
+   * field has not been requested (uniprotkb only).
+   */
+  private static String getLength(WsEntry entry) {
+    if (entry.getFields() == null)
+      return null;
+    for (WsField field : entry.getFields().getField()) {
+      if (field.getId().equals("length") && field.getValues().getValue().isEmpty() == false) {
+        return field.getValues().getValue().get(0);
+      }
+    }
+    return null;
+  }
+
   private static String getErrorMessage(WsResult result) {
     WsDiagnostics diags = result.getDiagonostics();
     return diags != null ? diags.getMessage() : null;
@@ -17,18 +17,49 @@
 package bzh.plealog.bioinfo.docviewer.service.ebi.model;
 
 import java.io.File;
+import java.io.InputStream;
 
-import javax.xml.bind.JAXB;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
 
 import bzh.plealog.bioinfo.docviewer.api.Summary;
 import bzh.plealog.bioinfo.docviewer.api.SummaryDoc;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema.ColumnType;
 import bzh.plealog.bioinfo.docviewer.service.ebi.model.search.WsDiagnostics;
 import bzh.plealog.bioinfo.docviewer.service.ebi.model.search.WsEntry;
 import bzh.plealog.bioinfo.docviewer.service.ebi.model.search.WsField;
 import bzh.plealog.bioinfo.docviewer.service.ebi.model.search.WsResult;
+import bzh.plealog.bioinfo.docviewer.xml.JAXBLoader;
 
 public class EbiSummaryLoader {
+  /**
+   * Schema of the documents read by this loader. Keys are the ones of
+   * EbiBank/SummaryPresentationModel.
+   */
+  public static final SummaryDocSchema SCHEMA = new SummaryDocSchema()
+      .addColumn("Identifier", ColumnType.TEXT)
+      .addColumn("Accession", ColumnType.TEXT)
+      .addColumn("Description", ColumnType.TEXT)
+      .addColumn("Organism", ColumnType.SHARED_TEXT)
+      .addColumn("Length", ColumnType.INT)
+      .addColumn("Status", ColumnType.SHARED_TEXT);
+
+  /**
+   * Read an XML document from a file.
+   */
   public static Summary load(File xml) {
+    return load(new StreamSource(xml));
+  }
+
+  /**
+   * Read an XML document from a stream. Stream is not closed by this method.
+   */
+  public static Summary load(InputStream xml) {
+    return load(new StreamSource(xml));
+  }
+
+  private static Summary load(Source xml) {
     String value;
     Summary summary;
     WsResult result;
@@ -37,12 +68,12 @@ public class EbiSummaryLoader {
     // We create a new summary doc. Note: do not worry about using
     // summary.setFrom() and summary.setTotal() methods on the
     // new summary object: these are used by the caller of this
-    // load(File) method
+    // load() method
     summary = new Summary();
 
     try {
       // read XML file into an appropriate data model
-      result = JAXB.unmarshal(xml, WsResult.class);
+      result = JAXBLoader.unmarshal(xml, WsResult.class);
 
       // first, we check if we have an error message
       value = getErrorMessage(result);
@@ -60,7 +91,7 @@ public class EbiSummaryLoader {
         return summary;
       }
       for (WsEntry entry : result.getEntries().getEntry()) {
-        doc = new SummaryDoc();
+        doc = new SummaryDoc(SCHEMA);
         summary.addDoc(doc);
 
         doc.setId(entry.getId());
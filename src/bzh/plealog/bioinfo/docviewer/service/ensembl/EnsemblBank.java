@@ -17,6 +17,7 @@
 package bzh.plealog.bioinfo.docviewer.service.ensembl;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.List;
 
 import javax.swing.SwingConstants;
@@ -30,6 +31,7 @@ import bzh.plealog.bioinfo.docviewer.api.Search;
 import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.api.Summary;
 import bzh.plealog.bioinfo.docviewer.api.SummaryDocPresentationModel;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.io.EnsemblQueryEngine;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.io.EnsemblServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.model.EnsemblSearchLoader;
@@ -148,6 +150,18 @@ public enum EnsemblBank implements BankType {
     return EnsemblSearchLoader.load(f);
   }
   
+  public Summary getSummary(InputStream is){
+    //This method is called by the EnsemblQueryEngine when streaming an answer
+    //from the Ensembl Server: data model is prepared while data is arriving
+    return EnsemblSummaryLoader.load(is);
+  }
+  
+  public Search getSearch(InputStream is){
+    //This method is called by the EnsemblQueryEngine when streaming an answer
+    //from the Ensembl Server: data model is prepared while data is arriving
+    return EnsemblSearchLoader.load(is);
+  }
+  
   public QueryEngine prepareQueryEngine(BFilter query){
     return new EnsemblQueryEngine(this, query);
   }
@@ -236,6 +250,10 @@ public enum EnsemblBank implements BankType {
       return RES_HEADERS[Identifier_HDR];
     }
     @Override
+    public SummaryDocSchema getSchema() {
+      return EnsemblSummaryLoader.SCHEMA;
+    }
+    @Override
     public void saveDefaultColumnModel(String prop) {
       //EZEnvironment.setApplicationProperty(_defColPropKey, prop);
     }
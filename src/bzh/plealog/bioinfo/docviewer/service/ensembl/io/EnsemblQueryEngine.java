@@ -16,7 +16,6 @@
  */
 package bzh.plealog.bioinfo.docviewer.service.ensembl.io;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.StringTokenizer;
@@ -30,6 +29,8 @@ import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.api.Summary;
 import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
 import bzh.plealog.bioinfo.docviewer.http.HTTPBasicEngine;
+import bzh.plealog.bioinfo.docviewer.http.HTTPResponseStream;
+import bzh.plealog.bioinfo.docviewer.http.TempResource;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.model.query.EnsemblQueryExpressionBuilder;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.model.query.EnsemblQueryModel;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.query.SimpleStringExpressionBuilder;
@@ -43,7 +44,8 @@ public class EnsemblQueryEngine implements QueryEngine {
   private int _defPageSize = DocViewerConfig.PAGE_SIZE;
 
   //Ensembl API does not support pagination. So we support that feature here.
-  //For now: everything in RAM.
+  //For now: everything in RAM. Data is loaded once, even if several threads
+  //ask for pages at the same time.
   private Search _searchData;
   private Summary _summaryData;
   
@@ -132,7 +134,7 @@ public class EnsemblQueryEngine implements QueryEngine {
   }
 
   @Override
-  public File load(String ids, String dbCode, boolean fullEntryFormat) {
+  public TempResource load(String ids, String dbCode, boolean fullEntryFormat) {
     // not available for now
     return null;
   }
@@ -168,9 +170,13 @@ public class EnsemblQueryEngine implements QueryEngine {
     EZLogger.debug("species: "+species);
     
     // using gene name and sepeices, query Ensembl to get Ensembl IDs
-    res = _dbName.getSearch(HTTPBasicEngine.doGet(_serverConfig.getGene2EnsgIdUrl(species, gene_name), _header_attrs));
-    if (res.getError() != null) {
-      throw new QueryEngineException(res.getError());
+    try (HTTPResponseStream is = HTTPBasicEngine.doGetStream(_serverConfig.getGene2EnsgIdUrl(species, gene_name), _header_attrs)) {
+      res = _dbName.getSearch(is);
+      if (res.getError() != null) {
+        // do not replay a server error from the HTTP cache
+        is.discardCachedAnswer();
+        throw new QueryEngineException(res.getError());
+      }
     }
     if (res.getIds().isEmpty()){
       throw new QueryEngineException("unable to retrieve Ensembl ID for gene name:"+gene_name);
@@ -184,23 +190,33 @@ public class EnsemblQueryEngine implements QueryEngine {
     throw new QueryEngineException("unable to find Ensembl ID for gene name:"+gene_name);
   }
   
-  private void prepareSearchData(){
+  private synchronized void prepareSearchData(){
     if (_searchData==null){
       String ensId = getEnsemblGeneId();
-      Search res = _dbName.getSearch(HTTPBasicEngine.doGet(_serverConfig.getFetchVariationUrl(ensId), _header_attrs));
-      if (res.getError() != null) {
-        throw new QueryEngineException(res.getError());
+      Search res;
+      try (HTTPResponseStream is = HTTPBasicEngine.doGetStream(_serverConfig.getFetchVariationUrl(ensId), _header_attrs)) {
+        res = _dbName.getSearch(is);
+        if (res.getError() != null) {
+          // do not replay a server error from the HTTP cache
+          is.discardCachedAnswer();
+          throw new QueryEngineException(res.getError());
+        }
       }
       _searchData = res;
     }
   }
   
-  private void prepareSummaryData(){
+  private synchronized void prepareSummaryData(){
     if (_summaryData==null){
       String ensId = getEnsemblGeneId();
-      Summary res = _dbName.getSummary(HTTPBasicEngine.doGet(_serverConfig.getFetchVariationUrl(ensId), _header_attrs));
-      if (res.getError() != null) {
-        throw new QueryEngineException(res.getError());
+      Summary res;
+      try (HTTPResponseStream is = HTTPBasicEngine.doGetStream(_serverConfig.getFetchVariationUrl(ensId), _header_attrs)) {
+        res = _dbName.getSummary(is);
+        if (res.getError() != null) {
+          // do not replay a server error from the HTTP cache
+          is.discardCachedAnswer();
+          throw new QueryEngineException(res.getError());
+        }
       }
       _summaryData = res;
     }
@@ -18,6 +18,8 @@ package bzh.plealog.bioinfo.docviewer.service.ensembl.io;
 
 import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.http.HTTPBasicEngine;
+import bzh.plealog.bioinfo.docviewer.http.HTTPRateLimiter;
+import bzh.plealog.bioinfo.docviewer.http.HTTPResponseCache;
 
 import com.plealog.genericapp.api.file.EZFileUtils;
 
@@ -29,10 +31,18 @@ public class EnsemblServerConfiguration implements ServerConfiguration {
   private static final String GENE_TO_ENSG_SERVICE="xrefs/symbol/@SPECIES@/@GENE_NAME@?object_type=gene";
   private static final String FETCH_VAR_SERVICE = "overlap/id/@ENSG_ID@?feature=variation";//;variant_set=ClinVar";
   
+  // Ensembl allows 55000 requests per hour, i.e. 15 requests per second
+  // see https://github.com/Ensembl/ensembl-rest/wiki/Rate-Limits
+  // Actual remaining quota is also reported by the server using X-RateLimit-*
+  // header fields: it is automatically handled by HTTPRateLimiter.
+  private static final double REQ_PER_SECOND = 15d;
+  // Ensembl data only changes with releases: cache answers for a day
+  private static final long CACHE_TTL = 24l * 3600l * 1000l;
+  
   private String _defaultServer;
   
   public EnsemblServerConfiguration(){
-    _defaultServer = SERVER_URL;
+    this(false);
   }
   
   public EnsemblServerConfiguration(boolean useGRCh37){
@@ -42,6 +52,8 @@ public class EnsemblServerConfiguration implements ServerConfiguration {
     else{
       _defaultServer = SERVER_URL;
     }
+    HTTPRateLimiter.setRequestsPerSecond(_defaultServer, REQ_PER_SECOND);
+    HTTPResponseCache.setTimeToLive(_defaultServer, CACHE_TTL);
   }
   /**
    * Copy constructor.
@@ -68,6 +80,36 @@ public class EnsemblServerConfiguration implements ServerConfiguration {
     return 0;
   }
 
+  @Override
+  public int getDownloadWorkers() {
+    return 1;
+  }
+
+  @Override
+  public int getMinSequencesPerRun() {
+    return getSequencesPerRun();
+  }
+
+  @Override
+  public int getMaxSequencesPerRun() {
+    return getSequencesPerRun();
+  }
+
+  @Override
+  public int getMinLettersPerRun() {
+    return getLettersPerRun();
+  }
+
+  @Override
+  public int getMaxLettersPerRun() {
+    return getLettersPerRun();
+  }
+
+  @Override
+  public double getRequestsPerSecond() {
+    return REQ_PER_SECOND;
+  }
+
   @Override
   public boolean isServerAvailable() {
     return HTTPBasicEngine.isServerAvailable(_defaultServer);
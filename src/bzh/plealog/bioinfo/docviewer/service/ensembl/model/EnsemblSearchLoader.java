@@ -17,13 +17,16 @@
 package bzh.plealog.bioinfo.docviewer.service.ensembl.model;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.ArrayList;
 
-import javax.xml.bind.JAXB;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
 
 import bzh.plealog.bioinfo.docviewer.api.Search;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.Opt;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.OptDataItem;
+import bzh.plealog.bioinfo.docviewer.xml.JAXBLoader;
 
 /**
  * A convenient class to convert Opt XML documents into Search objects.
@@ -33,7 +36,21 @@ import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.OptDataItem;
  * @author Patrick G. Durand
  * */
 public class EnsemblSearchLoader {
+  /**
+   * Read an XML document from a file.
+   */
   public static Search load(File xml) {
+    return load(new StreamSource(xml));
+  }
+
+  /**
+   * Read an XML document from a stream. Stream is not closed by this method.
+   */
+  public static Search load(InputStream xml) {
+    return load(new StreamSource(xml));
+  }
+
+  private static Search load(Source xml) {
     String value;
     Search search;
     Opt result;
@@ -43,7 +60,7 @@ public class EnsemblSearchLoader {
 
     try {
       // read XML file into an appropriate data model
-      result = JAXB.unmarshal(xml, Opt.class);
+      result = JAXBLoader.unmarshal(xml, Opt.class);
 
       // first, we check if we have an error message
       value = getErrorMessage(result);
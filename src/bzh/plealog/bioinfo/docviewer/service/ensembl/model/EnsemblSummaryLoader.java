@@ -17,57 +17,145 @@
 package bzh.plealog.bioinfo.docviewer.service.ensembl.model;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
-import javax.xml.bind.JAXB;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import bzh.plealog.bioinfo.docviewer.api.Summary;
 import bzh.plealog.bioinfo.docviewer.api.SummaryDoc;
-import bzh.plealog.bioinfo.docviewer.service.ensembl.EnsemblBank;
-import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.Opt;
-import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.OptDataItem;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocListener;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema.ColumnType;
+import bzh.plealog.bioinfo.docviewer.service.ensembl.EnsemblBank.EnsemblDbSummaryDocPresentationModel;
+import bzh.plealog.bioinfo.docviewer.xml.StAXUtils;
 
 /**
- * A convenient class to convert Opt XML documents into Summary objects.
- * The former is only used for XML serialization while the latter is used for
- * the business of this software.
+ * A convenient class to read Ensembl Opt XML documents into Summary objects.<br>
+ * <br>
+ * Documents are read using a StAX pull parser: each data element is converted
+ * into a SummaryDoc as soon as it is read, without building an intermediate
+ * object model (see Opt), so that large answers (e.g. variants of a gene) are
+ * not held twice in memory. Values repeated over documents, such as assembly,
+ * source and consequence type, are stored once: see SCHEMA. Documents
+ * can also be passed to a SummaryDocListener while they are read.
  * 
  * @author Patrick G. Durand
  * */
 public class EnsemblSummaryLoader {
+  private static final String ROOT_ELEMENT = "opt";
+  private static final String DATA_ELEMENT = "data";
+  private static final String ALLELES_ELEMENT = "alleles";
+
+  private static final String ERROR_ATTR = "error";
+  private static final String ID_ATTR = "id";
+  private static final String ASSEMBLY_ATTR = "assembly_name";
+  private static final String CONSEQUENCE_ATTR = "consequence_type";
+  private static final String SOURCE_ATTR = "source";
+  private static final String REGION_ATTR = "seq_region_name";
+  private static final String START_ATTR = "start";
+  private static final String END_ATTR = "end";
+  private static final String STRAND_ATTR = "strand";
+
+  private static final String IDENTIFIER_KEY = EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblDbSummaryDocPresentationModel.Identifier_HDR];
+  private static final String ASSEMBLY_KEY = EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblDbSummaryDocPresentationModel.ASSEMBLY_HDR];
+  private static final String SOURCE_KEY = EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblDbSummaryDocPresentationModel.SOURCE_HDR];
+  private static final String LOCATION_KEY = EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblDbSummaryDocPresentationModel.LOCATION_HDR];
+  private static final String CONSEQUENCE_KEY = EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblDbSummaryDocPresentationModel.CONSEQUENCE_HDR];
+  private static final String VARIATION_KEY = EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblDbSummaryDocPresentationModel.VARIATION_HDR];
+
+  /**
+   * Schema of the documents read by this loader.
+   */
+  public static final SummaryDocSchema SCHEMA = new SummaryDocSchema()
+      .addColumn(IDENTIFIER_KEY, ColumnType.TEXT)
+      .addColumn(ASSEMBLY_KEY, ColumnType.SHARED_TEXT)
+      .addColumn(SOURCE_KEY, ColumnType.SHARED_TEXT)
+      .addColumn(LOCATION_KEY, ColumnType.TEXT)
+      .addColumn(CONSEQUENCE_KEY, ColumnType.SHARED_TEXT)
+      .addColumn(VARIATION_KEY, ColumnType.TEXT);
+
+  private static final String EMPTY_MSG = "Server answer is: no entries";
+  private static final String READ_ERR_MSG = "Unable to read Ensembl answer: %s";
+
+  /**
+   * Read an XML document from a file.
+   */
   public static Summary load(File xml) {
-    String value;
+    try (InputStream is = new FileInputStream(xml)) {
+      return load(is);
+    } catch (IOException e) {
+      Summary summary = new Summary();
+      summary.setError(String.format(READ_ERR_MSG, e.getMessage()));
+      return summary;
+    }
+  }
+
+  /**
+   * Read an XML document from a stream. Stream is not closed by this method.
+   */
+  public static Summary load(InputStream xml) {
+    return load(xml, null);
+  }
+
+  /**
+   * Read an XML document from a stream. Stream is not closed by this method.
+   * 
+   * @param xml the stream
+   * @param listener if not null, documents are passed to this listener as soon
+   *          as they are read and they are not added to the returned Summary.
+   *          An error reported by the server may be read after some documents
+   *          have been passed to the listener.
+   * 
+   * @return a Summary. Use its getError() method to check whether the
+   *         document has been read successfully.
+   */
+  public static Summary load(InputStream xml, SummaryDocListener listener) {
+    XMLStreamReader reader = null;
     Summary summary;
-    Opt result;
     SummaryDoc doc;
+    String error;
+    int nbDocs = 0;
 
     // We create a new summary doc. Note: do not worry about using
     // summary.setFrom() and summary.setTotal() methods on the
     // new summary object: these are used by the caller of this
-    // load(File) method
+    // load() method
     summary = new Summary();
 
     try {
-      // read XML file into an appropriate data model
-      result = JAXB.unmarshal(xml, Opt.class);
-
-      // first, we check if we have an error message
-      value = getErrorMessage(result);
-      if (value != null) {
-        summary.setError(value);
+      reader = StAXUtils.createReader(xml);
+      if (!StAXUtils.toRootElement(reader) || !ROOT_ELEMENT.equals(reader.getLocalName())) {
+        summary.setError(EMPTY_MSG);
         return summary;
       }
-
-      // then, we get results
-      for (OptDataItem entry : result.getItem()) {
-        doc = new SummaryDoc();
-        summary.addDoc(doc);
-        doc.setId(entry.getId());
-        doc.add(EnsemblBank.EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblBank.EnsemblDbSummaryDocPresentationModel.Identifier_HDR], entry.getId());
-        doc.add(EnsemblBank.EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblBank.EnsemblDbSummaryDocPresentationModel.ASSEMBLY_HDR], entry.getAssembly_name());
-        doc.add(EnsemblBank.EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblBank.EnsemblDbSummaryDocPresentationModel.SOURCE_HDR], entry.getSource());
-        doc.add(EnsemblBank.EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblBank.EnsemblDbSummaryDocPresentationModel.LOCATION_HDR], entry.getLocation());
-        doc.add(EnsemblBank.EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblBank.EnsemblDbSummaryDocPresentationModel.CONSEQUENCE_HDR], entry.getConsequence_type());
-        doc.add(EnsemblBank.EnsemblDbSummaryDocPresentationModel.RES_HEADERS[EnsemblBank.EnsemblDbSummaryDocPresentationModel.VARIATION_HDR], entry.getAllelesStr());
+      while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+        if (!DATA_ELEMENT.equals(reader.getLocalName())) {
+          StAXUtils.skipElement(reader);
+          continue;
+        }
+        // first, we check if we have an error message
+        error = reader.getAttributeValue(null, ERROR_ATTR);
+        if (error != null) {
+          summary = new Summary();
+          summary.setError(error);
+          return summary;
+        }
+        // then, we get results
+        doc = readData(reader);
+        nbDocs++;
+        if (listener != null) {
+          listener.docRead(doc);
+        } else {
+          summary.addDoc(doc);
+        }
+      }
+      if (nbDocs == 0) {
+        summary.setError(EMPTY_MSG);
+        return summary;
       }
       // Service provider should report current page of ids. This is not the
       // case for Ensembl, so we set from to zero, and this value will be updated
@@ -77,23 +165,74 @@ public class EnsemblSummaryLoader {
       // available in the DB. ok for Ensembl, so we retrieve that value.
       // Otherwise, we would have to update that value here:
       // EnsemblQueryEngine.getIds/Summary(int from, int nb)
-      summary.setTotal(result.getItem().size());
+      summary.setTotal(nbDocs);
     } catch (Exception e) {
-      summary.setError(String.format("Unable to read Ensembl answer: %s", e.getMessage()));
+      summary.setError(String.format(READ_ERR_MSG, e.getMessage()));
+    } finally {
+      StAXUtils.close(reader);
     }
 
     return summary;
   }
 
-  private static String getErrorMessage(Opt result) {
-    if (result.getItem().isEmpty()) {
-      return "Server answer is: no entries";
-    }
-    for (OptDataItem entry : result.getItem()) {
-      if (entry.getError()!=null){
-        return entry.getError();
+  /**
+   * Read a data element. Reader is located on its start tag, and it is located
+   * on its end tag when this method returns.
+   */
+  private static SummaryDoc readData(XMLStreamReader reader) throws XMLStreamException {
+    SummaryDoc doc = new SummaryDoc(SCHEMA);
+    StringBuilder alleles = new StringBuilder();
+    String id;
+
+    id = reader.getAttributeValue(null, ID_ATTR);
+    doc.setId(id);
+    doc.add(IDENTIFIER_KEY, id);
+    doc.add(ASSEMBLY_KEY, reader.getAttributeValue(null, ASSEMBLY_ATTR));
+    doc.add(SOURCE_KEY, reader.getAttributeValue(null, SOURCE_ATTR));
+    doc.add(LOCATION_KEY, getLocation(reader));
+    doc.add(CONSEQUENCE_KEY, reader.getAttributeValue(null, CONSEQUENCE_ATTR));
+
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      if (ALLELES_ELEMENT.equals(reader.getLocalName())) {
+        if (alleles.length() != 0) {
+          alleles.append("/");
+        }
+        alleles.append(StAXUtils.readText(reader));
+      } else {
+        StAXUtils.skipElement(reader);
       }
     }
-    return  null;
+    doc.add(VARIATION_KEY, alleles.toString());
+    return doc;
+  }
+
+  /**
+   * Return the location of a variant, e.g. 17:7661842-7661844 (+).
+   */
+  private static String getLocation(XMLStreamReader reader) {
+    StringBuilder buf = new StringBuilder();
+    int start, end;
+
+    start = getIntAttribute(reader, START_ATTR);
+    end = getIntAttribute(reader, END_ATTR);
+    buf.append(reader.getAttributeValue(null, REGION_ATTR));
+    buf.append(":");
+    buf.append(start);
+    if (start != end) {
+      buf.append("-");
+      buf.append(end);
+    }
+    buf.append(" (");
+    buf.append(getIntAttribute(reader, STRAND_ATTR) > 0 ? "+" : "-");
+    buf.append(")");
+    return buf.toString();
+  }
+
+  /**
+   * Return an integer attribute. Missing attributes are read as 0.
+   */
+  private static int getIntAttribute(XMLStreamReader reader, String name) {
+    String value = reader.getAttributeValue(null, name);
+    return value != null ? Integer.parseInt(value.trim()) : 0;
   }
 }
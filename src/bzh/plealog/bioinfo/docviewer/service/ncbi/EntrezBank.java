@@ -17,6 +17,7 @@
 package bzh.plealog.bioinfo.docviewer.service.ncbi;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.List;
 
 import javax.swing.SwingConstants;
@@ -30,6 +31,7 @@ import bzh.plealog.bioinfo.docviewer.api.Search;
 import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.api.Summary;
 import bzh.plealog.bioinfo.docviewer.api.SummaryDocPresentationModel;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.io.EntrezQueryEngine;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.io.EntrezServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.EntrezSearchLoader;
@@ -157,6 +159,18 @@ public enum EntrezBank implements BankType {
     return EntrezSearchLoader.load(f);
   }
   
+  public Summary getSummary(InputStream is){
+    //This method is called by the EntrezQueryEngine when streaming an answer
+    //from the NCBI Entrez Server: data model is prepared while data is arriving
+    return EntrezSummaryLoader.load(is);
+  }
+  
+  public Search getSearch(InputStream is){
+    //This method is called by the EntrezQueryEngine when streaming an answer
+    //from the NCBI Entrez Server: data model is prepared while data is arriving
+    return EntrezSearchLoader.load(is);
+  }
+  
   public QueryEngine prepareQueryEngine(BFilter query){
     return new EntrezQueryEngine(this, query);
   }
@@ -373,6 +387,10 @@ public enum EntrezBank implements BankType {
       return RES_HEADERS[Accession_HDR];
     }
     @Override
+    public SummaryDocSchema getSchema() {
+      return EntrezSummaryLoader.SCHEMA;
+    }
+    @Override
     public void saveDefaultColumnModel(String prop) {
       EZEnvironment.setApplicationProperty(_defColPropKey, prop);
     }
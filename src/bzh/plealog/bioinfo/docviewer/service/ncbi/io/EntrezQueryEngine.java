@@ -16,7 +16,9 @@
  */
 package bzh.plealog.bioinfo.docviewer.service.ncbi.io;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Iterator;
 
 import com.plealog.genericapp.api.log.EZLogger;
@@ -25,11 +27,16 @@ import bzh.plealog.bioinfo.api.filter.BFilter;
 import bzh.plealog.bioinfo.docviewer.api.BankType;
 import bzh.plealog.bioinfo.docviewer.api.QueryEngine;
 import bzh.plealog.bioinfo.docviewer.api.QueryEngineException;
+import bzh.plealog.bioinfo.docviewer.api.QueryResultChangedException;
+import bzh.plealog.bioinfo.docviewer.api.ReaderType;
 import bzh.plealog.bioinfo.docviewer.api.Search;
 import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.api.Summary;
 import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
 import bzh.plealog.bioinfo.docviewer.http.HTTPBasicEngine;
+import bzh.plealog.bioinfo.docviewer.http.HTTPEngineException;
+import bzh.plealog.bioinfo.docviewer.http.HTTPResponseStream;
+import bzh.plealog.bioinfo.docviewer.http.TempResource;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.query.EntrezQueryExpressionBuilder;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.query.SimpleStringExpressionBuilder;
 
@@ -43,6 +50,11 @@ import bzh.plealog.bioinfo.docviewer.service.ncbi.model.query.SimpleStringExpres
  * See:
  * http://www.ncbi.nlm.nih.gov/bookshelf/br.fcgi?book=coursework&part=eutils<br>
  * See: http://eutils.ncbi.nlm.nih.gov/entrez/query/static/esearch_help.html<br>
+ * <br>
+ * When the NCBI history server is enabled (see EntrezServerConfiguration),
+ * the query is run once and its result is stored on the NCBI side: pages of
+ * summaries and ranges of sequences are then retrieved from that result. The
+ * query is run again when the result has expired.<br>
  *
  * @author Patrick G. Durand
  */
@@ -51,6 +63,13 @@ public class EntrezQueryEngine implements QueryEngine {
   private BankType dbName;
   private int defPageSize = DocViewerConfig.PAGE_SIZE;
   private EntrezServerConfiguration _serverConfig;
+  private volatile HistorySession _history;
+
+  private static final String HISTORY_MSG = "History server: %s, query_key %s, %d documents";
+  private static final String HISTORY_ERR = "History server: %s";
+  private static final String RESULT_CHANGED_MSG = "Query result has changed on the server: %d documents instead of %d";
+  // error answers of the history server are short
+  private static final int MAX_ERROR_SIZE = 4096;
   
   /**
    * No default constructor available.
@@ -90,6 +109,8 @@ public class EntrezQueryEngine implements QueryEngine {
     engine.defPageSize = this.defPageSize;
     engine.entrezQuery = (BFilter) this.entrezQuery.clone();
     engine._serverConfig = new EntrezServerConfiguration(this._serverConfig);
+    // bound to the query string: cannot be used if query changes
+    engine._history = this._history;
     return engine;
   }
 
@@ -123,18 +144,174 @@ public class EntrezQueryEngine implements QueryEngine {
     return _serverConfig.getSummaryServiceUrl(dbName.getCode(), ids);
   }
 
+  /**
+   * Compile the query. Query engine may be used by several threads at once.
+   */
+  private String getQueryString() {
+    synchronized (entrezQuery) {
+      entrezQuery.compile();
+      return entrezQuery.toString();
+    }
+  }
+
   public Search getIds(int from, int nb) {
+    return runQuery(from, nb, false);
+  }
+
+  /**
+   * Run the query.
+   *
+   * @param renew true if the query is run again to replace a history server
+   * session that has expired. Then, new session is compared to the previous
+   * one: see HistorySession.changed.
+   */
+  private Search runQuery(int from, int nb, boolean renew) {
+    HistorySession previous, history;
     Search res;
-    String q;
+    String q, url;
 
-    entrezQuery.compile();
-    q = entrezQuery.toString();
+    q = getQueryString();
     EZLogger.debug(String.format("getIds: %s ", q));
     EZLogger.debug(String.format("getIds: from %d, page: %d ", from, nb));
-    res = dbName.getSearch(HTTPBasicEngine.doGet(prepareExecQuery(q, from, nb)));
+    // result is stored on the history server, so that next pages do not need
+    // to run the query again
+    url = _serverConfig.useHistory() ? _serverConfig.getHistoryQueryServiceUrl(q, dbName.getCode(), from, nb)
+        : prepareExecQuery(q, from, nb);
+    try (HTTPResponseStream is = HTTPBasicEngine.doGetStream(url)) {
+      res = dbName.getSearch(is);
+      if (res.getError() != null) {
+        // do not replay a server error from the HTTP cache
+        is.discardCachedAnswer();
+        throw new QueryEngineException(res.getError());
+      }
+    }
+    if (res.getWebEnv() != null && res.getQueryKey() != null) {
+      history = new HistorySession(q, res, _serverConfig.getHistoryTimeToLive());
+      previous = _history;
+      if (renew && previous != null && previous.query.equals(q)
+          && (previous.changed || previous.total != history.total)) {
+        history.changed = true;
+        EZLogger.warn(String.format(RESULT_CHANGED_MSG, history.total, previous.total));
+      }
+      _history = history;
+      EZLogger.debug(String.format(HISTORY_MSG, res.getWebEnv(), res.getQueryKey(), res.getTotal()));
+    }
+    return res;
+  }
+
+  /**
+   * Return the history server session storing the result of a query. Query
+   * is run if needed. Returns null if history server cannot be used.
+   */
+  private HistorySession getHistory(String query) {
+    HistorySession history = _history;
+
+    if (history != null && history.isValid(query))
+      return history;
+    // no need to get IDs here
+    runQuery(0, 0, true);
+    history = _history;
+    return history != null && history.isValid(query) ? history : null;
+  }
+
+  /**
+   * Stop using a history server session, e.g. because it has expired on the
+   * server side. It is kept until it is replaced, so that its result can be
+   * compared to the new one.
+   */
+  private void discardHistory(HistorySession history, String cause) {
+    EZLogger.debug(String.format(HISTORY_ERR, cause));
+    history.expires = 0;
+  }
+
+  /**
+   * Get a page of summaries from the history server. Returns null if history
+   * server cannot be used.
+   */
+  private Summary getSummaryFromHistory(int from, int nb) {
+    HistorySession history;
+    Summary sum = null;
+    String q, url;
+
+    q = getQueryString();
+    // a session may expire at any time on the server side: retry once with a
+    // new one
+    for (int i = 0; i < 2; i++) {
+      history = getHistory(q);
+      if (history == null)
+        return null;
+      if (history.total == 0 || from >= history.total) {
+        // nothing to ask the server for
+        sum = new Summary();
+        sum.setTotal(history.total);
+        sum.setFrom(from);
+        return sum;
+      }
+      url = _serverConfig.getHistorySummaryServiceUrl(dbName.getCode(), history.webEnv, history.queryKey, from,
+          nb);
+      EZLogger.debug(String.format("getSummary: from %d, page: %d ", from, nb));
+      try (HTTPResponseStream is = HTTPBasicEngine.doGetStream(url)) {
+        sum = dbName.getSummary(is);
+      }
+      if (sum.getError() == null) {
+        sum.setTotal(history.total);
+        sum.setFrom(from);
+        return sum;
+      }
+      discardHistory(history, sum.getError());
+    }
+    throw new QueryEngineException(sum.getError());
+  }
+
+  /**
+   * Enumerate documents using esearch only: no esummary request is sent. As a
+   * consequence, lengths of documents are not available. Nucleotide banks
+   * still use summaries: their sequences may be long enough for the number of
+   * letters per run to bound the batches.
+   */
+  @Override
+  public Search enumerateIds(int from, int nb) {
+    HistorySession history;
+    Search res;
+    String q, url;
+
+    if (dbName.getReaderType() == ReaderType.GENBANK) {
+      return QueryEngine.super.enumerateIds(from, nb);
+    }
+    if (!_serverConfig.useHistory()) {
+      return getIds(from, nb);
+    }
+    q = getQueryString();
+    history = getHistory(q);
+    if (history == null) {
+      return getIds(from, nb);
+    }
+    if (history.total == 0 || from >= history.total) {
+      // nothing to ask the server for
+      res = new Search();
+      res.setTotal(history.total);
+      res.setFrom(from);
+      return res;
+    }
+    // page through the result stored on the history server: the query is
+    // not run again and no new session is created
+    url = _serverConfig.getHistoryQueryServiceUrl(dbName.getCode(), history.webEnv, history.queryKey, from, nb);
+    EZLogger.debug(String.format("enumerateIds: from %d, page: %d ", from, nb));
+    try (HTTPResponseStream is = HTTPBasicEngine.doGetStream(url)) {
+      res = dbName.getSearch(is);
+      if (res.getError() != null) {
+        // do not replay a server error from the HTTP cache
+        is.discardCachedAnswer();
+      }
+    }
     if (res.getError() != null) {
-      throw new QueryEngineException(res.getError());
+      // session may have expired on the server side: run the query again.
+      // Caller has to check the total: the result may have changed
+      discardHistory(history, res.getError());
+      return runQuery(from, nb, true);
     }
+    res.setTotal(history.total);
+    res.setFrom(from);
     return res;
   }
 
@@ -156,7 +333,12 @@ public class EntrezQueryEngine implements QueryEngine {
     StringBuffer buf;
     Iterator<String> ids;
     String str;
-    
+
+    if (_serverConfig.useHistory()) {
+      sum = getSummaryFromHistory(from, nb);
+      if (sum != null)
+        return sum;
+    }
     search = getIds(from, nb);
     
     buf = new StringBuffer();
@@ -168,10 +350,16 @@ public class EntrezQueryEngine implements QueryEngine {
     }
     str = buf.toString();
     EZLogger.debug(String.format("getSummary: %s ", str));
-    sum = dbName.getSummary(HTTPBasicEngine.doGet(prepareSummaryUrl(str)));
-
-    if (sum.getError() != null) {
-      throw new QueryEngineException(sum.getError());
+    str = prepareSummaryUrl(str);
+    // long list of IDs are sent using POST
+    try (HTTPResponseStream is = _serverConfig.usePostMethod(str) ? 
+        HTTPBasicEngine.doPostStream(str) : HTTPBasicEngine.doGetStream(str)) {
+      sum = dbName.getSummary(is);
+      if (sum.getError() != null) {
+        // do not replay a server error from the HTTP cache
+        is.discardCachedAnswer();
+        throw new QueryEngineException(sum.getError());
+      }
     }
     sum.setTotal(search.getTotal());
     sum.setFrom(search.getFrom());
@@ -182,23 +370,146 @@ public class EntrezQueryEngine implements QueryEngine {
     return dbName;
   }
 
-  public File load(String ids, String dbCode, boolean fullEntryFormat) {
-    String  url;
-    File    fTmp;
-
+  private String getLoadUrl(String ids, String dbCode, boolean fullEntryFormat) {
     if (fullEntryFormat) {
-      url = _serverConfig.getEntryServiceURL(dbCode, ids);
+      return _serverConfig.getEntryServiceURL(dbCode, ids);
     }
     else{
-      url = _serverConfig.getFastaServiceURL(dbCode, ids);
+      return _serverConfig.getFastaServiceURL(dbCode, ids);
     }
+  }
 
-    fTmp = HTTPBasicEngine.doGet(url);
-    
-    return fTmp;
+  public TempResource load(String ids, String dbCode, boolean fullEntryFormat) {
+    String  url;
+
+    url = getLoadUrl(ids, dbCode, fullEntryFormat);
+
+    // long list of IDs are sent using POST
+    if (_serverConfig.usePostMethod(url)) {
+      return HTTPBasicEngine.doPostResource(url);
+    }
+    else {
+      return HTTPBasicEngine.doGetResource(url);
+    }
+  }
+
+  @Override
+  public void load(String ids, String dbCode, boolean fullEntryFormat, OutputStream out) throws IOException {
+    String  url;
+
+    url = getLoadUrl(ids, dbCode, fullEntryFormat);
+    try (HTTPResponseStream is = _serverConfig.usePostMethod(url) ? HTTPBasicEngine.doPostStream(url)
+        : HTTPBasicEngine.doGetStream(url)) {
+      is.transferTo(out);
+    }
+  }
+
+  @Override
+  public boolean canLoadRange(String dbCode) {
+    // history server only stores the result of the query for its database
+    return _serverConfig.useHistory() && dbName.getCode().equals(dbCode);
+  }
+
+  /**
+   * Load a range of sequences from the query result stored on the history
+   * server. A session that has expired on the server side is replaced once.
+   *
+   * @throws QueryResultChangedException if the session has been replaced by
+   * one whose result has changed: the range does not contain the expected
+   * documents anymore
+   */
+  @Override
+  public void load(int from, int nb, String dbCode, boolean fullEntryFormat, OutputStream out)
+      throws IOException {
+    HistorySession history;
+    HTTPEngineException clientError;
+    String url, error = null;
+    int ch;
+
+    for (int i = 0; i < 2; i++) {
+      history = getHistory(getQueryString());
+      if (history == null)
+        throw new QueryEngineException("NCBI history server not available");
+      if (history.changed)
+        throw new QueryResultChangedException(String.format(HISTORY_ERR, "query result has changed"));
+      if (fullEntryFormat) {
+        url = _serverConfig.getHistoryEntryServiceURL(dbCode, history.webEnv, history.queryKey, from, nb);
+      } else {
+        url = _serverConfig.getHistoryFastaServiceURL(dbCode, history.webEnv, history.queryKey, from, nb);
+      }
+      clientError = null;
+      try (HTTPResponseStream is = HTTPBasicEngine.doGetStream(url)) {
+        // sequences start with '>' (Fasta) or 'LOCUS' (GenBank): an XML or
+        // JSON answer is an error message, e.g. an expired session
+        ch = is.read();
+        if (ch != '<' && ch != '{') {
+          if (ch != -1) {
+            out.write(ch);
+            is.transferTo(out);
+          }
+          return;
+        }
+        error = readError(ch, is);
+        // do not replay a server error from the HTTP cache
+        is.discardCachedAnswer();
+      } catch (HTTPEngineException e) {
+        // an expired session may also be reported with a 4xx status code
+        if (e.getHttpCode() < 400 || e.getHttpCode() >= 500 || e.isThrottled())
+          throw e;
+        clientError = e;
+        error = e.getMessage();
+      }
+      // retry once with a new session
+      discardHistory(history, error);
+      if (i == 1 && clientError != null)
+        throw clientError;
+    }
+    throw new QueryEngineException(error);
+  }
+
+  /**
+   * Read an error message answered by the server.
+   *
+   * @param first first byte of the answer, already read
+   */
+  private static String readError(int first, InputStream is) throws IOException {
+    byte[] buf = new byte[MAX_ERROR_SIZE];
+    int n = 1, r;
+
+    buf[0] = (byte) first;
+    while (n < buf.length && (r = is.read(buf, n, buf.length - n)) != -1) {
+      n += r;
+    }
+    return new String(buf, 0, n, "UTF-8").trim();
   }
 
   public ServerConfiguration getServerConfiguration(){
     return _serverConfig;
   }
+
+  /**
+   * A query result stored on the NCBI history server.
+   */
+  private static class HistorySession {
+    private String query;
+    private String webEnv;
+    private String queryKey;
+    private int total;
+    private volatile long expires;
+    // true if this session replaces a session whose result had another
+    // number of documents: documents cannot be located by index anymore
+    private boolean changed;
+
+    private HistorySession(String query, Search search, long ttl) {
+      this.query = query;
+      this.webEnv = search.getWebEnv();
+      this.queryKey = search.getQueryKey();
+      this.total = search.getTotal();
+      this.expires = System.currentTimeMillis() + ttl;
+    }
+
+    private boolean isValid(String query) {
+      return this.query.equals(query) && System.currentTimeMillis() < expires;
+    }
+  }
 }
@@ -28,6 +28,8 @@ import java.util.ResourceBundle;
 import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
 import bzh.plealog.bioinfo.docviewer.http.HTTPBasicEngine;
+import bzh.plealog.bioinfo.docviewer.http.HTTPRateLimiter;
+import bzh.plealog.bioinfo.docviewer.http.HTTPResponseCache;
 import bzh.plealog.bioinfo.docviewer.ui.resources.Messages;
 import bzh.plealog.bioinfo.util.CoreUtil;
 
@@ -50,6 +52,22 @@ public class EntrezServerConfiguration implements ServerConfiguration{
   private static final String SEQ_RUN_KEY = "sequences.per.run";
   private static final String LETTERS_SIZE_KEY = "letters.per.run";
   private static final String SEQ_SLEEP_KEY = "sleep.per.run"; // use seconds in
+  private static final String REQ_PER_SEC_KEY = "requests.per.second";
+  private static final String REQ_PER_SEC_API_KEY = "requests.per.second.api_key";
+  private static final String API_KEY = "api.key";
+  private static final String POST_URL_LENGTH_KEY = "post.url.length";
+  private static final String QUERY_CACHE_TTL_KEY = "query.cache.ttl"; // use seconds in
+  private static final String SUM_CACHE_TTL_KEY = "summary.cache.ttl"; // use seconds in
+  private static final String DOWNLOAD_WORKERS_KEY = "download.workers";
+  private static final String HISTORY_QUERY_URL_KEY = "history.query.url";
+  private static final String HISTORY_SUM_URL_KEY = "history.summary.url";
+  private static final String HISTORY_FASTA_SERVICE = "history.fetch_fasta.url";
+  private static final String HISTORY_ENTRY_SERVICE = "history.fetch_full.url";
+  private static final String HISTORY_TTL_KEY = "history.ttl"; // use seconds in
+  private static final String SEQ_RUN_MIN_KEY = "sequences.per.run.min";
+  private static final String SEQ_RUN_MAX_KEY = "sequences.per.run.max";
+  private static final String LETTERS_SIZE_MIN_KEY = "letters.per.run.min";
+  private static final String LETTERS_SIZE_MAX_KEY = "letters.per.run.max";
 
   private static final String CONF_RESOURCE = "ncbiQuery.cfg";
 
@@ -64,6 +82,24 @@ public class EntrezServerConfiguration implements ServerConfiguration{
   private int _seqPerRun = 100;
   private int _sleepTimePerRun = 1000; // use milliseconds internally
   private int _maxLetterPerRun = 5000000;
+  private int _reqPerSecond = -1; // if not set, use _sleepTimePerRun
+  private int _reqPerSecondApiKey = 10;
+  private String _apiKey;
+  private int _postUrlLength = 2000;
+  private int _queryCacheTtl = 600; // use seconds
+  private int _summaryCacheTtl = 86400; // use seconds
+  private int _downloadWorkers = 3;
+  // history server services: if not set, history server is not used
+  private String _historyQueryService;
+  private String _historySummaryService;
+  private String _historyFastaService;
+  private String _historyEntryService;
+  private int _historyTtl = 3600; // use seconds
+  // batch size bounds: if not set, use _seqPerRun and _maxLetterPerRun
+  private int _seqPerRunLow = -1;
+  private int _seqPerRunHigh = -1;
+  private int _lettersPerRunLow = -1;
+  private int _lettersPerRunHigh = -1;
 
   /**
    * Constructor. Load automatically resource file called ncbiQuery.conf located
@@ -88,6 +124,72 @@ public class EntrezServerConfiguration implements ServerConfiguration{
       EZLogger.debug(String.format("%s = %d", SEQ_SLEEP_KEY, _sleepTimePerRun));
       _maxLetterPerRun = ((Integer) conf.get(LETTERS_SIZE_KEY)).intValue();
       EZLogger.debug(String.format("%s = %d", LETTERS_SIZE_KEY, _maxLetterPerRun));
+      if (conf.containsKey(REQ_PER_SEC_KEY)) {
+        _reqPerSecond = ((Integer) conf.get(REQ_PER_SEC_KEY)).intValue();
+        EZLogger.debug(String.format("%s = %d", REQ_PER_SEC_KEY, _reqPerSecond));
+      }
+      if (conf.containsKey(REQ_PER_SEC_API_KEY)) {
+        _reqPerSecondApiKey = ((Integer) conf.get(REQ_PER_SEC_API_KEY)).intValue();
+        EZLogger.debug(String.format("%s = %d", REQ_PER_SEC_API_KEY, _reqPerSecondApiKey));
+      }
+      if (conf.containsKey(POST_URL_LENGTH_KEY)) {
+        _postUrlLength = ((Integer) conf.get(POST_URL_LENGTH_KEY)).intValue();
+        EZLogger.debug(String.format("%s = %d", POST_URL_LENGTH_KEY, _postUrlLength));
+      }
+      if (conf.containsKey(QUERY_CACHE_TTL_KEY)) {
+        _queryCacheTtl = ((Integer) conf.get(QUERY_CACHE_TTL_KEY)).intValue();
+        EZLogger.debug(String.format("%s = %d", QUERY_CACHE_TTL_KEY, _queryCacheTtl));
+      }
+      if (conf.containsKey(SUM_CACHE_TTL_KEY)) {
+        _summaryCacheTtl = ((Integer) conf.get(SUM_CACHE_TTL_KEY)).intValue();
+        EZLogger.debug(String.format("%s = %d", SUM_CACHE_TTL_KEY, _summaryCacheTtl));
+      }
+      if (conf.containsKey(DOWNLOAD_WORKERS_KEY)) {
+        _downloadWorkers = ((Integer) conf.get(DOWNLOAD_WORKERS_KEY)).intValue();
+        EZLogger.debug(String.format("%s = %d", DOWNLOAD_WORKERS_KEY, _downloadWorkers));
+      }
+      if (conf.containsKey(HISTORY_QUERY_URL_KEY) && conf.containsKey(HISTORY_SUM_URL_KEY)
+          && conf.containsKey(HISTORY_FASTA_SERVICE) && conf.containsKey(HISTORY_ENTRY_SERVICE)) {
+        _historyQueryService = conf.get(HISTORY_QUERY_URL_KEY).toString();
+        EZLogger.debug(String.format("%s = %s", HISTORY_QUERY_URL_KEY, _historyQueryService));
+        _historySummaryService = conf.get(HISTORY_SUM_URL_KEY).toString();
+        EZLogger.debug(String.format("%s = %s", HISTORY_SUM_URL_KEY, _historySummaryService));
+        _historyFastaService = conf.get(HISTORY_FASTA_SERVICE).toString();
+        EZLogger.debug(String.format("%s = %s", HISTORY_FASTA_SERVICE, _historyFastaService));
+        _historyEntryService = conf.get(HISTORY_ENTRY_SERVICE).toString();
+        EZLogger.debug(String.format("%s = %s", HISTORY_ENTRY_SERVICE, _historyEntryService));
+      }
+      if (conf.containsKey(HISTORY_TTL_KEY)) {
+        _historyTtl = ((Integer) conf.get(HISTORY_TTL_KEY)).intValue();
+        EZLogger.debug(String.format("%s = %d", HISTORY_TTL_KEY, _historyTtl));
+      }
+      if (conf.containsKey(SEQ_RUN_MIN_KEY)) {
+        _seqPerRunLow = ((Integer) conf.get(SEQ_RUN_MIN_KEY)).intValue();
+        EZLogger.debug(String.format("%s = %d", SEQ_RUN_MIN_KEY, _seqPerRunLow));
+      }
+      if (conf.containsKey(SEQ_RUN_MAX_KEY)) {
+        _seqPerRunHigh = ((Integer) conf.get(SEQ_RUN_MAX_KEY)).intValue();
+        EZLogger.debug(String.format("%s = %d", SEQ_RUN_MAX_KEY, _seqPerRunHigh));
+      }
+      if (conf.containsKey(LETTERS_SIZE_MIN_KEY)) {
+        _lettersPerRunLow = ((Integer) conf.get(LETTERS_SIZE_MIN_KEY)).intValue();
+        EZLogger.debug(String.format("%s = %d", LETTERS_SIZE_MIN_KEY, _lettersPerRunLow));
+      }
+      if (conf.containsKey(LETTERS_SIZE_MAX_KEY)) {
+        _lettersPerRunHigh = ((Integer) conf.get(LETTERS_SIZE_MAX_KEY)).intValue();
+        EZLogger.debug(String.format("%s = %d", LETTERS_SIZE_MAX_KEY, _lettersPerRunHigh));
+      }
+      // API key from command-line overrides the one from config file
+      _apiKey = DocViewerConfig.getNcbiApiKey();
+      if (_apiKey == null && conf.containsKey(API_KEY)) {
+        _apiKey = conf.get(API_KEY).toString();
+      }
+      EZLogger.debug(String.format("%s set: %s", API_KEY, _apiKey != null));
+      // all requests sent to the NCBI have to conform to its rate policy
+      HTTPRateLimiter.setRequestsPerSecond(_queryService, getRequestsPerSecond());
+      // search and summary answers are cached, not sequences
+      HTTPResponseCache.setTimeToLive(_queryService, _queryCacheTtl * 1000l);
+      HTTPResponseCache.setTimeToLive(_summaryService, _summaryCacheTtl * 1000l);
     } catch (Exception ex) {
       EZLogger.warn(ex.toString());
     }
@@ -105,6 +207,22 @@ public class EntrezServerConfiguration implements ServerConfiguration{
     this._seqPerRun = srcConfig._seqPerRun;
     this._sleepTimePerRun = srcConfig._sleepTimePerRun;
     this._maxLetterPerRun = srcConfig._maxLetterPerRun;
+    this._reqPerSecond = srcConfig._reqPerSecond;
+    this._reqPerSecondApiKey = srcConfig._reqPerSecondApiKey;
+    this._apiKey = srcConfig._apiKey;
+    this._postUrlLength = srcConfig._postUrlLength;
+    this._queryCacheTtl = srcConfig._queryCacheTtl;
+    this._summaryCacheTtl = srcConfig._summaryCacheTtl;
+    this._downloadWorkers = srcConfig._downloadWorkers;
+    this._historyQueryService = srcConfig._historyQueryService;
+    this._historySummaryService = srcConfig._historySummaryService;
+    this._historyFastaService = srcConfig._historyFastaService;
+    this._historyEntryService = srcConfig._historyEntryService;
+    this._historyTtl = srcConfig._historyTtl;
+    this._seqPerRunLow = srcConfig._seqPerRunLow;
+    this._seqPerRunHigh = srcConfig._seqPerRunHigh;
+    this._lettersPerRunLow = srcConfig._lettersPerRunLow;
+    this._lettersPerRunHigh = srcConfig._lettersPerRunHigh;
   }
   
   /**
@@ -161,6 +279,42 @@ public class EntrezServerConfiguration implements ServerConfiguration{
       value = Utils.getInteger(rb, LETTERS_SIZE_KEY);
       if (!value.equals(Utils.UNKNOWNINTEGER))
         conf.put(LETTERS_SIZE_KEY, value);
+      value = Utils.getInteger(rb, REQ_PER_SEC_KEY);
+      if (!value.equals(Utils.UNKNOWNINTEGER))
+        conf.put(REQ_PER_SEC_KEY, value);
+      value = Utils.getInteger(rb, REQ_PER_SEC_API_KEY);
+      if (!value.equals(Utils.UNKNOWNINTEGER))
+        conf.put(REQ_PER_SEC_API_KEY, value);
+      value = Utils.getInteger(rb, POST_URL_LENGTH_KEY);
+      if (!value.equals(Utils.UNKNOWNINTEGER))
+        conf.put(POST_URL_LENGTH_KEY, value);
+      value = Utils.getInteger(rb, QUERY_CACHE_TTL_KEY);
+      if (!value.equals(Utils.UNKNOWNINTEGER))
+        conf.put(QUERY_CACHE_TTL_KEY, value);
+      value = Utils.getInteger(rb, SUM_CACHE_TTL_KEY);
+      if (!value.equals(Utils.UNKNOWNINTEGER))
+        conf.put(SUM_CACHE_TTL_KEY, value);
+      value = Utils.getInteger(rb, DOWNLOAD_WORKERS_KEY);
+      if (!value.equals(Utils.UNKNOWNINTEGER))
+        conf.put(DOWNLOAD_WORKERS_KEY, value);
+      for (String key : new String[] { HISTORY_QUERY_URL_KEY, HISTORY_SUM_URL_KEY, HISTORY_FASTA_SERVICE,
+          HISTORY_ENTRY_SERVICE }) {
+        value = Utils.getString(rb, key);
+        if (!value.equals(Utils.UNKNOWNSTRING))
+          conf.put(key, value);
+      }
+      value = Utils.getInteger(rb, HISTORY_TTL_KEY);
+      if (!value.equals(Utils.UNKNOWNINTEGER))
+        conf.put(HISTORY_TTL_KEY, value);
+      for (String key : new String[] { SEQ_RUN_MIN_KEY, SEQ_RUN_MAX_KEY, LETTERS_SIZE_MIN_KEY,
+          LETTERS_SIZE_MAX_KEY }) {
+        value = Utils.getInteger(rb, key);
+        if (!value.equals(Utils.UNKNOWNINTEGER))
+          conf.put(key, value);
+      }
+      value = Utils.getString(rb, API_KEY);
+      if (!value.equals(Utils.UNKNOWNSTRING) && !value.toString().trim().isEmpty())
+        conf.put(API_KEY, value.toString().trim());
 
     } catch (Exception e) {
       //should not happen unless resource file is not available
@@ -273,6 +427,95 @@ public class EntrezServerConfiguration implements ServerConfiguration{
     return addServiceRequirements(str);
   }
 
+  /**
+   * Figures out whether or not the NCBI history server can be used: query
+   * result is stored on the server side, then summaries and sequences are
+   * retrieved by range from that result.
+   */
+  public boolean useHistory() {
+    return _historyQueryService != null && _historyTtl > 0;
+  }
+
+  /**
+   * Returns the time during which a query result stored on the history server
+   * is used. Return value is in milliseconds.
+   */
+  public long getHistoryTimeToLive() {
+    return _historyTtl * 1000l;
+  }
+
+  /**
+   * Returns the service URL to run a query and store its result on the
+   * history server. Parameters are the same as getQueryServiceUrl().
+   */
+  public String getHistoryQueryServiceUrl(String query, String dbCode, int from, int nb) {
+    String str;
+    str = CoreUtil.replaceAll(_historyQueryService, "@DB@", dbCode);
+    str = CoreUtil.replaceAll(str, "@TERM@", query);
+    str = str.replaceAll("@FROM@", String.valueOf(from));
+    str = str.replaceAll("@NB@", String.valueOf(nb));
+    return addServiceRequirements(str);
+  }
+
+  /**
+   * Returns the service URL to get a page of IDs from a query result already
+   * stored on the history server. The query is not run again: it refers to
+   * that result, so that no new session is created.
+   *
+   * @param dbCode the database code
+   * @param webEnv the history server session
+   * @param queryKey the query result within that session
+   * @param from index of the first document within the query result
+   * @param nb number of documents
+   */
+  public String getHistoryQueryServiceUrl(String dbCode, String webEnv, String queryKey, int from, int nb) {
+    // '#' (encoded) followed by a query key refers to a stored result
+    return getHistoryQueryServiceUrl("%23" + queryKey, dbCode, from, nb) + "&WebEnv=" + webEnv;
+  }
+
+  /**
+   * Returns the service URL to get document summaries from a query result
+   * stored on the history server.
+   *
+   * @param dbCode the database code
+   * @param webEnv the history server session
+   * @param queryKey the query result within that session
+   * @param from index of the first document within the query result
+   * @param nb number of documents
+   */
+  public String getHistorySummaryServiceUrl(String dbCode, String webEnv, String queryKey, int from, int nb) {
+    return prepareHistoryUrl(_historySummaryService, dbCode, webEnv, queryKey, from, nb);
+  }
+
+  /**
+   * Returns the URL to get Fasta sequences from a query result stored on the
+   * history server. Parameters are the same as getHistorySummaryServiceUrl().
+   */
+  public String getHistoryFastaServiceURL(String dbCode, String webEnv, String queryKey, int from, int nb) {
+    return prepareHistoryUrl(_historyFastaService, dbCode, webEnv, queryKey, from, nb);
+  }
+
+  /**
+   * Returns the URL to get full sequence entries from a query result stored
+   * on the history server. Parameters are the same as
+   * getHistorySummaryServiceUrl().
+   */
+  public String getHistoryEntryServiceURL(String dbCode, String webEnv, String queryKey, int from, int nb) {
+    String str = prepareHistoryUrl(_historyEntryService, dbCode, webEnv, queryKey, from, nb);
+    return CoreUtil.replaceAll(str, "@TYPE@", dbCode.equals("protein") ? "gp" : "gb");
+  }
+
+  private String prepareHistoryUrl(String service, String dbCode, String webEnv, String queryKey, int from,
+      int nb) {
+    String str;
+    str = CoreUtil.replaceAll(service, "@DB@", dbCode);
+    str = CoreUtil.replaceAll(str, "@WEBENV@", webEnv);
+    str = CoreUtil.replaceAll(str, "@QUERY_KEY@", queryKey);
+    str = str.replaceAll("@FROM@", String.valueOf(from));
+    str = str.replaceAll("@NB@", String.valueOf(nb));
+    return addServiceRequirements(str);
+  }
+
   /**
    * Figures out whether or not remote server is available.
    */
@@ -325,12 +568,83 @@ public class EntrezServerConfiguration implements ServerConfiguration{
     _maxLetterPerRun = letterPerRun;
   }
 
+  /**
+   * Returns the lower bound of the number of sequences retrieved per run when
+   * batch size is adapted to the server response time.
+   */
+  public int getMinSequencesPerRun() {
+    return _seqPerRunLow > 0 ? _seqPerRunLow : _seqPerRun;
+  }
+
+  /**
+   * Returns the upper bound of the number of sequences retrieved per run when
+   * batch size is adapted to the server response time.
+   */
+  public int getMaxSequencesPerRun() {
+    return _seqPerRunHigh > 0 ? _seqPerRunHigh : _seqPerRun;
+  }
+
+  /**
+   * Returns the lower bound of the number of letters retrieved per run when
+   * batch size is adapted to the server response time.
+   */
+  public int getMinLettersPerRun() {
+    return _lettersPerRunLow > 0 ? _lettersPerRunLow : _maxLetterPerRun;
+  }
+
+  /**
+   * Returns the upper bound of the number of letters retrieved per run when
+   * batch size is adapted to the server response time.
+   */
+  public int getMaxLettersPerRun() {
+    return _lettersPerRunHigh > 0 ? _lettersPerRunHigh : _maxLetterPerRun;
+  }
+
+  /**
+   * Returns the max number of requests per second that can be sent to the
+   * NCBI. If not set in the configuration file, it is derived from the sleep
+   * time between two runs.
+   */
+  public double getRequestsPerSecond() {
+    if (_apiKey != null) {
+      return _reqPerSecondApiKey;
+    }
+    if (_reqPerSecond > 0) {
+      return _reqPerSecond;
+    }
+    return 1000d / (double) Math.max(1, _sleepTimePerRun);
+  }
+
+  /**
+   * Returns the number of batch connections that can run at the same time to
+   * retrieve sequences.
+   */
+  public int getDownloadWorkers() {
+    return Math.max(1, _downloadWorkers);
+  }
+
+  public void setDownloadWorkers(int val) {
+    _downloadWorkers = val;
+  }
+
+  /**
+   * Figures out whether or not a URL has to be sent using HTTP POST method.
+   * This is the case for URLs containing long lists of IDs.
+   */
+  public boolean usePostMethod(String url) {
+    return _postUrlLength >= 0 && url.length() > _postUrlLength;
+  }
+
   private String addServiceRequirements(String str) {
     StringBuffer buf = new StringBuffer(str);
     buf.append("&tool=");
     buf.append(EZApplicationBranding.getAppName()+"-"+EZApplicationBranding.getAppVersion());
     buf.append("&email=");
     buf.append(DocViewerConfig.getUserEmail());
+    if (_apiKey != null) {
+      buf.append("&api_key=");
+      buf.append(_apiKey);
+    }
     return buf.toString();
   }
 }
@@ -17,10 +17,12 @@
 package bzh.plealog.bioinfo.docviewer.service.ncbi.model;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 
-import javax.xml.bind.JAXB;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
 
 import bzh.plealog.bioinfo.docviewer.api.Search;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.Count;
@@ -32,8 +34,11 @@ import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.IdList;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.OutputMessage;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.PhraseIgnored;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.PhraseNotFound;
+import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.QueryKey;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.QuotedPhraseNotFound;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.RetStart;
+import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.WebEnv;
+import bzh.plealog.bioinfo.docviewer.xml.JAXBLoader;
 
 /**
  * A convenient class to transform a ESearchResult object into a Search object.
@@ -43,7 +48,21 @@ import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.RetStart;
  * @author Patrick G. Durand
  */
 public class EntrezSearchLoader {
+  /**
+   * Read an XML document from a file.
+   */
   public static Search load(File xml) {
+    return load(new StreamSource(xml));
+  }
+
+  /**
+   * Read an XML document from a stream. Stream is not closed by this method.
+   */
+  public static Search load(InputStream xml) {
+    return load(new StreamSource(xml));
+  }
+
+  private static Search load(Source xml) {
     String value;
     Search search;
     ESearchResult result;
@@ -53,7 +72,7 @@ public class EntrezSearchLoader {
 
     try {
       // read XML file into an appropriate data model
-      result = JAXB.unmarshal(xml, ESearchResult.class);
+      result = JAXBLoader.unmarshal(xml, ESearchResult.class);
 
       // first, we check if we have an error message
       value = getErrorMessage(result);
@@ -83,6 +102,11 @@ public class EntrezSearchLoader {
             ids.add(id.getvalue());
           }
           search.setIds(ids);
+        } else if (o instanceof WebEnv) {
+          // only available when query has been run with usehistory=y
+          search.setWebEnv(((WebEnv) o).getvalue());
+        } else if (o instanceof QueryKey) {
+          search.setQueryKey(((QueryKey) o).getvalue());
         }
       }
     } catch (Exception e) {
@@ -17,144 +17,217 @@
 package bzh.plealog.bioinfo.docviewer.service.ncbi.model;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 
-import javax.xml.bind.JAXB;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import bzh.plealog.bioinfo.docviewer.api.Summary;
 import bzh.plealog.bioinfo.docviewer.api.SummaryDoc;
-import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.ERROR;
-import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esummary.DocSum;
-import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esummary.ESummaryResult;
-import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esummary.Item;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocListener;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema.ColumnType;
+import bzh.plealog.bioinfo.docviewer.xml.StAXUtils;
 
 /**
- * A convenient class to transform a ESummaryResult object into a Summary object. The former is only
- * used for XML serialization while the latter is used for the business of this software.
+ * A convenient class to read NCBI eSummary XML documents into Summary objects.<br>
+ * <br>
+ * Documents are read using a StAX pull parser: each DocSum is converted into a
+ * SummaryDoc as soon as it is read, items not used by this software are
+ * skipped, and no intermediate object model is built. Documents can also be
+ * passed to a SummaryDocListener while they are read.
  * 
  * @author Patrick G. Durand
  */
 public class EntrezSummaryLoader {
+  /**
+   * Schema of the documents read by this loader. Keys are the ones of
+   * EntrezBank/SummaryPresentationModel.
+   */
+  public static final SummaryDocSchema SCHEMA = new SummaryDocSchema()
+      .addColumn("Accession", ColumnType.TEXT)
+      .addColumn("Identifier", ColumnType.TEXT)
+      .addColumn("Description", ColumnType.TEXT)
+      .addColumn("Length", ColumnType.INT)
+      .addColumn("TaxId", ColumnType.INT)
+      .addColumn("Organism", ColumnType.SHARED_TEXT)
+      .addColumn("CreateDate", ColumnType.DATE)
+      .addColumn("UpdateDate", ColumnType.DATE)
+      .addColumn("Experiment", ColumnType.SHARED_TEXT)
+      .addColumn("CommonName", ColumnType.SHARED_TEXT)
+      .addColumn("Rank", ColumnType.SHARED_TEXT)
+      .addColumn("Division", ColumnType.SHARED_TEXT);
+
+  private static final String ROOT_ELEMENT = "eSummaryResult";
+  private static final String DOCSUM_ELEMENT = "DocSum";
+  private static final String ITEM_ELEMENT = "Item";
+  private static final String ERROR_ELEMENT = "ERROR";
+  private static final String NAME_ATTR = "Name";
+
+  private static final String TITLE_ITEM = "Title";
+  private static final String EXTRA_ITEM = "Extra";
+
+  private static final String EMPTY_MSG = "empty file or wrong format";
+  private static final String READ_ERR_MSG = "Unable to read NCBI summary: %s";
+
+  // NCBI Entrez item name -> SummaryDoc key. Keys are the ones of
+  // EntrezBank/SummaryPresentationModel. Title and Extra items are split
+  // into several keys: see handleItem().
+  private static final Map<String, String> ITEM_KEYS = new HashMap<>();
+
+  static {
+    // all NCBI sequence banks
+    ITEM_KEYS.put("Caption", "Accession");
+    ITEM_KEYS.put(TITLE_ITEM, "Description");
+    ITEM_KEYS.put(EXTRA_ITEM, "Identifier");
+    ITEM_KEYS.put("CreateDate", "CreateDate");
+    ITEM_KEYS.put("UpdateDate", "UpdateDate");
+    ITEM_KEYS.put("TaxId", "TaxId");
+    ITEM_KEYS.put("Length", "Length");
+    // NCBI Structure bank
+    ITEM_KEYS.put("PdbAcc", "Accession");
+    ITEM_KEYS.put("PdbDescr", "Description");
+    ITEM_KEYS.put("PdbDepositDate", "CreateDate");
+    ITEM_KEYS.put("OrganismList", "Organism");
+    ITEM_KEYS.put("ExpMethod", "Experiment");
+    // NCBI Taxonomy bank
+    ITEM_KEYS.put("ScientificName", "Organism");
+    ITEM_KEYS.put("CommonName", "CommonName");
+    ITEM_KEYS.put("Rank", "Rank");
+    ITEM_KEYS.put("Division", "Division");
+  }
+
+  /**
+   * Read an XML document from a file.
+   */
   public static Summary load(File xml) {
-    String         value;
-    Summary        summary;
-    SummaryDoc     doc;
-    ESummaryResult result;
-    DocSum         dsum;
-    int            idx1, idx2;
-    
+    try (InputStream is = new FileInputStream(xml)) {
+      return load(is);
+    } catch (IOException e) {
+      Summary summary = new Summary();
+      summary.setError(String.format(READ_ERR_MSG, e.getMessage()));
+      return summary;
+    }
+  }
+
+  /**
+   * Read an XML document from a stream. Stream is not closed by this method.
+   */
+  public static Summary load(InputStream xml) {
+    return load(xml, null);
+  }
+
+  /**
+   * Read an XML document from a stream. Stream is not closed by this method.
+   * 
+   * @param xml the stream
+   * @param listener if not null, documents are passed to this listener as soon
+   *          as they are read and they are not added to the returned Summary.
+   * 
+   * @return a Summary. Use its getError() method to check whether the
+   *         document has been read successfully.
+   */
+  public static Summary load(InputStream xml, SummaryDocListener listener) {
+    XMLStreamReader reader = null;
+    Summary summary;
+    SummaryDoc doc;
+    String name;
+    int nbDocs = 0;
+
     // We create a new summary doc. Note: do not worry about using
-    // summary.setFrom() and summary.setTotal() methods on the 
-    // new summary object: these are used by the caller of this 
-    // load(File) method
+    // summary.setFrom() and summary.setTotal() methods on the
+    // new summary object: these are used by the caller of this
+    // load() method
     summary = new Summary();
 
     try {
-      // read XML file into an appropriate data model
-      result = JAXB.unmarshal(xml, ESummaryResult.class);
-      // first, we check if we have an error message
-      value = getErrorMessage(result);
-      if (value != null) {
-        summary.setError(value);
+      reader = StAXUtils.createReader(xml);
+      if (!StAXUtils.toRootElement(reader) || !ROOT_ELEMENT.equals(reader.getLocalName())) {
+        summary.setError(EMPTY_MSG);
         return summary;
       }
-      // then, we read data
-      for (Object o : result.getDataElements()) {
-        if (o instanceof DocSum) {
-          dsum = (DocSum) o;
-          doc = new SummaryDoc();
-          summary.addDoc(doc);
-          for(Item item : dsum.getItem()){
-            //all NCBI sequence banks
-            if (item.getName().equals("Caption")){//NCBI Entrez key
-              doc.add("Accession", item.getvalue());//see: EntrezBank/SummaryPresentationModel keys
-            }
-            else if (item.getName().equals("Title")){
-              value = item.getvalue();
-              idx1 = value.lastIndexOf("[");
-              idx2 = value.lastIndexOf("]");
-              if (idx1!=-1 && idx2!=-1){
-                doc.add("Description", item.getvalue().substring(0, idx1));
-                doc.add("Organism", item.getvalue().substring(idx1+1, idx2));
-              }
-              else{
-                doc.add("Description", item.getvalue());
-              }
-            }
-            else if (item.getName().equals("Extra")){
-              value = item.getvalue();
-              idx1 = value.lastIndexOf("[");
-              idx2 = value.lastIndexOf("]");
-              if (idx1!=-1 && idx2!=-1){
-                doc.add("Identifier", item.getvalue().substring(idx1+1, idx2));
-              }
-              else{
-                doc.add("Identifier", item.getvalue());
-              }
-              //this is required for the UI of DocViewer
-              doc.setId(doc.getValue("Identifier"));
-            }
-            else if (item.getName().equals("CreateDate")){
-              doc.add("CreateDate", item.getvalue());
-            }
-            else if (item.getName().equals("UpdateDate")){
-              doc.add("UpdateDate", item.getvalue());
-            }
-            else if (item.getName().equals("TaxId")){
-              doc.add("TaxId", item.getvalue());
-            }
-            else if (item.getName().equals("Length")){
-              doc.add("Length", item.getvalue());
-            }
-            //NCBI Structure bank
-            else if (item.getName().equals("PdbAcc")){
-              doc.add("Accession", item.getvalue());
-            }
-            else if (item.getName().equals("PdbDescr")){
-              doc.add("Description", item.getvalue());
-            }
-            else if (item.getName().equals("PdbDepositDate")){
-              doc.add("CreateDate", item.getvalue());
-            }
-            else if (item.getName().equals("OrganismList")){
-              doc.add("Organism", item.getvalue());
-            }
-            else if (item.getName().equals("ExpMethod")){
-              doc.add("Experiment", item.getvalue());
-            }
-            //NCBI Taxonomy bank
-            else if (item.getName().equals("ScientificName")){
-              doc.add("Organism", item.getvalue());
-            }
-            else if (item.getName().equals("CommonName")){
-              doc.add("CommonName", item.getvalue());
-            }
-            else if (item.getName().equals("Rank")){
-              doc.add("Rank", item.getvalue());
-            }
-            else if (item.getName().equals("Division")){
-              doc.add("Division", item.getvalue());
-            }
+      while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+        name = reader.getLocalName();
+        if (DOCSUM_ELEMENT.equals(name)) {
+          doc = readDocSum(reader);
+          nbDocs++;
+          if (listener != null) {
+            listener.docRead(doc);
+          } else {
+            summary.addDoc(doc);
           }
+        } else if (ERROR_ELEMENT.equals(name)) {
+          summary.setError(StAXUtils.readText(reader));
+          return summary;
+        } else {
+          StAXUtils.skipElement(reader);
         }
       }
+      if (nbDocs == 0) {
+        summary.setError(EMPTY_MSG);
+      }
     } catch (Exception e) {
-      summary.setError(String.format("Unable to read NCBI summary: %s", e.getMessage()));
+      summary.setError(String.format(READ_ERR_MSG, e.getMessage()));
+    } finally {
+      StAXUtils.close(reader);
     }
 
     return summary;
   }
 
-  private static String getErrorMessage(ESummaryResult result) {
-    // first, JAXB may read a wrong XML file, in such a case, result is empty
-    if ((result.getDataElements() == null || result.getDataElements().isEmpty())) {
-      return "empty file or wrong format";
+  /**
+   * Read a DocSum element. Reader is located on its start tag, and it is
+   * located on its end tag when this method returns.
+   */
+  private static SummaryDoc readDocSum(XMLStreamReader reader) throws XMLStreamException {
+    SummaryDoc doc = new SummaryDoc(SCHEMA);
+    String key;
+
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+      key = ITEM_ELEMENT.equals(reader.getLocalName()) ? ITEM_KEYS.get(reader.getAttributeValue(null, NAME_ATTR))
+          : null;
+      if (key != null) {
+        handleItem(doc, reader.getAttributeValue(null, NAME_ATTR), key, StAXUtils.readText(reader));
+      } else {
+        // Id, items not used here and their sub-items
+        StAXUtils.skipElement(reader);
+      }
     }
-    // second, check for error from ERROR
-    for (Object o : result.getDataElements()) {
-      if (o instanceof ERROR) {
-        return ((ERROR) o).getvalue();
+    return doc;
+  }
+
+  private static void handleItem(SummaryDoc doc, String item, String key, String value) {
+    int idx1, idx2;
+
+    switch (item) {
+    case TITLE_ITEM:
+      idx1 = value.lastIndexOf("[");
+      idx2 = value.lastIndexOf("]");
+      if (idx1 != -1 && idx2 != -1) {
+        doc.add(key, value.substring(0, idx1));
+        doc.add("Organism", value.substring(idx1 + 1, idx2));
+      } else {
+        doc.add(key, value);
+      }
+      break;
+    case EXTRA_ITEM:
+      idx1 = value.lastIndexOf("[");
+      idx2 = value.lastIndexOf("]");
+      if (idx1 != -1 && idx2 != -1) {
+        doc.add(key, value.substring(idx1 + 1, idx2));
+      } else {
+        doc.add(key, value);
       }
+      // this is required for the UI of DocViewer
+      doc.setId(doc.getValue(key));
+      break;
+    default:
+      doc.add(key, value);
     }
-    return null;
   }
 }
@@ -34,6 +34,7 @@ import bzh.plealog.bioinfo.docviewer.api.SummaryDoc;
 import bzh.plealog.bioinfo.docviewer.conf.DirManager;
 import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
 import bzh.plealog.bioinfo.docviewer.http.HTTPBasicEngine;
+import bzh.plealog.bioinfo.docviewer.http.TempResource;
 import bzh.plealog.bioinfo.docviewer.ui.panels.StatusBarHelperPanel;
 import bzh.plealog.bioinfo.docviewer.ui.resources.Messages;
 import bzh.plealog.bioinfo.docviewer.ui.structure.ThreeDStructureViewer;
@@ -107,6 +108,7 @@ public class DisplayEntryAction extends AbstractAction {
    */
   private void handleSequenceEntry(boolean isProteic) {
     String seqId;
+    TempResource entry = null;
     File tmpFile = null;
     SequenceDataBag sdb;
 
@@ -115,10 +117,13 @@ public class DisplayEntryAction extends AbstractAction {
     StatusBarHelperPanel.setHelperMessage(MF.format(new Object[]{seqId}));
 
     try{
-      tmpFile = _qEngine.load(seqId, _qEngine.getBankType().getCode(), true);
+      entry = _qEngine.load(seqId, _qEngine.getBankType().getCode(), true);
+      // sequence readers work on files
+      tmpFile = entry.getFile();
     }
     catch(Exception ex){
-      tmpFile.delete();
+      if (entry != null)
+        entry.close();
       EZLogger.warn(ex.toString());
       MessageFormat mf = new MessageFormat(Messages.getString("DisplayEntryAction.msg1"));
       EZEnvironment.displayWarnMessage(EZEnvironment.getParentFrame(),
@@ -145,7 +150,7 @@ public class DisplayEntryAction extends AbstractAction {
       sdb = BiojavaUtils.readFastaEntry(tmpFile);
       break;
     default:
-      tmpFile.delete();
+      entry.close();
       MessageFormat mf = new MessageFormat(Messages.getString("DisplayEntryAction.msg2"));
       EZEnvironment.displayWarnMessage(EZEnvironment.getParentFrame(), mf.format(new Object[] { seqId }));
       return;
@@ -158,7 +163,7 @@ public class DisplayEntryAction extends AbstractAction {
       //not bad: we won't have a local copy of the file
     }
 
-    tmpFile.delete();
+    entry.close();
 
     if (sdb.getSequence().length()==0) {
       MessageFormat mf = new MessageFormat(Messages.getString("DisplayEntryAction.msg3"));
@@ -210,7 +215,9 @@ public class DisplayEntryAction extends AbstractAction {
     //a PDB text viewer, so we need the uncompressed file)
     File   pdbFile = new File(pdbFile_gz.getAbsoluteFile()+".txt");
     //notice: gunzipFile() logs errors if any
-    if (!EZFileUtils.gunzipFile(pdbFile_gz.getAbsolutePath(), pdbFile.getAbsolutePath())){
+    boolean unzipped = EZFileUtils.gunzipFile(pdbFile_gz.getAbsolutePath(), pdbFile.getAbsolutePath());
+    pdbFile_gz.delete();
+    if (!unzipped){
       return;
     }
     
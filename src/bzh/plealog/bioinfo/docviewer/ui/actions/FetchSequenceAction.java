@@ -36,11 +36,10 @@ import bzh.plealog.bioinfo.docviewer.api.QueryEngine;
 import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
 import bzh.plealog.bioinfo.docviewer.api.SummaryDoc;
 import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
-import bzh.plealog.bioinfo.docviewer.fetcher.DBAutoFetcher;
-import bzh.plealog.bioinfo.docviewer.fetcher.DBSimpleFetcher;
 import bzh.plealog.bioinfo.docviewer.fetcher.DocFetcherUtils;
+import bzh.plealog.bioinfo.docviewer.fetcher.FetchJob;
+import bzh.plealog.bioinfo.docviewer.fetcher.FetchJobScheduler;
 import bzh.plealog.bioinfo.docviewer.fetcher.SeqRetrieverMonitor;
-import bzh.plealog.bioinfo.docviewer.ui.panels.StatusBarHelperPanel;
 import bzh.plealog.bioinfo.docviewer.ui.resources.Messages;
 
 /**
@@ -70,7 +69,9 @@ public class FetchSequenceAction extends AbstractAction {
   }
 
   public void actionPerformed(ActionEvent event) {
-    if (_monitor.isJobRunning() || StatusBarHelperPanel.isFetchingProcessRunning()) {
+    // the monitor of a result can only display one job at a time; other
+    // results can run their own jobs
+    if (_monitor.isJobRunning() || FetchJobScheduler.getDefault().isBusy(_monitor)) {
       EZEnvironment.displayInfoMessage(EZEnvironment.getParentFrame(), Messages.getString("FetchFastaAction.lbl1"));
       return;
     }
@@ -130,13 +131,15 @@ public class FetchSequenceAction extends AbstractAction {
           return;
       }*/
 
-      new DBSimpleFetcher(seqFile, _engine, copyDocs(), _dbCode, _monitor, retrieveFullEntry).start();
+      FetchJobScheduler.getDefault().submit(
+          FetchJob.create(seqFile, _engine, copyDocs(), _dbCode, _monitor, retrieveFullEntry));
     } else {
       /*if (_totDocs > 100) {
         if (!displayFetchMsg(_totDocs))
           return;
       }*/
-      new DBAutoFetcher(seqFile, _engine, _dbCode, _monitor, retrieveFullEntry).start();
+      FetchJobScheduler.getDefault().submit(
+          FetchJob.create(seqFile, _engine, _dbCode, _monitor, retrieveFullEntry));
     }
   }
 
@@ -209,11 +212,10 @@ public class FetchSequenceAction extends AbstractAction {
 
   private List<DocFetcherUtils.DocSum> copyDocs() {
     ArrayList<DocFetcherUtils.DocSum> docs = new ArrayList<DocFetcherUtils.DocSum>();
-    String data;
+    String key = _engine.getBankType().getPresentationModel().getLengthFieldKey();
 
     for (SummaryDoc doc : _curDocs) {
-      data = doc.getValue(_engine.getBankType().getPresentationModel().getLengthFieldKey());
-      docs.add(new DocFetcherUtils.DocSum(doc.getId(), (data != null ? Integer.valueOf(data) : 0)));
+      docs.add(new DocFetcherUtils.DocSum(doc.getId(), doc.getInt(key, 0)));
     }
     return docs;
   }
@@ -32,6 +32,9 @@ import java.awt.event.MouseEvent;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import javax.swing.Action;
 import javax.swing.BorderFactory;
@@ -56,7 +59,6 @@ import com.plealog.genericapp.ui.common.ContextMenuElement;
 import com.plealog.genericapp.ui.common.ContextMenuManager;
 
 import bzh.plealog.bioinfo.docviewer.api.QueryEngine;
-import bzh.plealog.bioinfo.docviewer.api.QueryEngineException;
 import bzh.plealog.bioinfo.docviewer.api.Summary;
 import bzh.plealog.bioinfo.docviewer.http.HTTPEngineException;
 import bzh.plealog.bioinfo.docviewer.ui.resources.Messages;
@@ -101,6 +103,8 @@ public class DocNavigator extends JPanel {
   private JTextField _curPageField;
   private JLabel _totPageLbl;
   private ContextMenuManager _contextMnu;
+  // page being retrieved from the remote server, if any
+  private CompletableFuture<Summary> _pendingQuery;
 
   /**
    * Constructor.
@@ -297,6 +301,7 @@ public class DocNavigator extends JPanel {
    * Resets the content of this panel.
    */
   public void resetDataModel() {
+    cancelPendingQuery();
     _table.clearSelection();
     ((DocSummaryTableModel) _table.getModel()).clear();
     _scroller.getVerticalScrollBar().setValue(0);
@@ -355,14 +360,67 @@ public class DocNavigator extends JPanel {
     }
   }
 
-  private class QueryRunner extends Thread {
+  /**
+   * Displays a page of results. Pages not retrieved yet are obtained from the
+   * remote server asynchronously: the UI is updated once the page is
+   * available. Asking for a new page cancels the pending one, if any.
+   */
+  private class QueryRunner {
     private int newPage;
 
     public QueryRunner(int newPage) {
       this.newPage = newPage;
     }
 
-    private void displayNewPage() {
+    private void displayPage(Summary res) {
+      setData(res);
+      _curPage = newPage;
+      _curPageField.setText(String.valueOf(_curPage));
+    }
+
+    private void handleError(Throwable error) {
+      if (error instanceof CompletionException && error.getCause() != null) {
+        error = error.getCause();
+      }
+      if (error instanceof CancellationException) {
+        return;
+      }
+      EZEnvironment.setDefaultCursor();
+      EZLogger.warn(String.format("Query is: %s. Bank is: %s", _engine.getQuery().toString(), _engine.getBankType().getCode()));
+      if (error instanceof HTTPEngineException) {
+        HTTPEngineException hbe = (HTTPEngineException) error;
+        EZLogger.warn(hbe.getUrl());
+        EZLogger.warn(String.format("[%d] %s", hbe.getHttpCode(), hbe.getMessage()));
+      } else {
+        EZLogger.warn(error.getMessage());
+      }
+      JOptionPane.showMessageDialog(EZEnvironment.getParentFrame(), error.getMessage(),
+          Messages.getString("DatabaseOpener.err2"),
+          JOptionPane.ERROR_MESSAGE | JOptionPane.OK_CANCEL_OPTION);
+    }
+
+    private void handleBtn() {
+      _prevBtn.setEnabled(_curPage != 1);
+      Summary res = _docPages.get(String.valueOf(_curPage));
+      _nextBtn.setEnabled(!((res.getFrom() + res.getDocs().size()) >= res.getTotal()));
+    }
+
+    private void setBusy(boolean busy) {
+      _animLbl.setIcon(busy ? _animIcon : _notAnimIcon);
+      _curPageField.setEnabled(!busy);
+      if (busy) {
+        _prevBtn.setEnabled(false);
+        _nextBtn.setEnabled(false);
+      } else {
+        handleBtn();
+      }
+    }
+
+    /**
+     * Has to be called from the event dispatch thread.
+     */
+    public void start() {
+      final CompletableFuture<Summary> query;
       Summary res;
       int from;
 
@@ -372,9 +430,9 @@ public class DocNavigator extends JPanel {
       // check if we have the requested page
       res = _docPages.get(String.valueOf(newPage));
       if (res != null) {
-        setData(res);
-        _curPage = newPage;
-        _curPageField.setText(String.valueOf(_curPage));
+        cancelPendingQuery();
+        displayPage(res);
+        setBusy(false);
         return;
       }
       // get the current page, then the new page
@@ -384,47 +442,31 @@ public class DocNavigator extends JPanel {
         return;
       if (from < 0)
         from = 0;
-      try {
-        res = _engine.getSummary(from, _pageSize);
-        _docPages.put(String.valueOf(newPage), res);
-        setData(res);
-        _curPage = newPage;
-        _curPageField.setText(String.valueOf(_curPage));
-      }
-      catch(QueryEngineException qee){
-        EZEnvironment.setDefaultCursor();
-        EZLogger.warn(String.format("Query is: %s. Bank is: %s", _engine.getQuery().toString(), _engine.getBankType().getCode()));
-        EZLogger.warn(qee.getMessage());
-        JOptionPane.showMessageDialog(EZEnvironment.getParentFrame(), qee.getMessage(),
-            Messages.getString("DatabaseOpener.err2"),
-            JOptionPane.ERROR_MESSAGE | JOptionPane.OK_CANCEL_OPTION);
-      }
-      catch(HTTPEngineException hbe){
-        EZEnvironment.setDefaultCursor();
-        EZLogger.warn(String.format("Query is: %s. Bank is: %s", _engine.getQuery().toString(), _engine.getBankType().getCode()));
-        EZLogger.warn(hbe.getUrl());
-        EZLogger.warn(String.format("[%d] %s", hbe.getHttpCode(), hbe.getMessage()));
-        JOptionPane.showMessageDialog(EZEnvironment.getParentFrame(), hbe.getMessage(),
-            Messages.getString("DatabaseOpener.err2"),
-            JOptionPane.ERROR_MESSAGE | JOptionPane.OK_CANCEL_OPTION);
-      }
-    }
-
-    private void handleBtn() {
-      _prevBtn.setEnabled(_curPage != 1);
-      Summary res = _docPages.get(String.valueOf(_curPage));
-      _nextBtn.setEnabled(!((res.getFrom() + res.getDocs().size()) >= res.getTotal()));
+      cancelPendingQuery();
+      setBusy(true);
+      query = _engine.getSummaryAsync(from, _pageSize);
+      _pendingQuery = query;
+      query.whenComplete((sum, error) -> SwingUtilities.invokeLater(() -> {
+        // a more recent page has been requested in the meantime
+        if (_pendingQuery != query)
+          return;
+        _pendingQuery = null;
+        if (error == null) {
+          _docPages.put(String.valueOf(newPage), sum);
+          displayPage(sum);
+        } else {
+          handleError(error);
+        }
+        setBusy(false);
+      }));
     }
+  }
 
-    public void run() {
-      _animLbl.setIcon(_animIcon);
-      _prevBtn.setEnabled(false);
-      _nextBtn.setEnabled(false);
-      _curPageField.setEnabled(false);
-      displayNewPage();
-      handleBtn();
-      _animLbl.setIcon(_notAnimIcon);
-      _curPageField.setEnabled(true);
+  private void cancelPendingQuery() {
+    CompletableFuture<Summary> query = _pendingQuery;
+    _pendingQuery = null;
+    if (query != null) {
+      query.cancel(true);
     }
   }
 
@@ -0,0 +1,253 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.ui.panels;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JToolBar;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import javax.swing.table.AbstractTableModel;
+
+import bzh.plealog.bioinfo.docviewer.fetcher.FetchJob;
+import bzh.plealog.bioinfo.docviewer.fetcher.FetchJobListener;
+import bzh.plealog.bioinfo.docviewer.fetcher.FetchJobScheduler;
+import bzh.plealog.bioinfo.docviewer.ui.resources.Messages;
+
+/**
+ * This panel displays the jobs of the FetchJobScheduler and enables the user
+ * to pause, resume, cancel and prioritize them.
+ *
+ * @author Patrick G. Durand
+ */
+public class FetchJobsPanel extends JPanel {
+  private static final long serialVersionUID = -3217906434558912407L;
+
+  // progress of running jobs is not notified: refresh table regularly
+  private static final int REFRESH_DELAY = 1000;
+
+  private FetchJobScheduler _scheduler;
+  private JobTableModel _model;
+  private JTable _table;
+  private JButton _pauseBtn, _resumeBtn, _cancelBtn, _upBtn, _downBtn;
+  private Timer _timer;
+
+  /**
+   * Constructor.
+   */
+  public FetchJobsPanel(FetchJobScheduler scheduler) {
+    _scheduler = scheduler;
+    _model = new JobTableModel();
+    _table = new JTable(_model);
+    _table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    _table.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+      public void valueChanged(ListSelectionEvent e) {
+        updateButtons();
+      }
+    });
+
+    this.setLayout(new BorderLayout());
+    this.add(new JScrollPane(_table), BorderLayout.CENTER);
+    this.add(getToolbar(), BorderLayout.SOUTH);
+
+    _scheduler.addFetchJobListener(new FetchJobListener() {
+      public void jobChanged(FetchJob job) {
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            refresh();
+          }
+        });
+      }
+    });
+    _timer = new Timer(REFRESH_DELAY, new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        refresh();
+      }
+    });
+    _timer.start();
+    refresh();
+  }
+
+  private JButton addButton(JToolBar tBar, String key, ActionListener listener) {
+    JButton btn = new JButton(Messages.getString(key + ".btn"));
+    btn.setToolTipText(Messages.getString(key + ".tip"));
+    btn.addActionListener(listener);
+    tBar.add(btn);
+    return btn;
+  }
+
+  private JToolBar getToolbar() {
+    JToolBar tBar = new JToolBar();
+    tBar.setFloatable(false);
+
+    _pauseBtn = addButton(tBar, "FetchJobsPanel.pause", new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        _scheduler.pause(getSelectedJob());
+      }
+    });
+    _resumeBtn = addButton(tBar, "FetchJobsPanel.resume", new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        _scheduler.resume(getSelectedJob());
+      }
+    });
+    _cancelBtn = addButton(tBar, "FetchJobsPanel.cancel", new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        _scheduler.cancel(getSelectedJob());
+      }
+    });
+    tBar.addSeparator();
+    _upBtn = addButton(tBar, "FetchJobsPanel.up", new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        changePriority(-1);
+      }
+    });
+    _downBtn = addButton(tBar, "FetchJobsPanel.down", new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        changePriority(1);
+      }
+    });
+    tBar.addSeparator();
+    addButton(tBar, "FetchJobsPanel.clear", new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        _scheduler.clearFinishedJobs();
+      }
+    });
+    updateButtons();
+    return tBar;
+  }
+
+  private FetchJob getSelectedJob() {
+    int row = _table.getSelectedRow();
+    return row >= 0 ? _model.getJob(row) : null;
+  }
+
+  private void changePriority(int delta) {
+    FetchJob job = getSelectedJob();
+    FetchJob.Priority[] values = FetchJob.Priority.values();
+    int idx;
+
+    if (job == null)
+      return;
+    idx = job.getPriority().ordinal() + delta;
+    if (idx >= 0 && idx < values.length) {
+      _scheduler.setPriority(job, values[idx]);
+    }
+  }
+
+  private void updateButtons() {
+    FetchJob job = getSelectedJob();
+    FetchJob.State state = job != null ? job.getState() : null;
+    boolean active = job != null && job.isActive();
+
+    _pauseBtn.setEnabled(state == FetchJob.State.QUEUED || state == FetchJob.State.RUNNING);
+    _resumeBtn.setEnabled(state == FetchJob.State.PAUSED);
+    _cancelBtn.setEnabled(active);
+    _upBtn.setEnabled(active && job.getPriority() != FetchJob.Priority.HIGH);
+    _downBtn.setEnabled(active && job.getPriority() != FetchJob.Priority.LOW);
+  }
+
+  private void refresh() {
+    FetchJob selected = getSelectedJob();
+    int row;
+
+    _model.setJobs(_scheduler.getJobs());
+    row = selected != null ? _model.indexOf(selected) : -1;
+    if (row >= 0) {
+      _table.getSelectionModel().setSelectionInterval(row, row);
+    }
+    updateButtons();
+  }
+
+  /**
+   * Stop refreshing this panel. To be called when it is not used anymore.
+   */
+  public void dispose() {
+    _timer.stop();
+  }
+
+  private static class JobTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 5046339416011256357L;
+
+    private static final String[] COLUMNS = { Messages.getString("FetchJobsPanel.col.job"),
+        Messages.getString("FetchJobsPanel.col.provider"), Messages.getString("FetchJobsPanel.col.priority"),
+        Messages.getString("FetchJobsPanel.col.status"), Messages.getString("FetchJobsPanel.col.progress") };
+
+    private List<FetchJob> _jobs = new ArrayList<>();
+
+    private void setJobs(List<FetchJob> jobs) {
+      if (jobs.equals(_jobs)) {
+        // same jobs: keep selection
+        if (!jobs.isEmpty())
+          fireTableRowsUpdated(0, jobs.size() - 1);
+      } else {
+        _jobs = jobs;
+        fireTableDataChanged();
+      }
+    }
+
+    private FetchJob getJob(int row) {
+      return _jobs.get(row);
+    }
+
+    private int indexOf(FetchJob job) {
+      return _jobs.indexOf(job);
+    }
+
+    public String getColumnName(int column) {
+      return COLUMNS[column];
+    }
+
+    public int getColumnCount() {
+      return COLUMNS.length;
+    }
+
+    public int getRowCount() {
+      return _jobs.size();
+    }
+
+    public Object getValueAt(int row, int column) {
+      FetchJob job = _jobs.get(row);
+
+      switch (column) {
+      case 0:
+        return job.getName();
+      case 1:
+        return job.getLane();
+      case 2:
+        return job.getPriority();
+      case 3:
+        return job.getState();
+      default:
+        if (job.getTotSteps() == 0)
+          return "";
+        return String.format("%d / %d (%d%%)", job.getCurSteps(), job.getTotSteps(),
+            (job.getCurSteps() * 100L) / job.getTotSteps());
+      }
+    }
+  }
+}
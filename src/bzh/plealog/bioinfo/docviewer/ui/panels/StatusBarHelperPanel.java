@@ -32,16 +32,13 @@ import com.plealog.genericapp.ui.desktop.GDesktopPane;
 import com.plealog.genericapp.ui.desktop.GInternalFrame;
 
 import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
+import bzh.plealog.bioinfo.docviewer.fetcher.FetchJobScheduler;
 import bzh.plealog.bioinfo.docviewer.ui.resources.Messages;
 
 public class StatusBarHelperPanel {
   private static JLabel _helperField;
   private static GDesktopPane _desktop;
 
-  // use to be sure that at any time only one fetching process is authorized
-  // using such a static variable is not so good, so for the future: enhance!
-  protected static boolean _fetchInProgress;
-
   private static Color RUNNING_TASK_COLOR = Color.GREEN.darker();
   private static Color NOT_RUNNING_TASK_COLOR;
 
@@ -110,18 +107,11 @@ public class StatusBarHelperPanel {
   }
 
   /**
-   * Returns true if a sequence fetching process is already running in the
+   * Returns true if a sequence fetching process is queued or running in the
    * system.
    */
-  public static synchronized boolean isFetchingProcessRunning() {
-    return _fetchInProgress;
-  }
-
-  /**
-   * Sets the running status of the sequence fetching system.
-   */
-  public static synchronized void setFetchingProcessRunning(boolean running) {
-    _fetchInProgress = running;
+  public static boolean isFetchingProcessRunning() {
+    return FetchJobScheduler.getDefault().hasActiveJobs();
   }
 
   private static class IFrameListener implements InternalFrameListener {
@@ -223,7 +223,6 @@ public class XplorDocNavigator extends JPanel {
 
     public void jobDone() {
       super.jobDone();
-      StatusBarHelperPanel.setFetchingProcessRunning(false);
       this.setVisible(false);
       EZLogger.info(Messages.getString("DDXplorDocNavigator.lbl2"));
       if (this.getErrMsg() != null) {
@@ -236,7 +235,6 @@ public class XplorDocNavigator extends JPanel {
       _cancelBtn.setIcon(EZEnvironment.getImageIcon("stopScheduler.png"));
       _cancelBtn.setToolTipText(Messages.getString("SeqRetrieverMonitor.cancel.toolTip"));
       EZLogger.info(Messages.getString("DDXplorDocNavigator.lbl3"));
-      StatusBarHelperPanel.setFetchingProcessRunning(true);
       this.setMessage(Messages.getString("DatabaseOpener.lbl7"));
       _cancelBtn.setEnabled(true);
       this.setVisible(true);
@@ -0,0 +1,144 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.xml;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.bind.DataBindingException;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Utility class used by the summary and search loaders to read XML documents
+ * into their JAXB data models.<br>
+ * <br>
+ * Unlike javax.xml.bind.JAXB.unmarshal(), which looks up a JAXBContext and
+ * creates a new Unmarshaller for each document, a JAXBContext is created only
+ * once per data model class and shared by all threads. Since Unmarshallers are
+ * not thread-safe, each thread keeps its own Unmarshaller per data model class
+ * and reuses it for all the pages it reads.<br>
+ * <br>
+ * Documents are read using LocalDTDResolver, so that parsing a document never
+ * fetches its DTD from the network.
+ *
+ * @author Patrick G. Durand
+ */
+public class JAXBLoader {
+  // JAXBContext is thread-safe
+  private static final ConcurrentHashMap<Class<?>, JAXBContext> CONTEXTS = new ConcurrentHashMap<>();
+
+  private static final ThreadLocal<Map<Class<?>, Unmarshaller>> UNMARSHALLERS =
+      new ThreadLocal<Map<Class<?>, Unmarshaller>>() {
+    protected Map<Class<?>, Unmarshaller> initialValue() {
+      return new HashMap<>();
+    }
+  };
+
+  private static final SAXParserFactory PARSER_FACTORY = SAXParserFactory.newInstance();
+
+  // XMLReaders are not thread-safe either
+  private static final ThreadLocal<XMLReader> READERS = new ThreadLocal<>();
+
+  static {
+    // required by JAXB
+    PARSER_FACTORY.setNamespaceAware(true);
+  }
+
+  private JAXBLoader() {
+  }
+
+  /**
+   * Return the JAXBContext of a data model class. It is created the first
+   * time it is requested.
+   */
+  public static JAXBContext getContext(Class<?> type) throws JAXBException {
+    JAXBContext context = CONTEXTS.get(type);
+
+    if (context == null) {
+      // two threads may create a context at the same time: only one is kept
+      context = JAXBContext.newInstance(type);
+      JAXBContext previous = CONTEXTS.putIfAbsent(type, context);
+      if (previous != null) {
+        context = previous;
+      }
+    }
+    return context;
+  }
+
+  /**
+   * Return the Unmarshaller of a data model class to be used by the calling
+   * thread. It must not be shared with other threads.
+   */
+  public static Unmarshaller getUnmarshaller(Class<?> type) throws JAXBException {
+    Map<Class<?>, Unmarshaller> unmarshallers = UNMARSHALLERS.get();
+    Unmarshaller unmarshaller = unmarshallers.get(type);
+
+    if (unmarshaller == null) {
+      unmarshaller = getContext(type).createUnmarshaller();
+      unmarshallers.put(type, unmarshaller);
+    }
+    return unmarshaller;
+  }
+
+  /**
+   * Return the XMLReader to be used by the calling thread. It relies on the
+   * default LocalDTDResolver.
+   */
+  public static XMLReader getXMLReader() throws JAXBException {
+    XMLReader reader = READERS.get();
+
+    if (reader == null) {
+      try {
+        synchronized (PARSER_FACTORY) {
+          reader = PARSER_FACTORY.newSAXParser().getXMLReader();
+        }
+      } catch (ParserConfigurationException | SAXException e) {
+        throw new JAXBException(e);
+      }
+      reader.setEntityResolver(LocalDTDResolver.getDefault());
+      READERS.set(reader);
+    }
+    return reader;
+  }
+
+  /**
+   * Read an XML document into a data model object. This method is a drop-in
+   * replacement for javax.xml.bind.JAXB.unmarshal(Source, Class): it throws a
+   * DataBindingException if the document cannot be read.
+   */
+  public static <T> T unmarshal(Source xml, Class<T> type) {
+    try {
+      if (xml instanceof StreamSource) {
+        xml = new SAXSource(getXMLReader(), SAXSource.sourceToInputSource(xml));
+      }
+      return getUnmarshaller(type).unmarshal(xml, type).getValue();
+    } catch (JAXBException e) {
+      throw new DataBindingException(e);
+    }
+  }
+}
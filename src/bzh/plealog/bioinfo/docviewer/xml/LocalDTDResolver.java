@@ -0,0 +1,126 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Hashtable;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
+
+/**
+ * Entity resolver used to read XML documents without accessing the network.<br>
+ * <br>
+ * NCBI documents declare a DOCTYPE pointing at a DTD located on the NCBI web
+ * site. Reading such a document with a standard parser fetches that DTD for
+ * each page. This resolver serves the known DTDs from a local catalog packaged
+ * with this software. A DTD missing from the catalog is replaced by an empty
+ * one, which is fine since DTDs are not used to validate documents; in strict
+ * mode (see DocViewerConfig.JVM_ARG_DTD), such a DTD stops the parsing
+ * instead.
+ *
+ * @author Patrick G. Durand
+ */
+public class LocalDTDResolver implements EntityResolver {
+  private static final String STRICT_MODE = "strict";
+  private static final String UNKNOWN_DTD_MSG = "DTD not available locally: %s (%s)";
+
+  // DTD file name -> resource located in this package (copied from schema/
+  // by build.xml)
+  private static final Hashtable<String, String> CATALOG = new Hashtable<>();
+
+  private static final LocalDTDResolver DEFAULT = new LocalDTDResolver(
+      STRICT_MODE.equalsIgnoreCase(System.getProperty(DocViewerConfig.JVM_ARG_DTD)));
+
+  static {
+    register("esearch.dtd", "esearch.dtd");
+    register("esummary-v1.dtd", "esummary-v1.dtd");
+  }
+
+  private boolean _failFast;
+
+  /**
+   * Constructor.
+   *
+   * @param failFast if true, reading a document referring to a DTD missing from
+   *          the catalog fails.
+   */
+  public LocalDTDResolver(boolean failFast) {
+    _failFast = failFast;
+  }
+
+  /**
+   * Return the resolver used by default, as set by
+   * DocViewerConfig.JVM_ARG_DTD.
+   */
+  public static LocalDTDResolver getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Add a DTD to the catalog.
+   *
+   * @param dtdName DTD file name, as found at the end of DOCTYPE system
+   *          identifiers, e.g. esearch.dtd
+   * @param resource resource name, relative to this package
+   */
+  public static void register(String dtdName, String resource) {
+    CATALOG.put(dtdName, resource);
+  }
+
+  public boolean isFailFast() {
+    return _failFast;
+  }
+
+  @Override
+  public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+    InputSource source;
+    InputStream in;
+    String resource;
+
+    if (systemId == null) {
+      return null;
+    }
+    resource = CATALOG.get(systemId.substring(systemId.lastIndexOf('/') + 1));
+    if (resource != null) {
+      in = LocalDTDResolver.class.getResourceAsStream(resource);
+      if (in != null) {
+        source = new InputSource(in);
+        source.setPublicId(publicId);
+        source.setSystemId(systemId);
+        return source;
+      }
+    }
+    // DTD located on the local file system
+    if (systemId.startsWith("file:")) {
+      return null;
+    }
+    if (_failFast) {
+      throw new SAXException(String.format(UNKNOWN_DTD_MSG, systemId, publicId));
+    }
+    // never go to the network: use an empty DTD
+    source = new InputSource(new StringReader(""));
+    source.setPublicId(publicId);
+    source.setSystemId(systemId);
+    return source;
+  }
+}
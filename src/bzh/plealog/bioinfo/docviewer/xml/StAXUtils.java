@@ -0,0 +1,131 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package bzh.plealog.bioinfo.docviewer.xml;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Utility methods used by the loaders reading XML documents with a StAX pull
+ * parser.
+ *
+ * @author Patrick G. Durand
+ */
+public class StAXUtils {
+  // StAX factories are thread-safe once configured
+  private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+  static {
+    // DTDs are only declarations: never read them, see LocalDTDResolver
+    FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+  }
+
+  private StAXUtils() {
+  }
+
+  /**
+   * Create a reader. Stream is not closed when the reader is closed.
+   */
+  public static XMLStreamReader createReader(InputStream xml) throws XMLStreamException {
+    return FACTORY.createXMLStreamReader(xml);
+  }
+
+  /**
+   * Move a reader to the start tag of the root element, skipping the prolog
+   * of the document including its DOCTYPE. Returns false if the document has
+   * no root element.
+   */
+  public static boolean toRootElement(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT)
+      ;
+    return reader.isStartElement();
+  }
+
+  /**
+   * Close a reader. Does nothing if reader is null.
+   */
+  public static void close(XMLStreamReader reader) {
+    if (reader == null)
+      return;
+    try {
+      reader.close();
+    } catch (XMLStreamException e) {
+      // not bad
+    }
+  }
+
+  /**
+   * Read the text of an element. The text of an element having sub-elements,
+   * such as an NCBI List item, is the comma separated list of the texts of its
+   * sub-elements. Reader is located on its start tag, and it is located on its
+   * end tag when this method returns.
+   */
+  public static String readText(XMLStreamReader reader) throws XMLStreamException {
+    StringBuilder buf = new StringBuilder();
+    StringBuilder subBuf = null;
+    String subText;
+    int event;
+
+    while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+      switch (event) {
+      case XMLStreamConstants.CHARACTERS:
+      case XMLStreamConstants.CDATA:
+      case XMLStreamConstants.SPACE:
+        buf.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+        break;
+      case XMLStreamConstants.START_ELEMENT:
+        subText = readText(reader).trim();
+        if (subBuf == null) {
+          subBuf = new StringBuilder();
+        }
+        if (!subText.isEmpty()) {
+          if (subBuf.length() != 0)
+            subBuf.append(", ");
+          subBuf.append(subText);
+        }
+        break;
+      default:
+      }
+    }
+    return subBuf != null ? subBuf.toString() : buf.toString();
+  }
+
+  /**
+   * Skip an element and all its content. Reader is located on its start tag,
+   * and it is located on its end tag when this method returns.
+   */
+  public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+
+    while (depth != 0) {
+      switch (reader.next()) {
+      case XMLStreamConstants.START_ELEMENT:
+        depth++;
+        break;
+      case XMLStreamConstants.END_ELEMENT:
+        depth--;
+        break;
+      default:
+      }
+    }
+  }
+}
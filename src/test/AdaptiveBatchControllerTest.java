@@ -0,0 +1,139 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
+import bzh.plealog.bioinfo.docviewer.fetcher.AdaptiveBatchController;
+
+public class AdaptiveBatchControllerTest {
+
+  private static class Config implements ServerConfiguration {
+    private int minIds, maxIds;
+    private int minLetters, maxLetters;
+
+    private Config(int minIds, int maxIds) {
+      this(minIds, maxIds, 5000000, 5000000);
+    }
+
+    private Config(int minIds, int maxIds, int minLetters, int maxLetters) {
+      this.minIds = minIds;
+      this.maxIds = maxIds;
+      this.minLetters = minLetters;
+      this.maxLetters = maxLetters;
+    }
+
+    public int getSequencesPerRun() { return 100; }
+    public int getSleepTimeBetweenRun() { return 1000; }
+    public double getRequestsPerSecond() { return 3; }
+    public int getLettersPerRun() { return 5000000; }
+    public int getDownloadWorkers() { return 1; }
+    public int getMinSequencesPerRun() { return minIds; }
+    public int getMaxSequencesPerRun() { return maxIds; }
+    public int getMinLettersPerRun() { return minLetters; }
+    public int getMaxLettersPerRun() { return maxLetters; }
+    public boolean isServerAvailable() { return true; }
+  }
+
+  @Test
+  public void testStatic() {
+    AdaptiveBatchController ctrl = new AdaptiveBatchController(new Config(100, 100));
+    assertFalse(ctrl.isAdaptive());
+    assertEquals(100, ctrl.getSequencesPerRun());
+    assertEquals(5000000, ctrl.getLettersPerRun());
+  }
+
+  @Test
+  public void testBounds() {
+    AdaptiveBatchController ctrl = new AdaptiveBatchController(new Config(200, 1000));
+    assertTrue(ctrl.isAdaptive());
+    // initial value is clamped
+    assertEquals(200, ctrl.getSequencesPerRun());
+    ctrl = new AdaptiveBatchController(new Config(10, 50));
+    assertEquals(50, ctrl.getSequencesPerRun());
+  }
+
+  @Test
+  public void testGrowReachedLimit() {
+    // IDs: 100..1100, step 100; letters: 1M..11M, step 1M, start at 5M
+    AdaptiveBatchController ctrl = new AdaptiveBatchController(
+        new Config(100, 1100, 1000000, 11000000));
+
+    // batch full of IDs, few letters: only the number of IDs grows
+    ctrl.success(ctrl.getGeneration(), 100, 1000, 5000, 100, 0);
+    assertEquals(200, ctrl.getSequencesPerRun());
+    assertEquals(5000000, ctrl.getLettersPerRun());
+    // batch full of letters, few IDs: only the number of letters grows
+    ctrl.success(ctrl.getGeneration(), 10, 5000000, 5000000, 100, 0);
+    assertEquals(200, ctrl.getSequencesPerRun());
+    assertEquals(6000000, ctrl.getLettersPerRun());
+    // a larger batch would be answered too slowly
+    ctrl.success(ctrl.getGeneration(), 200, 1000, 5000, ctrl.getTargetTime() - 1, 0);
+    assertEquals(200, ctrl.getSequencesPerRun());
+    // upper bound
+    for (int i = 0; i < 20; i++) {
+      ctrl.success(ctrl.getGeneration(), ctrl.getSequencesPerRun(), 1000, 5000, 10, 0);
+    }
+    assertEquals(1100, ctrl.getSequencesPerRun());
+    assertEquals(6000000, ctrl.getLettersPerRun());
+  }
+
+  @Test
+  public void testDecrease() {
+    AdaptiveBatchController ctrl = new AdaptiveBatchController(
+        new Config(10, 1000, 1000000, 10000000));
+
+    assertEquals(100, ctrl.getSequencesPerRun());
+    // slow answer: both limits are halved
+    ctrl.success(ctrl.getGeneration(), 100, 1000, 5000, ctrl.getTargetTime() + 1, 0);
+    assertEquals(50, ctrl.getSequencesPerRun());
+    assertEquals(2500000, ctrl.getLettersPerRun());
+    // quick answer after some retries
+    ctrl.success(ctrl.getGeneration(), 50, 1000, 5000, 10, 2);
+    assertEquals(25, ctrl.getSequencesPerRun());
+    assertEquals(1250000, ctrl.getLettersPerRun());
+    // failure, down to the lower bounds
+    ctrl.failure(ctrl.getGeneration(), 10);
+    assertEquals(12, ctrl.getSequencesPerRun());
+    assertEquals(1000000, ctrl.getLettersPerRun());
+    ctrl.failure(ctrl.getGeneration(), 10);
+    ctrl.failure(ctrl.getGeneration(), 10);
+    assertEquals(10, ctrl.getSequencesPerRun());
+    assertEquals(1000000, ctrl.getLettersPerRun());
+  }
+
+  @Test
+  public void testGeneration() {
+    AdaptiveBatchController ctrl = new AdaptiveBatchController(new Config(10, 1000));
+    int generation = ctrl.getGeneration();
+
+    // three batches sized with the same limits fail: limits are halved once
+    ctrl.failure(generation, 1);
+    ctrl.success(generation, 100, 0, 5000, 10, 3);
+    ctrl.success(generation, 100, 0, 5000, ctrl.getTargetTime() + 1, 0);
+    assertEquals(50, ctrl.getSequencesPerRun());
+    assertTrue(ctrl.getGeneration() != generation);
+    // a batch sized with the new limits can halve them again
+    ctrl.failure(ctrl.getGeneration(), 1);
+    assertEquals(25, ctrl.getSequencesPerRun());
+  }
+}
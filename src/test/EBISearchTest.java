@@ -54,4 +54,15 @@ public class EBISearchTest {
     assertTrue(s.getIds().get(0).equals("BGLR_MOUSE"));
   }
 
+  @Test
+  public void testLengths() {
+    Search s = EbiSearchLoader.load(new File("./data/ebi_search_length.xml"));
+    assertTrue(s.getError()==null);
+    assertTrue(s.getTotal()==2);
+    assertTrue(s.getIds().size()==2);
+    assertTrue(s.getId(1).equals("BGLR_HUMAN"));
+    assertTrue(s.getLength(0)==648);
+    assertTrue(s.getLength(1)==651);
+  }
+
 }
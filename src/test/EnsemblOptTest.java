@@ -19,6 +19,8 @@ package test;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.HashSet;
 
 import javax.xml.bind.JAXB;
@@ -29,6 +31,8 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import bzh.plealog.bioinfo.docviewer.api.Search;
+import bzh.plealog.bioinfo.docviewer.service.ensembl.model.EnsemblSearchLoader;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.Opt;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.OptDataItem;
 
@@ -70,4 +74,17 @@ public class EnsemblOptTest {
     
   }
 
+  @Test
+  public void testStream() throws Exception {
+    Search search;
+    
+    try (InputStream is = new FileInputStream("./data/ensembl_opt.xml")) {
+      search = EnsemblSearchLoader.load(is);
+    }
+    assertTrue(search.getError()==null);
+    assertTrue(search.getIds().size()==3);
+    for(String id : search.getIds()){
+      assertTrue(ids.contains(id));
+    }
+  }
 }
@@ -29,6 +29,9 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import bzh.plealog.bioinfo.docviewer.api.Summary;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDoc;
+import bzh.plealog.bioinfo.docviewer.service.ensembl.model.EnsemblSummaryLoader;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.Opt;
 import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.OptDataItem;
 
@@ -104,4 +107,25 @@ public class EnsemblOptVariantTest {
     assertTrue(o.getItem().size()==411);
     
   }
+
+  @Test
+  public void testSummary() {
+    Summary s = EnsemblSummaryLoader.load(new File("./data/ensembl_opt_variants.xml"));
+    assertTrue(s.getError()==null);
+    assertTrue(s.getDocs().size()==2);
+    assertTrue(s.getTotal()==2);
+    SummaryDoc sdoc = s.getDoc(0);
+    assertTrue(sdoc.getId().equals("rs565779474"));
+    assertTrue(sdoc.getValue("Identifier").equals("rs565779474"));
+    assertTrue(sdoc.getValue("Assembly").equals("GRCh38"));
+    assertTrue(sdoc.getValue("Location").equals("7:140719364 (+)"));
+    assertTrue(sdoc.getValue("Variation").equals("G/A"));
+    assertTrue(sdoc.getValue("Source").equals("dbSNP"));
+    //repeated values are shared
+    assertTrue(sdoc.getValue("Assembly")==s.getDoc(1).getValue("Assembly"));
+
+    s = EnsemblSummaryLoader.load(new File("./data/ensembl_opt_error.xml"));
+    assertTrue(s.getDocs().isEmpty());
+    assertTrue(s.getError().startsWith("No feature given"));
+  }
 }
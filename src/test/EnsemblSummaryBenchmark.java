@@ -0,0 +1,158 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import javax.xml.transform.stream.StreamSource;
+
+import bzh.plealog.bioinfo.docviewer.api.Summary;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDoc;
+import bzh.plealog.bioinfo.docviewer.service.ensembl.EnsemblBank.EnsemblDbSummaryDocPresentationModel;
+import bzh.plealog.bioinfo.docviewer.service.ensembl.model.EnsemblSummaryLoader;
+import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.Opt;
+import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.OptDataItem;
+import bzh.plealog.bioinfo.docviewer.xml.JAXBLoader;
+
+/**
+ * Benchmark of the reading of Ensembl variants: compares parse time, peak heap
+ * and retained heap when reading data/ensembl_tp53_variants.xml using the Opt
+ * JAXB data model then copying it into a Summary (former EnsemblSummaryLoader)
+ * and using the streaming EnsemblSummaryLoader. This is not a unit test: run
+ * its main method from the project directory, preferably with a fixed heap
+ * size, e.g. -Xms256m -Xmx256m.
+ */
+public class EnsemblSummaryBenchmark {
+  private static final String FILE = "data/ensembl_tp53_variants.xml";
+  private static final int WARMUP = 20;
+  private static final int RUNS = 50;
+  private static final int KEPT = 10;
+
+  private interface Loader {
+    Summary load(byte[] data);
+  }
+
+  private static final Loader JAXB_LOADER = new Loader() {
+    public Summary load(byte[] data) {
+      String[] hdrs = EnsemblDbSummaryDocPresentationModel.RES_HEADERS;
+      Summary summary = new Summary();
+      Opt result = JAXBLoader.unmarshal(new StreamSource(new ByteArrayInputStream(data)), Opt.class);
+      for (OptDataItem entry : result.getItem()) {
+        SummaryDoc doc = new SummaryDoc();
+        summary.addDoc(doc);
+        doc.setId(entry.getId());
+        doc.add(hdrs[EnsemblDbSummaryDocPresentationModel.Identifier_HDR], entry.getId());
+        doc.add(hdrs[EnsemblDbSummaryDocPresentationModel.ASSEMBLY_HDR], entry.getAssembly_name());
+        doc.add(hdrs[EnsemblDbSummaryDocPresentationModel.SOURCE_HDR], entry.getSource());
+        doc.add(hdrs[EnsemblDbSummaryDocPresentationModel.LOCATION_HDR], entry.getLocation());
+        doc.add(hdrs[EnsemblDbSummaryDocPresentationModel.CONSEQUENCE_HDR], entry.getConsequence_type());
+        doc.add(hdrs[EnsemblDbSummaryDocPresentationModel.VARIATION_HDR], entry.getAllelesStr());
+      }
+      summary.setTotal(result.getItem().size());
+      return summary;
+    }
+  };
+
+  private static final Loader STREAM_LOADER = new Loader() {
+    public Summary load(byte[] data) {
+      return EnsemblSummaryLoader.load(new ByteArrayInputStream(data));
+    }
+  };
+
+  private static long usedHeap() {
+    long used = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP)
+        used += pool.getUsage().getUsed();
+    }
+    return used;
+  }
+
+  private static long peakHeap() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP)
+        peak += pool.getPeakUsage().getUsed();
+    }
+    return peak;
+  }
+
+  private static void resetPeakHeap() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP)
+        pool.resetPeakUsage();
+    }
+  }
+
+  private static void gc() throws InterruptedException {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+  }
+
+  private static void run(String name, Loader loader, byte[] data) throws InterruptedException {
+    Summary[] summaries;
+    Summary summary;
+    long tim, base, peak, retained;
+
+    tim = System.nanoTime();
+    for (int i = 0; i < RUNS; i++) {
+      loader.load(data);
+    }
+    tim = (System.nanoTime() - tim) / RUNS / 1000000;
+
+    gc();
+    base = usedHeap();
+    resetPeakHeap();
+    summary = loader.load(data);
+    peak = peakHeap() - base;
+
+    // retained heap: average over several results kept in memory
+    summaries = new Summary[KEPT];
+    summary = null;
+    gc();
+    base = usedHeap();
+    for (int i = 0; i < KEPT; i++) {
+      summaries[i] = loader.load(data);
+    }
+    gc();
+    retained = (usedHeap() - base) / KEPT;
+    summary = summaries[0];
+
+    System.out.println(String.format("%s\t%d\t%d\t%d\t%d", name, summary.nbDocs(), tim, peak / 1024, retained / 1024));
+  }
+
+  public static void main(String[] args) throws Exception {
+    byte[] data = Files.readAllBytes(Paths.get(FILE));
+
+    System.out.println(String.format("%s: %d bytes", FILE, data.length));
+    System.out.println("loader\tdocs\ttime (ms)\tpeak heap (Kb)\tretained heap (Kb)");
+    // warm up both loaders first: one-time allocations are not measured
+    for (int i = 0; i < WARMUP; i++) {
+      JAXB_LOADER.load(data);
+      STREAM_LOADER.load(data);
+    }
+    run("JAXB", JAXB_LOADER, data);
+    run("StAX", STREAM_LOADER, data);
+  }
+}
@@ -0,0 +1,210 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import bzh.plealog.bioinfo.docviewer.api.QueryResultChangedException;
+import bzh.plealog.bioinfo.docviewer.conf.DocViewerConfig;
+import bzh.plealog.bioinfo.docviewer.service.ncbi.EntrezBank;
+import bzh.plealog.bioinfo.docviewer.service.ncbi.io.EntrezQueryEngine;
+import bzh.plealog.bioinfo.docviewer.service.ncbi.model.query.SimpleStringExpressionBuilder;
+
+/**
+ * Range loading from the NCBI history server, using a local server.
+ */
+public class EntrezHistoryTest {
+  private static final String ESEARCH = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+      + "<!DOCTYPE eSearchResult PUBLIC \"-//NLM//DTD esearch 20060628//EN\" "
+      + "\"https://eutils.ncbi.nlm.nih.gov/eutils/dtd/20060628/esearch.dtd\">\n"
+      + "<eSearchResult><Count>%d</Count><RetMax>0</RetMax><RetStart>0</RetStart>"
+      + "<QueryKey>1</QueryKey><WebEnv>%s</WebEnv><IdList></IdList></eSearchResult>";
+
+  private HttpServer server;
+  private File confDir;
+  private EntrezQueryEngine engine;
+  private AtomicInteger searches = new AtomicInteger();
+  // number of documents of the query result
+  private volatile int total = 10;
+  // session the server has forgotten, and how it reports it
+  private volatile String expiredWebEnv;
+  private volatile boolean expiredWith400;
+
+  private static Map<String, String> getParams(HttpExchange exchange) {
+    Map<String, String> params = new HashMap<>();
+    int idx;
+
+    for (String param : exchange.getRequestURI().getRawQuery().split("&")) {
+      idx = param.indexOf('=');
+      if (idx != -1)
+        params.put(param.substring(0, idx), param.substring(idx + 1));
+    }
+    return params;
+  }
+
+  private static void send(HttpExchange exchange, int code, String answer) throws IOException {
+    byte[] body = answer.getBytes("UTF-8");
+
+    exchange.sendResponseHeaders(code, body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    String base;
+
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/esearch.fcgi", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        send(exchange, 200, String.format(ESEARCH, total, "W" + searches.incrementAndGet()));
+      }
+    });
+    server.createContext("/efetch.fcgi", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> params = getParams(exchange);
+        StringBuilder buf = new StringBuilder();
+        int from = Integer.parseInt(params.get("retstart"));
+        int nb = Integer.parseInt(params.get("retmax"));
+
+        if (params.get("WebEnv").equals(expiredWebEnv)) {
+          send(exchange, expiredWith400 ? 400 : 200, "{\"error\":\"Unable to obtain query #1\"}");
+          return;
+        }
+        for (int i = from; i < Math.min(total, from + nb); i++) {
+          buf.append(">seq" + i + "\nACGT\n");
+        }
+        send(exchange, 200, buf.toString());
+      }
+    });
+    server.start();
+    base = "http://localhost:" + server.getAddress().getPort() + "/";
+    confDir = Files.createTempDirectory("ncbiconf").toFile();
+    try (PrintWriter pw = new PrintWriter(new File(confDir, "ncbiQuery.cfg"))) {
+      pw.println("query.url=" + base + "esearch.fcgi?db=@DB@&term=@TERM@&retstart=@FROM@&retmax=@NB@");
+      pw.println("summary.url=" + base + "esummary.fcgi?db=@DB@&id=@ID@");
+      pw.println("fetch_fasta.url=" + base + "efetch.fcgi?db=@DB@&id=@ID@&rettype=fasta");
+      pw.println("fetch_full.url=" + base + "efetch.fcgi?db=@DB@&id=@ID@&rettype=@TYPE@");
+      pw.println("history.query.url=" + base
+          + "esearch.fcgi?db=@DB@&term=@TERM@&retstart=@FROM@&retmax=@NB@&usehistory=y");
+      pw.println("history.summary.url=" + base
+          + "esummary.fcgi?db=@DB@&query_key=@QUERY_KEY@&WebEnv=@WEBENV@&retstart=@FROM@&retmax=@NB@");
+      pw.println("history.fetch_fasta.url=" + base
+          + "efetch.fcgi?db=@DB@&query_key=@QUERY_KEY@&WebEnv=@WEBENV@&retstart=@FROM@&retmax=@NB@&rettype=fasta");
+      pw.println("history.fetch_full.url=" + base
+          + "efetch.fcgi?db=@DB@&query_key=@QUERY_KEY@&WebEnv=@WEBENV@&retstart=@FROM@&retmax=@NB@&rettype=@TYPE@");
+      pw.println("history.ttl=3600");
+      pw.println("sequences.per.run=100");
+      pw.println("letters.per.run=5000000");
+      pw.println("sleep.per.run=1");
+      pw.println("requests.per.second=100");
+      pw.println("requests.per.second.api_key=100");
+      pw.println("api.key=");
+      pw.println("post.url.length=2000");
+      pw.println("query.cache.ttl=600");
+      pw.println("summary.cache.ttl=86400");
+      pw.println("download.workers=1");
+    }
+    System.setProperty(DocViewerConfig.JVM_ARG_CONF, confDir.getAbsolutePath());
+    DocViewerConfig.setUserMail("someone@example.org");
+    SimpleStringExpressionBuilder query = new SimpleStringExpressionBuilder();
+    query.setQuery("test");
+    engine = new EntrezQueryEngine(EntrezBank.PROTEIN, query);
+  }
+
+  @After
+  public void tearDown() {
+    System.clearProperty(DocViewerConfig.JVM_ARG_CONF);
+    server.stop(0);
+    for (File f : confDir.listFiles()) {
+      f.delete();
+    }
+    confDir.delete();
+  }
+
+  private String load(int from, int nb) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    engine.load(from, nb, EntrezBank.PROTEIN.getCode(), false, out);
+    return new String(out.toByteArray(), "UTF-8");
+  }
+
+  @Test
+  public void testRange() throws IOException {
+    assertEquals(">seq1\nACGT\n>seq2\nACGT\n", load(1, 2));
+    assertEquals(">seq3\nACGT\n", load(3, 1));
+    // query is run once
+    assertEquals(1, searches.get());
+  }
+
+  @Test
+  public void testExpiredSession() throws IOException {
+    assertEquals(">seq0\nACGT\n", load(0, 1));
+    // expiry reported within the answer: query is run again
+    expiredWebEnv = "W1";
+    assertEquals(">seq1\nACGT\n", load(1, 1));
+    assertEquals(2, searches.get());
+    // expiry reported with an HTTP error
+    expiredWebEnv = "W2";
+    expiredWith400 = true;
+    assertEquals(">seq2\nACGT\n", load(2, 1));
+    assertEquals(3, searches.get());
+  }
+
+  @Test
+  public void testResultChanged() throws IOException {
+    assertEquals(">seq0\nACGT\n", load(0, 1));
+    // new session does not contain the same documents
+    expiredWebEnv = "W1";
+    total = 11;
+    try {
+      load(1, 1);
+      fail("range of a changed result loaded");
+    } catch (QueryResultChangedException e) {
+      assertEquals(2, searches.get());
+    }
+    // no need to ask the server again
+    try {
+      load(1, 1);
+      fail("range of a changed result loaded");
+    } catch (QueryResultChangedException e) {
+      assertTrue(searches.get() == 2);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.docviewer.fetcher.FetchJob;
+import bzh.plealog.bioinfo.docviewer.fetcher.FetchJobScheduler;
+import bzh.plealog.bioinfo.docviewer.fetcher.StreamFetchMonitor;
+
+public class FetchJobSchedulerTest {
+
+  private static FetchJob newJob(final String name, String lane, final List<String> runs,
+      final CountDownLatch wait, final CountDownLatch done) {
+    Runnable task = new Runnable() {
+      public void run() {
+        runs.add(name);
+        try {
+          if (wait != null)
+            wait.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+        }
+        done.countDown();
+      }
+    };
+    return new FetchJob(name, lane, task, new StreamFetchMonitor(new PrintStream(new ByteArrayOutputStream()), 0));
+  }
+
+  @Test
+  public void testLanes() throws InterruptedException {
+    FetchJobScheduler scheduler = new FetchJobScheduler();
+    List<String> runs = new CopyOnWriteArrayList<>();
+    CountDownLatch wait = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(4);
+    FetchJob first, low, high, other;
+
+    first = newJob("first", "NCBI", runs, wait, done);
+    low = newJob("low", "NCBI", runs, null, done);
+    high = newJob("high", "NCBI", runs, null, done);
+    other = newJob("other", "EBI", runs, wait, done);
+    scheduler.submit(first);
+    scheduler.submit(low);
+    scheduler.submit(high);
+    scheduler.setPriority(low, FetchJob.Priority.LOW);
+    scheduler.setPriority(high, FetchJob.Priority.HIGH);
+    // another lane does not wait for the first one
+    scheduler.submit(other);
+
+    Thread.sleep(200);
+    assertEquals(FetchJob.State.QUEUED, low.getState());
+    assertEquals(FetchJob.State.QUEUED, high.getState());
+    assertTrue(runs.contains("first"));
+    assertTrue(runs.contains("other"));
+    assertEquals(2, runs.size());
+
+    wait.countDown();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    Thread.sleep(200);
+    assertEquals("high", runs.get(2));
+    assertEquals("low", runs.get(3));
+    assertEquals(FetchJob.State.DONE, low.getState());
+    assertFalse(scheduler.hasActiveJobs());
+  }
+
+  @Test
+  public void testPauseAndCancel() throws InterruptedException {
+    FetchJobScheduler scheduler = new FetchJobScheduler();
+    List<String> runs = new CopyOnWriteArrayList<>();
+    CountDownLatch wait = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(2);
+    FetchJob first, held, cancelled;
+
+    first = newJob("first", "NCBI", runs, wait, done);
+    held = newJob("held", "NCBI", runs, null, done);
+    cancelled = newJob("cancelled", "NCBI", runs, null, done);
+    scheduler.submit(first);
+    scheduler.submit(held);
+    scheduler.submit(cancelled);
+    scheduler.pause(held);
+    scheduler.cancel(cancelled);
+    assertEquals(FetchJob.State.PAUSED, held.getState());
+    assertEquals(FetchJob.State.CANCELLED, cancelled.getState());
+
+    wait.countDown();
+    Thread.sleep(200);
+    // held job does not start until resumed
+    assertEquals(1, runs.size());
+    scheduler.resume(held);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    Thread.sleep(200);
+    assertEquals(FetchJob.State.DONE, held.getState());
+    assertEquals(2, runs.size());
+    assertFalse(scheduler.isBusy(held.getMonitor()));
+  }
+}
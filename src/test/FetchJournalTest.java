@@ -0,0 +1,183 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.docviewer.fetcher.FetchJournal;
+
+public class FetchJournalTest {
+  private static final String QUERY = "Bank: nucleotide; Terms: (human[ORGN])";
+
+  private File _output;
+
+  @Before
+  public void setUp() throws IOException {
+    _output = File.createTempFile("journal", ".fas");
+  }
+
+  @After
+  public void tearDown() {
+    _output.delete();
+    FetchJournal.getJournalFile(_output).delete();
+  }
+
+  private FetchJournal open(String query) throws IOException {
+    return FetchJournal.open(_output, query, "n", "nucleotide", false, 100);
+  }
+
+  // append a batch to output file and record it in journal
+  private void write(FetchJournal journal, int first, int ndocs, String data) throws IOException {
+    byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    long offset = _output.length();
+
+    try (FileOutputStream fos = new FileOutputStream(_output, true)) {
+      fos.write(bytes);
+    }
+    crc.update(bytes);
+    journal.commit(first, ndocs, offset, bytes.length, crc.getValue());
+  }
+
+  private String readOutput() throws IOException {
+    return new String(Files.readAllBytes(_output.toPath()), StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  public void testNewJob() throws IOException {
+    FetchJournal journal;
+
+    Files.write(_output.toPath(), ">old\nACGT\n".getBytes(StandardCharsets.US_ASCII));
+    journal = open(QUERY);
+    assertFalse(journal.isResumed());
+    assertEquals(0, journal.getNextDocument());
+    // output file of a previous job is discarded
+    assertFalse(_output.exists());
+    journal.delete();
+    assertFalse(FetchJournal.getJournalFile(_output).exists());
+  }
+
+  @Test
+  public void testResume() throws IOException {
+    FetchJournal journal;
+
+    journal = open(QUERY);
+    write(journal, 0, 2, ">s1\nACGT\n>s2\nACGT\n");
+    write(journal, 2, 1, ">s3\nACGT\n");
+    journal.close();
+    // data written after the last commit: partial batch
+    try (FileOutputStream fos = new FileOutputStream(_output, true)) {
+      fos.write(">s4\nAC".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    journal = open(QUERY);
+    assertTrue(journal.isResumed());
+    assertEquals(3, journal.getNextDocument());
+    assertEquals(3, journal.getSavedDocuments());
+    assertEquals(">s1\nACGT\n>s2\nACGT\n>s3\nACGT\n", readOutput());
+    write(journal, 3, 1, ">s4\nACGT\n");
+    journal.close();
+
+    journal = open(QUERY);
+    assertEquals(4, journal.getNextDocument());
+    journal.close();
+  }
+
+  @Test
+  public void testCorruptedTail() throws IOException {
+    FetchJournal journal;
+
+    journal = open(QUERY);
+    write(journal, 0, 1, ">s1\nACGT\n");
+    write(journal, 1, 1, ">s2\nACGT\n");
+    journal.close();
+    // last batch has been damaged
+    try (FileOutputStream fos = new FileOutputStream(_output, true)) {
+      fos.getChannel().truncate(_output.length() - 3);
+      fos.write("XXX".getBytes(StandardCharsets.US_ASCII));
+    }
+    // partial line in the journal
+    try (FileOutputStream fos = new FileOutputStream(FetchJournal.getJournalFile(_output), true)) {
+      fos.write("range=2,1,2".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    journal = open(QUERY);
+    assertTrue(journal.isResumed());
+    assertEquals(1, journal.getNextDocument());
+    assertEquals(">s1\nACGT\n", readOutput());
+    journal.close();
+  }
+
+  @Test
+  public void testTotalChanged() throws IOException {
+    FetchJournal journal;
+
+    journal = open(QUERY);
+    assertTrue(journal.setTotal(10));
+    write(journal, 0, 1, ">s1\nACGT\n");
+    journal.close();
+
+    journal = open(QUERY);
+    assertTrue(journal.isResumed());
+    assertTrue(journal.setTotal(10));
+    assertEquals(1, journal.getNextDocument());
+    journal.close();
+
+    // query result has changed on the server side: indexes are not valid
+    journal = open(QUERY);
+    assertTrue(journal.isResumed());
+    assertFalse(journal.setTotal(12));
+    journal.restart();
+    assertFalse(journal.isResumed());
+    assertEquals(0, journal.getNextDocument());
+    assertFalse(_output.exists());
+    assertTrue(journal.setTotal(12));
+    journal.close();
+
+    journal = open(QUERY);
+    assertTrue(journal.setTotal(12));
+    journal.close();
+  }
+
+  @Test
+  public void testOtherJob() throws IOException {
+    FetchJournal journal;
+
+    journal = open(QUERY);
+    write(journal, 0, 1, ">s1\nACGT\n");
+    journal.close();
+
+    journal = open(QUERY + " AND (mouse[ORGN])");
+    assertFalse(journal.isResumed());
+    assertEquals(0, journal.getNextDocument());
+    assertFalse(_output.exists());
+    journal.close();
+  }
+}
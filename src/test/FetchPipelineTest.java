@@ -0,0 +1,169 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.api.filter.BFilter;
+import bzh.plealog.bioinfo.docviewer.api.BankType;
+import bzh.plealog.bioinfo.docviewer.api.QueryEngine;
+import bzh.plealog.bioinfo.docviewer.api.Search;
+import bzh.plealog.bioinfo.docviewer.api.ServerConfiguration;
+import bzh.plealog.bioinfo.docviewer.api.Summary;
+import bzh.plealog.bioinfo.docviewer.fetcher.DocFetcherUtils;
+import bzh.plealog.bioinfo.docviewer.fetcher.FetchPipeline;
+import bzh.plealog.bioinfo.docviewer.fetcher.StreamFetchMonitor;
+import bzh.plealog.bioinfo.docviewer.http.TempResource;
+
+public class FetchPipelineTest {
+  private File dir;
+  private File target;
+
+  private static class Config implements ServerConfiguration {
+    public int getSequencesPerRun() { return 4; }
+    public int getSleepTimeBetweenRun() { return 10; }
+    public double getRequestsPerSecond() { return 3; }
+    public int getLettersPerRun() { return 5000000; }
+    public int getDownloadWorkers() { return 1; }
+    public int getMinSequencesPerRun() { return 4; }
+    public int getMaxSequencesPerRun() { return 4; }
+    public int getMinLettersPerRun() { return 5000000; }
+    public int getMaxLettersPerRun() { return 5000000; }
+    public boolean isServerAvailable() { return true; }
+  }
+
+  /**
+   * Returns a FASTA record for each known ID, nothing for the other ones.
+   */
+  private static class Engine implements QueryEngine {
+    private Set<String> known;
+    private ServerConfiguration config = new Config();
+
+    private Engine(String... known) {
+      this.known = new HashSet<>(Arrays.asList(known));
+    }
+
+    public BankType getBankType() { return null; }
+    public BFilter getQuery() { return null; }
+    public Search getIds(int from, int nb) {
+      Search res = new Search();
+      for (int i = from; i < from + nb; i++) {
+        res.addId("id" + i);
+      }
+      return res;
+    }
+    public Search getIds() { return null; }
+    public Summary getSummary() { return null; }
+    public Summary getSummary(int from, int nb) { return null; }
+    public ServerConfiguration getServerConfiguration() { return config; }
+    public TempResource load(String ids, String dbCode, boolean fullEntryFormat) { return null; }
+
+    public void load(String ids, String dbCode, boolean fullEntryFormat, OutputStream out)
+        throws IOException {
+      for (String id : ids.split(",")) {
+        if (known.contains(id)) {
+          out.write((">" + id + "\nACGT\n").getBytes());
+        }
+      }
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("pipeline").toFile();
+    target = new File(dir, "seq.fas");
+  }
+
+  @After
+  public void tearDown() {
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  private static List<DocFetcherUtils.DocSum> getDocs(int n) {
+    List<DocFetcherUtils.DocSum> docs = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      docs.add(new DocFetcherUtils.DocSum("id" + i, 4));
+    }
+    return docs;
+  }
+
+  private String fetch(FetchPipeline pipeline, int n) {
+    pipeline.start();
+    pipeline.submit(getDocs(n));
+    return pipeline.finish();
+  }
+
+  @Test
+  public void testMissingRecords() throws IOException {
+    StreamFetchMonitor monitor = new StreamFetchMonitor(new PrintStream(new ByteArrayOutputStream()), 0);
+    FetchPipeline pipeline = new FetchPipeline(target, new Engine("id0", "id2", "id3", "id4"), "db",
+        monitor, false, false);
+
+    assertNull(fetch(pipeline, 5));
+    assertEquals(1, pipeline.getUnresolvedDocuments());
+    assertEquals(">id0\nACGT\n>id2\nACGT\n>id3\nACGT\n>id4\nACGT\n",
+        new String(Files.readAllBytes(target.toPath())));
+    assertEquals(Arrays.asList("id1"), Files.readAllLines(pipeline.getUnresolvedFile().toPath()));
+  }
+
+  @Test
+  public void testDefaultRangeLoad() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    // no dedicated range request: IDs of the range are loaded
+    new Engine("id1", "id2", "id3").load(1, 2, "db", false, out);
+    assertEquals(">id1\nACGT\n>id2\nACGT\n", new String(out.toByteArray()));
+  }
+
+  @Test
+  public void testNothingReturned() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StreamFetchMonitor monitor = new StreamFetchMonitor(new PrintStream(out), 0);
+    FetchPipeline pipeline = new FetchPipeline(target, new Engine(), "db", monitor, false, false);
+
+    monitor.startJob();
+    // a server answering nothing is an error, not a batch of unresolved IDs
+    assertNotNull(fetch(pipeline, 5));
+    monitor.jobDone();
+    assertEquals(0, pipeline.getUnresolvedDocuments());
+    assertFalse(pipeline.getUnresolvedFile().exists());
+    assertTrue(new String(out.toByteArray()).contains("done\tcancelled"));
+  }
+}
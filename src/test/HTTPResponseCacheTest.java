@@ -0,0 +1,125 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import bzh.plealog.bioinfo.docviewer.api.Summary;
+import bzh.plealog.bioinfo.docviewer.http.HTTPBasicEngine;
+import bzh.plealog.bioinfo.docviewer.http.HTTPResponseCache;
+import bzh.plealog.bioinfo.docviewer.http.HTTPResponseStream;
+import bzh.plealog.bioinfo.docviewer.service.ncbi.model.EntrezSummaryLoader;
+
+public class HTTPResponseCacheTest {
+  private HttpServer server;
+  private AtomicInteger requests = new AtomicInteger();
+  private File cacheDir;
+  private String url;
+
+  @Before
+  public void setUp() throws IOException {
+    // first answer is an NCBI error reported with HTTP 200, then a valid one
+    final byte[] error = Files.readAllBytes(Paths.get("./data/ncbi_docsum_error.xml"));
+    final byte[] valid = Files.readAllBytes(Paths.get("./data/ncbi_docsum_nuc.xml"));
+
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/esummary.fcgi", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = requests.incrementAndGet() == 1 ? error : valid;
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+          os.write(body);
+        }
+      }
+    });
+    server.start();
+    url = "http://localhost:" + server.getAddress().getPort() + "/esummary.fcgi?db=nucleotide&id=1";
+    cacheDir = Files.createTempDirectory("httpcache").toFile();
+    HTTPResponseCache.initialize(cacheDir, HTTPResponseCache.DEFAULT_MAX_SIZE);
+    HTTPResponseCache.setTimeToLive(url, 60000);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HTTPResponseCache.clear();
+    HTTPResponseCache.initialize(cacheDir, 0);
+    HTTPResponseCache.setTimeToLive(url, 0);
+    server.stop(0);
+    cacheDir.delete();
+  }
+
+  private Summary getSummary() {
+    return getSummary(url);
+  }
+
+  private Summary getSummary(String url) {
+    Summary sum;
+    try (HTTPResponseStream is = HTTPBasicEngine.doGetStream(url)) {
+      sum = EntrezSummaryLoader.load(is);
+      if (sum.getError() != null) {
+        is.discardCachedAnswer();
+      }
+    }
+    return sum;
+  }
+
+  @Test
+  public void testErrorNotCached() {
+    long hits = HTTPResponseCache.getHits();
+
+    // error answer is not replayed: server is asked again
+    assertTrue(getSummary().getError() != null);
+    assertTrue(getSummary().getError() == null);
+    assertTrue(requests.get() == 2);
+    // valid answer is cached
+    assertTrue(getSummary().getError() == null);
+    assertTrue(requests.get() == 2);
+    assertTrue(HTTPResponseCache.getHits() == hits + 1);
+  }
+
+  @Test
+  public void testNoCredentialsStored() throws IOException {
+    String secretUrl = url + "&email=someone@example.org&api_key=SECRET";
+    String content;
+
+    assertTrue(getSummary(secretUrl).getError() != null);
+    assertTrue(getSummary(secretUrl).getError() == null);
+    // same answer without the credentials
+    assertTrue(getSummary().getError() == null);
+    assertTrue(requests.get() == 2);
+    for (File f : cacheDir.listFiles()) {
+      content = new String(Files.readAllBytes(f.toPath()));
+      assertTrue(!content.contains("SECRET") && !content.contains("someone"));
+    }
+  }
+}
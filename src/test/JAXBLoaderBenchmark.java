@@ -0,0 +1,96 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import javax.xml.bind.JAXB;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.InputSource;
+
+import bzh.plealog.bioinfo.docviewer.service.ebi.model.search.WsResult;
+import bzh.plealog.bioinfo.docviewer.service.ensembl.model.data.Opt;
+import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esearch.ESearchResult;
+import bzh.plealog.bioinfo.docviewer.service.ncbi.model.esummary.ESummaryResult;
+import bzh.plealog.bioinfo.docviewer.xml.JAXBLoader;
+
+/**
+ * Benchmark of the parsing of summary and search pages: compares the time
+ * taken to read the documents of the data directory using JAXB.unmarshal()
+ * (a new Unmarshaller per page) and using JAXBLoader (shared JAXBContext and
+ * per-thread Unmarshaller). This is not a unit test: run its main method from
+ * the project directory.
+ */
+public class JAXBLoaderBenchmark {
+  private static final int WARMUP = 200;
+  private static final int PAGES = 1000;
+
+  private static final Object[][] FILES = {
+      { "data/ebi_docsum_prot.xml", WsResult.class },
+      { "data/ebi_search_prot.xml", WsResult.class },
+      { "data/ensembl_opt.xml", Opt.class },
+      { "data/ensembl_opt_variants.xml", Opt.class },
+      { "data/ncbi_docsum_prot.xml", ESummaryResult.class },
+      { "data/ncbi_docsum_nuc.xml", ESummaryResult.class },
+      { "data/ncbi_idList_p1.xml", ESearchResult.class } };
+
+  private static long runJAXB(byte[] data, Class<?> type, int pages) throws Exception {
+    long tim = System.nanoTime();
+    for (int i = 0; i < pages; i++) {
+      // same XML parser, so that only JAXB setup differs
+      JAXB.unmarshal(new SAXSource(JAXBLoader.getXMLReader(), new InputSource(new ByteArrayInputStream(data))), type);
+    }
+    return System.nanoTime() - tim;
+  }
+
+  private static long runJAXBLoader(byte[] data, Class<?> type, int pages) {
+    long tim = System.nanoTime();
+    for (int i = 0; i < pages; i++) {
+      JAXBLoader.unmarshal(new StreamSource(new ByteArrayInputStream(data)), type);
+    }
+    return System.nanoTime() - tim;
+  }
+
+  public static void main(String[] args) throws Exception {
+    byte[] data;
+    Class<?> type;
+    long before, after;
+
+    System.out.println("file\tbefore (us/page)\tafter (us/page)\tspeedup");
+    for (Object[] file : FILES) {
+      data = Files.readAllBytes(Paths.get((String) file[0]));
+      type = (Class<?>) file[1];
+      try {
+        runJAXB(data, type, WARMUP);
+        runJAXBLoader(data, type, WARMUP);
+        before = runJAXB(data, type, PAGES) / PAGES / 1000;
+        after = runJAXBLoader(data, type, PAGES) / PAGES / 1000;
+        System.out.println(String.format("%s\t%d\t%d\t%.1fx", file[0], before, after,
+            (double) before / Math.max(1, after)));
+      } catch (RuntimeException e) {
+        Throwable cause = e;
+        while (cause.getCause() != null)
+          cause = cause.getCause();
+        System.out.println(file[0] + "\tskipped: " + cause);
+      }
+    }
+  }
+}
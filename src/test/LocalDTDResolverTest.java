@@ -0,0 +1,63 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.Reader;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import bzh.plealog.bioinfo.docviewer.xml.LocalDTDResolver;
+
+public class LocalDTDResolverTest {
+  private static final String ESEARCH_DTD = "https://eutils.ncbi.nlm.nih.gov/eutils/dtd/20060628/esearch.dtd";
+  private static final String CLINVAR_DTD = "https://eutils.ncbi.nlm.nih.gov/eutils/dtd/20151105/esummary_clinvar.dtd";
+
+  @Test
+  public void testCatalog() throws Exception {
+    InputSource source = new LocalDTDResolver(true).resolveEntity("-//NLM//DTD esearch 20060628//EN", ESEARCH_DTD);
+
+    assertNotNull(source);
+    assertNotNull(source.getByteStream());
+    assertEquals(ESEARCH_DTD, source.getSystemId());
+    source.getByteStream().close();
+  }
+
+  @Test
+  public void testUnknownDTD() throws Exception {
+    InputSource source = new LocalDTDResolver(false).resolveEntity(null, CLINVAR_DTD);
+    Reader reader = source.getCharacterStream();
+
+    assertNotNull(reader);
+    assertEquals(-1, reader.read());
+  }
+
+  @Test
+  public void testFailFast() throws Exception {
+    try {
+      new LocalDTDResolver(true).resolveEntity(null, CLINVAR_DTD);
+      fail("unknown DTD accepted");
+    } catch (SAXException e) {
+      // expected
+    }
+  }
+}
@@ -85,5 +85,14 @@ public class NCBIESearchTest {
     assertTrue(s.getId(0).equals("446868675"));
     assertTrue(s.getId(99).equals("742272596"));
   }
+  @Test
+  public void testHistory() {
+    Search s = EntrezSearchLoader.load(new File("./data/ncbi_idList_history.xml"));
+    assertTrue(s.getError() == null);
+    assertTrue(s.getTotal()==37533);
+    assertTrue(s.getIds().size()==3);
+    assertTrue("1".equals(s.getQueryKey()));
+    assertTrue("MCID_5f3b8c2e1a2b3c4d5e6f7a8b".equals(s.getWebEnv()));
+  }
 
 }
@@ -19,7 +19,11 @@ package test;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -29,6 +33,7 @@ import org.junit.Test;
 
 import bzh.plealog.bioinfo.docviewer.api.Summary;
 import bzh.plealog.bioinfo.docviewer.api.SummaryDoc;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocListener;
 import bzh.plealog.bioinfo.docviewer.service.ncbi.model.EntrezSummaryLoader;
 
 public class NCBIESummaryTest {
@@ -92,6 +97,40 @@ public class NCBIESummaryTest {
       System.out.println(String.format("%s:%s",key, sdoc.getValue(key)));
     }
   }
-  
-  
+
+  @Test
+  public void testOrganismList() {
+    //List item: text read from its sub-items
+    Summary s = EntrezSummaryLoader.load(new File("./data/ncbi_docsum_struct.xml"));
+    SummaryDoc sdoc = s.getDoc(0);
+    assertTrue(sdoc.getValue("Accession").equals("1EJG"));
+    assertTrue(sdoc.getValue("Organism").equals("Crambe hispanica subsp. abyssinica"));
+  }
+
+  @Test
+  public void testError() {
+    Summary s = EntrezSummaryLoader.load(new File("./data/ncbi_docsum_error.xml"));
+    assertTrue(s.getDocs().isEmpty());
+    assertTrue(s.getError().equals("Invalid uid 0 at position=0"));
+    //not an eSummary v1 document
+    s = EntrezSummaryLoader.load(new File("./data/clinvar_esummary_sample.xml"));
+    assertTrue(s.getError()!=null);
+  }
+
+  @Test
+  public void testListener() throws Exception {
+    final List<SummaryDoc> docs = new ArrayList<>();
+    Summary s;
+    try (InputStream is = new FileInputStream("./data/ncbi_docsum_nuc.xml")) {
+      s = EntrezSummaryLoader.load(is, new SummaryDocListener() {
+        public void docRead(SummaryDoc doc) {
+          docs.add(doc);
+        }
+      });
+    }
+    assertTrue(s.getError()==null);
+    assertTrue(s.getDocs().isEmpty());
+    assertTrue(docs.size()==2);
+    assertTrue(docs.get(1).getId()!=null);
+  }
 }
@@ -0,0 +1,70 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.docviewer.api.QueryExecutor;
+
+public class QueryExecutorTest {
+
+  @Test
+  public void testSubmit() throws Exception {
+    CompletableFuture<Integer> f1 = QueryExecutor.submit(() -> 1);
+    CompletableFuture<Integer> f2 = QueryExecutor.submit(() -> 2);
+    assertEquals(3, f1.thenCombine(f2, Integer::sum).get(5, TimeUnit.SECONDS).intValue());
+
+    CompletableFuture<Integer> f3 = QueryExecutor.submit(() -> {
+      throw new IllegalStateException("failed");
+    });
+    try {
+      f3.get(5, TimeUnit.SECONDS);
+      assertTrue(false);
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+
+    CompletableFuture<String> f = QueryExecutor.submit(() -> {
+      started.countDown();
+      try {
+        Thread.sleep(10000);
+      } catch (InterruptedException e) {
+        interrupted.countDown();
+      }
+      return "done";
+    }, (value) -> interrupted.countDown());
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertTrue(f.cancel(true));
+    // running call has been interrupted
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    assertTrue(f.isCancelled());
+  }
+}
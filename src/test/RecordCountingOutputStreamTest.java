@@ -0,0 +1,63 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.docviewer.fetcher.RecordCountingOutputStream;
+
+public class RecordCountingOutputStreamTest {
+
+  private static final String GENBANK = "LOCUS       AB000001\nDEFINITION  LOCUS of something.\n//\r\n"
+      + "LOCUS       AB000002\n//\n\nLOCU\nLOCUS       AB000003\n//\n";
+
+  @Test
+  public void testCount() throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte[] data = GENBANK.getBytes(StandardCharsets.US_ASCII);
+
+    // write data using chunks of all sizes, so that seeds span several writes
+    for (int chunk = 1; chunk <= data.length; chunk++) {
+      bos.reset();
+      try (RecordCountingOutputStream os = new RecordCountingOutputStream(bos, "LOCUS")) {
+        for (int i = 0; i < data.length; i += chunk) {
+          os.write(data, i, Math.min(chunk, data.length - i));
+        }
+        assertEquals(3, os.getRecords());
+        assertEquals(data.length, os.getSize());
+      }
+      assertArrayEquals(data, bos.toByteArray());
+    }
+  }
+
+  @Test
+  public void testSmallData() throws Exception {
+    RecordCountingOutputStream os = new RecordCountingOutputStream(new ByteArrayOutputStream(), ">");
+    os.write('>');
+    os.write('\n');
+    assertEquals(0, os.getRecords());
+    os.write(">a\n".getBytes(StandardCharsets.US_ASCII));
+    assertEquals(2, os.getRecords());
+    os.close();
+  }
+}
@@ -0,0 +1,96 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.SocketTimeoutException;
+
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.docviewer.api.QueryEngineException;
+import bzh.plealog.bioinfo.docviewer.fetcher.RetryPolicy;
+import bzh.plealog.bioinfo.docviewer.http.HTTPEngineException;
+
+public class RetryPolicyTest {
+
+  @Test
+  public void testClassify() {
+    assertTrue(RetryPolicy.classify(new HTTPEngineException("", "", 429)) == RetryPolicy.ErrorType.THROTTLED);
+    assertTrue(RetryPolicy.classify(new HTTPEngineException("", "", 503)) == RetryPolicy.ErrorType.THROTTLED);
+    assertTrue(RetryPolicy.classify(new HTTPEngineException("", "", 500)) == RetryPolicy.ErrorType.SERVER);
+    assertTrue(RetryPolicy.classify(new HTTPEngineException("", "", 404)) == RetryPolicy.ErrorType.CLIENT);
+    assertTrue(RetryPolicy.classify(new HTTPEngineException("", "", HTTPEngineException.HTTPEX_TIMEOUT)) == RetryPolicy.ErrorType.TIMEOUT);
+    assertTrue(RetryPolicy.classify(new SocketTimeoutException()) == RetryPolicy.ErrorType.TIMEOUT);
+    assertTrue(RetryPolicy.classify(new QueryEngineException("bad answer")) == RetryPolicy.ErrorType.PARSE);
+    assertTrue(RetryPolicy.classify(new HTTPEngineException("", "", HTTPEngineException.HTTPEX_READ_ERROR)) == RetryPolicy.ErrorType.IO);
+    assertTrue(RetryPolicy.classify(new HTTPEngineException("", "", HTTPEngineException.HTTPEX_WRITE_FILE_ERROR)) == RetryPolicy.ErrorType.LOCAL);
+    assertTrue(RetryPolicy.classify(new HTTPEngineException("", "", HTTPEngineException.HTTPEX_INTERRUPTED)) == RetryPolicy.ErrorType.LOCAL);
+  }
+
+  @Test
+  public void testLocalError() {
+    RetryPolicy policy = new RetryPolicy(4, 10, 100, 10000);
+    RetryPolicy.RetryState retry;
+
+    // local errors are never retried
+    retry = policy.newRetryState();
+    assertFalse(retry.canRetry(new HTTPEngineException("", "", HTTPEngineException.HTTPEX_WRITE_FILE_ERROR)));
+    retry = policy.newRetryState();
+    assertFalse(retry.canRetry(new HTTPEngineException("", "", HTTPEngineException.HTTPEX_INTERRUPTED)));
+
+    // interrupted wait: give up and keep interrupted status
+    retry = policy.newRetryState();
+    assertTrue(retry.canRetry(new HTTPEngineException("", "", 429, 500)));
+    Thread.currentThread().interrupt();
+    try {
+      assertFalse(retry.waitBeforeRetry(null));
+      assertTrue(Thread.currentThread().isInterrupted());
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  public void testRetry() {
+    RetryPolicy policy = new RetryPolicy(4, 10, 100, 10000);
+    RetryPolicy.RetryState retry;
+
+    // client errors are never retried
+    retry = policy.newRetryState();
+    assertFalse(retry.canRetry(new HTTPEngineException("", "", 400)));
+
+    // max attempts
+    retry = policy.newRetryState();
+    assertTrue(retry.canRetry(new HTTPEngineException("", "", 500)));
+    assertTrue(retry.getDelay() <= 10);
+    assertTrue(retry.canRetry(new HTTPEngineException("", "", 500)));
+    assertTrue(retry.getDelay() <= 20);
+    assertTrue(retry.canRetry(new HTTPEngineException("", "", 500)));
+    assertFalse(retry.canRetry(new HTTPEngineException("", "", 500)));
+
+    // server delay is honoured
+    retry = policy.newRetryState();
+    assertTrue(retry.canRetry(new HTTPEngineException("", "", 429, 2000)));
+    assertTrue(retry.getDelay() == 2000);
+
+    // elapsed time budget
+    retry = policy.newRetryState();
+    assertFalse(retry.canRetry(new HTTPEngineException("", "", 429, 20000)));
+  }
+}
@@ -0,0 +1,87 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.docviewer.fetcher.StreamFetchMonitor;
+
+public class StreamFetchMonitorTest {
+
+  private static String[] run(StreamFetchMonitor monitor, ByteArrayOutputStream out) {
+    monitor.startJob();
+    monitor.setTotSteps(10);
+    monitor.addSteps(4);
+    monitor.setMessage("two\tlines\nof text");
+    monitor.addSteps(6);
+    monitor.jobDone();
+    return new String(out.toByteArray()).split(System.lineSeparator());
+  }
+
+  @Test
+  public void testEvents() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StreamFetchMonitor monitor = new StreamFetchMonitor(new PrintStream(out), 0);
+    String[] lines = run(monitor, out);
+
+    assertEquals(6, lines.length);
+    assertEquals("start", lines[0]);
+    assertEquals("total\t10", lines[1]);
+    assertTrue(lines[2].startsWith("progress\t4\t10\t40\t"));
+    assertEquals("message\ttwo lines of text", lines[3]);
+    assertTrue(lines[4].startsWith("progress\t10\t10\t100\t"));
+    assertTrue(lines[5].startsWith("done\tok\t10\t10\t"));
+    // no need to wait for someone to read the messages
+    assertFalse(monitor.isInteractive());
+  }
+
+  @Test
+  public void testPause() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StreamFetchMonitor monitor = new StreamFetchMonitor(new PrintStream(out), 60000);
+
+    monitor.startJob();
+    monitor.setTotSteps(10);
+    // progress is throttled, except for the first and last steps
+    monitor.addSteps(4);
+    monitor.addSteps(4);
+    // nobody can restart the job
+    monitor.pauseJob();
+    assertTrue(monitor.interruptProcessing());
+    monitor.jobDone();
+    String[] lines = new String(out.toByteArray()).split(System.lineSeparator());
+    assertEquals(6, lines.length);
+    assertTrue(lines[2].startsWith("progress\t4\t10\t40\t"));
+    assertEquals("pause", lines[3]);
+    assertEquals("cancel", lines[4]);
+    assertTrue(lines[5].startsWith("done\tcancelled\t8\t10\t"));
+
+    out.reset();
+    monitor = new StreamFetchMonitor(new PrintStream(out), 0);
+    monitor.setAutoRestart(true);
+    monitor.pauseJob();
+    assertFalse(monitor.interruptProcessing());
+    assertFalse(monitor.isPaused());
+  }
+}
@@ -0,0 +1,137 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Hashtable;
+
+import bzh.plealog.bioinfo.docviewer.api.SummaryDoc;
+import bzh.plealog.bioinfo.docviewer.service.ncbi.model.EntrezSummaryLoader;
+
+/**
+ * Benchmark of the storage of summary documents: compares the heap used by
+ * 100,000 NCBI-like protein documents stored in one Hashtable per document
+ * (former SummaryDoc) and in schema-indexed SummaryDoc objects, and the time
+ * taken to read their lengths. This is not a unit test: run its main method,
+ * preferably with a fixed heap size, e.g. -Xms512m -Xmx512m.
+ */
+public class SummaryDocBenchmark {
+  private static final int DOCS = 100000;
+  private static final String[] ORGANISMS = { "Homo sapiens", "Mus musculus", "Rattus norvegicus",
+      "Danio rerio", "Escherichia coli", "Saccharomyces cerevisiae" };
+
+  private interface Store {
+    Object create(int i);
+
+    int getLength(Object doc);
+  }
+
+  private static final Store HASHTABLE = new Store() {
+    public Object create(int i) {
+      Hashtable<String, String> doc = new Hashtable<>();
+      String[] values = getValues(i);
+      for (int j = 0; j < values.length; j += 2) {
+        doc.put(values[j], values[j + 1]);
+      }
+      return doc;
+    }
+
+    @SuppressWarnings("unchecked")
+    public int getLength(Object doc) {
+      String data = ((Hashtable<String, String>) doc).get("Length");
+      return data != null ? Integer.valueOf(data) : 0;
+    }
+  };
+
+  private static final Store SCHEMA = new Store() {
+    public Object create(int i) {
+      SummaryDoc doc = new SummaryDoc(EntrezSummaryLoader.SCHEMA);
+      String[] values = getValues(i);
+      for (int j = 0; j < values.length; j += 2) {
+        doc.add(values[j], values[j + 1]);
+      }
+      return doc;
+    }
+
+    public int getLength(Object doc) {
+      return ((SummaryDoc) doc).getInt("Length", 0);
+    }
+  };
+
+  /**
+   * Return key/value pairs of a document. Values are new String objects, as
+   * produced by an XML parser.
+   */
+  private static String[] getValues(int i) {
+    return new String[] { "Accession", "P" + (10000 + i), "Identifier", String.valueOf(408359984 + i),
+        "Description", "RecName: Full=Protein number " + i, "Organism", new String(ORGANISMS[i % ORGANISMS.length]),
+        "Length", String.valueOf(100 + i % 2000), "TaxId", String.valueOf(9606 + i % 6),
+        "CreateDate", String.format("%04d/%02d/%02d", 1989 + i % 28, 1 + i % 12, 1 + i % 28),
+        "UpdateDate", String.format("%04d/%02d/%02d", 2010 + i % 7, 1 + i % 12, 1 + i % 28) };
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    long used = 0;
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP)
+        used += pool.getUsage().getUsed();
+    }
+    return used;
+  }
+
+  private static void run(String name, Store store, boolean print) throws InterruptedException {
+    Object[] docs = new Object[DOCS];
+    long base, heap, tim, total = 0;
+
+    base = usedHeap();
+    for (int i = 0; i < DOCS; i++) {
+      docs[i] = store.create(i);
+    }
+    heap = usedHeap() - base;
+
+    // warm up, then measure
+    for (int r = 0; r < 10; r++) {
+      for (Object doc : docs)
+        total += store.getLength(doc);
+    }
+    tim = System.nanoTime();
+    for (int r = 0; r < 10; r++) {
+      for (Object doc : docs)
+        total += store.getLength(doc);
+    }
+    tim = (System.nanoTime() - tim) / 10 / 1000;
+
+    if (print)
+      System.out.println(String.format("%s\t%d\t%d\t(%d)", name, heap / 1024, tim, total));
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.println(String.format("%d documents", DOCS));
+    System.out.println("storage\theap (Kb)\tread lengths (us)");
+    // warm up: one-time allocations are not measured
+    run("Hashtable", HASHTABLE, false);
+    run("Schema", SCHEMA, false);
+    run("Hashtable", HASHTABLE, true);
+    run("Schema", SCHEMA, true);
+  }
+}
@@ -0,0 +1,125 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Hashtable;
+
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.docviewer.api.SummaryDoc;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema;
+import bzh.plealog.bioinfo.docviewer.api.SummaryDocSchema.ColumnType;
+
+public class SummaryDocTest {
+
+  private static SummaryDocSchema newSchema() {
+    return new SummaryDocSchema()
+        .addColumn("Accession", ColumnType.TEXT)
+        .addColumn("Length", ColumnType.INT)
+        .addColumn("Organism", ColumnType.SHARED_TEXT)
+        .addColumn("CreateDate", ColumnType.DATE);
+  }
+
+  @Test
+  public void testTypedValues() {
+    SummaryDoc doc = new SummaryDoc(newSchema());
+
+    doc.add("Accession", "P12265");
+    doc.add("Length", "648");
+    doc.add("CreateDate", "1989/10/01");
+    assertEquals("P12265", doc.getValue("Accession"));
+    assertEquals("648", doc.getValue("Length"));
+    assertEquals(648, doc.getInt("Length", 0));
+    assertEquals("1989/10/01", doc.getValue("CreateDate"));
+    assertEquals(19891001l, doc.getLong("CreateDate", 0));
+    assertEquals(3, doc.size());
+    assertNull(doc.getValue("Organism"));
+    assertEquals(-1, doc.getInt("Organism", -1));
+    assertNull(doc.getValue("Unknown"));
+  }
+
+  @Test
+  public void testTextFallback() {
+    SummaryDoc doc = new SummaryDoc(newSchema());
+
+    // not canonical numbers/dates are kept as is
+    doc.add("Length", "0648");
+    doc.add("CreateDate", "2000/03/02 00:00");
+    assertEquals("0648", doc.getValue("Length"));
+    assertEquals(648, doc.getInt("Length", 0));
+    assertEquals("2000/03/02 00:00", doc.getValue("CreateDate"));
+    assertEquals(0, doc.getLong("CreateDate", 0));
+    // then replaced by a number
+    doc.add("Length", "12");
+    assertEquals("12", doc.getValue("Length"));
+    assertEquals(2, doc.size());
+  }
+
+  @Test
+  public void testSchema() {
+    SummaryDocSchema schema = newSchema();
+    SummaryDoc doc1 = new SummaryDoc(schema);
+    SummaryDoc doc2 = new SummaryDoc(schema);
+    Hashtable<String, String> values;
+
+    doc1.add("Organism", new String("Homo sapiens"));
+    doc2.add("Organism", new String("Homo sapiens"));
+    assertTrue(doc1.getValue("Organism") == doc2.getValue("Organism"));
+
+    // keys not declared in the schema are added to it
+    doc1.add("Status", "reviewed");
+    assertEquals("reviewed", doc1.getValue("Status"));
+    assertNull(doc2.getValue("Status"));
+    assertEquals(5, schema.size());
+
+    values = doc1.getValues();
+    assertEquals(2, values.size());
+    assertTrue(values.containsKey("Status"));
+    doc2.setValues(values);
+    assertEquals("reviewed", doc2.getValue("Status"));
+    assertEquals(2, doc2.size());
+    doc2.clear();
+    assertEquals(0, doc2.size());
+  }
+
+  @Test
+  public void testAddedColumnsLimit() {
+    SummaryDocSchema schema = newSchema();
+    SummaryDoc doc = new SummaryDoc(schema);
+
+    for (int i = 0; i < SummaryDocSchema.MAX_ADDED_COLUMNS; i++) {
+      doc.add("key" + i, "value" + i);
+    }
+    assertEquals(4 + SummaryDocSchema.MAX_ADDED_COLUMNS, schema.size());
+    // schema is full: the document keeps other values on its own
+    doc.add("extra", "12");
+    assertEquals(4 + SummaryDocSchema.MAX_ADDED_COLUMNS, schema.size());
+    assertNull(schema.getColumn("extra"));
+    assertEquals("12", doc.getValue("extra"));
+    assertEquals(12, doc.getInt("extra", 0));
+    assertEquals(1 + SummaryDocSchema.MAX_ADDED_COLUMNS, doc.size());
+    assertTrue(doc.getValues().containsKey("extra"));
+    assertNull(new SummaryDoc(schema).getValue("extra"));
+    doc.clear();
+    assertEquals(0, doc.size());
+    assertNull(doc.getValue("extra"));
+  }
+}
@@ -0,0 +1,97 @@
+/* Copyright (C) 2006-2016 Patrick G. Durand
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  You may obtain a copy of the License at
+ *
+ *     https://www.gnu.org/licenses/agpl-3.0.txt
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ */
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Test;
+
+import bzh.plealog.bioinfo.docviewer.http.TempResource;
+import bzh.plealog.bioinfo.docviewer.http.TempResourceManager;
+
+public class TempResourceTest {
+
+  private static byte[] read(TempResource res) throws Exception {
+    byte[] data = new byte[(int) res.length()];
+    int n, total = 0;
+    try (InputStream is = res.getInputStream()) {
+      while (total < data.length && (n = is.read(data, total, data.length - total)) != -1) {
+        total += n;
+      }
+      assertEquals(-1, is.read());
+    }
+    return data;
+  }
+
+  @Test
+  public void testSpill() throws Exception {
+    int threshold = TempResourceManager.getSpillThreshold();
+    long live = TempResourceManager.getLiveBytes();
+    byte[] chunk = new byte[1000];
+    File f;
+
+    for (int i = 0; i < chunk.length; i++) {
+      chunk[i] = (byte) i;
+    }
+    TempResourceManager.setSpillThreshold(2500);
+    try (TempResource res = TempResourceManager.create("test")) {
+      try (OutputStream os = res.getOutputStream()) {
+        os.write(chunk);
+        os.write(chunk);
+        assertTrue(res.isInMemory());
+        os.write(chunk);
+        assertFalse(res.isInMemory());
+        os.write(chunk);
+      }
+      assertEquals(4000, res.length());
+      assertEquals(live + 4000, TempResourceManager.getLiveBytes());
+      byte[] data = read(res);
+      for (int i = 0; i < data.length; i++) {
+        assertEquals(chunk[i % chunk.length], data[i]);
+      }
+      f = res.getFile();
+      assertEquals(4000, f.length());
+    } finally {
+      TempResourceManager.setSpillThreshold(threshold);
+    }
+    assertFalse(f.exists());
+    assertEquals(live, TempResourceManager.getLiveBytes());
+  }
+
+  @Test
+  public void testInMemory() throws Exception {
+    File f;
+    try (TempResource res = TempResourceManager.create("test")) {
+      try (OutputStream os = res.getOutputStream()) {
+        os.write("hello".getBytes());
+      }
+      assertTrue(res.isInMemory());
+      assertEquals("hello", new String(read(res)));
+      // legacy APIs may need a file
+      f = res.getFile();
+      assertFalse(res.isInMemory());
+      assertEquals(5, f.length());
+    }
+    assertFalse(f.exists());
+  }
+}